@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CollectionTypeAdaptersTest extends TestsWithContext {
+  private CollectionPipe pipe;
+
+  @Before
+  @Override
+  public void setup() {
+    super.setup();
+    pipe = context.evaluate("" +
+      "a = {\n" +
+      "  list: function(a) { return a },\n" +
+      "  set: function(a) { return a },\n" +
+      "  objectMap: function(a) { return a },\n" +
+      "  map: function(a) { return a },\n" +
+      "  describeSet: function(a) { return Object.prototype.toString.call(a) + a.size },\n" +
+      "  describeObjectMap: function(a) { return Object.prototype.toString.call(a) + a.size },\n" +
+      "  describeMap: function(a) { return Object.prototype.toString.call(a) + a.size },\n" +
+      "}", "test.js", CollectionPipe.class);
+  }
+
+  @Test
+  public void list() {
+    assertThat(pipe.list(Arrays.asList("a", null, "c"))).containsExactly("a", null, "c");
+  }
+
+  @Test
+  public void list_empty() {
+    assertThat(pipe.list(Collections.emptyList())).isEmpty();
+  }
+
+  @Test
+  public void list_null() {
+    assertThat(pipe.list(null)).isNull();
+  }
+
+  @Test
+  public void list_fromSet() {
+    List<Integer> list = context.evaluate("new Set([1, 2, 2, 3])", "test.js",
+        JavaTypes.newParameterizedType(List.class, Integer.class));
+    assertThat(list).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void list_view() {
+    List<String> list = Arrays.asList("a", "b");
+    context.getGlobalObject().setProperty("view", context.createJSListView(list, String.class));
+    assertSame(list, context.evaluate("view", "test.js", JavaTypes.newParameterizedType(List.class, String.class)));
+  }
+
+  @Test
+  public void set() {
+    Set<Integer> set = new LinkedHashSet<>(Arrays.asList(3, 1, 2));
+    assertThat(pipe.set(set)).containsExactly(3, 1, 2);
+    assertEquals("[object Set]3", pipe.describeSet(set));
+  }
+
+  @Test
+  public void objectMap() {
+    Map<String, Integer> map = new LinkedHashMap<>();
+    map.put("a", 1);
+    map.put("b", null);
+    assertEquals(map, pipe.objectMap(map));
+    assertEquals("[object Object]undefined", pipe.describeObjectMap(map));
+  }
+
+  @Test
+  public void objectMap_fromMap() {
+    Map<String, String> map = context.evaluate("new Map([['a', 'x'], ['b', 'y']])", "test.js",
+        JavaTypes.newParameterizedType(Map.class, String.class, String.class));
+    assertEquals("x", map.get("a"));
+    assertEquals("y", map.get("b"));
+  }
+
+  @Test
+  public void map() {
+    Map<Integer, String> map = new HashMap<>();
+    map.put(1, "a");
+    map.put(2, "b");
+    assertEquals(map, pipe.map(map));
+    assertEquals("[object Map]2", pipe.describeMap(map));
+  }
+
+  @Test
+  public void map_null() {
+    assertThat(pipe.map(null)).isNull();
+  }
+
+  private interface CollectionPipe {
+    List<String> list(List<String> a);
+    Set<Integer> set(Set<Integer> a);
+    Map<String, Integer> objectMap(Map<String, Integer> a);
+    Map<Integer, String> map(Map<Integer, String> a);
+    String describeSet(Set<Integer> a);
+    String describeObjectMap(Map<String, Integer> a);
+    String describeMap(Map<Integer, String> a);
+  }
+}
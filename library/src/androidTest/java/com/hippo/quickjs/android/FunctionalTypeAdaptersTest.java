@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import androidx.test.filters.SdkSuppress;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+// java.util.function is added in API 24
+@SdkSuppress(minSdkVersion = 24)
+public class FunctionalTypeAdaptersTest extends TestsWithContext {
+
+  private <T> T evaluate(String script, Type type) {
+    return context.evaluate(script, "test.js", type);
+  }
+
+  @Test
+  public void primitiveSpecializations() {
+    IntPredicate even = evaluate("(function(x) { return x % 2 === 0; })", IntPredicate.class);
+    assertTrue(even.test(4));
+    assertFalse(even.test(3));
+
+    IntBinaryOperator add = evaluate("(function(a, b) { return a + b; })", IntBinaryOperator.class);
+    assertEquals(5, IntStream.rangeClosed(2, 3).reduce(0, add));
+
+    DoubleUnaryOperator half = evaluate("(function(x) { return x / 2; })", DoubleUnaryOperator.class);
+    assertEquals(1.25, half.applyAsDouble(2.5), 0.0);
+
+    LongSupplier big = evaluate("(function() { return 1e15; })", LongSupplier.class);
+    assertEquals(1000000000000000L, big.getAsLong());
+  }
+
+  @Test
+  public void generics() {
+    Function<String, Integer> length = evaluate("(function(s) { return s.length; })",
+        JavaTypes.newParameterizedType(Function.class, String.class, Integer.class));
+    List<Integer> lengths = Arrays.asList("a", "bb", "ccc").stream().map(length).collect(Collectors.toList());
+    assertThat(lengths).containsExactly(1, 2, 3);
+
+    Predicate<String> empty = evaluate("(function(s) { return s === ''; })",
+        JavaTypes.newParameterizedType(Predicate.class, String.class));
+    assertTrue(empty.test(""));
+
+    BiFunction<Integer, Double, String> format = evaluate("(function(a, b) { return a + ':' + b; })",
+        JavaTypes.newParameterizedType(BiFunction.class, Integer.class, Double.class, String.class));
+    assertEquals("1:2.5", format.apply(1, 2.5));
+
+    ToIntFunction<int[]> sum = evaluate("(function(a) { return a.reduce(function(x, y) { return x + y; }, 0); })",
+        JavaTypes.newParameterizedType(ToIntFunction.class, int[].class));
+    assertEquals(6, sum.applyAsInt(new int[] { 1, 2, 3 }));
+
+    Supplier<String> hello = evaluate("(function() { return 'hello'; })",
+        JavaTypes.newParameterizedType(Supplier.class, String.class));
+    assertEquals("hello", hello.get());
+  }
+
+  @Test
+  public void consumer() {
+    context.evaluate("var received = [];", "test.js");
+    Consumer<String> consumer = evaluate("(function(s) { received.push(s); })",
+        JavaTypes.newParameterizedType(Consumer.class, String.class));
+    Arrays.asList("a", "b").forEach(consumer);
+    assertEquals("a,b", context.evaluate("received.join()", "test.js", String.class));
+  }
+
+  @Test
+  public void predicate_truthy() {
+    Predicate<String> found = evaluate("(function(s) { return 'abc'.indexOf(s) + 1; })",
+        JavaTypes.newParameterizedType(Predicate.class, String.class));
+    assertTrue(found.test("b"));
+    assertFalse(found.test("d"));
+
+    IntPredicate odd = evaluate("(function(x) { return x % 2; })", IntPredicate.class);
+    assertTrue(odd.test(3));
+    assertFalse(odd.test(4));
+  }
+
+  @Test
+  public void longResult_exact() {
+    LongSupplier bigInt = evaluate("(function() { return 9007199254740993n; })", LongSupplier.class);
+    assertEquals(9007199254740993L, bigInt.getAsLong());
+
+    LongUnaryOperator increment = evaluate("(function(x) { return BigInt(x) + 1n; })", LongUnaryOperator.class);
+    assertEquals(Long.MAX_VALUE, increment.applyAsLong(Long.MAX_VALUE - 1));
+
+    LongSupplier fraction = evaluate("(function() { return 1.5; })", LongSupplier.class);
+    Utils.assertException(
+      JSDataException.class,
+      "Can't treat 1.5 as long",
+      fraction::getAsLong
+    );
+
+    LongSupplier overflow = evaluate("(function() { return 2n ** 64n; })", LongSupplier.class);
+    Utils.assertException(
+      JSDataException.class,
+      "Can't treat BigInt as long",
+      overflow::getAsLong
+    );
+  }
+
+  @Test
+  public void roundTrip() {
+    TypeAdapter<IntPredicate> adapter = quickJS.getAdapter(IntPredicate.class);
+
+    JSFunction function = evaluate("(function(x) { return x > 0; })", JSFunction.class);
+    IntPredicate predicate = adapter.fromJSValue(context, function);
+    assertSame(function, adapter.toJSValue(context, predicate));
+
+    // Java implementations are exposed as objects with the method
+    IntPredicate negative = x -> x < 0;
+    context.getGlobalObject().setProperty("negative", adapter.toJSValue(context, negative));
+    assertTrue(context.evaluate("negative.test(-1)", "test.js", boolean.class));
+    assertSame(negative, adapter.fromJSValue(context, context.getGlobalObject().getProperty("negative")));
+  }
+}
@@ -110,6 +110,50 @@ public class InterfaceTypeAdapterTest extends TestsWithContext {
     assertEquals(a / b, context.evaluate("calculator.divides(" + a + ", " + b + ")", "test.js", double.class), 0.0);
   }
 
+  @Test
+  public void toJSValue_sharedPrototype() {
+    TypeAdapter<Calculator> adapter = quickJS.getAdapter(Calculator.class);
+    context.getGlobalObject().setProperty("c1", adapter.toJSValue(context, new CalculatorImpl()));
+    context.getGlobalObject().setProperty("c2", adapter.toJSValue(context, new CalculatorImpl()));
+
+    assertTrue(context.evaluate("Object.getPrototypeOf(c1) === Object.getPrototypeOf(c2)", "test.js", boolean.class));
+    assertTrue(context.evaluate("c1.plus === c2.plus", "test.js", boolean.class));
+    assertEquals(3.0, context.evaluate("c2.plus(1, 2)", "test.js", double.class), 0.0);
+  }
+
+  @Test
+  public void toJSValue_sameObject_sameJSObject() {
+    TypeAdapter<Calculator> adapter = quickJS.getAdapter(Calculator.class);
+    Calculator calculator = new CalculatorImpl();
+    context.getGlobalObject().setProperty("c1", adapter.toJSValue(context, calculator));
+    context.getGlobalObject().setProperty("c2", adapter.toJSValue(context, calculator));
+    assertTrue(context.evaluate("c1 === c2", "test.js", boolean.class));
+  }
+
+  @Test
+  public void toJSValue_notJavaObjectReceiver_error() {
+    context.getGlobalObject().setProperty("calculator", quickJS.getAdapter(Calculator.class).toJSValue(context, new CalculatorImpl()));
+    try {
+      context.evaluate("calculator.plus.call({}, 1, 2)", "test.js", double.class);
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("TypeError: this is not a java object");
+    }
+  }
+
+  @Test
+  public void toJSValue_otherJavaObjectReceiver_error() {
+    context.getGlobalObject().setProperty("calculator", quickJS.getAdapter(Calculator.class).toJSValue(context, new CalculatorImpl()));
+    AtomicIntegerHolder holder = () -> new AtomicInteger(1);
+    context.getGlobalObject().setProperty("holder", quickJS.getAdapter(AtomicIntegerHolder.class).toJSValue(context, holder));
+    try {
+      context.evaluate("Object.getPrototypeOf(calculator).plus.call(holder, 1, 2)", "test.js", double.class);
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("TypeError: this is not an instance of the declaring class");
+    }
+  }
+
   @Test
   public void fromJSValue() {
     Calculator calculator = context.evaluate("" +
@@ -131,6 +175,20 @@ public class InterfaceTypeAdapterTest extends TestsWithContext {
     calculator.noop();
   }
 
+  @Test
+  public void fromJSValue_functionFetchedOnce() {
+    Calculator calculator = context.evaluate("" +
+      "count = 0;\n" +
+      "a = {\n" +
+      "  get plus() { count++; return function(a, b) { return a + b } }\n" +
+      "}", "test.js", Calculator.class);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i + 1.0, calculator.plus(i, 1), 0.0);
+    }
+    assertEquals(1, (int) context.evaluate("count", "test.js", int.class));
+  }
+
   @Test
   public void fromJSValue_notJSObject_error() {
     Utils.assertException(
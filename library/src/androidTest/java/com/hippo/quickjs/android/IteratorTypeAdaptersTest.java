@@ -0,0 +1,246 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import androidx.test.filters.SdkSuppress;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IteratorTypeAdaptersTest extends TestsWithContext {
+
+  private static final String GENERATOR = "" +
+      "var produced = 0;\n" +
+      "function* range(n) { for (var i = 0; i < n; i++) { produced++; yield i; } }\n";
+
+  private int produced() {
+    return context.evaluate("produced", "test.js", int.class);
+  }
+
+  @Test
+  public void asIteratorPullsChunks() {
+    context.evaluate(GENERATOR, "test.js");
+    JSValue generator = context.evaluate("range(1000)", "test.js", JSValue.class);
+
+    Iterator<Integer> iterator = generator.asIterator(Integer.class, 7);
+    assertTrue(iterator.hasNext());
+    assertEquals(0, (int) iterator.next());
+    assertEquals(7, produced());
+
+    int sum = 0;
+    while (iterator.hasNext()) sum += iterator.next();
+    assertEquals(999 * 1000 / 2, sum);
+    assertEquals(1000, produced());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void asIteratorOfIterables() {
+    JSValue array = context.evaluate("['a', 'b', 'c']", "test.js", JSValue.class);
+    assertThat(toList(array.<String>asIterator(String.class))).containsExactly("a", "b", "c");
+
+    JSValue set = context.evaluate("new Set([1, 2, 2, 3])", "test.js", JSValue.class);
+    assertThat(toList(set.<Integer>asIterator(Integer.class, 2))).containsExactly(1, 2, 3);
+
+    JSValue string = context.createJSString("hi");
+    assertThat(toList(string.<String>asIterator(String.class))).containsExactly("h", "i");
+  }
+
+  @Test
+  public void asIteratorExactChunk() {
+    JSValue array = context.evaluate("[1, 2, 3, 4]", "test.js", JSValue.class);
+    assertThat(toList(array.<Integer>asIterator(Integer.class, 2))).containsExactly(1, 2, 3, 4);
+  }
+
+  @Test
+  public void notIterable() {
+    try {
+      context.createJSObject().asIterator(Integer.class);
+      fail();
+    } catch (JSEvaluationException e) {
+      assertTrue(e.getMessage().startsWith("TypeError: value is not iterable"));
+    }
+  }
+
+  @Test
+  public void generatorThrows() {
+    JSValue generator = context.evaluate("(function*() { yield 1; throw new Error('x'); })()", "test.js", JSValue.class);
+    Iterator<Integer> iterator = generator.asIterator(Integer.class, 4);
+    try {
+      iterator.hasNext();
+      fail();
+    } catch (JSEvaluationException e) {
+      assertTrue(e.getMessage().startsWith("Error: x"));
+    }
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void closeCallsReturn() {
+    context.evaluate("" +
+        "var closed = false;\n" +
+        "function* guarded() { try { yield 1; yield 2; } finally { closed = true; } }\n", "test.js");
+
+    JSIterator<Integer> iterator = context.evaluate("guarded()", "test.js", JSValue.class)
+        .asIterator(Integer.class, 1);
+    assertEquals(1, (int) iterator.next());
+    assertFalse(context.evaluate("closed", "test.js", boolean.class));
+    iterator.close();
+    assertTrue(context.evaluate("closed", "test.js", boolean.class));
+    assertFalse(iterator.hasNext());
+
+    // Closing an exhausted iterator calls nothing
+    iterator = context.evaluate("guarded()", "test.js", JSValue.class).asIterator(Integer.class);
+    assertThat(toList(iterator)).containsExactly(1, 2);
+    context.evaluate("closed = false", "test.js");
+    iterator.close();
+    assertFalse(context.evaluate("closed", "test.js", boolean.class));
+  }
+
+  @SdkSuppress(minSdkVersion = 24)
+  @Test
+  public void streamCloseCallsReturn() {
+    context.evaluate("" +
+        "var closed = false;\n" +
+        "function* guarded() { try { yield 1; yield 2; } finally { closed = true; } }\n", "test.js");
+
+    Type type = JavaTypes.newParameterizedType(Stream.class, Integer.class);
+    try (Stream<Integer> stream = context.evaluate("guarded()", "test.js", type)) {
+      assertEquals(1, (int) stream.findFirst().get());
+    }
+    assertTrue(context.evaluate("closed", "test.js", boolean.class));
+  }
+
+  @SdkSuppress(minSdkVersion = 24)
+  @Test
+  public void breakClosesStream() {
+    Type type = JavaTypes.newParameterizedType(Stream.class, Integer.class);
+    TypeAdapter<Stream<Integer>> adapter = quickJS.getAdapter(type);
+
+    AtomicBoolean closed = new AtomicBoolean();
+    Stream<Integer> stream = IntStream.range(0, 1000).boxed().onClose(() -> closed.set(true));
+    context.getGlobalObject().setProperty("stream", adapter.toJSValue(context, stream));
+    assertEquals(0, (int) context.evaluate("var first; for (var x of stream) { first = x; break; } first", "test.js", int.class));
+    assertTrue(closed.get());
+  }
+
+  @Test
+  public void breakClosesCloseableIterator() {
+    Type type = JavaTypes.newParameterizedType(Iterator.class, Integer.class);
+    TypeAdapter<Iterator<Integer>> adapter = quickJS.getAdapter(type);
+
+    context.evaluate("" +
+        "var closed = false;\n" +
+        "function* endless() { try { for (var i = 0; ; i++) yield i; } finally { closed = true; } }\n", "test.js");
+    // A JavaScript iterator through java and back
+    Iterator<Integer> iterator = context.evaluate("endless()", "test.js", type);
+    context.getGlobalObject().setProperty("numbers", adapter.toJSValue(context, iterator));
+    assertTrue(context.evaluate("for (var x of numbers) break; closed", "test.js", boolean.class));
+  }
+
+  @Test
+  public void fromJSValue() {
+    Type type = JavaTypes.newParameterizedType(Iterator.class, String.class);
+    Iterator<String> iterator = context.evaluate("new Set(['a', 'b'])", "test.js", type);
+    assertThat(toList(iterator)).containsExactly("a", "b");
+
+    Type iterableType = JavaTypes.newParameterizedType(Iterable.class, Integer.class);
+    Iterable<Integer> iterable = context.evaluate("[1, 2]", "test.js", iterableType);
+    assertThat(toList(iterable.iterator())).containsExactly(1, 2);
+    assertThat(toList(iterable.iterator())).containsExactly(1, 2);
+  }
+
+  @Test
+  public void iteratorToJSValue() {
+    Type type = JavaTypes.newParameterizedType(Iterator.class, Integer.class);
+    TypeAdapter<Iterator<Integer>> adapter = quickJS.getAdapter(type);
+
+    Iterator<Integer> iterator = RangeIterator.range(200);
+    context.getGlobalObject().setProperty("numbers", adapter.toJSValue(context, iterator));
+    assertEquals(199 * 200 / 2, (int) context.evaluate(
+        "var sum = 0; for (var x of numbers) sum += x; sum", "test.js", int.class));
+    assertFalse(iterator.hasNext());
+    // It's done
+    assertEquals(0, (int) context.evaluate("[...numbers].length", "test.js", int.class));
+  }
+
+  @Test
+  public void iterableToJSValue() {
+    Type type = JavaTypes.newParameterizedType(Iterable.class, String.class);
+    TypeAdapter<Iterable<String>> adapter = quickJS.getAdapter(type);
+
+    context.getGlobalObject().setProperty("names", adapter.toJSValue(context, Arrays.asList("a", "b")));
+    assertEquals("a,b|a,b", context.evaluate("[...names].join() + '|' + Array.from(names).join()", "test.js", String.class));
+  }
+
+  @SdkSuppress(minSdkVersion = 24)
+  @Test
+  public void stream() {
+    Type type = JavaTypes.newParameterizedType(Stream.class, Integer.class);
+    Stream<Integer> stream = context.evaluate("(function*() { yield 1; yield 2; yield 3; })()", "test.js", type);
+    assertEquals(Arrays.asList(2, 4, 6), stream.map(x -> x * 2).collect(Collectors.toList()));
+
+    TypeAdapter<Stream<Integer>> adapter = quickJS.getAdapter(type);
+    context.getGlobalObject().setProperty("stream", adapter.toJSValue(context, IntStream.range(0, 100).boxed()));
+    assertEquals(100, (int) context.evaluate("[...stream].length", "test.js", int.class));
+  }
+
+  private static <T> List<T> toList(Iterator<T> iterator) {
+    List<T> list = new ArrayList<>();
+    while (iterator.hasNext()) list.add(iterator.next());
+    return list;
+  }
+
+  private static final class RangeIterator implements Iterator<Integer> {
+
+    private final int end;
+    private int next;
+
+    private RangeIterator(int end) {
+      this.end = end;
+    }
+
+    static Iterator<Integer> range(int end) {
+      return new RangeIterator(end);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < end;
+    }
+
+    @Override
+    public Integer next() {
+      return next++;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSBatchTest extends TestsWithContext {
+
+  @Test
+  public void buildGraph() {
+    JSBatch batch = context.createBatch();
+    int root = batch.createObject();
+    int items = batch.createArray();
+    batch.setProperty(root, "name", batch.createString("root"));
+    batch.setProperty(root, "items", items);
+    for (int i = 0; i < 1000; i++) {
+      int item = batch.createObject();
+      batch.setProperty(item, "id", batch.createNumber(i));
+      batch.setProperty(item, "weight", batch.createNumber(i / 2.0));
+      batch.setProperty(item, "odd", batch.createBoolean(i % 2 == 1));
+      batch.append(items, item);
+    }
+
+    JSValue[] values = batch.execute(root, items);
+    assertEquals(2, values.length);
+    context.getGlobalObject().setProperty("root", values[0]);
+    assertEquals("root", context.evaluate("root.name", "test.js", String.class));
+    assertEquals(1000, (int) context.evaluate("root.items.length", "test.js", int.class));
+    assertEquals(499.5, context.evaluate("root.items[999].weight", "test.js", double.class), 0.0);
+    assertTrue(context.evaluate("root.items[999].odd && root.items[999].id === 999", "test.js", boolean.class));
+    assertEquals(1000, values[1].cast(JSArray.class).getLength());
+  }
+
+  @Test
+  public void callFunctions() {
+    context.evaluate("function add(a, b) { return a + b; }", "test.js");
+    JSValue base = context.createJSNumber(40);
+
+    JSBatch batch = context.createBatch();
+    int add = batch.getProperty(batch.getGlobalObject(), "add");
+    int sum = batch.call(add, JSBatch.NO_HANDLE, batch.addValue(base), batch.createNumber(2));
+    int text = batch.call(add, JSBatch.NO_HANDLE, batch.createString("a"), batch.createNull());
+
+    JSValue[] values = batch.execute(sum, text);
+    assertEquals(42, values[0].cast(JSNumber.class).getInt());
+    assertEquals("anull", values[1].cast(JSString.class).getString());
+  }
+
+  @Test
+  public void setElement() {
+    JSBatch batch = context.createBatch();
+    int array = batch.createArray();
+    batch.setElement(array, 2, batch.createUndefined());
+    batch.setElement(array, 0, batch.createNumber(1));
+
+    JSArray result = batch.execute(array)[0].cast(JSArray.class);
+    assertEquals(3, result.getLength());
+    assertEquals(1, result.getProperty(0).cast(JSNumber.class).getInt());
+  }
+
+  @Test
+  public void executeTwice() {
+    JSBatch batch = context.createBatch();
+    int object = batch.createObject();
+
+    JSValue first = batch.execute(object)[0];
+    JSValue second = batch.execute(object)[0];
+    context.getGlobalObject().setProperty("a", first);
+    context.getGlobalObject().setProperty("b", second);
+    assertFalse(context.evaluate("a === b", "test.js", boolean.class));
+  }
+
+  @Test
+  public void exception() {
+    context.evaluate("function fail() { throw new Error('x'); }", "test.js");
+    JSBatch batch = context.createBatch();
+    int fail = batch.getProperty(batch.getGlobalObject(), "fail");
+    int result = batch.call(fail, JSBatch.NO_HANDLE);
+
+    try {
+      batch.execute(result);
+      fail();
+    } catch (JSEvaluationException e) {
+      assertTrue(e.getMessage().startsWith("Error: x\n"));
+    }
+  }
+
+  @Test
+  public void invalidHandle() {
+    JSBatch batch = context.createBatch();
+    batch.createObject();
+    try {
+      batch.setProperty(0, "a", 1);
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Invalid handle: 1", e.getMessage());
+    }
+  }
+}
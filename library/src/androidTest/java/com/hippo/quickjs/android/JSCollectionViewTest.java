@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSCollectionViewTest extends TestsWithContext {
+
+  @Test
+  public void listView() {
+    List<String> list = new ArrayList<>(Arrays.asList("a", "b", "c"));
+    context.getGlobalObject().setProperty("list", context.createJSListView(list, String.class));
+
+    assertEquals(3, (int) context.evaluate("list.length", "test.js", int.class));
+    assertEquals("b", context.evaluate("list[1]", "test.js", String.class));
+    assertEquals("a,b,c", context.evaluate("list.join()", "test.js", String.class));
+    assertEquals("A-B-C", context.evaluate("list.map(e => e.toUpperCase()).join('-')", "test.js", String.class));
+    assertTrue(context.evaluate("1 in list", "test.js", boolean.class));
+    assertFalse(context.evaluate("3 in list", "test.js", boolean.class));
+    assertEquals("0,1,2", context.evaluate("Object.keys(list).join()", "test.js", String.class));
+
+    // Changes are visible in both sides
+    context.evaluate("list[0] = 'x'; list[3] = 'd'", "test.js");
+    assertEquals(Arrays.asList("x", "b", "c", "d"), list);
+    list.add("e");
+    assertEquals(5, (int) context.evaluate("list.length", "test.js", int.class));
+    assertEquals("e", context.evaluate("list[4]", "test.js", String.class));
+
+    // Array.prototype methods modify the list
+    context.evaluate("list.push('f'); list.pop(); list.pop(); list.shift(); list.splice(1, 1)", "test.js");
+    assertEquals(Arrays.asList("b", "d"), list);
+  }
+
+  @Test
+  public void listViewReadOnly() {
+    List<String> list = Collections.singletonList("a");
+    context.getGlobalObject().setProperty("list", context.createJSListView(list, String.class));
+
+    try {
+      context.evaluate("list[0] = 'b'", "test.js");
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).contains("TypeError");
+    }
+    assertEquals(Collections.singletonList("a"), list);
+  }
+
+  @Test
+  public void prototypeGetter_receiver() {
+    List<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+    context.getGlobalObject().setProperty("list", context.createJSListView(list, String.class));
+    context.evaluate("Object.defineProperty(Array.prototype, 'last', { get: function() { return this[this.length - 1]; } })", "test.js");
+
+    assertEquals("b", context.evaluate("list.last", "test.js", String.class));
+    list.add("c");
+    assertEquals("c", context.evaluate("list.last", "test.js", String.class));
+  }
+
+  @Test
+  public void mapView() {
+    Map<String, Integer> map = new LinkedHashMap<>();
+    map.put("a", 1);
+    map.put("b", 2);
+    context.getGlobalObject().setProperty("map", context.createJSMapView(map, Integer.class));
+
+    assertEquals(2, (int) context.evaluate("map.b", "test.js", int.class));
+    assertTrue(context.evaluate("'a' in map", "test.js", boolean.class));
+    assertFalse(context.evaluate("'c' in map", "test.js", boolean.class));
+    assertEquals("a,b", context.evaluate("Object.keys(map).join()", "test.js", String.class));
+    assertEquals("[object Object]", context.evaluate("map.toString()", "test.js", String.class));
+
+    context.evaluate("map.c = 3; delete map.a", "test.js");
+    assertEquals(2, map.size());
+    assertEquals(3, (int) map.get("c"));
+    assertFalse(map.containsKey("a"));
+  }
+
+  @Test
+  public void unwrap() {
+    List<String> list = new ArrayList<>();
+    JSObject view = context.createJSListView(list, String.class);
+    assertSame(list, view.getJavaObject());
+  }
+
+  @Test
+  public void asList() {
+    JSArray array = context.evaluate("[1, 2, 3]", "test.js", JSArray.class);
+    List<Integer> list = array.asList(Integer.class);
+
+    assertEquals(Arrays.asList(1, 2, 3), list);
+    list.set(0, 4);
+    list.add(5);
+    assertEquals(5, (int) list.remove(3));
+    assertEquals("[4,2,3]", stringify(array));
+  }
+
+  @Test
+  public void asMap() {
+    JSObject object = context.evaluate("({ a: 'x', b: 'y' })", "test.js", JSObject.class);
+    Map<String, String> map = object.asMap(String.class);
+
+    assertEquals(2, map.size());
+    assertEquals("x", map.get("a"));
+    assertFalse(map.containsKey("toString"));
+
+    map.put("c", "z");
+    map.remove("a");
+    assertEquals("{\"b\":\"y\",\"c\":\"z\"}", stringify(object));
+  }
+
+  @Test
+  public void asMap_nonEnumerable() {
+    JSObject object = context.evaluate("Object.defineProperty({ a: 'x' }, 'hidden', { value: 'y' })", "test.js", JSObject.class);
+    Map<String, String> map = object.asMap(String.class);
+
+    assertEquals(1, map.size());
+    assertEquals(map.size(), map.keySet().size());
+    assertFalse(map.containsKey("hidden"));
+    assertNull(map.get("hidden"));
+    assertEquals(Collections.singleton("a"), map.keySet());
+  }
+
+  private String stringify(JSValue value) {
+    return context.getGlobalObject().getProperty("JSON").cast(JSObject.class)
+        .getProperty("stringify").cast(JSFunction.class)
+        .invoke(null, new JSValue[] { value }).cast(JSString.class).getString();
+  }
+}
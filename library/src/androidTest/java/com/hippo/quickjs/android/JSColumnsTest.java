@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSColumnsTest extends TestsWithContext {
+
+  @Test
+  public void createColumns() {
+    JSObject columns = context.createJSColumns(
+        new String[] { "id", "time", "weight", "price" },
+        new Object[] { new int[] { 1, 2, 3 }, new long[] { 1L << 40, -1 }, new float[] { 0.5f }, new double[] { 1.25, 2.5 } });
+    context.getGlobalObject().setProperty("c", columns);
+
+    assertTrue(context.evaluate("c.id instanceof Int32Array && c.id.length === 3 && c.id[2] === 3", "test.js", boolean.class));
+    assertTrue(context.evaluate("c.time instanceof BigInt64Array && c.time[0] === 2n ** 40n && c.time[1] === -1n", "test.js", boolean.class));
+    assertTrue(context.evaluate("c.weight instanceof Float32Array && c.weight[0] === 0.5", "test.js", boolean.class));
+    assertTrue(context.evaluate("c.price instanceof Float64Array && c.price[1] === 2.5", "test.js", boolean.class));
+  }
+
+  @Test
+  public void shareDirectBuffers() {
+    DoubleBuffer buffer = ByteBuffer.allocateDirect(8 * 4).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    buffer.put(new double[] { 1, 2, 3, 4 });
+    buffer.position(1);
+
+    JSObject columns = context.createJSColumns(new String[] { "x" }, new Object[] { buffer });
+    context.getGlobalObject().setProperty("c", columns);
+    assertEquals(3, (int) context.evaluate("c.x.length", "test.js", int.class));
+
+    // Writes from JavaScript are visible in Java
+    context.evaluate("c.x[0] = 20;", "test.js");
+    assertEquals(20, buffer.get(1), 0.0);
+  }
+
+  @Test
+  public void wrapHeapBuffers() {
+    IntBuffer buffer = IntBuffer.wrap(new int[] { 1, 2, 3, 4 }, 2, 2);
+    JSObject columns = context.createJSColumns(new String[] { "x" }, new Object[] { buffer });
+    context.getGlobalObject().setProperty("c", columns);
+    assertEquals("3,4", context.evaluate("Array.from(c.x).join()", "test.js", String.class));
+  }
+
+  @Test
+  public void rejectForeignByteOrder() {
+    ByteOrder order = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    DoubleBuffer buffer = ByteBuffer.allocateDirect(8).order(order).asDoubleBuffer();
+    try {
+      context.createJSColumns(new String[] { "x" }, new Object[] { buffer });
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Ignore
+    }
+  }
+
+  @Test
+  public void rejectUnsupportedColumns() {
+    try {
+      context.createJSColumns(new String[] { "x" }, new Object[] { new short[1] });
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Unsupported column type: [S", e.getMessage());
+    }
+  }
+
+  @Test
+  public void readTypedArrays() {
+    JSObject result = context.evaluate("var r = {" +
+        "  id: new Int32Array([4, 5, 6])," +
+        "  time: new BigInt64Array([-(2n ** 40n)])," +
+        "  weight: new Float32Array([1.5, 2.5]).subarray(1)," +
+        "  price: new Float64Array([0.1, 0.2])" +
+        "}; r", "test.js", JSObject.class);
+
+    Object[] columns = result.getColumns(
+        new String[] { "id", "time", "weight", "price" },
+        new Class<?>[] { int[].class, long[].class, float[].class, double[].class });
+    assertArrayEquals(new int[] { 4, 5, 6 }, (int[]) columns[0]);
+    assertArrayEquals(new long[] { -(1L << 40) }, (long[]) columns[1]);
+    assertArrayEquals(new float[] { 2.5f }, (float[]) columns[2], 0.0f);
+    assertArrayEquals(new double[] { 0.1, 0.2 }, (double[]) columns[3], 0.0);
+  }
+
+  @Test
+  public void readArrays() {
+    JSObject result = context.evaluate("({ a: [1, 2.5, '3'], b: new Float64Array([7, 8]), c: [10n, 11] })", "test.js", JSObject.class);
+
+    Object[] columns = result.getColumns(
+        new String[] { "a", "b", "c" },
+        new Class<?>[] { double[].class, int[].class, long[].class });
+    assertArrayEquals(new double[] { 1, 2.5, 3 }, (double[]) columns[0], 0.0);
+    assertArrayEquals(new int[] { 7, 8 }, (int[]) columns[1]);
+    assertArrayEquals(new long[] { 10, 11 }, (long[]) columns[2]);
+  }
+
+  @Test
+  public void roundTrip() {
+    double[] prices = new double[10000];
+    for (int i = 0; i < prices.length; i++) prices[i] = i * 0.5;
+    JSObject input = context.createJSColumns(new String[] { "price" }, new Object[] { prices });
+    JSFunction scale = context.evaluate("(function(c) { return { price: c.price.map(function(p) { return p * 2; }) }; })", "test.js", JSFunction.class);
+
+    JSObject output = scale.invoke(null, new JSValue[] { input }).cast(JSObject.class);
+    double[] scaled = (double[]) output.getColumns(new String[] { "price" }, new Class<?>[] { double[].class })[0];
+    assertEquals(prices.length, scaled.length);
+    for (int i = 0; i < prices.length; i++) assertEquals(i, scaled[i], 0.0);
+  }
+
+  @Test
+  public void readMissingColumn() {
+    JSObject result = context.evaluate("({})", "test.js", JSObject.class);
+    try {
+      result.getColumns(new String[] { "x" }, new Class<?>[] { double[].class });
+      fail();
+    } catch (JSEvaluationException e) {
+      // Ignore
+    }
+  }
+}
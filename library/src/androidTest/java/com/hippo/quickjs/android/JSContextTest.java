@@ -67,6 +67,48 @@ public class JSContextTest extends TestsWithContext {
     );
   }
 
+  @Test
+  public void evaluate_throwError_lazyStack() {
+    try {
+      context.evaluate("throw new Error('x')", "unknown.js");
+      fail();
+    } catch (JSEvaluationException e) {
+      JSException jsException = e.getJSException();
+      assertTrue(jsException.isError());
+      assertEquals("Error: x", jsException.getException());
+      assertEquals("    at <eval> (unknown.js)\n", jsException.getStack());
+      assertEquals("Error: x\n    at <eval> (unknown.js)\n", e.getMessage());
+    }
+  }
+
+  @Test
+  public void evaluate_throwError_contextClosed_noStack() {
+    try {
+      context.evaluate("throw new Error('x')", "unknown.js");
+      fail();
+    } catch (JSEvaluationException e) {
+      context.close();
+      assertNull(e.getJSException().getStack());
+      assertEquals("Error: x\n", e.getMessage());
+    }
+  }
+
+  @Test
+  public void evaluate_javaStackTraceDisabled_noStackTrace() {
+    QuickJS quickJS = new QuickJS.Builder().setJavaStackTraceEnabled(false).build();
+    try (JSRuntime runtime = quickJS.createJSRuntime()) {
+      try (JSContext context = runtime.createJSContext()) {
+        try {
+          context.evaluate("throw 1", "unknown.js");
+          fail();
+        } catch (JSEvaluationException e) {
+          assertEquals(0, e.getStackTrace().length);
+          assertEquals("Throw: 1\n", e.getMessage());
+        }
+      }
+    }
+  }
+
   @Test
   public void executePendingJob_noPendingJob_false() {
     context.evaluate("1", "unknown.js");
@@ -332,7 +374,16 @@ public class JSContextTest extends TestsWithContext {
 
   @Test
   public void createJSFunction() throws InvocationTargetException, IllegalAccessException {
-    QuickJS quickJS = new QuickJS.Builder().registerTypeAdapter(StringHolder.class, new TypeAdapter<StringHolder>() {
+    testCreateJSFunction(false);
+  }
+
+  @Test
+  public void createJSFunction_upcallDispatcher() throws InvocationTargetException, IllegalAccessException {
+    testCreateJSFunction(true);
+  }
+
+  private void testCreateJSFunction(boolean upcallDispatcherEnabled) throws InvocationTargetException, IllegalAccessException {
+    QuickJS quickJS = new QuickJS.Builder().setUpcallDispatcherEnabled(upcallDispatcherEnabled).registerTypeAdapter(StringHolder.class, new TypeAdapter<StringHolder>() {
       @Override
       public JSValue toJSValue(JSContext context, StringHolder value) {
         return context.createJSString(value.str);
@@ -376,7 +427,16 @@ public class JSContextTest extends TestsWithContext {
 
   @Test
   public void createJSFunctionS() throws InvocationTargetException, IllegalAccessException {
-    QuickJS quickJS = new QuickJS.Builder().registerTypeAdapter(StringHolder.class, new TypeAdapter<StringHolder>() {
+    testCreateJSFunctionS(false);
+  }
+
+  @Test
+  public void createJSFunctionS_upcallDispatcher() throws InvocationTargetException, IllegalAccessException {
+    testCreateJSFunctionS(true);
+  }
+
+  private void testCreateJSFunctionS(boolean upcallDispatcherEnabled) throws InvocationTargetException, IllegalAccessException {
+    QuickJS quickJS = new QuickJS.Builder().setUpcallDispatcherEnabled(upcallDispatcherEnabled).registerTypeAdapter(StringHolder.class, new TypeAdapter<StringHolder>() {
       @Override
       public JSValue toJSValue(JSContext context, StringHolder value) {
         return context.createJSString(value.str);
@@ -490,4 +550,199 @@ public class JSContextTest extends TestsWithContext {
     assertEquals(2, context.getGlobalObject().getProperty("a").cast(JSNumber.class).getInt());
     assertFalse(context.executePendingJob());
   }
+
+  @Test
+  public void createJSFunction_afterAnotherContextCreated() {
+    JSFunction plus = context.createJSFunction((context, args) ->
+      context.createJSNumber(args[0].cast(JSNumber.class).getInt() + args[1].cast(JSNumber.class).getInt()));
+    context.getGlobalObject().setProperty("plus", plus);
+    JSObject holder = context.createJSObject(this);
+
+    for (int i = 0; i < 10; i++) {
+      try (JSContext other = runtime.createJSContext()) {
+        JSFunction otherPlus = other.createJSFunction((context, args) -> context.createJSNumber(0));
+        other.getGlobalObject().setProperty("plus", otherPlus);
+      }
+    }
+
+    assertEquals(3, (int) context.evaluate("plus(1, 2)", "test.js", int.class));
+    assertSame(this, holder.getJavaObject());
+    context.getGlobalObject().setProperty("holder", holder);
+    assertSame(this, context.getGlobalObject().getProperty("holder").cast(JSObject.class).getJavaObject());
+  }
+
+  @Test
+  public void createJSObject_sameJavaObject_sharesSlot() {
+    Object object = new Object();
+    try (JSContext other = runtime.createJSContext()) {
+      JSObject a = other.createJSObject(object);
+      JSObject b = other.createJSObject(object);
+      other.createJSFunction(object, new JavaMethod(String.class, "toString", new Type[0]));
+      assertEquals(1, runtime.registry.size());
+      assertSame(object, a.getJavaObject());
+      assertSame(object, b.getJavaObject());
+    }
+    assertEquals(0, runtime.registry.size());
+  }
+
+  @Test
+  public void createJSFunction_outOfMemory_releasesSlot() {
+    JavaMethod method = new JavaMethod(String.class, "toString", new Type[0]);
+    // Create the method descriptor first
+    context.getGlobalObject().setProperty("f", context.createJSFunction(new Object(), method));
+    int size = runtime.registry.size();
+
+    runtime.setMallocLimit(1);
+    try {
+      context.createJSFunction(new Object(), method);
+      fail();
+    } catch (IllegalStateException | JSEvaluationException e) {
+      // Expected
+    } finally {
+      runtime.setMallocLimit(-1);
+    }
+    assertEquals(size, runtime.registry.size());
+  }
+
+  @Test
+  public void createJSObject_sameJavaObject_sameJSObject() {
+    Object object = new Object();
+    context.getGlobalObject().setProperty("a", context.createJSObject(object));
+    context.getGlobalObject().setProperty("b", context.createJSObject(object));
+    context.getGlobalObject().setProperty("c", context.createJSObject(new Object()));
+    assertTrue(context.evaluate("a === b", "test.js", boolean.class));
+    assertFalse(context.evaluate("a === c", "test.js", boolean.class));
+    assertEquals(2, runtime.registry.size());
+  }
+
+  @Test
+  public void createJSObject_sameJavaObject_perContext() {
+    Object object = new Object();
+    context.getGlobalObject().setProperty("a", context.createJSObject(object));
+    context.evaluate("a.tag = 'context'", "test.js");
+    try (JSContext other = runtime.createJSContext()) {
+      other.getGlobalObject().setProperty("a", other.createJSObject(object));
+      other.getGlobalObject().setProperty("b", other.createJSObject(object));
+      assertTrue(other.evaluate("a === b && a.tag === undefined", "test.js", boolean.class));
+    }
+    // The one of the closed context is not returned
+    try (JSContext other = runtime.createJSContext()) {
+      other.getGlobalObject().setProperty("a", other.createJSObject(object));
+      assertTrue(other.evaluate("a.tag === undefined", "test.js", boolean.class));
+    }
+    context.getGlobalObject().setProperty("b", context.createJSObject(object));
+    assertTrue(context.evaluate("a === b && b.tag === 'context'", "test.js", boolean.class));
+  }
+
+  public static class HostClass {
+    public int count = 1;
+    public String name = "host";
+    public final double ratio = 0.5;
+    public static int staticCount = 2;
+
+    public int plus(int a, int b) {
+      return a + b;
+    }
+
+    public void overload() { }
+
+    public void overload(int value) { }
+  }
+
+  @Test
+  public void createJSHostObject() {
+    HostClass host = new HostClass();
+    JSObject jo = context.createJSHostObject(host);
+    context.getGlobalObject().setProperty("host", jo);
+
+    assertSame(host, jo.getJavaObject());
+    assertEquals(1, (int) context.evaluate("host.count", "test.js", int.class));
+    assertEquals("host", context.evaluate("host.name", "test.js", String.class));
+    assertEquals(0.5, context.evaluate("host.ratio", "test.js", double.class), 0.0);
+    assertEquals(3, (int) context.evaluate("host.plus(1, 2)", "test.js", int.class));
+    assertTrue(context.evaluate("host.plus === host.plus", "test.js", boolean.class));
+    assertTrue(context.evaluate("'count' in host", "test.js", boolean.class));
+    assertFalse(context.evaluate("'staticCount' in host", "test.js", boolean.class));
+    assertTrue(context.evaluate("typeof host.overload === 'function'", "test.js", boolean.class));
+    assertTrue(context.evaluate("host.unknown === undefined", "test.js", boolean.class));
+
+    context.evaluate("host.count = 10; host.name = 'js'", "test.js");
+    assertEquals(10, host.count);
+    assertEquals("js", host.name);
+
+    try {
+      context.evaluate("host.ratio = 1", "test.js");
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("TypeError: The property of java object is read-only");
+    }
+  }
+
+  @Test
+  public void createJSHostObject_sharedMembers() {
+    context.getGlobalObject().setProperty("a", context.createJSHostObject(new HostClass()));
+    try (JSContext other = runtime.createJSContext()) {
+      other.getGlobalObject().setProperty("b", other.createJSHostObject(new HostClass()));
+      assertEquals(7, (int) other.evaluate("b.plus(3, 4)", "test.js", int.class));
+    }
+    assertEquals(5, (int) context.evaluate("a.plus(2, 3)", "test.js", int.class));
+  }
+
+  @Test
+  public void createJSHostObject_functionsOfOtherContext() {
+    JSObject a = context.createJSHostObject(new HostClass());
+    context.getGlobalObject().setProperty("a", a);
+    context.evaluate("var plus = a.plus", "test.js");
+    try (JSContext other = runtime.createJSContext()) {
+      other.getGlobalObject().setProperty("a", a);
+      assertTrue(other.evaluate("a.plus === a.plus", "test.js", boolean.class));
+      assertEquals(7, (int) other.evaluate("a.plus(3, 4)", "test.js", int.class));
+    }
+    // The function of this context is kept
+    assertTrue(context.evaluate("plus === a.plus", "test.js", boolean.class));
+    assertEquals(5, (int) context.evaluate("a.plus(2, 3)", "test.js", int.class));
+  }
+
+  @Test
+  public void createJSHostObject_prototypeMembers() {
+    context.getGlobalObject().setProperty("host", context.createJSHostObject(new HostClass()));
+    assertTrue(context.evaluate("Object.getPrototypeOf(host) === Object.prototype", "test.js", boolean.class));
+    assertEquals("[object Object]", context.evaluate("host.toString()", "test.js", String.class));
+    assertTrue(context.evaluate("host.valueOf() === host", "test.js", boolean.class));
+    assertTrue(context.evaluate("'hasOwnProperty' in host && !host.hasOwnProperty('toString')", "test.js", boolean.class));
+    assertTrue(context.evaluate("host.unknown === undefined && !('unknown' in host)", "test.js", boolean.class));
+  }
+
+  public static class OtherHostClass {
+    public int plus(int a, int b) {
+      return a - b;
+    }
+
+    public void overload() { }
+
+    public void overload(int value) { }
+  }
+
+  @Test
+  public void createJSHostObject_otherReceiver() {
+    context.getGlobalObject().setProperty("a", context.createJSHostObject(new HostClass()));
+    context.getGlobalObject().setProperty("b", context.createJSHostObject(new OtherHostClass()));
+    for (String script : new String[] { "a.plus.call(b, 1, 2)", "a.overload.call(b)" }) {
+      try {
+        context.evaluate(script, "test.js");
+        fail();
+      } catch (JSEvaluationException e) {
+        assertThat(e.getMessage()).startsWith("TypeError: this is not an instance of the declaring class");
+      }
+    }
+  }
+
+  @Test
+  public void createJSHostObject_keys() {
+    context.getGlobalObject().setProperty("host", context.createJSHostObject(new HostClass()));
+    assertEquals("count,name,overload,plus,ratio", context.evaluate("Object.keys(host).sort().join()", "test.js", String.class));
+    assertEquals("count,name,overload,plus,ratio", context.evaluate("var k = []; for (var key in host) k.push(key); k.sort().join()", "test.js", String.class));
+    assertTrue(context.evaluate("host.hasOwnProperty('count') && !host.hasOwnProperty('staticCount')", "test.js", boolean.class));
+    assertTrue(context.evaluate("var d = Object.getOwnPropertyDescriptor(host, 'ratio'); d.value === 0.5 && !d.writable", "test.js", boolean.class));
+  }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSDataTest {
+
+  private JSRuntime runtime;
+  private JSContext context;
+
+  @Before
+  public void setup() {
+    QuickJS quickJS = new QuickJS.Builder().registerTypeAdapterFactory(JSDataAdapters.FACTORY).build();
+    runtime = quickJS.createJSRuntime();
+    context = runtime.createJSContext();
+  }
+
+  @After
+  public void cleanup() {
+    context.close();
+    runtime.close();
+  }
+
+  @JSData
+  static class Point {
+    int x;
+    int y;
+  }
+
+  @JSData
+  static class Person {
+    private final String name;
+    private final int age;
+    private final String[] tags;
+    private final Point location;
+
+    Person(String name, int age, String[] tags, Point location) {
+      this.name = name;
+      this.age = age;
+      this.tags = tags;
+      this.location = location;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getAge() {
+      return age;
+    }
+
+    public String[] getTags() {
+      return tags;
+    }
+
+    public Point getLocation() {
+      return location;
+    }
+  }
+
+  @JSData
+  static class Node {
+    int value;
+    Node next;
+  }
+
+  @JSData
+  static class Switch {
+    private boolean on;
+    transient int ignored;
+
+    public boolean isOn() {
+      return on;
+    }
+
+    public void setOn(boolean on) {
+      this.on = on;
+    }
+  }
+
+  @Test
+  public void fields_toJSValue() {
+    Point point = new Point();
+    point.x = 1;
+    point.y = 2;
+    context.getGlobalObject().setProperty("point", context.getQuickJS().getAdapter(Point.class).toJSValue(context, point));
+    assertEquals("1,2", context.evaluate("point.x + ',' + point.y", "test.js", String.class));
+  }
+
+  @Test
+  public void fields_fromJSValue() {
+    Point point = context.evaluate("({ x: 1, y: 2 })", "test.js", Point.class);
+    assertEquals(1, point.x);
+    assertEquals(2, point.y);
+  }
+
+  @Test
+  public void constructorAndGetters() {
+    Person person = context.evaluate("" +
+      "({ name: 'Alice', age: 42, tags: ['a', 'b'], location: { x: 3, y: 4 } })", "test.js", Person.class);
+    assertEquals("Alice", person.getName());
+    assertEquals(42, person.getAge());
+    assertThat(person.getTags()).containsExactly("a", "b");
+    assertEquals(3, person.getLocation().x);
+    assertEquals(4, person.getLocation().y);
+
+    context.getGlobalObject().setProperty("person", context.getQuickJS().getAdapter(Person.class).toJSValue(context, person));
+    assertEquals("Alice 42 b 4", context.evaluate(
+      "person.name + ' ' + person.age + ' ' + person.tags[1] + ' ' + person.location.y", "test.js", String.class));
+  }
+
+  @Test
+  public void selfReference() {
+    Node node = context.evaluate("({ value: 1, next: { value: 2, next: null } })", "test.js", Node.class);
+    assertEquals(1, node.value);
+    assertEquals(2, node.next.value);
+    assertNull(node.next.next);
+  }
+
+  @Test
+  public void setters() {
+    Switch s = context.evaluate("({ on: true, ignored: 1 })", "test.js", Switch.class);
+    assertTrue(s.isOn());
+    assertEquals(0, s.ignored);
+
+    s.setOn(false);
+    context.getGlobalObject().setProperty("s", context.getQuickJS().getAdapter(Switch.class).toJSValue(context, s));
+    assertFalse(context.evaluate("s.on", "test.js", boolean.class));
+    assertFalse(context.evaluate("'ignored' in s", "test.js", boolean.class));
+  }
+
+  @Test
+  public void nullable() {
+    assertNull(context.evaluate("null", "test.js", Point.class));
+  }
+
+  @Test
+  public void missingProperty_error() {
+    Utils.assertException(
+      JSDataException.class,
+      "expected: JSNumber, actual: JSUndefined",
+      () -> context.evaluate("({ x: 1 })", "test.js", Point.class)
+    );
+  }
+
+  @Test
+  public void getProperties() {
+    JSPropertyKeys keys = JSPropertyKeys.of("a", "b", "c");
+    JSObject object = context.evaluate("({ a: 1, b: 'str' })", "test.js", JSObject.class);
+    JSValue[] values = object.getProperties(keys);
+    assertEquals(3, values.length);
+    assertEquals(1, values[0].cast(JSNumber.class).getInt());
+    assertEquals("str", values[1].cast(JSString.class).getString());
+    assertThat(values[2]).isInstanceOf(JSUndefined.class);
+  }
+
+  @Test
+  public void getProperties_getterThrows_error() {
+    JSPropertyKeys keys = JSPropertyKeys.of("a", "b");
+    JSObject object = context.evaluate("({ a: 1, get b() { throw new Error('b') } })", "test.js", JSObject.class);
+    try {
+      object.getProperties(keys);
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("Error: b");
+    }
+  }
+
+  @Ignore("There is no guarantee that this test will pass")
+  @Test
+  public void propertyKeysGC() {
+    JSObject object = context.createJSObject();
+    for (int i = 0; i < 3; i++) {
+      object.getProperties(JSPropertyKeys.of("a", "b"));
+    }
+    assertEquals(3, runtime.getPropertyKeysCount());
+
+    Runtime.getRuntime().gc();
+    Runtime.getRuntime().gc();
+
+    object.getProperties(JSPropertyKeys.of("a", "b"));
+    assertEquals(1, runtime.getPropertyKeysCount());
+  }
+
+  @Test
+  public void createJSObjectWithProperties() {
+    JSPropertyKeys keys = JSPropertyKeys.of("a", "b");
+    JSObject object = context.createJSObject(keys, new JSValue[] { context.createJSNumber(1), context.createJSString("str") });
+    context.getGlobalObject().setProperty("o", object);
+    assertEquals("1str", context.evaluate("o.a + o.b", "test.js", String.class));
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class JSExportTest extends TestsWithContext {
+
+  public static class Api {
+
+    @JSExport
+    public static final String VERSION = "1.0";
+
+    @JSExport("MAX")
+    static final int MAX_VALUE = 100;
+
+    private final String prefix;
+    private int count;
+
+    Api(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @JSExport
+    public int add(int a, int b) {
+      count++;
+      return a + b;
+    }
+
+    @JSExport
+    public String greet(String name) {
+      count++;
+      return prefix + name;
+    }
+
+    @JSExport
+    public void reset() {
+      count = 0;
+    }
+
+    @JSExport(getter = true)
+    public int getCount() {
+      return count;
+    }
+
+    @JSExport
+    public static double half(long value) {
+      return value / 2.0;
+    }
+
+    @JSExport
+    static long next(long value) {
+      return value + 1;
+    }
+
+    @JSExport("join")
+    static String joinAll(String[] values) {
+      StringBuilder sb = new StringBuilder();
+      for (String value : values) {
+        if (sb.length() != 0) sb.append("-");
+        sb.append(value);
+      }
+      return sb.toString();
+    }
+
+    @JSExport(getter = true)
+    static boolean isReady() {
+      return true;
+    }
+  }
+
+  public static class StaticApi {
+    @JSExport
+    static int twice(int value) {
+      return value * 2;
+    }
+  }
+
+  private JSObject bindApi(Api api) {
+    JSObject target = context.createJSObject();
+    context.bind(target, JSExportTest_Api_JSBinder.INSTANCE, api);
+    context.getGlobalObject().setProperty("api", target);
+    return target;
+  }
+
+  @Test
+  public void methods() {
+    Api api = new Api("Hello, ");
+    bindApi(api);
+    assertEquals(3, (int) context.evaluate("api.add(1, 2)", "test.js", int.class));
+    assertEquals("Hello, JS", context.evaluate("api.greet('JS')", "test.js", String.class));
+    assertEquals(2, api.count);
+    context.evaluate("api.reset()", "test.js");
+    assertEquals(0, api.count);
+  }
+
+  @Test
+  public void staticMethods() {
+    bindApi(new Api(""));
+    assertEquals(1.5, context.evaluate("api.half(3)", "test.js", double.class), 0.0);
+    assertEquals("a-b", context.evaluate("api.join(['a', 'b'])", "test.js", String.class));
+  }
+
+  @Test
+  public void longs() {
+    bindApi(new Api(""));
+    assertEquals(true, context.evaluate("api.next(1) === 2", "test.js", boolean.class));
+    assertEquals(true, context.evaluate("api.next(9007199254740992n) === 9007199254740993n", "test.js", boolean.class));
+    assertEquals(Long.MIN_VALUE, (long) context.evaluate("api.next(9223372036854775807n)", "test.js", long.class));
+  }
+
+  @Test
+  public void constants() {
+    bindApi(new Api(""));
+    assertEquals("1.0", context.evaluate("api.VERSION", "test.js", String.class));
+    assertEquals(100, (int) context.evaluate("api.MAX", "test.js", int.class));
+    // Constants are read-only
+    assertEquals(100, (int) context.evaluate("api.MAX = 1; api.MAX", "test.js", int.class));
+  }
+
+  @Test
+  public void getters() {
+    Api api = new Api("");
+    bindApi(api);
+    assertEquals(0, (int) context.evaluate("api.count", "test.js", int.class));
+    api.count = 5;
+    assertEquals(5, (int) context.evaluate("api.count", "test.js", int.class));
+    assertEquals(true, context.evaluate("api.ready", "test.js", boolean.class));
+  }
+
+  @Test
+  public void onlyStaticMembers_nullInstance() {
+    context.bind(context.getGlobalObject(), JSExportTest_StaticApi_JSBinder.INSTANCE, null);
+    assertEquals(6, (int) context.evaluate("twice(3)", "test.js", int.class));
+  }
+
+  @Test
+  public void instanceMembers_nullInstance_error() {
+    Utils.assertException(
+      NullPointerException.class,
+      "instance == null",
+      () -> context.bind(context.createJSObject(), JSExportTest_Api_JSBinder.INSTANCE, null)
+    );
+  }
+
+  @Test
+  public void sharedDispatch() {
+    Api api1 = new Api("1");
+    Api api2 = new Api("2");
+    JSObject target1 = context.createJSObject();
+    JSObject target2 = context.createJSObject();
+    context.bind(target1, JSExportTest_Api_JSBinder.INSTANCE, api1);
+    context.bind(target2, JSExportTest_Api_JSBinder.INSTANCE, api2);
+    context.getGlobalObject().setProperty("a", target1);
+    context.getGlobalObject().setProperty("b", target2);
+    assertEquals("1x2y", context.evaluate("a.greet('x') + b.greet('y')", "test.js", String.class));
+    assertFalse(context.evaluate("a.greet === b.greet", "test.js", boolean.class));
+  }
+
+  @Test
+  public void wrongArgumentCount_error() {
+    bindApi(new Api(""));
+    try {
+      context.evaluate("api.add(1)", "test.js");
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("InternalError: Catch java exception");
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSExpressionTest extends TestsWithContext {
+
+  @Test
+  public void evaluate() {
+    JSExpression expression = context.compileExpression("a * rate + fee", "a", "rate", "fee");
+    assertEquals(10.5, expression.evaluate(4, 2.5, 0.5).cast(JSNumber.class).getDouble(), 0.0);
+    assertEquals(9, expression.evaluate(4, 2, 1).cast(JSNumber.class).getInt());
+  }
+
+  @Test
+  public void evaluate_mixedArguments() {
+    JSExpression expression = context.compileExpression("[typeof a, typeof b, typeof c, typeof d, typeof e].join()", "a", "b", "c", "d", "e");
+    assertEquals("number,string,boolean,object,object",
+        expression.evaluateAs(String.class, 1, "s", true, null, context.createJSObject()));
+  }
+
+  @Test
+  public void evaluate_adapter() {
+    JSExpression expression = context.compileExpression("typeof r.run", "r");
+    Runnable runnable = () -> { };
+    assertEquals("function", expression.evaluateAs(String.class, runnable));
+  }
+
+  public interface Counter {
+    int count(int n);
+  }
+
+  @Test
+  public void evaluate_nested() {
+    JSExpression expression = context.compileExpression("n <= 0 ? 0 : n + c.count(n - 1)", "n", "c");
+    Counter[] counter = new Counter[1];
+    counter[0] = n -> expression.evaluateAs(int.class, n, counter[0]);
+    assertEquals(6, (int) expression.evaluateAs(int.class, 3, counter[0]));
+  }
+
+  @Test
+  public void evaluate_jsValue() {
+    JSExpression expression = context.compileExpression("list.length + list[0]", "list");
+    JSValue list = context.quickJS.getAdapter(new JavaType<List<Integer>>() {}.type).toJSValue(context, Arrays.asList(10, 2, 3));
+    assertEquals(13, (int) expression.evaluateAs(int.class, list));
+  }
+
+  @Test
+  public void evaluate_notLeakGlobals() {
+    JSExpression expression = context.compileExpression("a + 1", "a");
+    expression.evaluate(1);
+    assertTrue(context.evaluate("typeof a === 'undefined'", "test.js", boolean.class));
+  }
+
+  @Test
+  public void evaluate_lineComment() {
+    JSExpression expression = context.compileExpression("a + 1 // plus one", "a");
+    assertEquals(2, expression.evaluateInt(1));
+  }
+
+  @Test
+  public void evaluateTyped() {
+    JSExpression expression = context.compileExpression("a * rate + fee", "a", "rate", "fee");
+    assertEquals(10.5, expression.evaluateDouble(4, 2.5, 0.5), 0.0);
+    assertEquals(9, expression.evaluateInt(4, 2, 1));
+    assertEquals(9.0, expression.evaluateDouble(new JSArguments().add(4).add(2).add(1)), 0.0);
+
+    JSExpression greater = context.compileExpression("a > b", "a", "b");
+    assertTrue(greater.evaluateBoolean(2, 1));
+
+    JSExpression name = context.compileExpression("a > 0 ? 'positive' : null", "a");
+    assertEquals("positive", name.evaluateString(1));
+    assertNull(name.evaluateString(-1));
+  }
+
+  @Test
+  public void evaluate_wrongArgumentCount_error() {
+    JSExpression expression = context.compileExpression("a + b", "a", "b");
+    Utils.assertException(
+        IllegalArgumentException.class,
+        "Expected 2 arguments, but got 1",
+        () -> expression.evaluateDouble(1)
+    );
+  }
+
+  @Test
+  public void compileExpression_invalidParamName_error() {
+    Utils.assertException(
+        IllegalArgumentException.class,
+        "Invalid parameter name: a)",
+        () -> context.compileExpression("1", "a)")
+    );
+  }
+
+  @Test
+  public void compileExpression_syntaxError_error() {
+    try {
+      context.compileExpression("a +", "a");
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("SyntaxError");
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSFunctionTest extends TestsWithContext {
+
+  private JSFunction function(String source) {
+    return context.evaluate("(" + source + ")", "test.js", JSFunction.class);
+  }
+
+  @Test
+  public void invokeDouble() {
+    JSFunction price = function("function(a, rate, fee) { return a * rate + fee }");
+    assertEquals(10.5, price.invokeDouble(null, 4.0, 2.5, 0.5), 0.0);
+    assertEquals(9.0, price.invokeDouble(null, 4L, 2L, 1L), 0.0);
+  }
+
+  @Test
+  public void invokeDouble_notNumber_error() {
+    JSFunction f = function("function() { return 'a' }");
+    Utils.assertException(
+        JSDataException.class,
+        "Invalid JSValue tag for double: -7",
+        () -> f.invokeDouble(null)
+    );
+  }
+
+  @Test
+  public void invokeInt() {
+    JSFunction plus = function("function(a, b) { return a + b }");
+    assertEquals(3, plus.invokeInt(null, 1L, 2L));
+    assertEquals(3, plus.invokeInt(null, 1.5, 1.5));
+    Utils.assertException(
+        JSDataException.class,
+        "Can't treat 2.5 as int",
+        () -> plus.invokeInt(null, 1.0, 1.5)
+    );
+  }
+
+  @Test
+  public void invokeBoolean() {
+    JSFunction greater = function("function(a, b) { return a > b }");
+    assertTrue(greater.invokeBoolean(null, 2.0, 1.0));
+    assertFalse(greater.invokeBoolean(null, 1L, 2L));
+  }
+
+  @Test
+  public void invokeString() {
+    JSFunction f = function("function(a) { return a < 0 ? null : 'n' + a }");
+    assertEquals("n1", f.invokeString(null, 1L));
+    assertNull(f.invokeString(null, -1L));
+  }
+
+  @Test
+  public void invoke_arguments() {
+    JSFunction f = function("function() { return Array.prototype.map.call(arguments, function(a) { return typeof a + ':' + a }).join(',') }");
+    JSObject object = context.createJSObject();
+    JSArguments args = new JSArguments(1)
+        .add(true)
+        .add(1)
+        .add(9007199254740991L)
+        .add(1.5)
+        .add("str")
+        .add(object)
+        .addNull()
+        .addUndefined();
+    assertEquals(8, args.size());
+    assertEquals("boolean:true,number:1,number:9007199254740991,number:1.5,string:str,object:[object Object],object:null,undefined:undefined",
+        f.invokeString(null, args));
+
+    args.clear().add("reused");
+    assertEquals("string:reused", f.invokeString(null, args));
+  }
+
+  @Test
+  public void invoke_thisObj() {
+    JSFunction f = function("function(a) { return this.base + a }");
+    JSObject thisObj = context.createJSObject();
+    thisObj.setProperty("base", context.createJSNumber(10));
+    assertEquals(11, f.invokeInt(thisObj, 1L));
+  }
+
+  @Test
+  public void invoke_throw_error() {
+    JSFunction f = function("function() { throw new Error('failed') }");
+    try {
+      f.invokeDouble(null);
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("Error: failed");
+    }
+  }
+
+  @Test
+  public void invoke_noJSValueLeft() {
+    JSFunction plus = function("function(a, b) { return a + b }");
+    int count = context.getNotRemovedJSValueCount();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i + 1.0, plus.invokeDouble(null, i, 1.0), 0.0);
+    }
+    assertEquals(count, context.getNotRemovedJSValueCount());
+  }
+
+  @Test
+  public void invokeBatch_doubleColumns() {
+    JSFunction price = function("function(a, rate, fee) { return a * rate + fee }");
+    double[][] columns = {
+        { 1, 2, 3 },
+        { 2, 2, 2 },
+        { 0.5, 0.5, 0.5 }
+    };
+    double[] results = new double[3];
+    price.invokeBatch(null, columns, results);
+    assertArrayEquals(new double[] { 2.5, 4.5, 6.5 }, results, 0.0);
+  }
+
+  @Test
+  public void invokeBatch_intColumns() {
+    JSFunction plus = function("function(a, b) { return a + b }");
+    int[][] columns = { { 1, 2, 3 }, { 10, 20, 30 } };
+
+    int[] intResults = new int[3];
+    plus.invokeBatch(null, columns, intResults);
+    assertArrayEquals(new int[] { 11, 22, 33 }, intResults);
+
+    JSFunction greater = function("function(a, b) { return b > 15 }");
+    boolean[] booleanResults = new boolean[3];
+    greater.invokeBatch(null, columns, booleanResults);
+    assertArrayEquals(new boolean[] { false, true, true }, booleanResults);
+  }
+
+  @Test
+  public void invokeBatch_rows() {
+    JSFunction plus = function("function(a, b) { return a + b }");
+    ByteBuffer rows = ByteBuffer.allocateDirect(4 * 8).order(ByteOrder.nativeOrder());
+    rows.asDoubleBuffer().put(new double[] { 1, 2, 3, 4 });
+    double[] results = new double[2];
+    plus.invokeBatch(null, rows, 2, results);
+    assertArrayEquals(new double[] { 3, 7 }, results, 0.0);
+  }
+
+  @Test
+  public void invokeBatch_manyArguments() {
+    JSFunction sum = function("function() { var s = 0; for (var i = 0; i < arguments.length; i++) s += arguments[i]; return s }");
+
+    double[][] columns = new double[100][];
+    for (int i = 0; i < columns.length; i++) columns[i] = new double[] { i, 1 };
+    double[] results = new double[2];
+    sum.invokeBatch(null, columns, results);
+    assertArrayEquals(new double[] { 99 * 100 / 2, 100 }, results, 0.0);
+
+    ByteBuffer rows = ByteBuffer.allocateDirect(100 * 8).order(ByteOrder.nativeOrder());
+    for (int i = 0; i < 100; i++) rows.putDouble(i);
+    rows.flip();
+    double[] rowResults = new double[1];
+    sum.invokeBatch(null, rows, 100, rowResults);
+    assertEquals(99 * 100 / 2, rowResults[0], 0.0);
+  }
+
+  @Test
+  public void invokeBatch_rowsNotDirect_error() {
+    JSFunction plus = function("function(a, b) { return a + b }");
+    Utils.assertException(
+        IllegalArgumentException.class,
+        "rows must be a direct buffer",
+        () -> plus.invokeBatch(null, ByteBuffer.allocate(16), 2, new double[1])
+    );
+  }
+
+  @Test
+  public void invokeBatch_objectColumns() {
+    JSFunction f = function("function(name, count) { return name.length * count }");
+    Object[][] columns = { { "a", "bb", "ccc" }, { 1, 2.5, 3 } };
+    double[] results = new double[3];
+    f.invokeBatch(null, columns, results);
+    assertArrayEquals(new double[] { 1, 5, 9 }, results, 0.0);
+  }
+
+  @Test
+  public void invokeBatch_shortColumn_error() {
+    JSFunction plus = function("function(a, b) { return a + b }");
+    Utils.assertException(
+        IllegalArgumentException.class,
+        "Column length 1 < 2",
+        () -> plus.invokeBatch(null, new double[][] { { 1, 2 }, { 1 } }, new double[2])
+    );
+  }
+
+  @Test
+  public void invokeBatch_throw_keepFinishedResults() {
+    JSFunction f = function("function(a) { if (a > 1) throw new Error('too large'); return a }");
+    double[] results = new double[3];
+    try {
+      f.invokeBatch(null, new double[][] { { 0, 1, 2 } }, results);
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("Error: too large");
+    }
+    assertArrayEquals(new double[] { 0, 1, 0 }, results, 0.0);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSMemoizeTest extends TestsWithContext {
+
+  private JSFunction createCountingFunction(String body) {
+    context.evaluate("var calls = 0;", "test.js");
+    return context.evaluate("(function(a, b) { calls++; " + body + " })", "test.js", JSFunction.class);
+  }
+
+  private int calls() {
+    return context.evaluate("calls", "test.js", int.class);
+  }
+
+  @Test
+  public void hitsSkipFunction() {
+    JSFunction fn = context.memoize(createCountingFunction("return a + ':' + b;"), 16);
+
+    JSArguments args = new JSArguments().add(1).add("x");
+    assertEquals("1:x", fn.invokeString(null, args));
+    assertEquals("1:x", fn.invokeString(null, args));
+    assertEquals("2:x", fn.invokeString(null, new JSArguments().add(2).add("x")));
+    assertEquals(2, calls());
+
+    JSMemoStats stats = fn.getMemoStats();
+    assertEquals(1, stats.getHitCount());
+    assertEquals(2, stats.getMissCount());
+    assertEquals(2, stats.getSize());
+  }
+
+  @Test
+  public void hitsFromJavaScript() {
+    JSFunction fn = context.memoize(createCountingFunction("return a * 2;"), 16);
+    context.getGlobalObject().setProperty("twice", fn);
+
+    assertEquals(20, (int) context.evaluate("twice(10) + twice(10.0) - twice(10)", "test.js", int.class));
+    assertEquals(1, calls());
+    assertEquals("function", context.evaluate("typeof twice", "test.js", String.class));
+  }
+
+  @Test
+  public void keysAreTyped() {
+    JSFunction fn = context.memoize(createCountingFunction("return typeof a;"), 16);
+
+    assertEquals("number", fn.invokeString(null, new JSArguments().add(1)));
+    assertEquals("string", fn.invokeString(null, new JSArguments().add("1")));
+    assertEquals("boolean", fn.invokeString(null, new JSArguments().add(true)));
+    assertEquals("object", fn.invokeString(null, new JSArguments().addNull()));
+    assertEquals("undefined", fn.invokeString(null, new JSArguments().addUndefined()));
+    assertEquals(5, calls());
+  }
+
+  @Test
+  public void evictLeastRecentlyUsed() {
+    JSFunction fn = context.memoize(createCountingFunction("return a;"), 2);
+
+    fn.invokeInt(null, 1);
+    fn.invokeInt(null, 2);
+    fn.invokeInt(null, 1);
+    fn.invokeInt(null, 3);
+    assertEquals(3, calls());
+
+    // 2 is evicted, 1 is kept
+    fn.invokeInt(null, 1);
+    assertEquals(3, calls());
+    fn.invokeInt(null, 2);
+    assertEquals(4, calls());
+
+    JSMemoStats stats = fn.getMemoStats();
+    assertEquals(2, stats.getEvictionCount());
+    assertEquals(2, stats.getSize());
+  }
+
+  @Test
+  public void objectsBypass() {
+    JSFunction fn = context.memoize(createCountingFunction("return a.length;"), 16);
+
+    JSArguments args = new JSArguments().add(context.createJSArray());
+    fn.invokeInt(null, args);
+    fn.invokeInt(null, args);
+    assertEquals(2, calls());
+
+    JSMemoStats stats = fn.getMemoStats();
+    assertEquals(2, stats.getBypassCount());
+    assertEquals(0, stats.getSize());
+  }
+
+  @Test
+  public void exceptionsNotCached() {
+    JSFunction fn = context.memoize(createCountingFunction("throw new Error('boom');"), 16);
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        fn.invokeInt(null, 1);
+        fail();
+      } catch (JSEvaluationException e) {
+        assertTrue(e.getMessage().contains("boom"));
+      }
+    }
+    assertEquals(2, calls());
+    assertEquals(0, fn.getMemoStats().getSize());
+  }
+
+  @Test
+  public void clearMemo() {
+    JSFunction fn = context.memoize(createCountingFunction("return a;"), 16);
+
+    fn.invokeInt(null, 1);
+    assertTrue(fn.clearMemo());
+    fn.invokeInt(null, 1);
+    assertEquals(2, calls());
+  }
+
+  @Test
+  public void growsWithEntries() {
+    JSFunction fn = context.memoize(createCountingFunction("return a;"), 1 << 24);
+
+    // The buckets grow several times
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(i, fn.invokeInt(null, i));
+      }
+      assertEquals(1000, calls());
+    }
+    assertEquals(1000, fn.getMemoStats().getSize());
+
+    assertTrue(fn.clearMemo());
+    assertEquals(0, fn.getMemoStats().getSize());
+    assertEquals(1, fn.invokeInt(null, 1));
+    assertEquals(1001, calls());
+  }
+
+  @Test
+  public void notMemoized() {
+    JSFunction fn = createCountingFunction("return a;");
+    assertNull(fn.getMemoStats());
+  }
+}
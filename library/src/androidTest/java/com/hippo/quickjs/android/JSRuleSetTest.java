@@ -0,0 +1,129 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JSRuleSetTest extends TestsWithContext {
+
+  public static class Event {
+    public String type;
+    public int amount;
+
+    public Event(String type, int amount) {
+      this.type = type;
+      this.amount = amount;
+    }
+  }
+
+  private static final TypeAdapter<Event> EVENT_ADAPTER = new TypeAdapter<Event>() {
+    @Override
+    public JSValue toJSValue(JSContext context, Event value) {
+      JSObject jo = context.createJSObject();
+      jo.setProperty("type", context.createJSString(value.type));
+      jo.setProperty("amount", context.createJSNumber(value.amount));
+      return jo;
+    }
+
+    @Override
+    public Event fromJSValue(JSContext context, JSValue value) {
+      throw new UnsupportedOperationException();
+    }
+  };
+
+  @Test
+  public void evaluate() {
+    Map<String, String> rules = new LinkedHashMap<>();
+    rules.put("large", "e.amount > 100");
+    rules.put("refund", "e.type === 'refund'");
+    rules.put("small refund", "e.type === 'refund' && e.amount < 10 // comment");
+
+    QuickJS quickJS = new QuickJS.Builder().registerTypeAdapter(Event.class, EVENT_ADAPTER).build();
+    try (JSRuntime runtime = quickJS.createJSRuntime()) {
+      try (JSContext context = runtime.createJSContext()) {
+        JSRuleSet ruleSet = context.compileRuleSet("e", rules, Event.class);
+        assertEquals(3, ruleSet.size());
+        assertThat(ruleSet.getNames()).containsExactly("large", "refund", "small refund");
+
+        BitSet expected = new BitSet();
+        expected.set(1);
+        expected.set(2);
+        assertEquals(expected, ruleSet.evaluate(new Event("refund", 5)));
+        assertArrayEquals(new int[] { 0 }, ruleSet.evaluateMatches(new Event("pay", 500)));
+        assertArrayEquals(new int[0], ruleSet.evaluateMatches(new Event("pay", 5)));
+      }
+    }
+  }
+
+  @Test
+  public void evaluate_manyRules() {
+    Map<String, String> rules = new LinkedHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      rules.put("r" + i, "x % " + (i + 1) + " === 0");
+    }
+    JSRuleSet ruleSet = context.compileRuleSet("x", rules);
+
+    int[] matches = ruleSet.evaluateMatches(context.createJSNumber(96));
+    assertArrayEquals(new int[] { 0, 1, 2, 3, 5, 7, 11, 15, 23, 31, 47, 95 }, matches);
+    assertEquals(12, ruleSet.evaluate(context.createJSNumber(96)).cardinality());
+  }
+
+  @Test
+  public void evaluate_namesOfGeneratedCode() {
+    Map<String, String> rules = new LinkedHashMap<>();
+    rules.put("positive", "m > 0");
+    rules.put("hidden", "typeof rules === 'undefined' && typeof input === 'undefined' && typeof i === 'undefined'");
+    rules.put("tamper", "(m = 0, false)");
+    rules.put("zero", "m === 0");
+    JSRuleSet ruleSet = context.compileRuleSet("m", rules);
+
+    assertArrayEquals(new int[] { 0, 1 }, ruleSet.evaluateMatches(context.createJSNumber(1)));
+    assertArrayEquals(new int[] { 1, 3 }, ruleSet.evaluateMatches(context.createJSNumber(0)));
+  }
+
+  @Test
+  public void evaluate_throw_error() {
+    Map<String, String> rules = new LinkedHashMap<>();
+    rules.put("nested", "e.a.b");
+    JSRuleSet ruleSet = context.compileRuleSet("e", rules);
+    try {
+      ruleSet.evaluate(context.createJSObject());
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("TypeError");
+    }
+  }
+
+  @Test
+  public void compileRuleSet_invalidParamName_error() {
+    Utils.assertException(
+        IllegalArgumentException.class,
+        "Invalid parameter name: 1e",
+        () -> context.compileRuleSet("1e", new LinkedHashMap<>())
+    );
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JSStateTrackerTest extends TestsWithContext {
+
+  private JSStateTracker track(String script) {
+    JSStateTracker tracker = context.trackState(context.evaluate(script, "test.js", JSObject.class));
+    context.getGlobalObject().setProperty("state", tracker.getState());
+    return tracker;
+  }
+
+  @Test
+  public void takeChanges() {
+    JSStateTracker tracker = track("({ user: { name: 'a', age: 1 }, items: [1, 2], flag: true })");
+    context.evaluate("state.user.name = 'b'; state.items.push(3); delete state.flag;", "test.js");
+
+    List<JSStateChange> changes = tracker.takeChanges();
+    assertEquals(3, changes.size());
+    assertEquals("/user/name", changes.get(0).getPath());
+    assertEquals("b", changes.get(0).getValue().cast(JSString.class).getString());
+    assertEquals("/items/2", changes.get(1).getPath());
+    assertEquals(3, changes.get(1).getValue().cast(JSNumber.class).getInt());
+    assertEquals("/flag", changes.get(2).getPath());
+    assertTrue(changes.get(2).isDeleted());
+    assertNull(changes.get(2).getValue());
+
+    assertTrue(tracker.takeChanges().isEmpty());
+  }
+
+  @Test
+  public void mergeChanges() {
+    JSStateTracker tracker = track("({ a: 1, b: 1 })");
+    context.evaluate("state.a = 2; state.b = 1; state.a = 3; state.c = {}; state.c.d = 4;", "test.js");
+
+    List<JSStateChange> changes = tracker.takeChanges();
+    assertEquals(3, changes.size());
+    assertEquals("/a", changes.get(0).getPath());
+    assertEquals(3, changes.get(0).getValue().cast(JSNumber.class).getInt());
+    assertEquals("/c", changes.get(1).getPath());
+    assertEquals("/c/d", changes.get(2).getPath());
+  }
+
+  @Test
+  public void escapePaths() {
+    JSStateTracker tracker = track("({ 'a/b': { '~c': 0 } })");
+    context.evaluate("state['a/b']['~c'] = 1;", "test.js");
+
+    JSStateChange change = tracker.takeChanges().get(0);
+    assertEquals("/a~1b/~0c", change.getPath());
+    assertArrayEquals(new String[] { "a/b", "~c" }, change.getKeys());
+    assertEquals(change.getPath(), JSStateChange.path("a/b", "~c"));
+  }
+
+  @Test
+  public void replaceNestedObjects() {
+    JSStateTracker tracker = track("({ user: { name: 'a' } })");
+    context.evaluate("var old = state.user; state.user = { name: 'b' }; state.user.name = 'c'; old.name = 'd';", "test.js");
+
+    // The write to the detached object is not recorded
+    List<JSStateChange> changes = tracker.takeChanges();
+    assertEquals(2, changes.size());
+    assertEquals("/user", changes.get(0).getPath());
+    assertEquals("/user/name", changes.get(1).getPath());
+    assertEquals("c", changes.get(1).getValue().cast(JSString.class).getString());
+  }
+
+  @Test
+  public void applyChanges() {
+    JSStateTracker tracker = track("({ user: { name: 'a' }, flag: true })");
+    tracker.applyChanges(Arrays.asList(
+        JSStateChange.set(JSStateChange.path("user", "name"), context.createJSString("b")),
+        JSStateChange.set("/items", context.createJSArray()),
+        JSStateChange.set("/items/0", context.createJSNumber(1)),
+        JSStateChange.delete("/flag")
+    ));
+
+    assertEquals("b", context.evaluate("state.user.name", "test.js", String.class));
+    assertEquals(1, (int) context.evaluate("state.items[0]", "test.js", int.class));
+    assertFalse(context.evaluate("'flag' in state", "test.js", boolean.class));
+    assertTrue(tracker.takeChanges().isEmpty());
+  }
+
+  @Test
+  public void applyChangesDropsPendingChanges() {
+    JSStateTracker tracker = track("({ user: { name: 'a' }, count: 0 })");
+    context.evaluate("state.user.name = 'b'; state.count = 1;", "test.js");
+    tracker.applyChanges(Collections.singletonList(JSStateChange.set("/user", context.createJSObject())));
+
+    List<JSStateChange> changes = tracker.takeChanges();
+    assertEquals(1, changes.size());
+    assertEquals("/count", changes.get(0).getPath());
+  }
+
+  @Test
+  public void applyChangesToInvalidPath() {
+    JSStateTracker tracker = track("({ a: 1 })");
+    try {
+      tracker.applyChanges(Collections.singletonList(JSStateChange.set("/a/b", context.createJSNumber(2))));
+      fail();
+    } catch (JSEvaluationException e) {
+      assertTrue(e.getMessage().startsWith("TypeError: Cannot apply the change to /a/b"));
+    }
+  }
+
+  @Test
+  public void invalidPath() {
+    try {
+      JSStateChange.delete("a");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Invalid path: a", e.getMessage());
+    }
+  }
+
+  @Test
+  public void untouchedStateHasNoChanges() {
+    JSStateTracker tracker = track("({ a: { b: { c: 1 } } })");
+    context.evaluate("var x = state.a.b.c; state.a.b.c = 1;", "test.js");
+    assertTrue(tracker.takeChanges().isEmpty());
+  }
+}
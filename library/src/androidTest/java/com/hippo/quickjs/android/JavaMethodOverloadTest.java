@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JavaMethodOverloadTest extends TestsWithContext {
+
+  public static class Formatter {
+    public String format() { return "empty"; }
+    public String format(int value) { return "int:" + value; }
+    public String format(double value) { return "double:" + value; }
+    public String format(long value) { return "long:" + value; }
+    public String format(String value) { return "string:" + value; }
+    public String format(boolean value) { return "boolean:" + value; }
+    public String format(int[] values) { return "array:" + values.length; }
+    public String format(String a, int b) { return "string-int:" + a + b; }
+    public String format(int a, String b) { return "int-string:" + a + b; }
+
+    public static String describe(int value) { return "int:" + value; }
+    public static String describe(String value) { return "string:" + value; }
+  }
+
+  @Test
+  public void createJSOverloadedFunction() {
+    context.getGlobalObject().setProperty("format", context.createJSOverloadedFunction(new Formatter(), "format"));
+
+    assertEquals("empty", context.evaluate("format()", "test.js", String.class));
+    assertEquals("int:1", context.evaluate("format(1)", "test.js", String.class));
+    assertEquals("double:1.5", context.evaluate("format(1.5)", "test.js", String.class));
+    assertEquals("long:9007199254740993", context.evaluate("format(9007199254740993n)", "test.js", String.class));
+    assertEquals("string:a", context.evaluate("format('a')", "test.js", String.class));
+    assertEquals("boolean:true", context.evaluate("format(true)", "test.js", String.class));
+    assertEquals("array:3", context.evaluate("format([1, 2, 3])", "test.js", String.class));
+    assertEquals("string-int:a1", context.evaluate("format('a', 1)", "test.js", String.class));
+    assertEquals("int-string:1a", context.evaluate("format(1, 'a')", "test.js", String.class));
+  }
+
+  @Test
+  public void createJSOverloadedFunction_cachedSignature() {
+    context.getGlobalObject().setProperty("format", context.createJSOverloadedFunction(new Formatter(), "format"));
+
+    String result = context.evaluate("" +
+        "var r = [];\n" +
+        "for (var i = 0; i < 3; i++) {\n" +
+        "  r.push(format(i), format('' + i), format(i + 0.5));\n" +
+        "}\n" +
+        "r.join(',')", "test.js", String.class);
+    assertEquals("int:0,string:0,double:0.5,int:1,string:1,double:1.5,int:2,string:2,double:2.5", result);
+  }
+
+  @Test
+  public void createJSOverloadedFunction_noMatch_error() {
+    context.getGlobalObject().setProperty("format", context.createJSOverloadedFunction(new Formatter(), "format"));
+
+    try {
+      context.evaluate("format(1, 2, 3)", "test.js");
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("InternalError: Catch java exception");
+    }
+
+    try {
+      context.evaluate("format({}, {})", "test.js");
+      fail();
+    } catch (JSEvaluationException e) {
+      assertThat(e.getMessage()).startsWith("InternalError: Catch java exception");
+    }
+  }
+
+  @Test
+  public void createJSOverloadedFunction_unknownMethod_error() {
+    Utils.assertException(
+        IllegalArgumentException.class,
+        "Can't find method: unknown",
+        () -> context.createJSOverloadedFunction(new Formatter(), "unknown")
+    );
+  }
+
+  @Test
+  public void createJSOverloadedFunctionS() {
+    context.getGlobalObject().setProperty("describe", context.createJSOverloadedFunctionS(Formatter.class, "describe"));
+
+    assertEquals("int:1", context.evaluate("describe(1)", "test.js", String.class));
+    assertEquals("string:a", context.evaluate("describe('a')", "test.js", String.class));
+  }
+
+  @Test
+  public void hostObject_overload() {
+    context.getGlobalObject().setProperty("host", context.createJSHostObject(new Formatter()));
+
+    assertEquals("int:1", context.evaluate("host.format(1)", "test.js", String.class));
+    assertEquals("string:a", context.evaluate("host.format('a')", "test.js", String.class));
+    assertTrue(context.evaluate("host.format === host.format", "test.js", boolean.class));
+  }
+
+  public interface Shape { }
+  public interface Round extends Shape { }
+  public interface Named { }
+
+  public static class Square implements Shape { }
+  public static class Circle implements Round { }
+  public static class Label implements Named { }
+
+  public static class Describer {
+    public String describe(Shape shape) { return "shape"; }
+    public String describe(Round round) { return "round"; }
+    public String describe(Named named) { return "named"; }
+  }
+
+  @Test
+  public void createJSOverloadedFunction_javaObjectClasses() {
+    JSObject global = context.getGlobalObject();
+    global.setProperty("describe", context.createJSOverloadedFunction(new Describer(), "describe"));
+    global.setProperty("square", context.createJSObject(new Square()));
+    global.setProperty("circle", context.createJSObject(new Circle()));
+    global.setProperty("label", context.createJSObject(new Label()));
+
+    // All of them are objects, the picks are not shared
+    String result = context.evaluate("" +
+        "var r = [];\n" +
+        "for (var i = 0; i < 2; i++) {\n" +
+        "  r.push(describe(label), describe(square), describe(circle));\n" +
+        "}\n" +
+        "r.join(',')", "test.js", String.class);
+    assertEquals("named,shape,round,named,shape,round", result);
+  }
+
+  public interface Printer {
+    String print(int value);
+    String print(String value);
+  }
+
+  @Test
+  public void interface_toJSValue_overload() {
+    Printer printer = new Printer() {
+      @Override
+      public String print(int value) { return "int:" + value; }
+      @Override
+      public String print(String value) { return "string:" + value; }
+    };
+    context.getGlobalObject().setProperty("printer", quickJS.getAdapter(Printer.class).toJSValue(context, printer));
+
+    assertEquals("int:1", context.evaluate("printer.print(1)", "test.js", String.class));
+    assertEquals("string:a", context.evaluate("printer.print('a')", "test.js", String.class));
+  }
+
+  @Test
+  public void interface_fromJSValue_overload() {
+    Printer printer = context.evaluate("" +
+        "a = {\n" +
+        "  print: function(value) { return typeof value + ':' + value }\n" +
+        "}", "test.js", Printer.class);
+
+    assertEquals("number:1", printer.print(1));
+    assertEquals("string:a", printer.print("a"));
+  }
+}
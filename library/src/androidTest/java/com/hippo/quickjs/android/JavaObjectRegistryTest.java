@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import org.junit.Test;
+
+import static com.hippo.quickjs.android.Utils.assertException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class JavaObjectRegistryTest {
+
+  @Test
+  public void register_sameObject_sameSlot() {
+    JavaObjectRegistry registry = new JavaObjectRegistry();
+    Object object = new Object();
+    int slot = registry.register(object);
+    assertEquals(slot, registry.register(object));
+    assertNotEquals(slot, registry.register(new Object()));
+    assertSame(object, registry.get(slot));
+  }
+
+  @Test
+  public void release_lastReference_freeSlot() {
+    JavaObjectRegistry registry = new JavaObjectRegistry();
+    Object object = new Object();
+    int slot = registry.register(object);
+    registry.register(object);
+
+    registry.release(slot);
+    assertSame(object, registry.get(slot));
+    registry.release(slot);
+    assertNull(registry.get(slot));
+    assertEquals(0, registry.size());
+
+    // The slot is reused
+    assertEquals(slot, registry.register(new Object()));
+  }
+
+  @Test
+  public void release_invalidSlot_error() {
+    JavaObjectRegistry registry = new JavaObjectRegistry();
+    int slot = registry.register(new Object());
+    registry.release(slot);
+    assertException(
+        IllegalStateException.class,
+        "Invalid slot: " + slot,
+        () -> registry.release(slot)
+    );
+  }
+
+  @Test
+  public void register_manyObjects_grow() {
+    JavaObjectRegistry registry = new JavaObjectRegistry();
+    Object[] objects = new Object[100];
+    int[] slots = new int[objects.length];
+    for (int i = 0; i < objects.length; i++) {
+      objects[i] = new Object();
+      slots[i] = registry.register(objects[i]);
+    }
+    for (int i = 0; i < objects.length; i++) {
+      assertSame(objects[i], registry.get(slots[i]));
+    }
+    assertEquals(objects.length, registry.size());
+  }
+
+  @Test
+  public void releaseAll() {
+    JavaObjectRegistry registry = new JavaObjectRegistry();
+    Object object = new Object();
+    int slot1 = registry.register(object);
+    registry.register(object);
+    int slot2 = registry.register(new Object());
+    registry.releaseAll(new int[] { slot1, slot2, slot1 });
+    assertEquals(0, registry.size());
+  }
+}
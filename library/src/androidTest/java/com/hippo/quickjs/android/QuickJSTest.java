@@ -29,7 +29,7 @@ import static org.junit.Assert.assertTrue;
 public class QuickJSTest {
   @Test
   public void createRuntime() {
-    long runtime = QuickJS.createRuntime();
+    long runtime = QuickJS.createRuntime(new JavaObjectRegistry());
     assertNotEquals(0, runtime);
     QuickJS.destroyRuntime(runtime);
   }
@@ -44,7 +44,7 @@ public class QuickJSTest {
   }
 
   private void withRuntime(WithRuntimeBlock block) {
-    long runtime = QuickJS.createRuntime();
+    long runtime = QuickJS.createRuntime(new JavaObjectRegistry());
     assertNotEquals(0, runtime);
     try {
       block.run(runtime);
@@ -57,6 +57,15 @@ public class QuickJSTest {
     void run(long runtime);
   }
 
+  private static String getExceptionStack(long context, JSException jsException) {
+    if (jsException.error == 0) return null;
+    try {
+      return QuickJS.getExceptionStack(context, jsException.error);
+    } finally {
+      QuickJS.destroyValue(context, jsException.error);
+    }
+  }
+
   @Ignore("It causes accessing null pointer in C")
   @Test
   public void testOutOfMemory() {
@@ -83,7 +92,7 @@ public class QuickJSTest {
         JSException jsException = QuickJS.getException(context);
         assertTrue(jsException.isError());
         assertEquals("InternalError: interrupted", jsException.getException());
-        assertEquals("", jsException.getStack());
+        assertEquals("", getExceptionStack(context, jsException));
       });
     });
   }
@@ -100,7 +109,7 @@ public class QuickJSTest {
         JSException jsException = QuickJS.getException(context);
         assertTrue(jsException.isError());
         assertEquals("InternalError: interrupted", jsException.getException());
-        assertEquals("    at <eval> (source.js)\n", jsException.getStack());
+        assertEquals("    at <eval> (source.js)\n", getExceptionStack(context, jsException));
       });
 
       withScript(context, "i", value -> {
@@ -814,7 +823,7 @@ public class QuickJSTest {
       JSException jsException = QuickJS.getException(context);
       assertFalse(jsException.isError());
       assertEquals("1", jsException.getException());
-      assertNull(jsException.getStack());
+      assertNull(getExceptionStack(context, jsException));
     });
   }
 
@@ -825,7 +834,7 @@ public class QuickJSTest {
       JSException jsException = QuickJS.getException(context);
       assertTrue(jsException.isError());
       assertEquals("Error", jsException.getException());
-      assertEquals("    at <eval> (source.js)\n", jsException.getStack());
+      assertEquals("    at <eval> (source.js)\n", getExceptionStack(context, jsException));
     });
   }
 
@@ -853,7 +862,7 @@ public class QuickJSTest {
           "    at f2 (source.js:6)\n" +
           "    at f3 (source.js:9)\n" +
           "    at <anonymous> (source.js:11)\n" +
-          "    at <eval> (source.js:12)\n"), jsException.getStack()
+          "    at <eval> (source.js:12)\n"), getExceptionStack(context, jsException)
         );
       }
     );
@@ -866,7 +875,7 @@ public class QuickJSTest {
       JSException jsException = QuickJS.getException(context);
       assertFalse(jsException.isError());
       assertEquals("null", jsException.getException());
-      assertNull(jsException.getStack());
+      assertNull(getExceptionStack(context, jsException));
     });
   }
 
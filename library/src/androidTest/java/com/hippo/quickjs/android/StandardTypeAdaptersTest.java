@@ -18,7 +18,12 @@ package com.hippo.quickjs.android;
 
 import org.junit.Test;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class StandardTypeAdaptersTest {
@@ -276,4 +281,68 @@ public class StandardTypeAdaptersTest {
     assertEquivalent("undefined", null, String.class);
     assertException("false", "expected: JSString, actual: JSBoolean", String.class);
   }
+
+  @Test
+  public void testLongBigInt() {
+    assertEquivalent("9007199254740993n", 9007199254740993L, long.class);
+    assertEquivalent("9223372036854775807n", 9223372036854775807L, long.class);
+    assertEquivalent("-9223372036854775808n", -9223372036854775808L, Long.class);
+    assertException("9223372036854775808n", "Can't treat 9223372036854775808n as long", long.class);
+    assertException("-9223372036854775809n", "Can't treat -9223372036854775809n as long", Long.class);
+  }
+
+  @Test
+  public void testLongToJSValue() {
+    QuickJS quickJS = new QuickJS.Builder().build();
+    try (JSRuntime runtime = quickJS.createJSRuntime()) {
+      try (JSContext context = runtime.createJSContext()) {
+        TypeAdapter<Long> adapter = quickJS.getAdapter(long.class);
+        assertTrue(adapter.toJSValue(context, 9007199254740991L) instanceof JSNumber);
+        JSValue value = adapter.toJSValue(context, 9007199254740993L);
+        assertTrue(value instanceof JSBigInt);
+        assertEquals(9007199254740993L, ((JSBigInt) value).getLong());
+      }
+    }
+  }
+
+  @Test
+  public void testBigInteger() {
+    assertEquivalent("123456789012345678901234567890n", new BigInteger("123456789012345678901234567890"), BigInteger.class);
+    assertEquivalent("-1n", BigInteger.ONE.negate(), BigInteger.class);
+    assertEquivalent("1", BigInteger.ONE, BigInteger.class);
+    assertEquivalent("1e20", new BigInteger("100000000000000000000"), BigInteger.class);
+    assertEquivalent("null", null, BigInteger.class);
+    assertException("1.5", "Can't treat 1.5 as BigInteger", BigInteger.class);
+  }
+
+  @Test
+  public void testBigDecimal() {
+    assertEquivalent("'1.10'", new BigDecimal("1.10"), BigDecimal.class);
+    assertEquivalent("1.5", new BigDecimal("1.5"), BigDecimal.class);
+    assertEquivalent("10n", BigDecimal.TEN, BigDecimal.class);
+    assertEquivalent("null", null, BigDecimal.class);
+    assertException("'abc'", "Can't treat \"abc\" as BigDecimal", BigDecimal.class);
+  }
+
+  @Test
+  public void testDate() {
+    assertEquivalent("new Date(1000)", new Date(1000), Date.class);
+    assertEquivalent("1000", new Date(1000), Date.class);
+    assertEquivalent("null", null, Date.class);
+    assertException("new Date(NaN)", "Can't treat Invalid Date as Date", Date.class);
+    assertException("({})", "expected: Date", Date.class);
+  }
+
+  private enum Color {
+    RED, GREEN
+  }
+
+  @Test
+  public void testEnum() {
+    assertEquivalent("'GREEN'", Color.GREEN, Color.class);
+    assertEquivalent("0", Color.RED, Color.class);
+    assertEquivalent("null", null, Color.class);
+    assertException("'BLUE'", "Can't treat \"BLUE\" as " + Color.class.getName(), Color.class);
+    assertException("2", "Can't treat 2 as " + Color.class.getName(), Color.class);
+  }
 }
@@ -0,0 +1,452 @@
+#include <string.h>
+
+#include "java-collection.h"
+#include "java-helper.h"
+#include "java-registry.h"
+
+#define CLASS_NAME_JAVA_COLLECTION_VIEW "com/hippo/quickjs/android/JavaCollectionView"
+#define CLASS_NAME_JAVA_LIST_VIEW "com/hippo/quickjs/android/JavaCollectionView$ListView"
+#define CLASS_NAME_JAVA_MAP_VIEW "com/hippo/quickjs/android/JavaCollectionView$MapView"
+
+#define KEY_NONE 0
+#define KEY_INDEX 1
+#define KEY_NAME 2
+#define KEY_LENGTH 3
+
+typedef struct {
+    jint slot;
+    jboolean is_list;
+    JSValue proto;
+} JavaCollectionData;
+
+static JSClassID java_collection_class_id;
+
+static jmethodID get_method;
+static jmethodID set_method;
+static jmethodID has_method;
+static jmethodID delete_method;
+static jmethodID size_method;
+static jmethodID set_size_method;
+static jmethodID names_method;
+
+// Converts the atom to the key for java.
+// Returns KEY_NONE for symbols, or -1 if it fails.
+static int to_key(JSContext *ctx, JNIEnv *env, jboolean is_list, JSAtom atom, jint *index, jstring *name) {
+    *index = -1;
+    *name = NULL;
+
+    JSValue value = JS_AtomToValue(ctx, atom);
+    if (JS_IsException(value)) return -1;
+
+    if (JS_VALUE_GET_TAG(value) == JS_TAG_INT) {
+        *index = JS_VALUE_GET_INT(value);
+        return KEY_INDEX;
+    }
+    if (JS_VALUE_GET_TAG(value) != JS_TAG_STRING) {
+        JS_FreeValue(ctx, value);
+        return KEY_NONE;
+    }
+
+    const char *str = JS_ToCString(ctx, value);
+    JS_FreeValue(ctx, value);
+    if (str == NULL) return -1;
+
+    if (is_list && strcmp(str, "length") == 0) {
+        JS_FreeCString(ctx, str);
+        return KEY_LENGTH;
+    }
+
+    *name = (*env)->NewStringUTF(env, str);
+    JS_FreeCString(ctx, str);
+    if (*name == NULL) {
+        (*env)->ExceptionClear(env);
+        JS_ThrowOutOfMemory(ctx);
+        return -1;
+    }
+    return KEY_NAME;
+}
+
+static int check_java_exception(JSContext *ctx, JNIEnv *env) {
+    if ((*env)->ExceptionCheck(env)) {
+        (*env)->ExceptionDescribe(env);
+        (*env)->ExceptionClear(env);
+        JS_ThrowInternalError(ctx, "Catch java exception");
+        return -1;
+    }
+    return 0;
+}
+
+#define COLLECTION_PROLOGUE(ERROR_RESULT)                                               \
+    JavaCollectionData *data = JS_GetOpaque(obj, java_collection_class_id);             \
+    JSRuntime *rt = JS_GetRuntime(ctx);                                                 \
+    JavaVM *vm = ((JavaRegistry *) JS_GetRuntimeOpaque(rt))->vm;                        \
+    jobject view = NULL;                                                                \
+    jstring name = NULL;                                                                \
+    OBTAIN_ENV(vm);                                                                     \
+    if (env == NULL) {                                                                  \
+        JS_ThrowInternalError(ctx, "Can't obtain JNIEnv");                              \
+        result = (ERROR_RESULT);                                                        \
+        goto done;                                                                      \
+    }                                                                                   \
+    view = java_registry_get(env, rt, data->slot);                                      \
+    if (view == NULL) {                                                                 \
+        JS_ThrowInternalError(ctx, "The java object is released");                      \
+        result = (ERROR_RESULT);                                                        \
+        goto done;                                                                      \
+    }
+
+#define COLLECTION_EPILOGUE()                                                           \
+done:                                                                                   \
+    if (env != NULL) {                                                                  \
+        if (name != NULL) (*env)->DeleteLocalRef(env, name);                            \
+        if (view != NULL) (*env)->DeleteLocalRef(env, view);                            \
+    }                                                                                   \
+    RELEASE_ENV(vm)
+
+static JSValue java_collection_get_property(
+    JSContext *ctx,
+    JSValueConst obj,
+    JSAtom atom,
+    JSValueConst receiver
+) {
+    JSValue result;
+    COLLECTION_PROLOGUE(JS_EXCEPTION)
+
+    jint index;
+    int key = to_key(ctx, env, data->is_list, atom, &index, &name);
+    if (key < 0) {
+        result = JS_EXCEPTION;
+    } else if (key == KEY_LENGTH) {
+        jint size = (*env)->CallIntMethod(env, view, size_method);
+        result = check_java_exception(ctx, env) ? JS_EXCEPTION : JS_NewInt32(ctx, size);
+    } else if (key == KEY_NONE) {
+        // Getters of the prototype see the collection as this
+        result = JS_GetPropertyInternal(ctx, data->proto, atom, receiver, 0);
+    } else {
+        JSValue *value = (JSValue *) (*env)->CallLongMethod(env, view, get_method, JS_GetContextOpaque(ctx), index, name);
+        if (check_java_exception(ctx, env)) {
+            result = JS_EXCEPTION;
+        } else if (value == NULL) {
+            // Not in the collection
+            result = JS_GetPropertyInternal(ctx, data->proto, atom, receiver, 0);
+        } else {
+            result = JS_DupValue(ctx, *value);
+        }
+    }
+
+    COLLECTION_EPILOGUE();
+    return result;
+}
+
+static int java_collection_set_property(
+    JSContext *ctx,
+    JSValueConst obj,
+    JSAtom atom,
+    JSValueConst value,
+    JSValueConst __unused receiver,
+    int __unused flags
+) {
+    int result;
+    COLLECTION_PROLOGUE(-1)
+
+    jint index;
+    int key = to_key(ctx, env, data->is_list, atom, &index, &name);
+    if (key < 0) {
+        result = -1;
+    } else if (key == KEY_NONE) {
+        JS_ThrowTypeError(ctx, "The property of java collection is read-only");
+        result = -1;
+    } else if (key == KEY_LENGTH) {
+        // Array.prototype methods set length after changing elements
+        int32_t size;
+        if (JS_ToInt32(ctx, &size, value)) {
+            result = -1;
+        } else {
+            jboolean set = (*env)->CallBooleanMethod(env, view, set_size_method, size);
+            if (check_java_exception(ctx, env)) {
+                result = -1;
+            } else if (!set) {
+                JS_ThrowRangeError(ctx, "Can't set the length of java list");
+                result = -1;
+            } else {
+                result = 1;
+            }
+        }
+    } else {
+        // Java takes the ownership of the copy
+        JSValue *copy = js_malloc_rt(rt, sizeof(JSValue));
+        if (copy == NULL) {
+            JS_ThrowOutOfMemory(ctx);
+            result = -1;
+            goto done;
+        }
+        *copy = JS_DupValue(ctx, value);
+
+        jboolean set = (*env)->CallBooleanMethod(env, view, set_method, JS_GetContextOpaque(ctx), index, name, (jlong) copy);
+        if (check_java_exception(ctx, env)) {
+            result = -1;
+        } else if (!set) {
+            JS_ThrowTypeError(ctx, "Can't set the property of java collection");
+            result = -1;
+        } else {
+            result = 1;
+        }
+    }
+
+    COLLECTION_EPILOGUE();
+    return result;
+}
+
+static int java_collection_has_property(JSContext *ctx, JSValueConst obj, JSAtom atom) {
+    int result;
+    COLLECTION_PROLOGUE(-1)
+
+    jint index;
+    int key = to_key(ctx, env, data->is_list, atom, &index, &name);
+    if (key < 0) {
+        result = -1;
+    } else if (key == KEY_LENGTH) {
+        result = 1;
+    } else if (key == KEY_NONE) {
+        result = JS_HasProperty(ctx, data->proto, atom);
+    } else {
+        jboolean has = (*env)->CallBooleanMethod(env, view, has_method, index, name);
+        if (check_java_exception(ctx, env)) {
+            result = -1;
+        } else {
+            result = has ? 1 : JS_HasProperty(ctx, data->proto, atom);
+        }
+    }
+
+    COLLECTION_EPILOGUE();
+    return result;
+}
+
+static int java_collection_get_own_property(JSContext *ctx, JSPropertyDescriptor *desc, JSValueConst obj, JSAtom atom) {
+    int result;
+    COLLECTION_PROLOGUE(-1)
+
+    jint index;
+    int key = to_key(ctx, env, data->is_list, atom, &index, &name);
+    if (key < 0) {
+        result = -1;
+    } else if (key == KEY_NONE) {
+        result = 0;
+    } else if (key == KEY_LENGTH) {
+        jint size = (*env)->CallIntMethod(env, view, size_method);
+        if (check_java_exception(ctx, env)) {
+            result = -1;
+        } else {
+            if (desc != NULL) {
+                desc->flags = 0;
+                desc->value = JS_NewInt32(ctx, size);
+                desc->getter = JS_UNDEFINED;
+                desc->setter = JS_UNDEFINED;
+            }
+            result = 1;
+        }
+    } else {
+        JSValue *value = (JSValue *) (*env)->CallLongMethod(env, view, get_method, JS_GetContextOpaque(ctx), index, name);
+        if (check_java_exception(ctx, env)) {
+            result = -1;
+        } else if (value == NULL) {
+            result = 0;
+        } else {
+            if (desc != NULL) {
+                desc->flags = JS_PROP_C_W_E;
+                desc->value = JS_DupValue(ctx, *value);
+                desc->getter = JS_UNDEFINED;
+                desc->setter = JS_UNDEFINED;
+            }
+            result = 1;
+        }
+    }
+
+    COLLECTION_EPILOGUE();
+    return result;
+}
+
+static int java_collection_get_own_property_names(JSContext *ctx, JSPropertyEnum **ptab, uint32_t *plen, JSValueConst obj) {
+    int result;
+    jobjectArray names = NULL;
+    JSPropertyEnum *tab = NULL;
+    uint32_t len = 0;
+    COLLECTION_PROLOGUE(-1)
+
+    if (data->is_list) {
+        jint size = (*env)->CallIntMethod(env, view, size_method);
+        if (check_java_exception(ctx, env)) {
+            result = -1;
+            goto done;
+        }
+        // Indexes and length
+        tab = js_malloc(ctx, sizeof(JSPropertyEnum) * (size + 1));
+        if (tab == NULL) {
+            result = -1;
+            goto done;
+        }
+        for (; len < (uint32_t) size; len++) {
+            tab[len].is_enumerable = 1;
+            tab[len].atom = JS_NewAtomUInt32(ctx, len);
+            if (tab[len].atom == JS_ATOM_NULL) break;
+        }
+        if (len == (uint32_t) size) {
+            tab[len].is_enumerable = 0;
+            tab[len].atom = JS_NewAtom(ctx, "length");
+            if (tab[len].atom != JS_ATOM_NULL) len++;
+        }
+        result = len == (uint32_t) size + 1 ? 0 : -1;
+    } else {
+        names = (*env)->CallObjectMethod(env, view, names_method);
+        if (check_java_exception(ctx, env)) {
+            result = -1;
+            goto done;
+        }
+        jsize size = (*env)->GetArrayLength(env, names);
+        tab = js_malloc(ctx, sizeof(JSPropertyEnum) * (size > 0 ? size : 1));
+        if (tab == NULL) {
+            result = -1;
+            goto done;
+        }
+        for (; len < (uint32_t) size; len++) {
+            jstring element = (*env)->GetObjectArrayElement(env, names, len);
+            const char *element_utf = element != NULL ? (*env)->GetStringUTFChars(env, element, NULL) : NULL;
+            JSAtom atom = element_utf != NULL ? JS_NewAtom(ctx, element_utf) : JS_ATOM_NULL;
+            if (element_utf != NULL) (*env)->ReleaseStringUTFChars(env, element, element_utf);
+            if (element != NULL) (*env)->DeleteLocalRef(env, element);
+            if (atom == JS_ATOM_NULL) break;
+            tab[len].is_enumerable = 1;
+            tab[len].atom = atom;
+        }
+        result = len == (uint32_t) size ? 0 : -1;
+    }
+
+    if (result < 0) {
+        for (uint32_t i = 0; i < len; i++) {
+            JS_FreeAtom(ctx, tab[i].atom);
+        }
+        js_free(ctx, tab);
+        JS_ThrowOutOfMemory(ctx);
+    } else {
+        *ptab = tab;
+        *plen = len;
+    }
+
+    COLLECTION_EPILOGUE();
+    if (env != NULL && names != NULL) (*env)->DeleteLocalRef(env, names);
+    return result;
+}
+
+static int java_collection_delete_property(JSContext *ctx, JSValueConst obj, JSAtom atom) {
+    int result;
+    COLLECTION_PROLOGUE(-1)
+
+    jint index;
+    int key = to_key(ctx, env, data->is_list, atom, &index, &name);
+    if (key < 0) {
+        result = -1;
+    } else if (key == KEY_LENGTH) {
+        result = 0;
+    } else if (key == KEY_NONE) {
+        result = 1;
+    } else {
+        jboolean deleted = (*env)->CallBooleanMethod(env, view, delete_method, index, name);
+        result = check_java_exception(ctx, env) ? -1 : deleted;
+    }
+
+    COLLECTION_EPILOGUE();
+    return result;
+}
+
+#undef COLLECTION_PROLOGUE
+#undef COLLECTION_EPILOGUE
+
+static void java_collection_finalizer(JSRuntime *rt, JSValue val) {
+    JavaCollectionData *data = JS_GetOpaque(val, java_collection_class_id);
+    java_registry_release(rt, data->slot);
+    JS_FreeValueRT(rt, data->proto);
+    js_free_rt(rt, data);
+}
+
+static void java_collection_gc_mark(JSRuntime *rt, JSValueConst val, JS_MarkFunc *mark_func) {
+    JavaCollectionData *data = JS_GetOpaque(val, java_collection_class_id);
+    JS_MarkValue(rt, data->proto, mark_func);
+}
+
+static JSClassExoticMethods java_collection_exotic = {
+    .get_own_property = java_collection_get_own_property,
+    .get_own_property_names = java_collection_get_own_property_names,
+    .delete_property = java_collection_delete_property,
+    .has_property = java_collection_has_property,
+    .get_property = java_collection_get_property,
+    .set_property = java_collection_set_property,
+};
+
+static JSClassDef java_collection_class = {
+    "JavaCollection",
+    .finalizer = java_collection_finalizer,
+    .gc_mark = java_collection_gc_mark,
+    .exotic = &java_collection_exotic
+};
+
+int java_collection_init(JNIEnv *env) {
+    // The class id is shared by all runtimes
+    JS_NewClassID(&java_collection_class_id);
+
+#define GET_METHOD(RESULT, CLASS_NAME, NAME, SIGN)                          \
+    do {                                                                    \
+        jclass view_class = (*env)->FindClass(env, (CLASS_NAME));           \
+        if (view_class == NULL) return -1;                                  \
+        (RESULT) = (*env)->GetMethodID(env, view_class, (NAME), (SIGN));    \
+        (*env)->DeleteLocalRef(env, view_class);                            \
+        if ((RESULT) == NULL) return -1;                                    \
+    } while (0)
+
+    // setSize() is only called for lists, names() is only called for maps
+    GET_METHOD(get_method, CLASS_NAME_JAVA_COLLECTION_VIEW, "get", "(Lcom/hippo/quickjs/android/JSContext;ILjava/lang/String;)J");
+    GET_METHOD(set_method, CLASS_NAME_JAVA_COLLECTION_VIEW, "set", "(Lcom/hippo/quickjs/android/JSContext;ILjava/lang/String;J)Z");
+    GET_METHOD(has_method, CLASS_NAME_JAVA_COLLECTION_VIEW, "has", "(ILjava/lang/String;)Z");
+    GET_METHOD(delete_method, CLASS_NAME_JAVA_COLLECTION_VIEW, "delete", "(ILjava/lang/String;)Z");
+    GET_METHOD(size_method, CLASS_NAME_JAVA_COLLECTION_VIEW, "size", "()I");
+    GET_METHOD(set_size_method, CLASS_NAME_JAVA_LIST_VIEW, "setSize", "(I)Z");
+    GET_METHOD(names_method, CLASS_NAME_JAVA_MAP_VIEW, "names", "()[Ljava/lang/String;");
+
+#undef GET_METHOD
+
+    return 0;
+}
+
+int java_collection_init_runtime(JSRuntime *rt) {
+    if (JS_NewClass(rt, java_collection_class_id, &java_collection_class)) return -1;
+    return 0;
+}
+
+JSValue QJ_NewJavaCollection(JSContext *ctx, jint slot, jboolean is_list, JSValueConst proto) {
+    JSRuntime *rt = JS_GetRuntime(ctx);
+
+    JavaCollectionData *data = js_malloc_rt(rt, sizeof(JavaCollectionData));
+    if (data == NULL) {
+        java_registry_release(rt, slot);
+        return JS_ThrowOutOfMemory(ctx);
+    }
+
+    JSValue value = JS_NewObjectProtoClass(ctx, proto, java_collection_class_id);
+    if (JS_IsException(value)) {
+        java_registry_release(rt, slot);
+        js_free_rt(rt, data);
+        return value;
+    }
+
+    data->slot = slot;
+    data->is_list = is_list;
+    data->proto = JS_DupValue(ctx, proto);
+
+    JS_SetOpaque(value, data);
+
+    return value;
+}
+
+jobject QJ_GetJavaCollection(JSContext *ctx, JNIEnv *env, JSValueConst val) {
+    JavaCollectionData *data = JS_GetOpaque(val, java_collection_class_id);
+    return data != NULL ? java_registry_get(env, JS_GetRuntime(ctx), data->slot) : NULL;
+}
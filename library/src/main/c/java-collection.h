@@ -0,0 +1,23 @@
+#ifndef QUICKJS_ANDROID_JAVA_COLLECTION_H
+#define QUICKJS_ANDROID_JAVA_COLLECTION_H
+
+#include <jni.h>
+#include <quickjs.h>
+
+// A JavaCollection is a live view of a java.util.List or a java.util.Map.
+// The registry slot holds a JavaCollectionView, which converts
+// the element only when it's accessed.
+// Lists are array-like, maps are object-like with string keys.
+
+int java_collection_init(JNIEnv *env);
+
+int java_collection_init_runtime(JSRuntime *rt);
+
+// The slot is owned by the JavaCollection, it's released even if it fails.
+// Properties not in the collection are read from the prototype.
+JSValue QJ_NewJavaCollection(JSContext *ctx, jint slot, jboolean is_list, JSValueConst proto);
+
+// Returns NULL if the value is not a JavaCollection
+jobject QJ_GetJavaCollection(JSContext *ctx, JNIEnv *env, JSValueConst val);
+
+#endif //QUICKJS_ANDROID_JAVA_COLLECTION_H
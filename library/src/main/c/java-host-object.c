@@ -0,0 +1,696 @@
+#include <string.h>
+
+#include "java-host-object.h"
+#include "java-helper.h"
+#include "java-registry.h"
+
+#define MEMBER_NONE 0
+#define MEMBER_METHOD 1
+#define MEMBER_FIELD 2
+
+// The function of a method in one context
+typedef struct JavaHostFunction {
+    JSContext *ctx;
+    JSValue function;
+    struct JavaHostFunction *next;
+} JavaHostFunction;
+
+typedef struct {
+    // JS_ATOM_NULL for empty entries
+    JSAtom atom;
+    int kind;
+    // For methods
+    JavaMethodDescriptor *descriptor;
+    // Shared by all JavaHostObjects of the class in each context, created on first access
+    JavaHostFunction *functions;
+    // For fields
+    jfieldID field;
+    jobject type;
+    char signature;
+    jboolean writable;
+} JavaHostMember;
+
+struct JavaHostClass {
+    int ref_count;
+    JavaVM *vm;
+    jclass clazz;
+    // The names of all members for property enumeration, resolved on first enumeration
+    JSAtom *names;
+    int name_count;
+    jboolean names_resolved;
+    // Open addressing hash table, the capacity is power of two
+    JavaHostMember *members;
+    int member_count;
+    int member_capacity;
+};
+
+typedef struct {
+    jint slot;
+    JavaHostClass *host_class;
+} JavaHostObjectData;
+
+static JSClassID java_host_object_class_id;
+
+static jclass jni_helper_class;
+static jmethodID resolve_host_member_method;
+static jmethodID get_host_member_names_method;
+
+static JavaHostMember *find_member(JavaHostClass *host_class, JSAtom atom) {
+    if (host_class->member_capacity == 0) return NULL;
+
+    uint32_t mask = (uint32_t) host_class->member_capacity - 1;
+    for (uint32_t i = atom & mask; ; i = (i + 1) & mask) {
+        JavaHostMember *member = host_class->members + i;
+        if (member->atom == atom) return member;
+        if (member->atom == JS_ATOM_NULL) return NULL;
+    }
+}
+
+static int grow_members(JSRuntime *rt, JavaHostClass *host_class) {
+    int new_capacity = host_class->member_capacity == 0 ? 16 : host_class->member_capacity * 2;
+    JavaHostMember *new_members = js_mallocz_rt(rt, sizeof(JavaHostMember) * new_capacity);
+    if (new_members == NULL) return -1;
+
+    uint32_t mask = (uint32_t) new_capacity - 1;
+    for (int i = 0; i < host_class->member_capacity; i++) {
+        JavaHostMember *member = host_class->members + i;
+        if (member->atom == JS_ATOM_NULL) continue;
+        uint32_t j = member->atom & mask;
+        while (new_members[j].atom != JS_ATOM_NULL) j = (j + 1) & mask;
+        new_members[j] = *member;
+    }
+
+    js_free_rt(rt, host_class->members);
+    host_class->members = new_members;
+    host_class->member_capacity = new_capacity;
+    return 0;
+}
+
+// Returns the member of the atom, adds an empty one if it doesn't exist
+static JavaHostMember *obtain_member(JSContext *ctx, JavaHostClass *host_class, JSAtom atom) {
+    JavaHostMember *member = find_member(host_class, atom);
+    if (member != NULL) return member;
+
+    // Keep the load factor under 3/4
+    if ((host_class->member_count + 1) * 4 > host_class->member_capacity * 3) {
+        if (grow_members(JS_GetRuntime(ctx), host_class)) return NULL;
+    }
+
+    uint32_t mask = (uint32_t) host_class->member_capacity - 1;
+    uint32_t i = atom & mask;
+    while (host_class->members[i].atom != JS_ATOM_NULL) i = (i + 1) & mask;
+
+    member = host_class->members + i;
+    member->atom = JS_DupAtom(ctx, atom);
+    member->kind = MEMBER_NONE;
+    member->descriptor = NULL;
+    member->functions = NULL;
+    member->field = NULL;
+    member->type = NULL;
+    member->signature = 0;
+    member->writable = JNI_FALSE;
+    host_class->member_count++;
+
+    return member;
+}
+
+// Asks java to resolve the member on first access, the result is cached even if there is no such member
+static JavaHostMember *resolve_member(JSContext *ctx, JNIEnv *env, JavaHostClass *host_class, JSAtom atom) {
+    JavaHostMember *member = find_member(host_class, atom);
+    if (member != NULL) return member;
+
+    const char *name = JS_AtomToCString(ctx, atom);
+    if (name == NULL) return NULL;
+    jstring j_name = (*env)->NewStringUTF(env, name);
+    JS_FreeCString(ctx, name);
+    if (j_name == NULL) {
+        (*env)->ExceptionClear(env);
+        JS_ThrowOutOfMemory(ctx);
+        return NULL;
+    }
+
+    // Java calls java_host_class_set_method() or java_host_class_set_field()
+    (*env)->CallStaticVoidMethod(env, jni_helper_class, resolve_host_member_method,
+        JS_GetContextOpaque(ctx), (jlong) host_class, host_class->clazz, j_name);
+    (*env)->DeleteLocalRef(env, j_name);
+    if ((*env)->ExceptionCheck(env)) {
+        (*env)->ExceptionDescribe(env);
+        (*env)->ExceptionClear(env);
+        JS_ThrowInternalError(ctx, "Catch java exception");
+        return NULL;
+    }
+
+    member = obtain_member(ctx, host_class, atom);
+    if (member == NULL) JS_ThrowOutOfMemory(ctx);
+    return member;
+}
+
+static JSValue get_field(JSContext *ctx, JNIEnv *env, jobject object, JavaHostMember *member) {
+    jvalue value;
+
+    switch (member->signature) {
+        case 'Z': return JS_NewBool(ctx, (*env)->GetBooleanField(env, object, member->field));
+        case 'B': return JS_NewInt32(ctx, (*env)->GetByteField(env, object, member->field));
+        case 'S': return JS_NewInt32(ctx, (*env)->GetShortField(env, object, member->field));
+        case 'I': return JS_NewInt32(ctx, (*env)->GetIntField(env, object, member->field));
+        case 'F': return JS_NewFloat64(ctx, (*env)->GetFloatField(env, object, member->field));
+        case 'D': return JS_NewFloat64(ctx, (*env)->GetDoubleField(env, object, member->field));
+        case 'C':
+            value.c = (*env)->GetCharField(env, object, member->field);
+            return java_value_to_js_value(ctx, env, JS_GetContextOpaque(ctx), member->type, 'C', value);
+        case 'J':
+            value.j = (*env)->GetLongField(env, object, member->field);
+            return java_value_to_js_value(ctx, env, JS_GetContextOpaque(ctx), member->type, 'J', value);
+        default: {
+            value.l = (*env)->GetObjectField(env, object, member->field);
+            JSValue result = java_value_to_js_value(ctx, env, JS_GetContextOpaque(ctx), member->type, 'L', value);
+            (*env)->DeleteLocalRef(env, value.l);
+            return result;
+        }
+    }
+}
+
+static int set_field(JSContext *ctx, JNIEnv *env, jobject object, JavaHostMember *member, JSValueConst val) {
+    jvalue value;
+    if (js_value_to_java_value(ctx, env, JS_GetContextOpaque(ctx), member->type, val, &value)) {
+        JS_ThrowInternalError(ctx, "Failed to convert js value to java value");
+        return -1;
+    }
+
+    switch (member->signature) {
+        case 'Z': (*env)->SetBooleanField(env, object, member->field, value.z); break;
+        case 'B': (*env)->SetByteField(env, object, member->field, value.b); break;
+        case 'S': (*env)->SetShortField(env, object, member->field, value.s); break;
+        case 'I': (*env)->SetIntField(env, object, member->field, value.i); break;
+        case 'F': (*env)->SetFloatField(env, object, member->field, value.f); break;
+        case 'D': (*env)->SetDoubleField(env, object, member->field, value.d); break;
+        case 'C': (*env)->SetCharField(env, object, member->field, value.c); break;
+        case 'J': (*env)->SetLongField(env, object, member->field, value.j); break;
+        default:
+            (*env)->SetObjectField(env, object, member->field, value.l);
+            (*env)->DeleteLocalRef(env, value.l);
+            break;
+    }
+
+    return 1;
+}
+
+// Functions can't be shared between contexts, they are cached for each context
+static JSValue get_method(JSContext *ctx, JavaHostMember *member) {
+    for (JavaHostFunction *cached = member->functions; cached != NULL; cached = cached->next) {
+        if (cached->ctx == ctx) return JS_DupValue(ctx, cached->function);
+    }
+
+    JSValue function = QJ_NewJavaMethod(ctx, member->descriptor, JAVA_METHOD_CALLEE_RECEIVER);
+    if (JS_IsException(function)) return function;
+
+    // It still works without the cache
+    JavaHostFunction *cached = js_malloc_rt(JS_GetRuntime(ctx), sizeof(JavaHostFunction));
+    if (cached == NULL) return function;
+    cached->ctx = ctx;
+    cached->function = JS_DupValue(ctx, function);
+    cached->next = member->functions;
+    member->functions = cached;
+    return function;
+}
+
+static void free_functions(JSRuntime *rt, JavaHostMember *member, JSContext *ctx) {
+    JavaHostFunction **link = &member->functions;
+    while (*link != NULL) {
+        JavaHostFunction *cached = *link;
+        if (ctx != NULL && cached->ctx != ctx) {
+            link = &cached->next;
+            continue;
+        }
+        *link = cached->next;
+        JS_FreeValueRT(rt, cached->function);
+        js_free_rt(rt, cached);
+    }
+}
+
+static JSValue java_host_object_get_property(
+    JSContext *ctx,
+    JSValueConst obj,
+    JSAtom atom,
+    JSValueConst receiver
+) {
+    JavaHostObjectData *data = JS_GetOpaque(obj, java_host_object_class_id);
+    JavaHostClass *host_class = data->host_class;
+    JSValue result;
+
+    OBTAIN_ENV(host_class->vm);
+
+    if (env == NULL) {
+        result = JS_ThrowInternalError(ctx, "Can't obtain JNIEnv");
+        goto done;
+    }
+
+    JavaHostMember *member = resolve_member(ctx, env, host_class, atom);
+    if (member == NULL) {
+        result = JS_EXCEPTION;
+        goto done;
+    }
+
+    switch (member->kind) {
+        case MEMBER_METHOD:
+            result = get_method(ctx, member);
+            break;
+        case MEMBER_FIELD: {
+            jobject object = java_registry_get(env, JS_GetRuntime(ctx), data->slot);
+            if (object == NULL) {
+                result = JS_ThrowInternalError(ctx, "The java object is released");
+                goto done;
+            }
+            result = get_field(ctx, env, object, member);
+            (*env)->DeleteLocalRef(env, object);
+            break;
+        }
+        default: {
+            // Members of the prototype, like toString and hasOwnProperty.
+            // The prototype isn't duplicated by JS_GetPrototype.
+            JSValueConst proto = JS_GetPrototype(ctx, obj);
+            result = JS_IsObject(proto) ? JS_GetPropertyInternal(ctx, proto, atom, receiver, 0) : JS_UNDEFINED;
+            break;
+        }
+    }
+
+done:
+    RELEASE_ENV(host_class->vm);
+    return result;
+}
+
+static int java_host_object_set_property(
+    JSContext *ctx,
+    JSValueConst obj,
+    JSAtom atom,
+    JSValueConst value,
+    JSValueConst __unused receiver,
+    int __unused flags
+) {
+    JavaHostObjectData *data = JS_GetOpaque(obj, java_host_object_class_id);
+    JavaHostClass *host_class = data->host_class;
+    int result;
+
+    OBTAIN_ENV(host_class->vm);
+
+    if (env == NULL) {
+        JS_ThrowInternalError(ctx, "Can't obtain JNIEnv");
+        result = -1;
+        goto done;
+    }
+
+    JavaHostMember *member = resolve_member(ctx, env, host_class, atom);
+    if (member == NULL) {
+        result = -1;
+        goto done;
+    }
+
+    if (member->kind != MEMBER_FIELD || !member->writable) {
+        JS_ThrowTypeError(ctx, "The property of java object is read-only");
+        result = -1;
+        goto done;
+    }
+
+    jobject object = java_registry_get(env, JS_GetRuntime(ctx), data->slot);
+    if (object == NULL) {
+        JS_ThrowInternalError(ctx, "The java object is released");
+        result = -1;
+        goto done;
+    }
+    result = set_field(ctx, env, object, member, value);
+    (*env)->DeleteLocalRef(env, object);
+
+done:
+    RELEASE_ENV(host_class->vm);
+    return result;
+}
+
+static int java_host_object_has_property(JSContext *ctx, JSValueConst obj, JSAtom atom) {
+    JavaHostObjectData *data = JS_GetOpaque(obj, java_host_object_class_id);
+    JavaHostClass *host_class = data->host_class;
+    int result;
+
+    OBTAIN_ENV(host_class->vm);
+
+    if (env == NULL) {
+        JS_ThrowInternalError(ctx, "Can't obtain JNIEnv");
+        result = -1;
+    } else {
+        JavaHostMember *member = resolve_member(ctx, env, host_class, atom);
+        if (member == NULL) {
+            result = -1;
+        } else if (member->kind != MEMBER_NONE) {
+            result = 1;
+        } else {
+            JSValueConst proto = JS_GetPrototype(ctx, obj);
+            result = JS_IsObject(proto) ? JS_HasProperty(ctx, proto, atom) : 0;
+        }
+    }
+
+    RELEASE_ENV(host_class->vm);
+    return result;
+}
+
+static int java_host_object_get_own_property(
+    JSContext *ctx,
+    JSPropertyDescriptor *desc,
+    JSValueConst obj,
+    JSAtom atom
+) {
+    JavaHostObjectData *data = JS_GetOpaque(obj, java_host_object_class_id);
+    JavaHostClass *host_class = data->host_class;
+    int result;
+
+    OBTAIN_ENV(host_class->vm);
+
+    if (env == NULL) {
+        JS_ThrowInternalError(ctx, "Can't obtain JNIEnv");
+        result = -1;
+        goto done;
+    }
+
+    JavaHostMember *member = resolve_member(ctx, env, host_class, atom);
+    if (member == NULL) {
+        result = -1;
+        goto done;
+    }
+    if (member->kind == MEMBER_NONE) {
+        result = 0;
+        goto done;
+    }
+    if (desc == NULL) {
+        result = 1;
+        goto done;
+    }
+
+    JSValue value;
+    if (member->kind == MEMBER_METHOD) {
+        value = get_method(ctx, member);
+        desc->flags = JS_PROP_ENUMERABLE;
+    } else {
+        jobject object = java_registry_get(env, JS_GetRuntime(ctx), data->slot);
+        if (object == NULL) {
+            JS_ThrowInternalError(ctx, "The java object is released");
+            result = -1;
+            goto done;
+        }
+        value = get_field(ctx, env, object, member);
+        (*env)->DeleteLocalRef(env, object);
+        desc->flags = JS_PROP_ENUMERABLE | (member->writable ? JS_PROP_WRITABLE : 0);
+    }
+    if (JS_IsException(value)) {
+        result = -1;
+        goto done;
+    }
+    desc->value = value;
+    desc->getter = JS_UNDEFINED;
+    desc->setter = JS_UNDEFINED;
+    result = 1;
+
+done:
+    RELEASE_ENV(host_class->vm);
+    return result;
+}
+
+// Asks java for the names of all members on first enumeration
+static int resolve_member_names(JSContext *ctx, JNIEnv *env, JavaHostClass *host_class) {
+    if (host_class->names_resolved) return 0;
+
+    jobjectArray j_names = (*env)->CallStaticObjectMethod(env, jni_helper_class, get_host_member_names_method,
+        JS_GetContextOpaque(ctx), host_class->clazz);
+    if ((*env)->ExceptionCheck(env)) {
+        (*env)->ExceptionDescribe(env);
+        (*env)->ExceptionClear(env);
+        JS_ThrowInternalError(ctx, "Catch java exception");
+        return -1;
+    }
+
+    int count = (*env)->GetArrayLength(env, j_names);
+    JSAtom *names = count > 0 ? js_malloc(ctx, sizeof(JSAtom) * count) : NULL;
+    if (count > 0 && names == NULL) {
+        (*env)->DeleteLocalRef(env, j_names);
+        return -1;
+    }
+
+    int name_count = 0;
+    for (int i = 0; i < count; i++) {
+        jstring j_name = (*env)->GetObjectArrayElement(env, j_names, i);
+        const char *name = (*env)->GetStringUTFChars(env, j_name, NULL);
+        JSAtom atom = name != NULL ? JS_NewAtom(ctx, name) : JS_ATOM_NULL;
+        if (name != NULL) (*env)->ReleaseStringUTFChars(env, j_name, name);
+        (*env)->DeleteLocalRef(env, j_name);
+        if (atom == JS_ATOM_NULL) {
+            for (int j = 0; j < name_count; j++) JS_FreeAtom(ctx, names[j]);
+            js_free(ctx, names);
+            (*env)->DeleteLocalRef(env, j_names);
+            if (name == NULL) {
+                (*env)->ExceptionClear(env);
+                JS_ThrowOutOfMemory(ctx);
+            }
+            return -1;
+        }
+        names[name_count++] = atom;
+    }
+    (*env)->DeleteLocalRef(env, j_names);
+
+    host_class->names = names;
+    host_class->name_count = name_count;
+    host_class->names_resolved = JNI_TRUE;
+    return 0;
+}
+
+static int java_host_object_get_own_property_names(
+    JSContext *ctx,
+    JSPropertyEnum **ptab,
+    uint32_t *plen,
+    JSValueConst obj
+) {
+    JavaHostObjectData *data = JS_GetOpaque(obj, java_host_object_class_id);
+    JavaHostClass *host_class = data->host_class;
+    int result;
+
+    OBTAIN_ENV(host_class->vm);
+
+    if (env == NULL) {
+        JS_ThrowInternalError(ctx, "Can't obtain JNIEnv");
+        result = -1;
+        goto done;
+    }
+
+    if (resolve_member_names(ctx, env, host_class)) {
+        result = -1;
+        goto done;
+    }
+
+    // At least one entry, js_malloc(0) could return NULL
+    JSPropertyEnum *tab = js_malloc(ctx, sizeof(JSPropertyEnum) * (host_class->name_count > 0 ? host_class->name_count : 1));
+    if (tab == NULL) {
+        result = -1;
+        goto done;
+    }
+    for (int i = 0; i < host_class->name_count; i++) {
+        tab[i].is_enumerable = 1;
+        tab[i].atom = JS_DupAtom(ctx, host_class->names[i]);
+    }
+    *ptab = tab;
+    *plen = (uint32_t) host_class->name_count;
+    result = 0;
+
+done:
+    RELEASE_ENV(host_class->vm);
+    return result;
+}
+
+static void java_host_object_finalizer(JSRuntime *rt, JSValue val) {
+    JavaHostObjectData *data = JS_GetOpaque(val, java_host_object_class_id);
+    java_registry_release(rt, data->slot);
+    java_host_class_release(rt, data->host_class);
+    js_free_rt(rt, data);
+}
+
+static JSClassExoticMethods java_host_object_exotic = {
+    .get_own_property = java_host_object_get_own_property,
+    .get_own_property_names = java_host_object_get_own_property_names,
+    .get_property = java_host_object_get_property,
+    .set_property = java_host_object_set_property,
+    .has_property = java_host_object_has_property,
+};
+
+static JSClassDef java_host_object_class = {
+    "JavaHostObject",
+    .finalizer = java_host_object_finalizer,
+    .exotic = &java_host_object_exotic
+};
+
+int java_host_object_init(JNIEnv *env) {
+    // The class id is shared by all runtimes
+    JS_NewClassID(&java_host_object_class_id);
+
+    jni_helper_class = (*env)->FindClass(env, "com/hippo/quickjs/android/JNIHelper");
+    jni_helper_class = (*env)->NewGlobalRef(env, jni_helper_class);
+    if (jni_helper_class == NULL) return -1;
+
+    resolve_host_member_method = (*env)->GetStaticMethodID(env, jni_helper_class, "resolveHostMember",
+        "(Lcom/hippo/quickjs/android/JSContext;JLjava/lang/Class;Ljava/lang/String;)V");
+    if (resolve_host_member_method == NULL) return -1;
+
+    get_host_member_names_method = (*env)->GetStaticMethodID(env, jni_helper_class, "getHostMemberNames",
+        "(Lcom/hippo/quickjs/android/JSContext;Ljava/lang/Class;)[Ljava/lang/String;");
+    if (get_host_member_names_method == NULL) return -1;
+
+    return 0;
+}
+
+int java_host_object_init_runtime(JSRuntime *rt) {
+    if (JS_NewClass(rt, java_host_object_class_id, &java_host_object_class)) return -1;
+    return 0;
+}
+
+JavaHostClass *java_host_class_new(JSRuntime *rt, JNIEnv *env, jclass clazz) {
+    JavaHostClass *host_class = js_malloc_rt(rt, sizeof(JavaHostClass));
+    if (host_class == NULL) return NULL;
+
+    host_class->clazz = (*env)->NewGlobalRef(env, clazz);
+    if (host_class->clazz == NULL) {
+        js_free_rt(rt, host_class);
+        return NULL;
+    }
+    host_class->ref_count = 1;
+    (*env)->GetJavaVM(env, &host_class->vm);
+    host_class->names = NULL;
+    host_class->name_count = 0;
+    host_class->names_resolved = JNI_FALSE;
+    host_class->members = NULL;
+    host_class->member_count = 0;
+    host_class->member_capacity = 0;
+
+    return host_class;
+}
+
+void java_host_class_release(JSRuntime *rt, JavaHostClass *host_class) {
+    if (--host_class->ref_count > 0) return;
+
+    OBTAIN_ENV(host_class->vm);
+
+    for (int i = 0; i < host_class->member_capacity; i++) {
+        JavaHostMember *member = host_class->members + i;
+        if (member->atom == JS_ATOM_NULL) continue;
+        JS_FreeAtomRT(rt, member->atom);
+        free_functions(rt, member, NULL);
+        if (member->descriptor != NULL) {
+            java_method_descriptor_release(rt, member->descriptor);
+        }
+        if (member->type != NULL && env != NULL) {
+            (*env)->DeleteGlobalRef(env, member->type);
+        }
+    }
+
+    if (env != NULL) {
+        (*env)->DeleteGlobalRef(env, host_class->clazz);
+    }
+
+    RELEASE_ENV(host_class->vm);
+
+    for (int i = 0; i < host_class->name_count; i++) {
+        JS_FreeAtomRT(rt, host_class->names[i]);
+    }
+    js_free_rt(rt, host_class->names);
+    js_free_rt(rt, host_class->members);
+    js_free_rt(rt, host_class);
+}
+
+void java_host_class_close_context(JSContext *ctx, JavaHostClass *host_class) {
+    JSRuntime *rt = JS_GetRuntime(ctx);
+    for (int i = 0; i < host_class->member_capacity; i++) {
+        JavaHostMember *member = host_class->members + i;
+        if (member->atom == JS_ATOM_NULL) continue;
+        free_functions(rt, member, ctx);
+    }
+}
+
+static JavaHostMember *obtain_named_member(JSContext *ctx, JavaHostClass *host_class, const char *name) {
+    JSAtom atom = JS_NewAtom(ctx, name);
+    if (atom == JS_ATOM_NULL) return NULL;
+    JavaHostMember *member = obtain_member(ctx, host_class, atom);
+    JS_FreeAtom(ctx, atom);
+    return member;
+}
+
+int java_host_class_set_method(JSContext *ctx, JavaHostClass *host_class, const char *name, JavaMethodDescriptor *descriptor) {
+    JavaHostMember *member = obtain_named_member(ctx, host_class, name);
+    if (member == NULL) return -1;
+    // Resolved already
+    if (member->kind != MEMBER_NONE) return 0;
+
+    java_method_descriptor_retain(descriptor);
+    member->kind = MEMBER_METHOD;
+    member->descriptor = descriptor;
+    return 0;
+}
+
+int java_host_class_set_field(
+    JSContext *ctx,
+    JNIEnv *env,
+    JavaHostClass *host_class,
+    const char *name,
+    jfieldID field,
+    jobject type,
+    char signature,
+    jboolean writable
+) {
+    JavaHostMember *member = obtain_named_member(ctx, host_class, name);
+    if (member == NULL) return -1;
+    // Resolved already
+    if (member->kind != MEMBER_NONE) return 0;
+
+    member->type = (*env)->NewGlobalRef(env, type);
+    if (member->type == NULL) return -1;
+    member->kind = MEMBER_FIELD;
+    member->field = field;
+    member->signature = signature;
+    member->writable = writable;
+    return 0;
+}
+
+JSValue QJ_NewJavaHostObject(JSContext *ctx, JavaHostClass *host_class, jint slot) {
+    JSRuntime *rt = JS_GetRuntime(ctx);
+
+    JavaHostObjectData *data = js_malloc_rt(rt, sizeof(JavaHostObjectData));
+    if (data == NULL) {
+        java_registry_release(rt, slot);
+        return JS_ThrowOutOfMemory(ctx);
+    }
+
+    // Inherits toString, hasOwnProperty and valueOf
+    JSValue global = JS_GetGlobalObject(ctx);
+    JSValue object = JS_GetPropertyStr(ctx, global, "Object");
+    JS_FreeValue(ctx, global);
+    JSValue proto = JS_GetPropertyStr(ctx, object, "prototype");
+    JS_FreeValue(ctx, object);
+    if (JS_IsException(proto)) {
+        java_registry_release(rt, slot);
+        js_free_rt(rt, data);
+        return proto;
+    }
+
+    JSValue value = JS_NewObjectProtoClass(ctx, proto, java_host_object_class_id);
+    JS_FreeValue(ctx, proto);
+    if (JS_IsException(value)) {
+        java_registry_release(rt, slot);
+        js_free_rt(rt, data);
+        return value;
+    }
+
+    host_class->ref_count++;
+    data->slot = slot;
+    data->host_class = host_class;
+
+    JS_SetOpaque(value, data);
+
+    return value;
+}
+
+jobject QJ_GetJavaHostObject(JSContext *ctx, JNIEnv *env, JSValueConst val) {
+    JavaHostObjectData *data = JS_GetOpaque(val, java_host_object_class_id);
+    return data != NULL ? java_registry_get(env, JS_GetRuntime(ctx), data->slot) : NULL;
+}
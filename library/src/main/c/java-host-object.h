@@ -0,0 +1,38 @@
+#ifndef QUICKJS_ANDROID_JAVA_HOST_OBJECT_H
+#define QUICKJS_ANDROID_JAVA_HOST_OBJECT_H
+
+#include <jni.h>
+#include <quickjs.h>
+
+#include "java-method.h"
+
+// A JavaHostObject exposes fields and methods of a java object.
+// Members are resolved on first access and cached in the JavaHostClass,
+// which is shared by all JavaHostObjects of the same java class in a runtime.
+// Method functions are cached for each context.
+typedef struct JavaHostClass JavaHostClass;
+
+int java_host_object_init(JNIEnv *env);
+
+int java_host_object_init_runtime(JSRuntime *rt);
+
+// The reference count of the result is one
+JavaHostClass *java_host_class_new(JSRuntime *rt, JNIEnv *env, jclass clazz);
+
+void java_host_class_release(JSRuntime *rt, JavaHostClass *host_class);
+
+// Frees the cached functions of the context, called before the context is freed.
+// JavaHostObjects in other contexts could still use the JavaHostClass.
+void java_host_class_close_context(JSContext *ctx, JavaHostClass *host_class);
+
+int java_host_class_set_method(JSContext *ctx, JavaHostClass *host_class, const char *name, JavaMethodDescriptor *descriptor);
+
+int java_host_class_set_field(JSContext *ctx, JNIEnv *env, JavaHostClass *host_class, const char *name, jfieldID field, jobject type, char signature, jboolean writable);
+
+// The slot is owned by the JavaHostObject, it's released even if it fails
+JSValue QJ_NewJavaHostObject(JSContext *ctx, JavaHostClass *host_class, jint slot);
+
+// Returns NULL if the value is not a JavaHostObject
+jobject QJ_GetJavaHostObject(JSContext *ctx, JNIEnv *env, JSValueConst val);
+
+#endif //QUICKJS_ANDROID_JAVA_HOST_OBJECT_H
@@ -2,6 +2,8 @@
 
 #include "java-method.h"
 #include "java-helper.h"
+#include "java-object.h"
+#include "java-registry.h"
 
 // TODO append the java exception to the js exception
 #define CHECK_JAVA_EXCEPTION_NO(ENV)                                 \
@@ -33,133 +35,162 @@
         }                                                                      \
     } while (0)
 
-static int js_value_to_java_value(JSContext *ctx, JNIEnv *env, jobject js_context, jobject type, JSValueConst value, jvalue *result);
+static JSValue dispatch_java_method(JSContext *ctx, JNIEnv *env, jobject js_context, jobject invoker, jobject callee, jint member, int argc, JSValueConst *argv);
 
 static JSClassID java_method_class_id;
 
 typedef JSValue (*JavaMethodCaller)(JSContext *ctx, JNIEnv *env, jobject js_context, jobject return_type, jobject callee, jmethodID method, jvalue *argv);
 
-typedef struct {
+// Shared by all JavaMethods of the same java method
+struct JavaMethodDescriptor {
+    int ref_count;
     JavaVM *vm;
-    jobject js_context;
-    jobject callee;
+    // The declaring class, it's also the callee of static methods.
+    // It could be NULL for invokers.
+    jclass clazz;
+    jboolean is_static;
     jmethodID method;
     jobject return_type;
     int arg_count;
     jobject *arg_types;
     JavaMethodCaller caller;
-    jboolean is_callback_method;
-} JavaMethodData;
-
-static JSValue java_callback_method_call(
-    JSContext *ctx,
-    JavaMethodData *data,
-    int argc,
-    JSValueConst *argv
-) {
-    // Collect js arguments to an array
-    JSValue array = JS_NewArray(ctx);
-    for (int i = 0; i < argc; i++) {
-        JSValue val = argv[i];
-        JS_DupValue(ctx, val);
-        JS_SetPropertyUint32(ctx, array, (uint32_t) i, val);
-    }
-
-    // Set the array as the new argument
-    argc = 1;
-    JSValueConst new_argv[] = { array };
-    argv = new_argv;
-
-    OBTAIN_ENV(data->vm);
-
-    // The first argument is JSContext
-    // The second argument is the array
-    int arg_count = 2;
-    int arg_offset = 1;
-    jvalue java_argv[arg_count];
-    java_argv[0].l = data->js_context;
-    for (int i = 0; i < argc; i++) {
-        if (js_value_to_java_value(ctx, env, data->js_context, data->arg_types[arg_offset + i], argv[i], java_argv + arg_offset + i)) {
-            goto fail;
-        }
-    }
-
-    JSValue result = data->caller(ctx, env, data->js_context, data->return_type, data->callee, data->method, java_argv);
-
-    RELEASE_ENV(data->vm);
-    JS_FreeValue(ctx, array);
-    return result;
+    // Not NULL if the method is called through JNIHelper.dispatch()
+    jobject invoker;
+};
 
-fail:
-    RELEASE_ENV(data->vm);
-    JS_FreeValue(ctx, array);
-    return JS_ThrowInternalError(ctx, "Failed to convert js value to java value");
-}
+typedef struct {
+    JavaMethodDescriptor *descriptor;
+    // The registry slot of the callee, -1 for static methods,
+    // JAVA_METHOD_CALLEE_RECEIVER for the java object of this
+    jint callee;
+    // Passed to the invoker to select the member
+    jint member;
+} JavaMethodData;
 
 static JSValue java_normal_method_call(
     JSContext *ctx,
-    JavaMethodData *data,
+    JNIEnv *env,
+    jobject js_context,
+    JavaMethodDescriptor *descriptor,
+    jobject callee,
     int argc,
     JSValueConst *argv
 ) {
-    if (argc != data->arg_count) {
+    if (argc != descriptor->arg_count) {
         // TODO it's not internal, it blames on the caller
-        return JS_ThrowInternalError(ctx, "Inconsistent argument count, excepted: %d, actual: %d", data->arg_count, argc);
+        return JS_ThrowInternalError(ctx, "Inconsistent argument count, excepted: %d, actual: %d", descriptor->arg_count, argc);
     }
 
-    OBTAIN_ENV(data->vm);
-
     // Convert js value arguments to java value arguments
     jvalue java_argv[argc];
     for (int i = 0; i < argc; i++) {
-        if (js_value_to_java_value(ctx, env, data->js_context, data->arg_types[i], argv[i], java_argv + i)) {
-            goto fail;
+        if (js_value_to_java_value(ctx, env, js_context, descriptor->arg_types[i], argv[i], java_argv + i)) {
+            return JS_ThrowInternalError(ctx, "Failed to convert js value to java value");
         }
     }
 
-    JSValue result = data->caller(ctx, env, data->js_context, data->return_type, data->callee, data->method, java_argv);
-
-    RELEASE_ENV(data->vm);
-    return result;
-
-fail:
-    RELEASE_ENV(data->vm);
-    return JS_ThrowInternalError(ctx, "Failed to convert js value to java value");
+    return descriptor->caller(ctx, env, js_context, descriptor->return_type, callee, descriptor->method, java_argv);
 }
 
 static JSValue java_method_call(
     JSContext *ctx,
     JSValueConst func_obj,
-    JSValueConst __unused this_val,
+    JSValueConst this_val,
     int argc,
     JSValueConst *argv,
     int __unused flags
 ) {
     JavaMethodData *data = JS_GetOpaque(func_obj, java_method_class_id);
-    if (data->is_callback_method) {
-        return java_callback_method_call(ctx, data, argc, argv);
+    JavaMethodDescriptor *descriptor = data->descriptor;
+    JSValue result;
+
+    OBTAIN_ENV(descriptor->vm);
+
+    if (env == NULL) {
+        result = JS_ThrowInternalError(ctx, "Can't obtain JNIEnv");
+        goto done;
+    }
+
+    jobject js_context = JS_GetContextOpaque(ctx);
+    jboolean has_callee = JNI_TRUE;
+    jobject callee;
+    if (data->callee >= 0) {
+        callee = java_registry_get(env, JS_GetRuntime(ctx), data->callee);
+        if (callee == NULL) {
+            result = JS_ThrowInternalError(ctx, "The java object is released");
+            goto done;
+        }
+    } else if (data->callee == JAVA_METHOD_CALLEE_RECEIVER) {
+        callee = QJ_GetJavaObject(ctx, env, this_val);
+        if (callee == NULL) {
+            result = JS_ThrowTypeError(ctx, "this is not a java object");
+            goto done;
+        }
+        // The function could be called with any this, the jmethodID only works on the declaring class
+        if (descriptor->clazz != NULL && !(*env)->IsInstanceOf(env, callee, descriptor->clazz)) {
+            (*env)->DeleteLocalRef(env, callee);
+            result = JS_ThrowTypeError(ctx, "this is not an instance of the declaring class");
+            goto done;
+        }
+    } else {
+        // Static methods have no callee object
+        has_callee = JNI_FALSE;
+        callee = descriptor->clazz;
+    }
+
+    if (descriptor->invoker != NULL) {
+        result = dispatch_java_method(ctx, env, js_context, descriptor->invoker, callee, data->member, argc, argv);
     } else {
-        return java_normal_method_call(ctx, data, argc, argv);
+        result = java_normal_method_call(ctx, env, js_context, descriptor, callee, argc, argv);
+    }
+
+    if (has_callee) {
+        (*env)->DeleteLocalRef(env, callee);
     }
+
+done:
+    RELEASE_ENV(descriptor->vm);
+    return result;
 }
 
-static void java_method_finalizer(JSRuntime *rt, JSValue val) {
-    JavaMethodData *data = JS_GetOpaque(val, java_method_class_id);
+void java_method_descriptor_retain(JavaMethodDescriptor *descriptor) {
+    descriptor->ref_count++;
+}
+
+void java_method_descriptor_release(JSRuntime *rt, JavaMethodDescriptor *descriptor) {
+    if (--descriptor->ref_count > 0) return;
 
-    OBTAIN_ENV(data->vm);
+    OBTAIN_ENV(descriptor->vm);
 
     if (env != NULL) {
-        (*env)->DeleteGlobalRef(env, data->callee);
-        (*env)->DeleteGlobalRef(env, data->js_context);
-        (*env)->DeleteGlobalRef(env, data->return_type);
-        for (int i = 0; i < data->arg_count; i++) {
-            (*env)->DeleteGlobalRef(env, data->arg_types[i]);
+        if (descriptor->clazz != NULL) {
+            (*env)->DeleteGlobalRef(env, descriptor->clazz);
+        }
+        if (descriptor->invoker != NULL) {
+            (*env)->DeleteGlobalRef(env, descriptor->invoker);
+        }
+        if (descriptor->return_type != NULL) {
+            (*env)->DeleteGlobalRef(env, descriptor->return_type);
+        }
+        for (int i = 0; i < descriptor->arg_count; i++) {
+            (*env)->DeleteGlobalRef(env, descriptor->arg_types[i]);
         }
     }
 
-    RELEASE_ENV(data->vm);
+    RELEASE_ENV(descriptor->vm);
+
+    js_free_rt(rt, descriptor->arg_types);
+    js_free_rt(rt, descriptor);
+}
+
+static void java_method_finalizer(JSRuntime *rt, JSValue val) {
+    JavaMethodData *data = JS_GetOpaque(val, java_method_class_id);
+
+    if (data->callee >= 0) {
+        java_registry_release(rt, data->callee);
+    }
+    java_method_descriptor_release(rt, data->descriptor);
 
-    js_free_rt(rt, data->arg_types);
     js_free_rt(rt, data);
 }
 
@@ -169,14 +200,14 @@ static JSClassDef java_method_class = {
     .finalizer = java_method_finalizer
 };
 
-int java_method_init_context(JSContext *ctx) {
-    JS_NewClassID(&java_method_class_id);
-    if (JS_NewClass(JS_GetRuntime(ctx), java_method_class_id, &java_method_class)) return -1;
+int java_method_init_runtime(JSRuntime *rt) {
+    if (JS_NewClass(rt, java_method_class_id, &java_method_class)) return -1;
     return 0;
 }
 
 static jclass jni_helper_class;
 static jmethodID js_value_to_java_value_method;
+static jmethodID dispatch_method;
 static jmethodID java_boolean_to_js_value_method;
 static jmethodID java_char_to_js_value_method;
 static jmethodID java_byte_to_js_value_method;
@@ -207,6 +238,9 @@ static jobject float_primitive_type;
 static jobject double_primitive_type;
 
 int java_method_init(JNIEnv *env) {
+    // The class id is shared by all runtimes
+    JS_NewClassID(&java_method_class_id);
+
     jni_helper_class = (*env)->FindClass(env, "com/hippo/quickjs/android/JNIHelper");
     jni_helper_class = (*env)->NewGlobalRef(env, jni_helper_class);
     if (jni_helper_class == NULL) return -1;
@@ -218,6 +252,7 @@ int java_method_init(JNIEnv *env) {
     } while (0)
 
     GET_STATIC_METHOD(js_value_to_java_value_method, "jsValueToJavaValue", "(Lcom/hippo/quickjs/android/JSContext;Ljava/lang/reflect/Type;J)Ljava/lang/Object;");
+    GET_STATIC_METHOD(dispatch_method, "dispatch", "(Lcom/hippo/quickjs/android/JSContext;Lcom/hippo/quickjs/android/JavaMethodInvoker;Ljava/lang/Object;I[J)J");
     GET_STATIC_METHOD(java_boolean_to_js_value_method, "javaValueToJSValue", "(Lcom/hippo/quickjs/android/JSContext;Ljava/lang/reflect/Type;Z)J");
     GET_STATIC_METHOD(java_char_to_js_value_method, "javaValueToJSValue", "(Lcom/hippo/quickjs/android/JSContext;Ljava/lang/reflect/Type;C)J");
     GET_STATIC_METHOD(java_byte_to_js_value_method, "javaValueToJSValue", "(Lcom/hippo/quickjs/android/JSContext;Ljava/lang/reflect/Type;B)J");
@@ -306,7 +341,7 @@ static int unbox_primitive_type(JNIEnv *env, jobject type, jvalue *value) {
         }                                                                              \
     } while (0)
 
-static int js_value_to_java_value(
+int js_value_to_java_value(
     JSContext *ctx,
     JNIEnv *env,
     jobject js_context,
@@ -326,6 +361,81 @@ static int js_value_to_java_value(
     return unbox_primitive_type(env, type, result);
 }
 
+JSValue java_value_to_js_value(
+    JSContext *ctx,
+    JNIEnv *env,
+    jobject js_context,
+    jobject type,
+    char signature,
+    jvalue value
+) {
+    jmethodID method;
+    switch (signature) {
+        case 'Z': method = java_boolean_to_js_value_method; break;
+        case 'C': method = java_char_to_js_value_method; break;
+        case 'B': method = java_byte_to_js_value_method; break;
+        case 'S': method = java_short_to_js_value_method; break;
+        case 'I': method = java_int_to_js_value_method; break;
+        case 'J': method = java_long_to_js_value_method; break;
+        case 'F': method = java_float_to_js_value_method; break;
+        case 'D': method = java_double_to_js_value_method; break;
+        default: method = java_object_to_js_value_method; break;
+    }
+
+    jvalue args[3];
+    args[0].l = js_context;
+    args[1].l = type;
+    args[2] = value;
+    JSValue *result = (JSValue *) (*env)->CallStaticLongMethodA(env, jni_helper_class, method, args);
+    CHECK_JAVA_EXCEPTION_JS_EXCEPTION(ctx, env);
+
+    return JS_DupValue(ctx, *result);
+}
+
+static JSValue dispatch_java_method(
+    JSContext *ctx,
+    JNIEnv *env,
+    jobject js_context,
+    jobject invoker,
+    jobject callee,
+    jint member,
+    int argc,
+    JSValueConst *argv
+) {
+    JSRuntime *rt = JS_GetRuntime(ctx);
+
+    jlongArray args = (*env)->NewLongArray(env, argc);
+    if (args == NULL) {
+        (*env)->ExceptionClear(env);
+        return JS_ThrowOutOfMemory(ctx);
+    }
+
+    // Java takes the ownership of the copies
+    jlong copies[argc > 0 ? argc : 1];
+    for (int i = 0; i < argc; i++) {
+        JSValue *copy = NULL;
+        JSValue value = JS_DupValue(ctx, argv[i]);
+        COPY_JS_VALUE(ctx, value, copy);
+        if (copy == NULL) {
+            for (int j = 0; j < i; j++) {
+                JS_FreeValue(ctx, *((JSValue *) copies[j]));
+                js_free_rt(rt, (void *) copies[j]);
+            }
+            (*env)->DeleteLocalRef(env, args);
+            return JS_ThrowOutOfMemory(ctx);
+        }
+        copies[i] = (jlong) copy;
+    }
+    (*env)->SetLongArrayRegion(env, args, 0, argc, copies);
+
+    // Conversions and the invocation are all done in java
+    JSValue *result = (JSValue *) (*env)->CallStaticLongMethod(env, jni_helper_class, dispatch_method, js_context, invoker, callee, member, args);
+    (*env)->DeleteLocalRef(env, args);
+    CHECK_JAVA_EXCEPTION_JS_EXCEPTION(ctx, env);
+
+    return JS_DupValue(ctx, *result);
+}
+
 static JSValue call_void_java_method(
     JSContext *ctx,
     JNIEnv *env,
@@ -411,59 +521,96 @@ static JavaMethodCaller select_java_method_caller(JNIEnv *env, jboolean is_stati
     return NULL;
 }
 
-JSValue QJ_NewJavaMethod(
-    JSContext *ctx,
+JavaMethodDescriptor *java_method_descriptor_new(
+    JSRuntime *rt,
     JNIEnv *env,
-    jobject js_context,
+    jclass clazz,
     jboolean is_static,
-    jobject callee,
     jmethodID method,
     jobject return_type,
     int arg_count,
-    jobject *arg_types,
-    jboolean is_callback_method
+    jobject *arg_types
 ) {
     JavaMethodCaller caller = select_java_method_caller(env, is_static, return_type);
-    if (caller == NULL) return JS_EXCEPTION;
+    if (caller == NULL) return NULL;
 
-    JSRuntime *rt = JS_GetRuntime(ctx);
-    JavaMethodData *data = NULL;
+    JavaMethodDescriptor *descriptor = NULL;
     jobject *arg_types_copy = NULL;
 
-    data = js_malloc_rt(rt, sizeof(JavaMethodData));
-    if (data == NULL) goto oom;
+    descriptor = js_malloc_rt(rt, sizeof(JavaMethodDescriptor));
+    if (descriptor == NULL) goto oom;
     if (arg_count > 0) {
         arg_types_copy = js_malloc_rt(rt, sizeof(jobject) * arg_count);
         if (arg_types_copy == NULL) goto oom;
     }
 
+    for (int i = 0; i < arg_count; i++) {
+        arg_types_copy[i] = (*env)->NewGlobalRef(env, arg_types[i]);
+    }
+
+    descriptor->ref_count = 1;
+    (*env)->GetJavaVM(env, &descriptor->vm);
+    descriptor->clazz = (*env)->NewGlobalRef(env, clazz);
+    descriptor->is_static = is_static;
+    descriptor->method = method;
+    descriptor->return_type = (*env)->NewGlobalRef(env, return_type);
+    descriptor->arg_count = arg_count;
+    descriptor->arg_types = arg_types_copy;
+    descriptor->caller = caller;
+    descriptor->invoker = NULL;
+
+    return descriptor;
+
+oom:
+    js_free_rt(rt, descriptor);
+    js_free_rt(rt, arg_types_copy);
+    return NULL;
+}
+
+JavaMethodDescriptor *java_method_descriptor_new_invoker(JSRuntime *rt, JNIEnv *env, jclass clazz, jobject invoker) {
+    JavaMethodDescriptor *descriptor = js_malloc_rt(rt, sizeof(JavaMethodDescriptor));
+    if (descriptor == NULL) return NULL;
+
+    descriptor->ref_count = 1;
+    (*env)->GetJavaVM(env, &descriptor->vm);
+    descriptor->clazz = clazz != NULL ? (*env)->NewGlobalRef(env, clazz) : NULL;
+    descriptor->is_static = JNI_FALSE;
+    descriptor->method = NULL;
+    descriptor->return_type = NULL;
+    descriptor->arg_count = 0;
+    descriptor->arg_types = NULL;
+    descriptor->caller = NULL;
+    descriptor->invoker = (*env)->NewGlobalRef(env, invoker);
+
+    return descriptor;
+}
+
+JSValue QJ_NewJavaMethod(JSContext *ctx, JavaMethodDescriptor *descriptor, jint callee) {
+    return QJ_NewJavaMethodMember(ctx, descriptor, callee, 0);
+}
+
+JSValue QJ_NewJavaMethodMember(JSContext *ctx, JavaMethodDescriptor *descriptor, jint callee, jint member) {
+    JSRuntime *rt = JS_GetRuntime(ctx);
+
+    JavaMethodData *data = js_malloc_rt(rt, sizeof(JavaMethodData));
+    if (data == NULL) {
+        if (callee >= 0) java_registry_release(rt, callee);
+        return JS_ThrowOutOfMemory(ctx);
+    }
+
     JSValue value = JS_NewObjectClass(ctx, java_method_class_id);
     if (JS_IsException(value)) {
+        if (callee >= 0) java_registry_release(rt, callee);
         js_free_rt(rt, data);
-        js_free_rt(rt, arg_types_copy);
         return value;
     }
 
-    for (int i = 0; i < arg_count; i++) {
-        arg_types_copy[i] = (*env)->NewGlobalRef(env, arg_types[i]);
-    }
-
-    (*env)->GetJavaVM(env, &data->vm);
-    data->js_context = (*env)->NewGlobalRef(env, js_context);
-    data->callee = (*env)->NewGlobalRef(env, callee);
-    data->method = method;
-    data->return_type = (*env)->NewGlobalRef(env, return_type);
-    data->arg_count = arg_count;
-    data->arg_types = arg_types_copy;
-    data->caller = caller;
-    data->is_callback_method = is_callback_method;
+    descriptor->ref_count++;
+    data->descriptor = descriptor;
+    data->callee = callee;
+    data->member = member;
 
     JS_SetOpaque(value, data);
 
     return value;
-
-oom:
-    js_free_rt(rt, data);
-    js_free_rt(rt, arg_types_copy);
-    return JS_ThrowOutOfMemory(ctx);
 }
@@ -6,8 +6,39 @@
 
 int java_method_init(JNIEnv *env);
 
-int java_method_init_context(JSContext *ctx);
+int java_method_init_runtime(JSRuntime *rt);
 
-JSValue QJ_NewJavaMethod(JSContext *ctx, JNIEnv *env, jobject js_context, jboolean is_static, jobject callee, jmethodID method, jobject return_type, int arg_count, jobject *arg_types, jboolean is_callback_method);
+typedef struct JavaMethodDescriptor JavaMethodDescriptor;
+
+// The reference count of the result is one
+JavaMethodDescriptor *java_method_descriptor_new(JSRuntime *rt, JNIEnv *env, jclass clazz, jboolean is_static, jmethodID method, jobject return_type, int arg_count, jobject *arg_types);
+
+// The method is called through JNIHelper.dispatch() with the JavaMethodInvoker.
+// The class is checked against the java object of this, it could be NULL.
+// The reference count of the result is one
+JavaMethodDescriptor *java_method_descriptor_new_invoker(JSRuntime *rt, JNIEnv *env, jclass clazz, jobject invoker);
+
+void java_method_descriptor_retain(JavaMethodDescriptor *descriptor);
+
+void java_method_descriptor_release(JSRuntime *rt, JavaMethodDescriptor *descriptor);
+
+// The callee is the java object of this, the function could be shared by all of them
+#define JAVA_METHOD_CALLEE_RECEIVER (-2)
+
+// The callee slot is owned by the JavaMethod, it's released even if it fails.
+// The callee could also be -1 for static methods or JAVA_METHOD_CALLEE_RECEIVER
+JSValue QJ_NewJavaMethod(JSContext *ctx, JavaMethodDescriptor *descriptor, jint callee);
+
+// Same as QJ_NewJavaMethod, the member is passed to the invoker of the descriptor,
+// so one invoker could dispatch all members of a class
+JSValue QJ_NewJavaMethodMember(JSContext *ctx, JavaMethodDescriptor *descriptor, jint callee, jint member);
+
+// Converts the JavaScript value with the TypeAdapter of the type,
+// primitive types are unboxed. Returns -1 if it fails.
+int js_value_to_java_value(JSContext *ctx, JNIEnv *env, jobject js_context, jobject type, JSValueConst value, jvalue *result);
+
+// Converts the java value with the TypeAdapter of the type.
+// The signature is the jni signature char of the type, 'L' for objects.
+JSValue java_value_to_js_value(JSContext *ctx, JNIEnv *env, jobject js_context, jobject type, char signature, jvalue value);
 
 #endif //QUICKJS_ANDROID_JAVA_METHOD_H
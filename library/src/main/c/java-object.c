@@ -1,24 +1,48 @@
 #include "java-object.h"
-#include "java-helper.h"
+#include "java-host-object.h"
+#include "java-collection.h"
+#include "java-registry.h"
 
 static JSClassID java_object_class_id;
 
+// JavaObjects of a slot are cached by context and prototype to keep the identity.
+// The registry holds the first one, the others are linked from it.
 typedef struct {
-    JavaVM *vm;
-    jobject object;
+    jint slot;
+    // The context the JavaObject is cached for, NULL if it's not cached
+    JSContext *ctx;
+    // The prototype requested at creation, NULL for the default one
+    void *proto;
+    // The next cached JavaObject of the slot
+    void *next;
 } JavaObjectData;
 
-static void java_object_finalizer(JSRuntime *rt, JSValue val) {
-    JavaObjectData *data = JS_GetOpaque(val, java_object_class_id);
-
-    OBTAIN_ENV(data->vm);
+static JavaObjectData *get_data(void *wrapper) {
+    return JS_GetOpaque(JS_MKPTR(JS_TAG_OBJECT, wrapper), java_object_class_id);
+}
 
-    if (env != NULL) {
-        (*env)->DeleteGlobalRef(env, data->object);
+static void unlink_wrapper(JSRuntime *rt, JavaObjectData *data, void *wrapper) {
+    void *current = java_registry_get_wrapper(rt, data->slot);
+    if (current == wrapper) {
+        java_registry_set_wrapper(rt, data->slot, data->next);
+    } else {
+        while (current != NULL) {
+            JavaObjectData *current_data = get_data(current);
+            if (current_data->next == wrapper) {
+                current_data->next = data->next;
+                break;
+            }
+            current = current_data->next;
+        }
     }
+    data->ctx = NULL;
+    data->next = NULL;
+}
 
-    RELEASE_ENV(data->vm);
-
+static void java_object_finalizer(JSRuntime *rt, JSValue val) {
+    JavaObjectData *data = JS_GetOpaque(val, java_object_class_id);
+    if (data->ctx != NULL) unlink_wrapper(rt, data, JS_VALUE_GET_PTR(val));
+    java_registry_release(rt, data->slot);
     js_free_rt(rt, data);
 }
 
@@ -27,33 +51,87 @@ static JSClassDef java_object_class = {
     .finalizer = java_object_finalizer
 };
 
-int java_object_init_context(JSContext *ctx) {
+int java_object_init(JNIEnv __unused *env) {
+    // The class id is shared by all runtimes
     JS_NewClassID(&java_object_class_id);
-    if (JS_NewClass(JS_GetRuntime(ctx), java_object_class_id, &java_object_class)) return -1;
     return 0;
 }
 
-JSValue QJ_NewJavaObject(JSContext *ctx, JNIEnv *env, jobject object) {
+int java_object_init_runtime(JSRuntime *rt) {
+    if (JS_NewClass(rt, java_object_class_id, &java_object_class)) return -1;
+    return 0;
+}
+
+JSValue QJ_NewJavaObject(JSContext *ctx, jint slot, JSValueConst proto) {
     JSRuntime *rt = JS_GetRuntime(ctx);
+    void *proto_ptr = JS_IsObject(proto) ? JS_VALUE_GET_PTR(proto) : NULL;
+
+    // Return the existing JavaObject to keep the identity,
+    // the default prototype differs in each context
+    void *head = java_registry_get_wrapper(rt, slot);
+    for (void *wrapper = head; wrapper != NULL; wrapper = get_data(wrapper)->next) {
+        JavaObjectData *existing_data = get_data(wrapper);
+        if (existing_data->ctx == ctx && existing_data->proto == proto_ptr) {
+            // The existing JavaObject owns the slot already
+            java_registry_release(rt, slot);
+            return JS_DupValue(ctx, JS_MKPTR(JS_TAG_OBJECT, wrapper));
+        }
+    }
 
     JavaObjectData *data = js_malloc_rt(rt, sizeof(JavaObjectData));
-    if (data == NULL) return JS_ThrowOutOfMemory(ctx);
+    if (data == NULL) {
+        java_registry_release(rt, slot);
+        return JS_ThrowOutOfMemory(ctx);
+    }
 
-    JSValue value = JS_NewObjectClass(ctx, java_object_class_id);
+    JSValue value = proto_ptr == NULL
+        ? JS_NewObjectClass(ctx, java_object_class_id)
+        : JS_NewObjectProtoClass(ctx, proto, java_object_class_id);
     if (JS_IsException(value)) {
+        java_registry_release(rt, slot);
         js_free_rt(rt, data);
         return value;
     }
 
-    (*env)->GetJavaVM(env, &data->vm);
-    data->object = (*env)->NewGlobalRef(env, object);
+    data->slot = slot;
+    data->ctx = ctx;
+    data->proto = proto_ptr;
+    data->next = head;
 
     JS_SetOpaque(value, data);
 
+    java_registry_set_wrapper(rt, slot, JS_VALUE_GET_PTR(value));
+    if (java_registry_get_wrapper(rt, slot) != JS_VALUE_GET_PTR(value)) {
+        // It's out of memory, it's not cached
+        data->ctx = NULL;
+        data->next = NULL;
+    }
+
     return value;
 }
 
-jobject QJ_GetJavaObject(JSContext __unused *ctx, JSValueConst val) {
+void java_object_close_context(JSContext *ctx) {
+    JSRuntime *rt = JS_GetRuntime(ctx);
+    JavaRegistry *registry = JS_GetRuntimeOpaque(rt);
+    if (registry == NULL) return;
+
+    // A new context may get the same address
+    for (jint slot = 0; slot < registry->wrappers_capacity; slot++) {
+        void *wrapper = registry->wrappers[slot];
+        while (wrapper != NULL) {
+            JavaObjectData *data = get_data(wrapper);
+            void *next = data->next;
+            if (data->ctx == ctx) unlink_wrapper(rt, data, wrapper);
+            wrapper = next;
+        }
+    }
+}
+
+jobject QJ_GetJavaObject(JSContext *ctx, JNIEnv *env, JSValueConst val) {
     JavaObjectData *data = JS_GetOpaque(val, java_object_class_id);
-    return data != NULL ? data->object : NULL;
+    if (data == NULL) {
+        jobject result = QJ_GetJavaHostObject(ctx, env, val);
+        return result != NULL ? result : QJ_GetJavaCollection(ctx, env, val);
+    }
+    return java_registry_get(env, JS_GetRuntime(ctx), data->slot);
 }
@@ -4,10 +4,18 @@
 #include <jni.h>
 #include <quickjs.h>
 
-int java_object_init_context(JSContext *ctx);
+int java_object_init(JNIEnv *env);
 
-JSValue QJ_NewJavaObject(JSContext *ctx, JNIEnv *env, jobject object);
+int java_object_init_runtime(JSRuntime *rt);
 
-jobject QJ_GetJavaObject(JSContext *ctx, JSValueConst val);
+// The slot is owned by the JavaObject, it's released even if it fails.
+// The default prototype is used if proto is undefined.
+JSValue QJ_NewJavaObject(JSContext *ctx, jint slot, JSValueConst proto);
+
+// Stops caching the JavaObjects of the context, called before the context is freed
+void java_object_close_context(JSContext *ctx);
+
+// Returns the java object of a JavaObject or a JavaHostObject
+jobject QJ_GetJavaObject(JSContext *ctx, JNIEnv *env, JSValueConst val);
 
 #endif //QUICKJS_ANDROID_JAVA_OBJECT_H
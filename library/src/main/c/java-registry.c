@@ -0,0 +1,155 @@
+#include <malloc.h>
+#include <string.h>
+
+#include "java-registry.h"
+#include "java-helper.h"
+
+#define RELEASED_INITIAL_CAPACITY 64
+
+static jfieldID objects_field;
+static jmethodID release_method;
+static jmethodID release_all_method;
+
+int java_registry_init(JNIEnv *env) {
+    jclass registry_class = (*env)->FindClass(env, "com/hippo/quickjs/android/JavaObjectRegistry");
+    if (registry_class == NULL) return -1;
+
+    objects_field = (*env)->GetFieldID(env, registry_class, "objects", "[Ljava/lang/Object;");
+    if (objects_field == NULL) return -1;
+
+    release_method = (*env)->GetMethodID(env, registry_class, "release", "(I)V");
+    if (release_method == NULL) return -1;
+
+    release_all_method = (*env)->GetMethodID(env, registry_class, "releaseAll", "([I)V");
+    if (release_all_method == NULL) return -1;
+
+    return 0;
+}
+
+JavaRegistry *java_registry_new(JNIEnv *env, jobject registry) {
+    JavaRegistry *result = malloc(sizeof(JavaRegistry));
+    if (result == NULL) return NULL;
+
+    (*env)->GetJavaVM(env, &result->vm);
+    result->released = NULL;
+    result->released_count = 0;
+    result->released_capacity = 0;
+    result->wrappers = NULL;
+    result->wrappers_capacity = 0;
+    result->registry = (*env)->NewGlobalRef(env, registry);
+    if (result->registry == NULL) {
+        free(result);
+        return NULL;
+    }
+
+    return result;
+}
+
+void java_registry_free(JNIEnv *env, JavaRegistry *registry) {
+    if (registry == NULL) return;
+    // The java registry is dropped with the runtime, queued slots don't matter
+    (*env)->DeleteGlobalRef(env, registry->registry);
+    free(registry->released);
+    free(registry->wrappers);
+    free(registry);
+}
+
+jobject java_registry_get(JNIEnv *env, JSRuntime *rt, jint slot) {
+    JavaRegistry *registry = JS_GetRuntimeOpaque(rt);
+    if (registry == NULL) return NULL;
+
+    // Read the array directly, no need to call into java
+    jobjectArray objects = (*env)->GetObjectField(env, registry->registry, objects_field);
+    if (objects == NULL) return NULL;
+    jobject result = (*env)->GetObjectArrayElement(env, objects, slot);
+    (*env)->DeleteLocalRef(env, objects);
+
+    return result;
+}
+
+static void release_now(JavaRegistry *registry, jint slot) {
+    OBTAIN_ENV(registry->vm);
+
+    if (env != NULL) {
+        (*env)->CallVoidMethod(env, registry->registry, release_method, slot);
+        if ((*env)->ExceptionCheck(env)) {
+            (*env)->ExceptionDescribe(env);
+            (*env)->ExceptionClear(env);
+        }
+    }
+
+    RELEASE_ENV(registry->vm);
+}
+
+void java_registry_release(JSRuntime *rt, jint slot) {
+    JavaRegistry *registry = JS_GetRuntimeOpaque(rt);
+    if (registry == NULL) return;
+
+    if (registry->released_count == registry->released_capacity) {
+        int new_capacity = registry->released_capacity == 0
+            ? RELEASED_INITIAL_CAPACITY
+            : registry->released_capacity * 2;
+        jint *new_released = realloc(registry->released, sizeof(jint) * new_capacity);
+        if (new_released == NULL) {
+            // Can't queue it, release it now
+            release_now(registry, slot);
+            return;
+        }
+        registry->released = new_released;
+        registry->released_capacity = new_capacity;
+    }
+
+    registry->released[registry->released_count++] = slot;
+}
+
+void *java_registry_get_wrapper(JSRuntime *rt, jint slot) {
+    JavaRegistry *registry = JS_GetRuntimeOpaque(rt);
+    if (registry == NULL || slot < 0 || slot >= registry->wrappers_capacity) return NULL;
+    return registry->wrappers[slot];
+}
+
+void java_registry_set_wrapper(JSRuntime *rt, jint slot, void *wrapper) {
+    JavaRegistry *registry = JS_GetRuntimeOpaque(rt);
+    if (registry == NULL || slot < 0) return;
+
+    if (slot >= registry->wrappers_capacity) {
+        int new_capacity = registry->wrappers_capacity == 0 ? 16 : registry->wrappers_capacity;
+        while (new_capacity <= slot) new_capacity *= 2;
+        void **new_wrappers = realloc(registry->wrappers, sizeof(void *) * new_capacity);
+        if (new_wrappers == NULL) return;
+        memset(new_wrappers + registry->wrappers_capacity, 0, sizeof(void *) * (new_capacity - registry->wrappers_capacity));
+        registry->wrappers = new_wrappers;
+        registry->wrappers_capacity = new_capacity;
+    }
+
+    registry->wrappers[slot] = wrapper;
+}
+
+int java_registry_released_count(JSRuntime *rt) {
+    JavaRegistry *registry = JS_GetRuntimeOpaque(rt);
+    if (registry == NULL) return 0;
+    return registry->released_count;
+}
+
+void java_registry_flush(JNIEnv *env, JSRuntime *rt) {
+    JavaRegistry *registry = JS_GetRuntimeOpaque(rt);
+    if (registry == NULL || registry->released_count == 0) return;
+    if ((*env)->ExceptionCheck(env)) return;
+
+    jintArray slots = (*env)->NewIntArray(env, registry->released_count);
+    if (slots == NULL) {
+        (*env)->ExceptionClear(env);
+        return;
+    }
+    (*env)->SetIntArrayRegion(env, slots, 0, registry->released_count, registry->released);
+
+    // Clear the queue first, java code may trigger finalizers again
+    registry->released_count = 0;
+
+    (*env)->CallVoidMethod(env, registry->registry, release_all_method, slots);
+    if ((*env)->ExceptionCheck(env)) {
+        (*env)->ExceptionDescribe(env);
+        (*env)->ExceptionClear(env);
+    }
+    (*env)->DeleteLocalRef(env, slots);
+}
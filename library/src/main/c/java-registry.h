@@ -0,0 +1,49 @@
+#ifndef QUICKJS_ANDROID_JAVA_REGISTRY_H
+#define QUICKJS_ANDROID_JAVA_REGISTRY_H
+
+#include <jni.h>
+#include <quickjs.h>
+
+// JavaScript values reference java objects through slots of JavaObjectRegistry,
+// instead of holding JNI global references.
+// Each runtime has its own registry, it's the opaque of the runtime.
+typedef struct JavaRegistry {
+    JavaVM *vm;
+    jobject registry;
+    // Slots released by finalizers, waiting for java_registry_flush()
+    jint *released;
+    int released_count;
+    int released_capacity;
+    // The first cached JavaObject of each slot, without holding a reference.
+    // It's maintained by java-object.c.
+    void **wrappers;
+    int wrappers_capacity;
+} JavaRegistry;
+
+int java_registry_init(JNIEnv *env);
+
+JavaRegistry *java_registry_new(JNIEnv *env, jobject registry);
+
+void java_registry_free(JNIEnv *env, JavaRegistry *registry);
+
+// Returns a local reference of the java object in the slot
+jobject java_registry_get(JNIEnv *env, JSRuntime *rt, jint slot);
+
+// Queues the slot to release, it's safe to call it in finalizers.
+// No JNI call is made unless the queue can't grow.
+void java_registry_release(JSRuntime *rt, jint slot);
+
+// Returns the first cached JavaObject of the slot, or NULL if there isn't one
+void *java_registry_get_wrapper(JSRuntime *rt, jint slot);
+
+// Does nothing if it's out of memory, the wrapper is not cached then
+void java_registry_set_wrapper(JSRuntime *rt, jint slot, void *wrapper);
+
+// Returns the count of queued slots
+int java_registry_released_count(JSRuntime *rt);
+
+// Releases all queued slots with one call to java.
+// Does nothing if there is a pending java exception.
+void java_registry_flush(JNIEnv *env, JSRuntime *rt);
+
+#endif //QUICKJS_ANDROID_JAVA_REGISTRY_H
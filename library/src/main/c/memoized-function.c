@@ -0,0 +1,389 @@
+#include <math.h>
+#include <string.h>
+
+#include "memoized-function.h"
+
+#define KEY_TAG_UNDEFINED 0
+#define KEY_TAG_NULL 1
+#define KEY_TAG_FALSE 2
+#define KEY_TAG_TRUE 3
+#define KEY_TAG_INT 4
+#define KEY_TAG_DOUBLE 5
+#define KEY_TAG_STRING 6
+
+#define INLINE_KEY_SIZE 128
+
+// The buckets start small and grow with the entries
+#define INITIAL_BUCKET_COUNT 16
+
+typedef struct MemoEntry {
+    struct MemoEntry *hash_next;
+    struct MemoEntry *lru_prev;
+    struct MemoEntry *lru_next;
+    JSValue result;
+    uint32_t hash;
+    uint32_t key_size;
+    uint8_t key[];
+} MemoEntry;
+
+typedef struct {
+    JSValue func;
+    uint32_t max_entries;
+    // The buckets don't grow beyond it
+    uint32_t max_bucket_count;
+    uint32_t bucket_mask;
+    MemoEntry **buckets;
+    // The most recently used entry is the head
+    MemoEntry *lru_head;
+    MemoEntry *lru_tail;
+    int64_t stats[MEMO_STATS_COUNT];
+} MemoizedFunctionData;
+
+typedef struct {
+    JSRuntime *rt;
+    uint8_t *data;
+    size_t size;
+    size_t capacity;
+    uint8_t inline_data[INLINE_KEY_SIZE];
+} KeyBuffer;
+
+static JSClassID memoized_function_class_id;
+
+static int key_buffer_append(KeyBuffer *buffer, const void *bytes, size_t size) {
+    if (buffer->size + size > buffer->capacity) {
+        size_t capacity = buffer->capacity * 2;
+        while (capacity < buffer->size + size) capacity *= 2;
+        uint8_t *data = js_malloc_rt(buffer->rt, capacity);
+        if (data == NULL) return -1;
+        memcpy(data, buffer->data, buffer->size);
+        if (buffer->data != buffer->inline_data) js_free_rt(buffer->rt, buffer->data);
+        buffer->data = data;
+        buffer->capacity = capacity;
+    }
+    memcpy(buffer->data + buffer->size, bytes, size);
+    buffer->size += size;
+    return 0;
+}
+
+static int key_buffer_append_tag(KeyBuffer *buffer, uint8_t tag) {
+    return key_buffer_append(buffer, &tag, 1);
+}
+
+static void key_buffer_free(KeyBuffer *buffer) {
+    if (buffer->data != buffer->inline_data) js_free_rt(buffer->rt, buffer->data);
+}
+
+// Appends the key of the argument.
+// Returns 1 if the argument can't be a part of a key, or -1 if it fails.
+static int append_argument(JSContext *ctx, KeyBuffer *buffer, JSValueConst arg) {
+    switch (JS_VALUE_GET_TAG(arg)) {
+        case JS_TAG_UNDEFINED:
+            return key_buffer_append_tag(buffer, KEY_TAG_UNDEFINED);
+        case JS_TAG_NULL:
+            return key_buffer_append_tag(buffer, KEY_TAG_NULL);
+        case JS_TAG_BOOL:
+            return key_buffer_append_tag(buffer, JS_VALUE_GET_BOOL(arg) ? KEY_TAG_TRUE : KEY_TAG_FALSE);
+        case JS_TAG_INT: {
+            int32_t i = JS_VALUE_GET_INT(arg);
+            if (key_buffer_append_tag(buffer, KEY_TAG_INT)) return -1;
+            return key_buffer_append(buffer, &i, sizeof(i));
+        }
+        case JS_TAG_FLOAT64: {
+            double d = JS_VALUE_GET_FLOAT64(arg);
+            // 1 and 1.0 are the same value, but -0 is not 0
+            int32_t i = (int32_t) d;
+            if (d >= INT32_MIN && d <= INT32_MAX && (double) i == d && !(i == 0 && signbit(d))) {
+                if (key_buffer_append_tag(buffer, KEY_TAG_INT)) return -1;
+                return key_buffer_append(buffer, &i, sizeof(i));
+            }
+            // All NaNs are the same value
+            if (isnan(d)) d = NAN;
+            if (key_buffer_append_tag(buffer, KEY_TAG_DOUBLE)) return -1;
+            return key_buffer_append(buffer, &d, sizeof(d));
+        }
+        case JS_TAG_STRING: {
+            size_t length;
+            const char *str = JS_ToCStringLen(ctx, &length, arg);
+            if (str == NULL) return -1;
+            uint32_t size = (uint32_t) length;
+            int ret = key_buffer_append_tag(buffer, KEY_TAG_STRING)
+                    || key_buffer_append(buffer, &size, sizeof(size))
+                    || key_buffer_append(buffer, str, length) ? -1 : 0;
+            JS_FreeCString(ctx, str);
+            return ret;
+        }
+        default:
+            return 1;
+    }
+}
+
+// FNV-1a
+static uint32_t hash_key(const uint8_t *key, size_t size) {
+    uint32_t hash = 2166136261u;
+    for (size_t i = 0; i < size; i++) {
+        hash ^= key[i];
+        hash *= 16777619u;
+    }
+    return hash;
+}
+
+static MemoEntry *find_entry(MemoizedFunctionData *data, uint32_t hash, const uint8_t *key, size_t key_size) {
+    MemoEntry *entry = data->buckets[hash & data->bucket_mask];
+    while (entry != NULL) {
+        if (entry->hash == hash && entry->key_size == key_size && memcmp(entry->key, key, key_size) == 0) {
+            return entry;
+        }
+        entry = entry->hash_next;
+    }
+    return NULL;
+}
+
+static void lru_unlink(MemoizedFunctionData *data, MemoEntry *entry) {
+    if (entry->lru_prev != NULL) entry->lru_prev->lru_next = entry->lru_next;
+    else data->lru_head = entry->lru_next;
+    if (entry->lru_next != NULL) entry->lru_next->lru_prev = entry->lru_prev;
+    else data->lru_tail = entry->lru_prev;
+}
+
+static void lru_push_head(MemoizedFunctionData *data, MemoEntry *entry) {
+    entry->lru_prev = NULL;
+    entry->lru_next = data->lru_head;
+    if (data->lru_head != NULL) data->lru_head->lru_prev = entry;
+    else data->lru_tail = entry;
+    data->lru_head = entry;
+}
+
+static void remove_entry(JSRuntime *rt, MemoizedFunctionData *data, MemoEntry *entry) {
+    MemoEntry **link = &data->buckets[entry->hash & data->bucket_mask];
+    while (*link != entry) link = &(*link)->hash_next;
+    *link = entry->hash_next;
+    lru_unlink(data, entry);
+    JS_FreeValueRT(rt, entry->result);
+    js_free_rt(rt, entry);
+    data->stats[MEMO_STATS_SIZE]--;
+}
+
+// Doubles the buckets if there are more entries than buckets.
+// The old buckets are kept if it fails.
+static void grow_buckets(JSRuntime *rt, MemoizedFunctionData *data) {
+    uint32_t bucket_count = data->bucket_mask + 1;
+    if (data->stats[MEMO_STATS_SIZE] <= bucket_count || bucket_count >= data->max_bucket_count) return;
+
+    bucket_count <<= 1;
+    MemoEntry **buckets = js_mallocz_rt(rt, sizeof(MemoEntry *) * bucket_count);
+    if (buckets == NULL) return;
+
+    for (MemoEntry *entry = data->lru_head; entry != NULL; entry = entry->lru_next) {
+        MemoEntry **bucket = &buckets[entry->hash & (bucket_count - 1)];
+        entry->hash_next = *bucket;
+        *bucket = entry;
+    }
+    js_free_rt(rt, data->buckets);
+    data->buckets = buckets;
+    data->bucket_mask = bucket_count - 1;
+}
+
+static void clear_entries(JSRuntime *rt, MemoizedFunctionData *data) {
+    MemoEntry *entry = data->lru_head;
+    while (entry != NULL) {
+        MemoEntry *next = entry->lru_next;
+        JS_FreeValueRT(rt, entry->result);
+        js_free_rt(rt, entry);
+        entry = next;
+    }
+    // Only the small initial buckets are cleared
+    MemoEntry **buckets = NULL;
+    if (data->bucket_mask + 1 > INITIAL_BUCKET_COUNT) {
+        buckets = js_mallocz_rt(rt, sizeof(MemoEntry *) * INITIAL_BUCKET_COUNT);
+    }
+    if (buckets != NULL) {
+        js_free_rt(rt, data->buckets);
+        data->buckets = buckets;
+        data->bucket_mask = INITIAL_BUCKET_COUNT - 1;
+    } else {
+        memset(data->buckets, 0, sizeof(MemoEntry *) * (data->bucket_mask + 1));
+    }
+    data->lru_head = NULL;
+    data->lru_tail = NULL;
+    data->stats[MEMO_STATS_SIZE] = 0;
+}
+
+static void insert_entry(
+    JSRuntime *rt,
+    MemoizedFunctionData *data,
+    uint32_t hash,
+    const uint8_t *key,
+    size_t key_size,
+    JSValueConst result
+) {
+    // The function may have called itself with the same arguments
+    if (find_entry(data, hash, key, key_size) != NULL) return;
+
+    // Not caching the result is not an error
+    MemoEntry *entry = js_malloc_rt(rt, sizeof(MemoEntry) + key_size);
+    if (entry == NULL) return;
+
+    entry->result = JS_DupValueRT(rt, result);
+    entry->hash = hash;
+    entry->key_size = (uint32_t) key_size;
+    memcpy(entry->key, key, key_size);
+
+    MemoEntry **bucket = &data->buckets[hash & data->bucket_mask];
+    entry->hash_next = *bucket;
+    *bucket = entry;
+    lru_push_head(data, entry);
+    data->stats[MEMO_STATS_SIZE]++;
+
+    if (data->stats[MEMO_STATS_SIZE] > data->max_entries) {
+        remove_entry(rt, data, data->lru_tail);
+        data->stats[MEMO_STATS_EVICTIONS]++;
+    } else {
+        grow_buckets(rt, data);
+    }
+}
+
+static JSValue memoized_function_call(
+    JSContext *ctx,
+    JSValueConst func_obj,
+    JSValueConst this_val,
+    int argc,
+    JSValueConst *argv,
+    int __unused flags
+) {
+    JSRuntime *rt = JS_GetRuntime(ctx);
+    MemoizedFunctionData *data = JS_GetOpaque(func_obj, memoized_function_class_id);
+
+    KeyBuffer buffer;
+    buffer.rt = rt;
+    buffer.data = buffer.inline_data;
+    buffer.size = 0;
+    buffer.capacity = INLINE_KEY_SIZE;
+
+    for (int i = 0; i < argc; i++) {
+        int ret = append_argument(ctx, &buffer, argv[i]);
+        if (ret < 0) {
+            key_buffer_free(&buffer);
+            return JS_ThrowOutOfMemory(ctx);
+        }
+        if (ret > 0) {
+            key_buffer_free(&buffer);
+            data->stats[MEMO_STATS_BYPASSES]++;
+            return JS_Call(ctx, data->func, this_val, argc, argv);
+        }
+    }
+
+    uint32_t hash = hash_key(buffer.data, buffer.size);
+    MemoEntry *entry = find_entry(data, hash, buffer.data, buffer.size);
+    if (entry != NULL) {
+        key_buffer_free(&buffer);
+        data->stats[MEMO_STATS_HITS]++;
+        if (entry != data->lru_head) {
+            lru_unlink(data, entry);
+            lru_push_head(data, entry);
+        }
+        return JS_DupValue(ctx, entry->result);
+    }
+
+    data->stats[MEMO_STATS_MISSES]++;
+    JSValue result = JS_Call(ctx, data->func, this_val, argc, argv);
+    // Exceptions are not cached
+    if (!JS_IsException(result)) {
+        insert_entry(rt, data, hash, buffer.data, buffer.size, result);
+    }
+    key_buffer_free(&buffer);
+    return result;
+}
+
+static void memoized_function_finalizer(JSRuntime *rt, JSValue val) {
+    MemoizedFunctionData *data = JS_GetOpaque(val, memoized_function_class_id);
+    clear_entries(rt, data);
+    JS_FreeValueRT(rt, data->func);
+    js_free_rt(rt, data->buckets);
+    js_free_rt(rt, data);
+}
+
+static void memoized_function_gc_mark(JSRuntime *rt, JSValueConst val, JS_MarkFunc *mark_func) {
+    MemoizedFunctionData *data = JS_GetOpaque(val, memoized_function_class_id);
+    JS_MarkValue(rt, data->func, mark_func);
+    for (MemoEntry *entry = data->lru_head; entry != NULL; entry = entry->lru_next) {
+        JS_MarkValue(rt, entry->result, mark_func);
+    }
+}
+
+static JSClassDef memoized_function_class = {
+    "MemoizedFunction",
+    .finalizer = memoized_function_finalizer,
+    .gc_mark = memoized_function_gc_mark,
+    .call = memoized_function_call
+};
+
+void memoized_function_init(void) {
+    // The class id is shared by all runtimes
+    JS_NewClassID(&memoized_function_class_id);
+}
+
+int memoized_function_init_runtime(JSRuntime *rt) {
+    if (JS_NewClass(rt, memoized_function_class_id, &memoized_function_class)) return -1;
+    return 0;
+}
+
+JSValue QJ_NewMemoizedFunction(JSContext *ctx, JSValueConst func, uint32_t max_entries) {
+    JSRuntime *rt = JS_GetRuntime(ctx);
+
+    // One bucket for each entry at most
+    uint32_t max_bucket_count = INITIAL_BUCKET_COUNT;
+    while (max_bucket_count < max_entries && max_bucket_count < (1u << 30)) max_bucket_count <<= 1;
+    uint32_t bucket_count = INITIAL_BUCKET_COUNT;
+
+    MemoizedFunctionData *data = js_mallocz_rt(rt, sizeof(MemoizedFunctionData));
+    MemoEntry **buckets = js_mallocz_rt(rt, sizeof(MemoEntry *) * bucket_count);
+    if (data == NULL || buckets == NULL) {
+        js_free_rt(rt, data);
+        js_free_rt(rt, buckets);
+        return JS_ThrowOutOfMemory(ctx);
+    }
+
+    // Inherits call, apply and bind
+    JSValue global = JS_GetGlobalObject(ctx);
+    JSValue function = JS_GetPropertyStr(ctx, global, "Function");
+    JS_FreeValue(ctx, global);
+    JSValue proto = JS_GetPropertyStr(ctx, function, "prototype");
+    JS_FreeValue(ctx, function);
+    if (JS_IsException(proto)) {
+        js_free_rt(rt, data);
+        js_free_rt(rt, buckets);
+        return proto;
+    }
+
+    JSValue value = JS_NewObjectProtoClass(ctx, proto, memoized_function_class_id);
+    JS_FreeValue(ctx, proto);
+    if (JS_IsException(value)) {
+        js_free_rt(rt, data);
+        js_free_rt(rt, buckets);
+        return value;
+    }
+
+    data->func = JS_DupValue(ctx, func);
+    data->max_entries = max_entries;
+    data->max_bucket_count = max_bucket_count;
+    data->bucket_mask = bucket_count - 1;
+    data->buckets = buckets;
+
+    JS_SetOpaque(value, data);
+
+    return value;
+}
+
+int QJ_GetMemoizedFunctionStats(JSValueConst val, int64_t *stats) {
+    MemoizedFunctionData *data = JS_GetOpaque(val, memoized_function_class_id);
+    if (data == NULL) return -1;
+    memcpy(stats, data->stats, sizeof(data->stats));
+    return 0;
+}
+
+int QJ_ClearMemoizedFunction(JSRuntime *rt, JSValueConst val) {
+    MemoizedFunctionData *data = JS_GetOpaque(val, memoized_function_class_id);
+    if (data == NULL) return -1;
+    clear_entries(rt, data);
+    return 0;
+}
@@ -0,0 +1,31 @@
+#ifndef QUICKJS_ANDROID_MEMOIZED_FUNCTION_H
+#define QUICKJS_ANDROID_MEMOIZED_FUNCTION_H
+
+#include <stdint.h>
+#include <quickjs.h>
+
+// A MemoizedFunction wraps a pure function with a bounded LRU cache.
+// Calls whose arguments are all primitives or strings are keyed by
+// the serialized arguments, hits are answered without calling the function.
+// Calls with other arguments are passed through and counted as bypasses.
+
+#define MEMO_STATS_HITS 0
+#define MEMO_STATS_MISSES 1
+#define MEMO_STATS_BYPASSES 2
+#define MEMO_STATS_EVICTIONS 3
+#define MEMO_STATS_SIZE 4
+#define MEMO_STATS_COUNT 5
+
+void memoized_function_init(void);
+
+int memoized_function_init_runtime(JSRuntime *rt);
+
+JSValue QJ_NewMemoizedFunction(JSContext *ctx, JSValueConst func, uint32_t max_entries);
+
+// Returns -1 if the value is not a MemoizedFunction
+int QJ_GetMemoizedFunctionStats(JSValueConst val, int64_t *stats);
+
+// Returns -1 if the value is not a MemoizedFunction
+int QJ_ClearMemoizedFunction(JSRuntime *rt, JSValueConst val);
+
+#endif //QUICKJS_ANDROID_MEMOIZED_FUNCTION_H
@@ -5,6 +5,10 @@
 
 #include "java-method.h"
 #include "java-object.h"
+#include "java-host-object.h"
+#include "java-collection.h"
+#include "memoized-function.h"
+#include "java-registry.h"
 #include "java-helper.h"
 
 #define MSG_OOM "Out of memory"
@@ -12,7 +16,13 @@
 #define MSG_NULL_JS_CONTEXT "Null JSContext"
 #define MSG_NULL_JS_VALUE "Null JSValue"
 
+// Java objects released by finalizers are handed to java in batches,
+// destroyValue() only flushes large batches since it's called for every JSValue
+#define RELEASED_FLUSH_THRESHOLD 256
+
 static jmethodID on_interrupt_method;
+static jclass js_exception_class;
+static jmethodID js_exception_constructor;
 
 typedef struct InterruptData {
     JavaVM *vm;
@@ -22,16 +32,40 @@ typedef struct InterruptData {
 typedef struct QJRuntime {
     JSRuntime *rt;
     InterruptData *interrupt_date;
+    JavaRegistry *registry;
 } QJRuntime;
 
 JNIEXPORT jlong JNICALL
-Java_com_hippo_quickjs_android_QuickJS_createRuntime(JNIEnv *env, jclass __unused clazz) {
+Java_com_hippo_quickjs_android_QuickJS_createRuntime(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jobject registry
+) {
     QJRuntime *qj_rt = malloc(sizeof(QJRuntime));
     CHECK_NULL_RET(env, qj_rt, MSG_OOM);
+    JavaRegistry *java_registry = java_registry_new(env, registry);
+    if (java_registry == NULL) {
+        free(qj_rt);
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
     JSRuntime *rt = JS_NewRuntime();
-    CHECK_NULL_RET(env, rt, MSG_OOM);
+    if (rt == NULL) {
+        java_registry_free(env, java_registry);
+        free(qj_rt);
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
+    // Register classes once, all contexts of the runtime share them
+    if (java_method_init_runtime(rt) || java_object_init_runtime(rt) || java_host_object_init_runtime(rt)
+            || java_collection_init_runtime(rt) || memoized_function_init_runtime(rt)) {
+        JS_FreeRuntime(rt);
+        java_registry_free(env, java_registry);
+        free(qj_rt);
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
+    JS_SetRuntimeOpaque(rt, java_registry);
     qj_rt->rt = rt;
     qj_rt->interrupt_date = NULL;
+    qj_rt->registry = java_registry;
     return (jlong) qj_rt;
 }
 
@@ -144,6 +178,8 @@ Java_com_hippo_quickjs_android_QuickJS_destroyRuntime(
         (*env)->DeleteGlobalRef(env, data->interrupt_handler);
         free(data);
     }
+    // Finalizers of the runtime may release slots, free the registry after it
+    java_registry_free(env, qj_rt->registry);
     free(qj_rt);
 }
 
@@ -160,9 +196,6 @@ Java_com_hippo_quickjs_android_QuickJS_createContext(
     JSContext *ctx = JS_NewContext(rt);
     CHECK_NULL_RET(env, ctx, MSG_OOM);
 
-    if (java_method_init_context(ctx)) THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
-    if (java_object_init_context(ctx)) THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
-
     return (jlong) ctx;
 }
 
@@ -174,7 +207,32 @@ Java_com_hippo_quickjs_android_QuickJS_destroyContext(
 ) {
     JSContext *ctx = (JSContext *) context;
     CHECK_NULL(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSRuntime *rt = JS_GetRuntime(ctx);
+    jobject js_context = JS_GetContextOpaque(ctx);
+    java_object_close_context(ctx);
     JS_FreeContext(ctx);
+    if (js_context != NULL) {
+        (*env)->DeleteGlobalRef(env, js_context);
+    }
+    java_registry_flush(env, rt);
+}
+
+JNIEXPORT void JNICALL
+Java_com_hippo_quickjs_android_QuickJS_setContextOpaque(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jobject js_context
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL(env, ctx, MSG_NULL_JS_CONTEXT);
+
+    // All JavaMethods of the context share this global reference
+    jobject old_js_context = JS_GetContextOpaque(ctx);
+    if (old_js_context != NULL) {
+        (*env)->DeleteGlobalRef(env, old_js_context);
+    }
+    JS_SetContextOpaque(ctx, js_context != NULL ? (*env)->NewGlobalRef(env, js_context) : NULL);
 }
 
 #define COPY_JS_VALUE(JS_CONTEXT, JS_VALUE, RESULT)                                    \
@@ -423,20 +481,20 @@ CREATE_VALUE_ARRAY_BUFFER_METHOD(
     GetDoubleArrayRegion
 )
 
-static jlong createValueFunction(
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createJavaMethodDescriptor(
     JNIEnv *env,
-    jlong context,
-    jobject js_context,
+    jclass __unused clazz,
+    jlong runtime,
+    jclass callee_class,
     jboolean is_static,
-    jobject callee,
     jstring method_name,
     jstring method_sign,
     jobject return_type,
-    jobjectArray arg_types,
-    jboolean is_callback_method
+    jobjectArray arg_types
 ) {
-    JSContext *ctx = (JSContext *) context;
-    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    QJRuntime *qj_rt = (QJRuntime *) runtime;
+    CHECK_NULL_RET(env, qj_rt, MSG_NULL_JS_RUNTIME);
 
     const char *method_name_utf8 = (*env)->GetStringUTFChars(env, method_name, NULL);
     const char *method_sign_utf8 = (*env)->GetStringUTFChars(env, method_sign, NULL);
@@ -448,9 +506,8 @@ static jlong createValueFunction(
 
     jmethodID method = NULL;
     if (is_static) {
-        method = (*env)->GetStaticMethodID(env, callee, method_name_utf8, method_sign_utf8);
+        method = (*env)->GetStaticMethodID(env, callee_class, method_name_utf8, method_sign_utf8);
     } else {
-        jclass callee_class = (*env)->GetObjectClass(env, callee);
         method = (*env)->GetMethodID(env, callee_class, method_name_utf8, method_sign_utf8);
     }
     (*env)->ReleaseStringUTFChars(env, method_name, method_name_utf8);
@@ -466,65 +523,250 @@ static jlong createValueFunction(
         arg_types_copy[i] = (*env)->GetObjectArrayElement(env, arg_types, i);
     }
 
+    JavaMethodDescriptor *descriptor = java_method_descriptor_new(qj_rt->rt, env, callee_class, is_static, method, return_type, arg_count, arg_types_copy);
+
+    for (int i = 0; i < arg_count; i++) {
+        (*env)->DeleteLocalRef(env, arg_types_copy[i]);
+    }
+
+    if (descriptor == NULL) {
+        if ((*env)->ExceptionCheck(env)) return 0;
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
+
+    return (jlong) descriptor;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createJavaMethodDescriptorWithInvoker(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong runtime,
+    jclass callee_class,
+    jobject invoker
+) {
+    QJRuntime *qj_rt = (QJRuntime *) runtime;
+    CHECK_NULL_RET(env, qj_rt, MSG_NULL_JS_RUNTIME);
+    CHECK_NULL_RET(env, invoker, "Null JavaMethodInvoker");
+
+    JavaMethodDescriptor *descriptor = java_method_descriptor_new_invoker(qj_rt->rt, env, callee_class, invoker);
+    CHECK_NULL_RET(env, descriptor, MSG_OOM);
+
+    return (jlong) descriptor;
+}
+
+JNIEXPORT void JNICALL
+Java_com_hippo_quickjs_android_QuickJS_releaseJavaMethodDescriptor(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong runtime,
+    jlong descriptor
+) {
+    QJRuntime *qj_rt = (QJRuntime *) runtime;
+    CHECK_NULL(env, qj_rt, MSG_NULL_JS_RUNTIME);
+    CHECK_NULL(env, (void *) descriptor, "Null JavaMethodDescriptor");
+    java_method_descriptor_release(qj_rt->rt, (JavaMethodDescriptor *) descriptor);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueFunction(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong descriptor,
+    jint callee
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSRuntime *rt = JS_GetRuntime(ctx);
+
+    // The function owns the slot, it's released now if anything fails
+    if ((void *) descriptor == NULL) {
+        if (callee >= 0) java_registry_release(rt, callee);
+        java_registry_flush(env, rt);
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Null JavaMethodDescriptor");
+    }
+
     JSValue *result = NULL;
-    JSValue val = QJ_NewJavaMethod(ctx, env, js_context, is_static, callee, method, return_type, arg_count, arg_types_copy, is_callback_method);
+    JSValue val = QJ_NewJavaMethod(ctx, (JavaMethodDescriptor *) descriptor, callee);
     COPY_JS_VALUE(ctx, val, result);
+    java_registry_flush(env, rt);
     CHECK_NULL_RET(env, result, MSG_OOM);
 
     return (jlong) result;
 }
 
 JNIEXPORT jlong JNICALL
-Java_com_hippo_quickjs_android_QuickJS_createValueFunction(
+Java_com_hippo_quickjs_android_QuickJS_createValueJavaObject(
     JNIEnv *env,
     jclass __unused clazz,
     jlong context,
-    jobject js_context,
-    jobject instance,
-    jstring method_name,
-    jstring method_sign,
-    jobject return_type,
-    jobjectArray arg_types,
-    jboolean is_callback_method
+    jint slot
 ) {
-    return createValueFunction(env, context, js_context, JNI_FALSE, instance, method_name, method_sign, return_type, arg_types, is_callback_method);
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+
+    JSValue *result = NULL;
+    JSValue val = QJ_NewJavaObject(ctx, slot, JS_UNDEFINED);
+    COPY_JS_VALUE(ctx, val, result);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
 }
 
 JNIEXPORT jlong JNICALL
-Java_com_hippo_quickjs_android_QuickJS_createValueFunctionS(
+Java_com_hippo_quickjs_android_QuickJS_createValueJavaObjectWithProto(
     JNIEnv *env,
     jclass __unused clazz,
     jlong context,
-    jobject js_context,
-    jstring class_name,
-    jstring method_name,
-    jstring method_sign,
-    jobject return_type,
-    jobjectArray arg_types
+    jint slot,
+    jlong proto
 ) {
-    const char *class_name_utf8 = (*env)->GetStringUTFChars(env, class_name, NULL);
-    CHECK_NULL_RET(env, class_name_utf8, MSG_OOM);
-    jclass callee = (*env)->FindClass(env, class_name_utf8);
-    (*env)->ReleaseStringUTFChars(env, class_name, class_name_utf8);
-    if (callee == NULL) {
-        if ((*env)->ExceptionCheck(env)) return 0;
-        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Can't find class");
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *proto_val = (JSValue *) proto;
+    CHECK_NULL_RET(env, proto_val, "Null prototype");
+
+    JSValue *result = NULL;
+    JSValue val = QJ_NewJavaObject(ctx, slot, *proto_val);
+    COPY_JS_VALUE(ctx, val, result);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createJavaHostClass(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong runtime,
+    jclass host_clazz
+) {
+    QJRuntime *qj_rt = (QJRuntime *) runtime;
+    CHECK_NULL_RET(env, qj_rt, MSG_NULL_JS_RUNTIME);
+    CHECK_NULL_RET(env, host_clazz, "Null class");
+
+    JavaHostClass *host_class = java_host_class_new(qj_rt->rt, env, host_clazz);
+    CHECK_NULL_RET(env, host_class, MSG_OOM);
+
+    return (jlong) host_class;
+}
+
+JNIEXPORT void JNICALL
+Java_com_hippo_quickjs_android_QuickJS_releaseJavaHostClass(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong runtime,
+    jlong host_class
+) {
+    QJRuntime *qj_rt = (QJRuntime *) runtime;
+    CHECK_NULL(env, qj_rt, MSG_NULL_JS_RUNTIME);
+    CHECK_NULL(env, (void *) host_class, "Null JavaHostClass");
+    java_host_class_release(qj_rt->rt, (JavaHostClass *) host_class);
+}
+
+JNIEXPORT void JNICALL
+Java_com_hippo_quickjs_android_QuickJS_closeJavaHostClassContext(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong host_class
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL(env, (void *) host_class, "Null JavaHostClass");
+    java_host_class_close_context(ctx, (JavaHostClass *) host_class);
+}
+
+JNIEXPORT void JNICALL
+Java_com_hippo_quickjs_android_QuickJS_setJavaHostMethod(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong host_class,
+    jstring name,
+    jlong descriptor
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL(env, (void *) host_class, "Null JavaHostClass");
+    CHECK_NULL(env, (void *) descriptor, "Null JavaMethodDescriptor");
+
+    const char *name_utf = (*env)->GetStringUTFChars(env, name, NULL);
+    CHECK_NULL(env, name_utf, MSG_OOM);
+    int result = java_host_class_set_method(ctx, (JavaHostClass *) host_class, name_utf, (JavaMethodDescriptor *) descriptor);
+    (*env)->ReleaseStringUTFChars(env, name, name_utf);
+
+    if (result) {
+        THROW_ILLEGAL_STATE_EXCEPTION(env, MSG_OOM);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_hippo_quickjs_android_QuickJS_setJavaHostField(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong host_class,
+    jstring name,
+    jobject field,
+    jobject type,
+    jchar signature,
+    jboolean writable
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL(env, (void *) host_class, "Null JavaHostClass");
+
+    jfieldID field_id = (*env)->FromReflectedField(env, field);
+    CHECK_NULL(env, field_id, "Can't find field");
+
+    const char *name_utf = (*env)->GetStringUTFChars(env, name, NULL);
+    CHECK_NULL(env, name_utf, MSG_OOM);
+    int result = java_host_class_set_field(ctx, env, (JavaHostClass *) host_class, name_utf, field_id, type, (char) signature, writable);
+    (*env)->ReleaseStringUTFChars(env, name, name_utf);
+
+    if (result) {
+        THROW_ILLEGAL_STATE_EXCEPTION(env, MSG_OOM);
     }
-    return createValueFunction(env, context, js_context, JNI_TRUE, callee, method_name, method_sign, return_type, arg_types, JNI_FALSE);
 }
 
 JNIEXPORT jlong JNICALL
-Java_com_hippo_quickjs_android_QuickJS_createValueJavaObject(
+Java_com_hippo_quickjs_android_QuickJS_createValueJavaHostObject(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong host_class,
+    jint slot
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL_RET(env, (void *) host_class, "Null JavaHostClass");
+
+    JSValue *result = NULL;
+    JSValue val = QJ_NewJavaHostObject(ctx, (JavaHostClass *) host_class, slot);
+    COPY_JS_VALUE(ctx, val, result);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueJavaCollection(
     JNIEnv *env,
     jclass __unused clazz,
     jlong context,
-    jobject object
+    jint slot,
+    jboolean is_list,
+    jlong proto
 ) {
     JSContext *ctx = (JSContext *) context;
     CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *proto_val = (JSValue *) proto;
+    CHECK_NULL_RET(env, proto_val, "Null prototype");
 
     JSValue *result = NULL;
-    JSValue val = QJ_NewJavaObject(ctx, env, object);
+    JSValue val = QJ_NewJavaCollection(ctx, slot, is_list, *proto_val);
     COPY_JS_VALUE(ctx, val, result);
     CHECK_NULL_RET(env, result, MSG_OOM);
 
@@ -713,119 +955,2548 @@ Java_com_hippo_quickjs_android_QuickJS_invokeValueFunction(
 
     (*env)->ReleaseLongArrayElements(env, args, elements, JNI_ABORT);
 
+    java_registry_flush(env, JS_GetRuntime(ctx));
+
     CHECK_NULL_RET(env, result, MSG_OOM);
 
     return (jlong) result;
 }
 
-JNIEXPORT jlong JNICALL
-Java_com_hippo_quickjs_android_QuickJS_getValueProperty__JJI(
-    JNIEnv *env,
-    jclass __unused clazz,
-    jlong context,
-    jlong value,
-    jint index
-) {
-    JSContext *ctx = (JSContext *) context;
-    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
-    JSValue *val = (JSValue *) value;
-    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
-
-    JSValue *result = NULL;
-
-    JSValue prop = JS_GetPropertyUint32(ctx, *val, (uint32_t) index);
-
-    COPY_JS_VALUE(ctx, prop, result);
-
-    CHECK_NULL_RET(env, result, MSG_OOM);
+// Keep them in sync with JSFunction
+#define RESULT_TYPE_DOUBLE 0
+#define RESULT_TYPE_INT 1
+#define RESULT_TYPE_BOOLEAN 2
+#define RESULT_TYPE_STRING 3
+// The result is a JSValue pointer owned by java
+#define RESULT_TYPE_VALUE 4
+// The result is an ArrayBuffer of int32 words
+#define RESULT_TYPE_INT_ARRAY 5
+// The result is dropped
+#define RESULT_TYPE_VOID 6
+// The result is converted by ToBoolean
+#define RESULT_TYPE_TRUTHY 7
+// The result is an integral number or a BigInt in the range of long
+#define RESULT_TYPE_LONG 8
+
+// Arguments up to it are on the stack, more are on the heap.
+// Java arrays of arguments are read in chunks of it.
+#define PRIMITIVE_INLINE_ARGS 16
+
+// Keep them in sync with JSArguments
+#define ARGUMENT_TYPE_UNDEFINED 0
+#define ARGUMENT_TYPE_NULL 1
+#define ARGUMENT_TYPE_BOOLEAN 2
+#define ARGUMENT_TYPE_INT 3
+#define ARGUMENT_TYPE_LONG 4
+#define ARGUMENT_TYPE_DOUBLE 5
+#define ARGUMENT_TYPE_STRING 6
+#define ARGUMENT_TYPE_VALUE 7
+
+// Reads the value as the result type without creating JSValue copies.
+// A string or int array result is a local reference, a string is null for null and undefined.
+// Returns -1 with a java exception if the value doesn't match the type.
+static int to_primitive_result(JNIEnv *env, JSContext *ctx, JSValueConst val, jint result_type, jvalue *result) {
+    int32_t tag = JS_VALUE_GET_NORM_TAG(val);
+
+    switch (result_type) {
+        case RESULT_TYPE_DOUBLE:
+            if (tag == JS_TAG_INT) {
+                result->d = JS_VALUE_GET_INT(val);
+                return 0;
+            }
+            if (tag == JS_TAG_FLOAT64) {
+                result->d = JS_VALUE_GET_FLOAT64(val);
+                return 0;
+            }
+            throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "Invalid JSValue tag for %s: %d", "double", tag);
+            return -1;
+        case RESULT_TYPE_INT:
+            if (tag == JS_TAG_INT) {
+                result->i = JS_VALUE_GET_INT(val);
+                return 0;
+            }
+            if (tag == JS_TAG_FLOAT64) {
+                double d = JS_VALUE_GET_FLOAT64(val);
+                if (d >= INT32_MIN && d <= INT32_MAX && (int32_t) d == d) {
+                    result->i = (int32_t) d;
+                    return 0;
+                }
+                throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "Can't treat %g as int", d);
+                return -1;
+            }
+            throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "Invalid JSValue tag for %s: %d", "int", tag);
+            return -1;
+        case RESULT_TYPE_BOOLEAN:
+            if (tag == JS_TAG_BOOL) {
+                result->z = (jboolean) JS_VALUE_GET_BOOL(val);
+                return 0;
+            }
+            throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "Invalid JSValue tag for %s: %d", "boolean", tag);
+            return -1;
+        case RESULT_TYPE_VOID:
+            result->j = 0;
+            return 0;
+        case RESULT_TYPE_TRUTHY:
+            result->z = (jboolean) (JS_ToBool(ctx, val) > 0);
+            return 0;
+        case RESULT_TYPE_LONG:
+            if (tag == JS_TAG_INT) {
+                result->j = JS_VALUE_GET_INT(val);
+                return 0;
+            }
+            if (tag == JS_TAG_FLOAT64) {
+                double d = JS_VALUE_GET_FLOAT64(val);
+                // 2^63 is exact in double, INT64_MAX isn't
+                if (d >= -9223372036854775808.0 && d < 9223372036854775808.0 && (int64_t) d == d) {
+                    result->j = (int64_t) d;
+                    return 0;
+                }
+                throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "Can't treat %g as long", d);
+                return -1;
+            }
+            if (tag == JS_TAG_BIG_INT) {
+                // JS_ToBigInt64 keeps the low 64 bits, the nearest double tells whether it's truncated
+                int64_t i;
+                double approximate;
+                if (JS_ToBigInt64(ctx, &i, val) || JS_ToFloat64(ctx, &approximate, val)) {
+                    JS_FreeValue(ctx, JS_GetException(ctx));
+                    throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, "Can't read BigInt");
+                    return -1;
+                }
+                if ((double) i != approximate) {
+                    throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "Can't treat BigInt as long");
+                    return -1;
+                }
+                result->j = i;
+                return 0;
+            }
+            throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "Invalid JSValue tag for %s: %d", "long", tag);
+            return -1;
+        case RESULT_TYPE_STRING:
+            if (tag == JS_TAG_NULL || tag == JS_TAG_UNDEFINED) {
+                result->l = NULL;
+                return 0;
+            }
+            if (tag == JS_TAG_STRING) {
+                const char *str = JS_ToCString(ctx, val);
+                if (str == NULL) {
+                    JS_FreeValue(ctx, JS_GetException(ctx));
+                    throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, MSG_OOM);
+                    return -1;
+                }
+                result->l = (*env)->NewStringUTF(env, str);
+                JS_FreeCString(ctx, str);
+                if (result->l == NULL) {
+                    throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, MSG_OOM);
+                    return -1;
+                }
+                return 0;
+            }
+            throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "Invalid JSValue tag for %s: %d", "string", tag);
+            return -1;
+        case RESULT_TYPE_INT_ARRAY: {
+            size_t size = 0;
+            uint8_t *buffer = JS_GetArrayBuffer(ctx, &size, val);
+            if (buffer == NULL || size % sizeof(jint) != 0) {
+                if (buffer == NULL) JS_FreeValue(ctx, JS_GetException(ctx));
+                throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "expected: ArrayBuffer of int32");
+                return -1;
+            }
+            jsize length = (jsize) (size / sizeof(jint));
+            jintArray array = (*env)->NewIntArray(env, length);
+            if (array == NULL) {
+                throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, MSG_OOM);
+                return -1;
+            }
+            (*env)->SetIntArrayRegion(env, array, 0, length, (const jint *) buffer);
+            result->l = array;
+            return 0;
+        }
+        default:
+            throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, "Unknown result type: %d", result_type);
+            return -1;
+    }
+}
 
-    return (jlong) result;
+// Stores the result to result_holder, a long[1] of the raw bits for primitives,
+// or an Object[1] for strings and int arrays
+static int store_primitive_result(JNIEnv *env, jint result_type, jvalue result, jobject result_holder) {
+    if (result_type == RESULT_TYPE_STRING || result_type == RESULT_TYPE_INT_ARRAY) {
+        (*env)->SetObjectArrayElement(env, result_holder, 0, result.l);
+        if (result.l != NULL) (*env)->DeleteLocalRef(env, result.l);
+    } else {
+        jlong bits;
+        switch (result_type) {
+            case RESULT_TYPE_DOUBLE:
+                memcpy(&bits, &result.d, sizeof(bits));
+                break;
+            case RESULT_TYPE_INT:
+                bits = result.i;
+                break;
+            case RESULT_TYPE_VOID:
+            case RESULT_TYPE_LONG:
+                bits = result.j;
+                break;
+            default:
+                bits = result.z;
+                break;
+        }
+        (*env)->SetLongArrayRegion(env, result_holder, 0, 1, &bits);
+    }
+    return (*env)->ExceptionCheck(env) ? -1 : 0;
 }
 
-JNIEXPORT jlong JNICALL
-Java_com_hippo_quickjs_android_QuickJS_getValueProperty__JJLjava_lang_String_2(
+// Calls the function and stores the result, the arguments are always freed.
+// Returns JNI_FALSE without java exception if the function throws.
+static jboolean call_with_primitive_result(
     JNIEnv *env,
-    jclass __unused clazz,
-    jlong context,
-    jlong value,
-    jstring name
+    JSContext *ctx,
+    JSValueConst func_obj,
+    JSValueConst this_obj,
+    int argc,
+    JSValue *argv,
+    jint result_type,
+    jobject result_holder
 ) {
-    JSContext *ctx = (JSContext *) context;
-    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
-    JSValue *val = (JSValue *) value;
-    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
-    CHECK_NULL_RET(env, name, "Null name");
-
-    const char *name_utf = (*env)->GetStringUTFChars(env, name, NULL);
-    CHECK_NULL_RET(env, name_utf, MSG_OOM);
+    JSValue ret = JS_Call(ctx, func_obj, this_obj, argc, (JSValueConst *) argv);
+    for (int i = 0; i < argc; i++) {
+        JS_FreeValue(ctx, argv[i]);
+    }
 
-    JSValue *result = NULL;
+    jboolean succeed = JNI_FALSE;
+    if (result_type == RESULT_TYPE_VALUE && !JS_IsException(ret)) {
+        JSValue *copy = NULL;
+        COPY_JS_VALUE(ctx, ret, copy);
+        if (copy != NULL) {
+            jlong bits = (jlong) copy;
+            (*env)->SetLongArrayRegion(env, result_holder, 0, 1, &bits);
+        } else {
+            throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, MSG_OOM);
+        }
+        succeed = (jboolean) !(*env)->ExceptionCheck(env);
+    } else if (!JS_IsException(ret)) {
+        jvalue result;
+        if (!to_primitive_result(env, ctx, ret, result_type, &result)) {
+            store_primitive_result(env, result_type, result, result_holder);
+        }
+        JS_FreeValue(ctx, ret);
+        succeed = (jboolean) !(*env)->ExceptionCheck(env);
+    }
 
-    JSValue prop = JS_GetPropertyStr(ctx, *val, name_utf);
+    java_registry_flush(env, JS_GetRuntime(ctx));
 
-    COPY_JS_VALUE(ctx, prop, result);
+    return succeed;
+}
 
-    (*env)->ReleaseStringUTFChars(env, name, name_utf);
+// Returns inline_argv if it's enough, or NULL with a java exception if it's out of memory
+static JSValue *alloc_arguments(JNIEnv *env, JSContext *ctx, int argc, JSValue *inline_argv) {
+    if (argc <= PRIMITIVE_INLINE_ARGS) return inline_argv;
+    JSValue *argv = js_malloc_rt(JS_GetRuntime(ctx), sizeof(JSValue) * argc);
+    if (argv == NULL) throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, MSG_OOM);
+    return argv;
+}
 
-    CHECK_NULL_RET(env, result, MSG_OOM);
+static void free_arguments(JSContext *ctx, JSValue *argv, JSValue *inline_argv) {
+    if (argv != inline_argv) js_free_rt(JS_GetRuntime(ctx), argv);
+}
 
-    return (jlong) result;
+static inline int chunk_size(int argc, int start) {
+    return argc - start < PRIMITIVE_INLINE_ARGS ? argc - start : PRIMITIVE_INLINE_ARGS;
 }
 
 JNIEXPORT jboolean JNICALL
-Java_com_hippo_quickjs_android_QuickJS_setValueProperty__JJIJ(
+Java_com_hippo_quickjs_android_QuickJS_invokeValueFunctionWithDoubles(
     JNIEnv *env,
     jclass __unused clazz,
     jlong context,
-    jlong value,
-    jint index,
-    jlong property
+    jlong function,
+    jlong thisObj,
+    jdoubleArray args,
+    jint result_type,
+    jobject result_holder
 ) {
     JSContext *ctx = (JSContext *) context;
     CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
-    JSValue *val = (JSValue *) value;
-    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
-    JSValue *prop = (JSValue *) property;
-    CHECK_NULL_RET(env, prop, "Null property");
+    JSValue *func_obj = (JSValue *) function;
+    CHECK_NULL_RET(env, func_obj, "Null function");
+    JSValue *this_obj = (JSValue *) thisObj;
+    CHECK_NULL_RET(env, args, "Null arguments");
+    CHECK_NULL_RET(env, result_holder, "Null result holder");
 
-    // JS_SetPropertyUint32 requires a reference count of the property JSValue
-    // Meanwhile, it calls JS_FreeValue on the property JSValue if it fails
-    JS_DupValue(ctx, *prop);
+    int argc = (*env)->GetArrayLength(env, args);
+    JSValue inline_argv[PRIMITIVE_INLINE_ARGS];
+    JSValue *argv = alloc_arguments(env, ctx, argc, inline_argv);
+    if (argv == NULL) return JNI_FALSE;
+
+    jdouble elements[PRIMITIVE_INLINE_ARGS];
+    for (int i = 0; i < argc; i += PRIMITIVE_INLINE_ARGS) {
+        int size = chunk_size(argc, i);
+        (*env)->GetDoubleArrayRegion(env, args, i, size, elements);
+        for (int j = 0; j < size; j++) {
+            argv[i + j] = JS_NewFloat64(ctx, elements[j]);
+        }
+    }
 
-    return (jboolean) (JS_SetPropertyUint32(ctx, *val, (uint32_t) index, *prop) >= 0);
+    jboolean succeed = call_with_primitive_result(env, ctx, *func_obj, this_obj != NULL ? *this_obj : JS_UNDEFINED,
+            argc, argv, result_type, result_holder);
+    free_arguments(ctx, argv, inline_argv);
+    return succeed;
 }
 
 JNIEXPORT jboolean JNICALL
-Java_com_hippo_quickjs_android_QuickJS_setValueProperty__JJLjava_lang_String_2J(
+Java_com_hippo_quickjs_android_QuickJS_invokeValueFunctionWithLongs(
     JNIEnv *env,
     jclass __unused clazz,
     jlong context,
-    jlong value,
-    jstring name,
-    jlong property
+    jlong function,
+    jlong thisObj,
+    jlongArray args,
+    jint result_type,
+    jobject result_holder
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *func_obj = (JSValue *) function;
+    CHECK_NULL_RET(env, func_obj, "Null function");
+    JSValue *this_obj = (JSValue *) thisObj;
+    CHECK_NULL_RET(env, args, "Null arguments");
+    CHECK_NULL_RET(env, result_holder, "Null result holder");
+
+    int argc = (*env)->GetArrayLength(env, args);
+    JSValue inline_argv[PRIMITIVE_INLINE_ARGS];
+    JSValue *argv = alloc_arguments(env, ctx, argc, inline_argv);
+    if (argv == NULL) return JNI_FALSE;
+
+    jlong elements[PRIMITIVE_INLINE_ARGS];
+    for (int i = 0; i < argc; i += PRIMITIVE_INLINE_ARGS) {
+        int size = chunk_size(argc, i);
+        (*env)->GetLongArrayRegion(env, args, i, size, elements);
+        for (int j = 0; j < size; j++) {
+            argv[i + j] = JS_NewInt64(ctx, elements[j]);
+        }
+    }
+
+    jboolean succeed = call_with_primitive_result(env, ctx, *func_obj, this_obj != NULL ? *this_obj : JS_UNDEFINED,
+            argc, argv, result_type, result_holder);
+    free_arguments(ctx, argv, inline_argv);
+    return succeed;
+}
+
+// Creates the arguments of JSArguments, returns -1 with a java exception if it fails
+static int create_arguments(
+    JNIEnv *env,
+    JSContext *ctx,
+    jbyteArray types,
+    jlongArray values,
+    jobjectArray objects,
+    int argc,
+    JSValue *argv
+) {
+    jbyte arg_types[PRIMITIVE_INLINE_ARGS];
+    jlong arg_values[PRIMITIVE_INLINE_ARGS];
+
+    for (int start = 0; start < argc; start += PRIMITIVE_INLINE_ARGS) {
+        int size = chunk_size(argc, start);
+        (*env)->GetByteArrayRegion(env, types, start, size, arg_types);
+        (*env)->GetLongArrayRegion(env, values, start, size, arg_values);
+        if ((*env)->ExceptionCheck(env)) {
+            for (int i = 0; i < start; i++) {
+                JS_FreeValue(ctx, argv[i]);
+            }
+            return -1;
+        }
+
+        for (int j = 0; j < size; j++) {
+            int i = start + j;
+            switch (arg_types[j]) {
+                case ARGUMENT_TYPE_NULL:
+                    argv[i] = JS_NULL;
+                    break;
+                case ARGUMENT_TYPE_BOOLEAN:
+                    argv[i] = JS_NewBool(ctx, arg_values[j] != 0);
+                    break;
+                case ARGUMENT_TYPE_INT:
+                    argv[i] = JS_NewInt32(ctx, (int32_t) arg_values[j]);
+                    break;
+                case ARGUMENT_TYPE_LONG:
+                    argv[i] = JS_NewInt64(ctx, arg_values[j]);
+                    break;
+                case ARGUMENT_TYPE_DOUBLE: {
+                    double d;
+                    memcpy(&d, &arg_values[j], sizeof(d));
+                    argv[i] = JS_NewFloat64(ctx, d);
+                    break;
+                }
+                case ARGUMENT_TYPE_STRING: {
+                    jstring j_str = (*env)->GetObjectArrayElement(env, objects, i);
+                    const char *str = j_str != NULL ? (*env)->GetStringUTFChars(env, j_str, NULL) : NULL;
+                    argv[i] = str != NULL ? JS_NewString(ctx, str) : JS_EXCEPTION;
+                    if (str != NULL) (*env)->ReleaseStringUTFChars(env, j_str, str);
+                    if (j_str != NULL) (*env)->DeleteLocalRef(env, j_str);
+                    break;
+                }
+                case ARGUMENT_TYPE_VALUE:
+                    argv[i] = JS_DupValue(ctx, *((JSValue *) arg_values[j]));
+                    break;
+                default:
+                    argv[i] = JS_UNDEFINED;
+                    break;
+            }
+
+            if (JS_IsException(argv[i])) {
+                JS_FreeValue(ctx, JS_GetException(ctx));
+                for (int k = 0; k < i; k++) {
+                    JS_FreeValue(ctx, argv[k]);
+                }
+                if (!(*env)->ExceptionCheck(env)) throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, MSG_OOM);
+                return -1;
+            }
+        }
+    }
+
+    return 0;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_hippo_quickjs_android_QuickJS_invokeValueFunctionWithArguments(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong function,
+    jlong thisObj,
+    jbyteArray types,
+    jlongArray values,
+    jobjectArray objects,
+    jint count,
+    jint result_type,
+    jobject result_holder
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *func_obj = (JSValue *) function;
+    CHECK_NULL_RET(env, func_obj, "Null function");
+    JSValue *this_obj = (JSValue *) thisObj;
+    CHECK_NULL_RET(env, types, "Null types");
+    CHECK_NULL_RET(env, values, "Null values");
+    CHECK_NULL_RET(env, objects, "Null objects");
+    CHECK_NULL_RET(env, result_holder, "Null result holder");
+
+    JSValue inline_argv[PRIMITIVE_INLINE_ARGS];
+    JSValue *argv = alloc_arguments(env, ctx, count, inline_argv);
+    if (argv == NULL) return JNI_FALSE;
+    if (create_arguments(env, ctx, types, values, objects, count, argv)) {
+        free_arguments(ctx, argv, inline_argv);
+        return JNI_FALSE;
+    }
+
+    jboolean succeed = call_with_primitive_result(env, ctx, *func_obj, this_obj != NULL ? *this_obj : JS_UNDEFINED,
+            count, argv, result_type, result_holder);
+    free_arguments(ctx, argv, inline_argv);
+    return succeed;
+}
+
+// Numeric arguments of invokeBatch, either columns or row-major doubles
+typedef struct BatchArguments {
+    int argc;
+    int int_columns;
+    void **columns;
+    const jdouble *rows;
+} BatchArguments;
+
+static void get_batch_arguments(JSContext *ctx, const BatchArguments *args, jint row, JSValue *argv) {
+    for (int i = 0; i < args->argc; i++) {
+        if (args->rows != NULL) {
+            argv[i] = JS_NewFloat64(ctx, args->rows[(size_t) row * args->argc + i]);
+        } else if (args->int_columns) {
+            argv[i] = JS_NewInt32(ctx, ((jint *) args->columns[i])[row]);
+        } else {
+            argv[i] = JS_NewFloat64(ctx, ((jdouble *) args->columns[i])[row]);
+        }
+    }
+}
+
+// Calls the function for each row and writes the results.
+// Returns the count, or -1 if the function throws, or -2 with a java exception.
+static jint call_batch(
+    JNIEnv *env,
+    JSContext *ctx,
+    JSValueConst func_obj,
+    JSValueConst this_obj,
+    const BatchArguments *args,
+    jint count,
+    jint result_type,
+    void *results
+) {
+    // Numbers don't need to be freed
+    JSValue inline_argv[PRIMITIVE_INLINE_ARGS];
+    JSValue *argv = alloc_arguments(env, ctx, args->argc, inline_argv);
+    if (argv == NULL) return -2;
+
+    for (jint row = 0; row < count; row++) {
+        get_batch_arguments(ctx, args, row, argv);
+        JSValue ret = JS_Call(ctx, func_obj, this_obj, args->argc, (JSValueConst *) argv);
+        if (JS_IsException(ret)) {
+            free_arguments(ctx, argv, inline_argv);
+            return -1;
+        }
+
+        jvalue value;
+        int failed = to_primitive_result(env, ctx, ret, result_type, &value);
+        JS_FreeValue(ctx, ret);
+        if (failed) {
+            free_arguments(ctx, argv, inline_argv);
+            return -2;
+        }
+
+        switch (result_type) {
+            case RESULT_TYPE_DOUBLE:
+                ((jdouble *) results)[row] = value.d;
+                break;
+            case RESULT_TYPE_INT:
+                ((jint *) results)[row] = value.i;
+                break;
+            default:
+                ((jboolean *) results)[row] = value.z;
+                break;
+        }
+    }
+
+    free_arguments(ctx, argv, inline_argv);
+    return count;
+}
+
+// Calls call_batch() with the elements of the result array
+static jint call_batch_with_results(
+    JNIEnv *env,
+    JSContext *ctx,
+    JSValueConst func_obj,
+    JSValueConst this_obj,
+    const BatchArguments *args,
+    jint count,
+    jint result_type,
+    jarray results
+) {
+    if (result_type != RESULT_TYPE_DOUBLE && result_type != RESULT_TYPE_INT && result_type != RESULT_TYPE_BOOLEAN) {
+        throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, "Unsupported result type: %d", result_type);
+        return -2;
+    }
+
+    void *elements;
+    switch (result_type) {
+        case RESULT_TYPE_DOUBLE:
+            elements = (*env)->GetDoubleArrayElements(env, results, NULL);
+            break;
+        case RESULT_TYPE_INT:
+            elements = (*env)->GetIntArrayElements(env, results, NULL);
+            break;
+        default:
+            elements = (*env)->GetBooleanArrayElements(env, results, NULL);
+            break;
+    }
+    if (elements == NULL) {
+        throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, MSG_OOM);
+        return -2;
+    }
+
+    jint result = call_batch(env, ctx, func_obj, this_obj, args, count, result_type, elements);
+
+    // Results of finished rows are kept even if it fails
+    switch (result_type) {
+        case RESULT_TYPE_DOUBLE:
+            (*env)->ReleaseDoubleArrayElements(env, results, elements, 0);
+            break;
+        case RESULT_TYPE_INT:
+            (*env)->ReleaseIntArrayElements(env, results, elements, 0);
+            break;
+        default:
+            (*env)->ReleaseBooleanArrayElements(env, results, elements, 0);
+            break;
+    }
+
+    java_registry_flush(env, JS_GetRuntime(ctx));
+
+    return result;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_hippo_quickjs_android_QuickJS_invokeValueFunctionBatch(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong function,
+    jlong thisObj,
+    jobjectArray columns,
+    jboolean int_columns,
+    jint count,
+    jint result_type,
+    jarray results
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *func_obj = (JSValue *) function;
+    CHECK_NULL_RET(env, func_obj, "Null function");
+    JSValue *this_obj = (JSValue *) thisObj;
+    CHECK_NULL_RET(env, columns, "Null columns");
+    CHECK_NULL_RET(env, results, "Null results");
+
+    JSRuntime *rt = JS_GetRuntime(ctx);
+    int argc = (*env)->GetArrayLength(env, columns);
+
+    // All column arrays are held as local references at the same time
+    if ((*env)->PushLocalFrame(env, argc) < 0) return -2;
+
+    jarray inline_arrays[PRIMITIVE_INLINE_ARGS];
+    void *inline_elements[PRIMITIVE_INLINE_ARGS];
+    jarray *column_arrays = inline_arrays;
+    void **column_elements = inline_elements;
+    if (argc > PRIMITIVE_INLINE_ARGS) {
+        column_arrays = js_malloc_rt(rt, sizeof(jarray) * argc);
+        column_elements = js_malloc_rt(rt, sizeof(void *) * argc);
+    }
+
+    int obtained = 0;
+    if (column_arrays != NULL && column_elements != NULL) {
+        for (; obtained < argc; obtained++) {
+            column_arrays[obtained] = (*env)->GetObjectArrayElement(env, columns, obtained);
+            if (column_arrays[obtained] == NULL) break;
+            column_elements[obtained] = int_columns
+                    ? (void *) (*env)->GetIntArrayElements(env, column_arrays[obtained], NULL)
+                    : (void *) (*env)->GetDoubleArrayElements(env, column_arrays[obtained], NULL);
+            if (column_elements[obtained] == NULL) break;
+        }
+    }
+
+    jint result = -2;
+    if (obtained == argc) {
+        BatchArguments args = { argc, int_columns, column_elements, NULL };
+        result = call_batch_with_results(env, ctx, *func_obj, this_obj != NULL ? *this_obj : JS_UNDEFINED,
+                &args, count, result_type, results);
+    } else if (!(*env)->ExceptionCheck(env)) {
+        throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, MSG_OOM);
+    }
+
+    // Columns are only read
+    for (int i = 0; i < obtained; i++) {
+        if (int_columns) {
+            (*env)->ReleaseIntArrayElements(env, column_arrays[i], column_elements[i], JNI_ABORT);
+        } else {
+            (*env)->ReleaseDoubleArrayElements(env, column_arrays[i], column_elements[i], JNI_ABORT);
+        }
+    }
+
+    if (column_arrays != inline_arrays) js_free_rt(rt, column_arrays);
+    if (column_elements != inline_elements) js_free_rt(rt, column_elements);
+    (*env)->PopLocalFrame(env, NULL);
+
+    return result;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_hippo_quickjs_android_QuickJS_invokeValueFunctionBatchRows(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong function,
+    jlong thisObj,
+    jobject rows,
+    jint offset,
+    jint argc,
+    jint count,
+    jint result_type,
+    jarray results
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *func_obj = (JSValue *) function;
+    CHECK_NULL_RET(env, func_obj, "Null function");
+    JSValue *this_obj = (JSValue *) thisObj;
+    CHECK_NULL_RET(env, rows, "Null rows");
+    CHECK_NULL_RET(env, results, "Null results");
+
+    uint8_t *address = (*env)->GetDirectBufferAddress(env, rows);
+    CHECK_NULL_RET(env, address, "Not a direct buffer");
+    jlong capacity = (*env)->GetDirectBufferCapacity(env, rows);
+    CHECK_FALSE_RET(env, argc >= 0 && count >= 0, "Negative rows");
+    CHECK_FALSE_RET(env, offset >= 0 && offset + (jlong) argc * count * (jlong) sizeof(jdouble) <= capacity, "Rows out of bounds");
+
+    BatchArguments args = { argc, 0, NULL, (const jdouble *) (address + offset) };
+    return call_batch_with_results(env, ctx, *func_obj, this_obj != NULL ? *this_obj : JS_UNDEFINED,
+            &args, count, result_type, results);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueMemoizedFunction(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong function,
+    jint max_entries
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *func_obj = (JSValue *) function;
+    CHECK_NULL_RET(env, func_obj, "Null function");
+    CHECK_FALSE_RET(env, max_entries > 0, "maxEntries must be positive");
+
+    JSValue *result = NULL;
+    JSValue val = QJ_NewMemoizedFunction(ctx, *func_obj, (uint32_t) max_entries);
+    COPY_JS_VALUE(ctx, val, result);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getMemoizedFunctionStats(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jlongArray stats
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    CHECK_NULL_RET(env, stats, "Null stats");
+    CHECK_FALSE_RET(env, (*env)->GetArrayLength(env, stats) >= MEMO_STATS_COUNT, "Stats array is too short");
+
+    int64_t buffer[MEMO_STATS_COUNT];
+    if (QJ_GetMemoizedFunctionStats(*val, buffer)) return JNI_FALSE;
+    (*env)->SetLongArrayRegion(env, stats, 0, MEMO_STATS_COUNT, (const jlong *) buffer);
+    return JNI_TRUE;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_hippo_quickjs_android_QuickJS_clearMemoizedFunction(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    return (jboolean) (QJ_ClearMemoizedFunction(JS_GetRuntime(ctx), *val) == 0);
+}
+
+// Keep them in sync with JSBatch.java
+#define BATCH_OP_UNDEFINED 0
+#define BATCH_OP_NULL 1
+#define BATCH_OP_BOOLEAN 2
+#define BATCH_OP_INT 3
+#define BATCH_OP_DOUBLE 4
+#define BATCH_OP_STRING 5
+#define BATCH_OP_OBJECT 6
+#define BATCH_OP_ARRAY 7
+#define BATCH_OP_EXTERNAL 8
+#define BATCH_OP_GLOBAL 9
+#define BATCH_OP_GET_PROPERTY 10
+#define BATCH_OP_CALL 11
+#define BATCH_OP_SET_PROPERTY 12
+#define BATCH_OP_SET_ELEMENT 13
+#define BATCH_OP_APPEND 14
+
+#define BATCH_INLINE_ARGS 8
+
+typedef struct {
+    const uint8_t *pos;
+    const uint8_t *end;
+} BatchReader;
+
+static int batch_read(BatchReader *reader, void *dst, size_t size) {
+    if ((size_t) (reader->end - reader->pos) < size) return -1;
+    memcpy(dst, reader->pos, size);
+    reader->pos += size;
+    return 0;
+}
+
+typedef struct {
+    JNIEnv *env;
+    JSContext *ctx;
+    jobjectArray strings;
+    int string_count;
+    // Created on the first use
+    JSAtom *atoms;
+    JSValue *handles;
+    int handle_count;
+} BatchState;
+
+static JSAtom batch_get_atom(BatchState *state, jint index) {
+    if (index < 0 || index >= state->string_count) return JS_ATOM_NULL;
+    if (state->atoms[index] != JS_ATOM_NULL) return state->atoms[index];
+
+    JNIEnv *env = state->env;
+    jstring str = (*env)->GetObjectArrayElement(env, state->strings, index);
+    const char *str_utf = str != NULL ? (*env)->GetStringUTFChars(env, str, NULL) : NULL;
+    JSAtom atom = str_utf != NULL ? JS_NewAtom(state->ctx, str_utf) : JS_ATOM_NULL;
+    if (str_utf != NULL) (*env)->ReleaseStringUTFChars(env, str, str_utf);
+    (*env)->DeleteLocalRef(env, str);
+
+    state->atoms[index] = atom;
+    return atom;
+}
+
+// Reads a handle produced by a previous command
+static int batch_read_handle(BatchReader *reader, BatchState *state, int produced, JSValue *value) {
+    jint handle;
+    if (batch_read(reader, &handle, sizeof(handle))) return -1;
+    if (handle < 0 || handle >= produced) return -1;
+    *value = state->handles[handle];
+    return 0;
+}
+
+static JSValue batch_call(BatchReader *reader, BatchState *state, int produced) {
+    JSContext *ctx = state->ctx;
+    JSValue func_obj, this_obj = JS_UNDEFINED;
+    jint this_handle, argc;
+    if (batch_read_handle(reader, state, produced, &func_obj)
+            || batch_read(reader, &this_handle, sizeof(this_handle))
+            || (this_handle >= produced)
+            || batch_read(reader, &argc, sizeof(argc))
+            || argc < 0) {
+        return JS_ThrowInternalError(ctx, "Invalid batch command");
+    }
+    if (this_handle >= 0) this_obj = state->handles[this_handle];
+
+    JSValue inline_argv[BATCH_INLINE_ARGS];
+    JSValue *argv = inline_argv;
+    if (argc > BATCH_INLINE_ARGS) {
+        argv = js_malloc_rt(JS_GetRuntime(ctx), argc * sizeof(JSValue));
+        if (argv == NULL) return JS_ThrowOutOfMemory(ctx);
+    }
+
+    JSValue result = JS_UNDEFINED;
+    int i;
+    for (i = 0; i < argc; i++) {
+        if (batch_read_handle(reader, state, produced, &argv[i])) break;
+    }
+    if (i == argc) {
+        result = JS_Call(ctx, func_obj, this_obj, argc, (JSValueConst *) argv);
+    } else {
+        result = JS_ThrowInternalError(ctx, "Invalid batch command");
+    }
+
+    if (argv != inline_argv) js_free_rt(JS_GetRuntime(ctx), argv);
+    return result;
+}
+
+static int batch_append(JSContext *ctx, JSValueConst array, JSValue value) {
+    JSValue length_value = JS_GetPropertyStr(ctx, array, "length");
+    if (JS_IsException(length_value)) {
+        JS_FreeValue(ctx, value);
+        return -1;
+    }
+    int64_t length;
+    int ret = JS_ToInt64(ctx, &length, length_value);
+    JS_FreeValue(ctx, length_value);
+    if (ret) {
+        JS_FreeValue(ctx, value);
+        return -1;
+    }
+    return JS_SetPropertyInt64(ctx, array, length, value);
+}
+
+// Runs the commands, returns -1 if it fails with a JS exception
+static int batch_run(BatchReader *reader, BatchState *state) {
+    JSContext *ctx = state->ctx;
+    int produced = 0;
+
+    while (reader->pos < reader->end) {
+        jint op;
+        JSValue value = JS_UNDEFINED;
+        int ret = 0;
+
+        // A truncated command can't be read
+        if (batch_read(reader, &op, sizeof(op))) {
+            JS_ThrowInternalError(ctx, "Invalid batch command");
+            return -1;
+        }
+
+        int produces = op < BATCH_OP_SET_PROPERTY;
+        if (produces && produced >= state->handle_count) {
+            JS_ThrowInternalError(ctx, "Invalid batch command");
+            return -1;
+        }
+
+        switch (op) {
+            case BATCH_OP_UNDEFINED:
+                break;
+            case BATCH_OP_NULL:
+                value = JS_NULL;
+                break;
+            case BATCH_OP_BOOLEAN:
+            case BATCH_OP_INT: {
+                jint i = 0;
+                ret = batch_read(reader, &i, sizeof(i));
+                value = op == BATCH_OP_BOOLEAN ? JS_NewBool(ctx, i) : JS_NewInt32(ctx, i);
+                break;
+            }
+            case BATCH_OP_DOUBLE: {
+                jdouble d = 0;
+                ret = batch_read(reader, &d, sizeof(d));
+                value = JS_NewFloat64(ctx, d);
+                break;
+            }
+            case BATCH_OP_STRING: {
+                jint index;
+                JSAtom atom;
+                ret = batch_read(reader, &index, sizeof(index));
+                if (!ret && (atom = batch_get_atom(state, index)) != JS_ATOM_NULL) {
+                    value = JS_AtomToString(ctx, atom);
+                } else {
+                    ret = -1;
+                }
+                break;
+            }
+            case BATCH_OP_OBJECT:
+                value = JS_NewObject(ctx);
+                break;
+            case BATCH_OP_ARRAY:
+                value = JS_NewArray(ctx);
+                break;
+            case BATCH_OP_EXTERNAL: {
+                jlong pointer;
+                ret = batch_read(reader, &pointer, sizeof(pointer));
+                if (!ret && pointer != 0) {
+                    value = JS_DupValue(ctx, *(JSValue *) pointer);
+                } else {
+                    ret = -1;
+                }
+                break;
+            }
+            case BATCH_OP_GLOBAL:
+                value = JS_GetGlobalObject(ctx);
+                break;
+            case BATCH_OP_GET_PROPERTY: {
+                JSValue obj;
+                jint index;
+                JSAtom atom;
+                ret = batch_read_handle(reader, state, produced, &obj)
+                        || batch_read(reader, &index, sizeof(index));
+                if (!ret && (atom = batch_get_atom(state, index)) != JS_ATOM_NULL) {
+                    value = JS_GetProperty(ctx, obj, atom);
+                } else {
+                    ret = -1;
+                }
+                break;
+            }
+            case BATCH_OP_CALL:
+                value = batch_call(reader, state, produced);
+                break;
+            case BATCH_OP_SET_PROPERTY: {
+                JSValue obj, val;
+                jint index;
+                JSAtom atom;
+                ret = batch_read_handle(reader, state, produced, &obj)
+                        || batch_read(reader, &index, sizeof(index))
+                        || batch_read_handle(reader, state, produced, &val);
+                if (!ret && (atom = batch_get_atom(state, index)) != JS_ATOM_NULL) {
+                    if (JS_SetProperty(ctx, obj, atom, JS_DupValue(ctx, val)) < 0) return -1;
+                } else {
+                    ret = -1;
+                }
+                break;
+            }
+            case BATCH_OP_SET_ELEMENT: {
+                JSValue obj, val;
+                jint index;
+                ret = batch_read_handle(reader, state, produced, &obj)
+                        || batch_read(reader, &index, sizeof(index))
+                        || batch_read_handle(reader, state, produced, &val);
+                if (!ret && JS_SetPropertyUint32(ctx, obj, (uint32_t) index, JS_DupValue(ctx, val)) < 0) return -1;
+                break;
+            }
+            case BATCH_OP_APPEND: {
+                JSValue obj, val;
+                ret = batch_read_handle(reader, state, produced, &obj)
+                        || batch_read_handle(reader, state, produced, &val);
+                if (!ret && batch_append(ctx, obj, JS_DupValue(ctx, val)) < 0) return -1;
+                break;
+            }
+            default:
+                ret = -1;
+                break;
+        }
+
+        if (ret) {
+            JS_FreeValue(ctx, value);
+            if (!(*state->env)->ExceptionCheck(state->env)) {
+                JS_ThrowInternalError(ctx, "Invalid batch command");
+            }
+            return -1;
+        }
+        if (JS_IsException(value)) return -1;
+        if (produces) state->handles[produced++] = value;
+    }
+
+    return 0;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_hippo_quickjs_android_QuickJS_executeBatch(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jobject commands,
+    jint length,
+    jint handle_count,
+    jobjectArray strings,
+    jintArray outputs,
+    jlongArray results
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL_RET(env, commands, "Null commands");
+    CHECK_NULL_RET(env, strings, "Null strings");
+    CHECK_NULL_RET(env, outputs, "Null outputs");
+    CHECK_NULL_RET(env, results, "Null results");
+
+    const uint8_t *address = (*env)->GetDirectBufferAddress(env, commands);
+    CHECK_NULL_RET(env, address, "Not a direct buffer");
+    CHECK_FALSE_RET(env, length >= 0 && length <= (*env)->GetDirectBufferCapacity(env, commands), "Commands out of bounds");
+    CHECK_FALSE_RET(env, handle_count >= 0, "Invalid handle count");
+
+    int output_count = (*env)->GetArrayLength(env, outputs);
+    CHECK_FALSE_RET(env, (*env)->GetArrayLength(env, results) >= output_count, "Results array is too short");
+
+    JSRuntime *rt = JS_GetRuntime(ctx);
+    BatchState state;
+    state.env = env;
+    state.ctx = ctx;
+    state.strings = strings;
+    state.string_count = (*env)->GetArrayLength(env, strings);
+    state.atoms = js_mallocz_rt(rt, state.string_count * sizeof(JSAtom) + 1);
+    state.handles = js_malloc_rt(rt, handle_count * sizeof(JSValue) + 1);
+    state.handle_count = handle_count;
+    if (state.atoms == NULL || state.handles == NULL) {
+        js_free_rt(rt, state.atoms);
+        js_free_rt(rt, state.handles);
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
+    for (int i = 0; i < handle_count; i++) {
+        state.handles[i] = JS_UNDEFINED;
+    }
+
+    BatchReader reader = { address, address + length };
+    jboolean succeed = (jboolean) (batch_run(&reader, &state) == 0);
+
+    if (succeed) {
+        jint *output_handles = (*env)->GetIntArrayElements(env, outputs, NULL);
+        if (output_handles == NULL) {
+            succeed = JNI_FALSE;
+        }
+        int copied = 0;
+        for (; succeed && copied < output_count; copied++) {
+            jint handle = output_handles[copied];
+            if (handle < 0 || handle >= handle_count) {
+                throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, "Invalid handle: %d", handle);
+                succeed = JNI_FALSE;
+                break;
+            }
+            JSValue *copy = NULL;
+            JSValue value = JS_DupValue(ctx, state.handles[handle]);
+            COPY_JS_VALUE(ctx, value, copy);
+            if (copy == NULL) {
+                throw_exception(env, CLASS_NAME_ILLEGAL_STATE_EXCEPTION, MSG_OOM);
+                succeed = JNI_FALSE;
+                break;
+            }
+            jlong pointer = (jlong) copy;
+            (*env)->SetLongArrayRegion(env, results, copied, 1, &pointer);
+        }
+        if (!succeed) {
+            // Java doesn't wrap any result if it fails
+            for (int i = 0; i < copied; i++) {
+                jlong pointer;
+                (*env)->GetLongArrayRegion(env, results, i, 1, &pointer);
+                JS_FreeValue(ctx, *(JSValue *) pointer);
+                js_free_rt(rt, (void *) pointer);
+            }
+        }
+        if (output_handles != NULL) (*env)->ReleaseIntArrayElements(env, outputs, output_handles, JNI_ABORT);
+    }
+
+    for (int i = 0; i < handle_count; i++) {
+        JS_FreeValue(ctx, state.handles[i]);
+    }
+    for (int i = 0; i < state.string_count; i++) {
+        if (state.atoms[i] != JS_ATOM_NULL) JS_FreeAtom(ctx, state.atoms[i]);
+    }
+    js_free_rt(rt, state.handles);
+    js_free_rt(rt, state.atoms);
+
+    java_registry_flush(env, rt);
+
+    return succeed;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueIterator(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+
+    JSValue global = JS_GetGlobalObject(ctx);
+    JSValue symbol = JS_GetPropertyStr(ctx, global, "Symbol");
+    JS_FreeValue(ctx, global);
+    JSValue iterator_symbol = JS_GetPropertyStr(ctx, symbol, "iterator");
+    JS_FreeValue(ctx, symbol);
+    JSAtom iterator_atom = JS_ValueToAtom(ctx, iterator_symbol);
+    JS_FreeValue(ctx, iterator_symbol);
+
+    JSValue iterator;
+    if (iterator_atom == JS_ATOM_NULL) {
+        iterator = JS_EXCEPTION;
+    } else {
+        JSValue method = JS_GetProperty(ctx, *val, iterator_atom);
+        JS_FreeAtom(ctx, iterator_atom);
+        if (JS_IsException(method)) {
+            iterator = JS_EXCEPTION;
+        } else if (!JS_IsFunction(ctx, method)) {
+            JS_FreeValue(ctx, method);
+            iterator = JS_ThrowTypeError(ctx, "value is not iterable");
+        } else {
+            iterator = JS_Call(ctx, method, *val, 0, NULL);
+            JS_FreeValue(ctx, method);
+            if (!JS_IsException(iterator) && !JS_IsObject(iterator)) {
+                JS_FreeValue(ctx, iterator);
+                iterator = JS_ThrowTypeError(ctx, "iterator is not an object");
+            }
+        }
+    }
+
+    java_registry_flush(env, JS_GetRuntime(ctx));
+
+    JSValue *result = NULL;
+    COPY_JS_VALUE(ctx, iterator, result);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getIteratorElements(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong iterator,
+    jlongArray elements
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *iter = (JSValue *) iterator;
+    CHECK_NULL_RET(env, iter, "Null iterator");
+    CHECK_NULL_RET(env, elements, "Null elements");
+
+    JSRuntime *rt = JS_GetRuntime(ctx);
+    int capacity = (*env)->GetArrayLength(env, elements);
+
+    JSValue next = JS_GetPropertyStr(ctx, *iter, "next");
+    if (JS_IsException(next)) return -1;
+    JSAtom done_atom = JS_NewAtom(ctx, "done");
+    JSAtom value_atom = JS_NewAtom(ctx, "value");
+
+    // The next() is called until the buffer is full or the iterator is done
+    int count = 0;
+    int failed = done_atom == JS_ATOM_NULL || value_atom == JS_ATOM_NULL;
+    if (failed) JS_ThrowOutOfMemory(ctx);
+    while (!failed && count < capacity) {
+        JSValue result = JS_Call(ctx, next, *iter, 0, NULL);
+        if (JS_IsException(result)) {
+            failed = 1;
+            break;
+        }
+        if (!JS_IsObject(result)) {
+            JS_FreeValue(ctx, result);
+            JS_ThrowTypeError(ctx, "iterator result is not an object");
+            failed = 1;
+            break;
+        }
+
+        JSValue done = JS_GetProperty(ctx, result, done_atom);
+        int is_done = JS_IsException(done) ? -1 : JS_ToBool(ctx, done);
+        JS_FreeValue(ctx, done);
+        if (is_done) {
+            JS_FreeValue(ctx, result);
+            failed = is_done < 0;
+            break;
+        }
+
+        JSValue element = JS_GetProperty(ctx, result, value_atom);
+        JS_FreeValue(ctx, result);
+        if (JS_IsException(element)) {
+            failed = 1;
+            break;
+        }
+
+        JSValue *copy = NULL;
+        COPY_JS_VALUE(ctx, element, copy);
+        if (copy == NULL) {
+            JS_ThrowOutOfMemory(ctx);
+            failed = 1;
+            break;
+        }
+        jlong pointer = (jlong) copy;
+        (*env)->SetLongArrayRegion(env, elements, count++, 1, &pointer);
+    }
+
+    if (failed) {
+        // Java doesn't wrap any element if it fails
+        for (int i = 0; i < count; i++) {
+            jlong pointer;
+            (*env)->GetLongArrayRegion(env, elements, i, 1, &pointer);
+            JS_FreeValue(ctx, *(JSValue *) pointer);
+            js_free_rt(rt, (void *) pointer);
+        }
+    }
+
+    if (done_atom != JS_ATOM_NULL) JS_FreeAtom(ctx, done_atom);
+    if (value_atom != JS_ATOM_NULL) JS_FreeAtom(ctx, value_atom);
+    JS_FreeValue(ctx, next);
+
+    java_registry_flush(env, rt);
+
+    return failed ? -1 : count;
+}
+
+// Keep them in sync with JSContext.java
+#define COLUMN_INT32 0
+#define COLUMN_INT64 1
+#define COLUMN_FLOAT32 2
+#define COLUMN_FLOAT64 3
+#define COLUMN_KIND_COUNT 4
+
+static const char *column_constructor_names[COLUMN_KIND_COUNT] = { "Int32Array", "BigInt64Array", "Float32Array", "Float64Array" };
+static const size_t column_element_sizes[COLUMN_KIND_COUNT] = { 4, 8, 4, 8 };
+
+typedef struct {
+    JSValue constructors[COLUMN_KIND_COUNT];
+} ColumnConstructors;
+
+static void column_constructors_init(ColumnConstructors *constructors) {
+    for (int i = 0; i < COLUMN_KIND_COUNT; i++) {
+        constructors->constructors[i] = JS_UNDEFINED;
+    }
+}
+
+// Returns the typed array constructor of the kind, it's owned by constructors
+static JSValue column_constructor(JSContext *ctx, ColumnConstructors *constructors, int kind) {
+    if (JS_IsUndefined(constructors->constructors[kind])) {
+        JSValue global = JS_GetGlobalObject(ctx);
+        constructors->constructors[kind] = JS_GetPropertyStr(ctx, global, column_constructor_names[kind]);
+        JS_FreeValue(ctx, global);
+        if (JS_IsException(constructors->constructors[kind])) {
+            constructors->constructors[kind] = JS_UNDEFINED;
+            return JS_EXCEPTION;
+        }
+    }
+    return constructors->constructors[kind];
+}
+
+static void column_constructors_free(JSContext *ctx, ColumnConstructors *constructors) {
+    for (int i = 0; i < COLUMN_KIND_COUNT; i++) {
+        JS_FreeValue(ctx, constructors->constructors[i]);
+    }
+}
+
+static void free_direct_buffer_ref(JSRuntime *rt, void *opaque, void __unused *ptr) {
+    JavaVM *vm = ((JavaRegistry *) JS_GetRuntimeOpaque(rt))->vm;
+    OBTAIN_ENV(vm);
+    if (env != NULL) (*env)->DeleteGlobalRef(env, (jobject) opaque);
+    RELEASE_ENV(vm);
+}
+
+// Creates the ArrayBuffer of the column.
+// The memory of a direct buffer is shared, the ArrayBuffer keeps a reference to it.
+static JSValue new_column_buffer(JNIEnv *env, JSContext *ctx, jobject column, size_t element_size, jint offset, jint length) {
+    size_t byte_offset = (size_t) offset * element_size;
+    size_t byte_length = (size_t) length * element_size;
+
+    uint8_t *address = (*env)->GetDirectBufferAddress(env, column);
+    if (address != NULL) {
+        jobject ref = (*env)->NewGlobalRef(env, column);
+        if (ref == NULL) {
+            (*env)->ExceptionClear(env);
+            return JS_ThrowOutOfMemory(ctx);
+        }
+        JSValue buffer = JS_NewArrayBuffer(ctx, address + byte_offset, byte_length, free_direct_buffer_ref, ref, 0);
+        if (JS_IsException(buffer)) (*env)->DeleteGlobalRef(env, ref);
+        return buffer;
+    }
+
+    uint8_t *elements = (*env)->GetPrimitiveArrayCritical(env, column, NULL);
+    if (elements == NULL) {
+        (*env)->ExceptionClear(env);
+        return JS_ThrowOutOfMemory(ctx);
+    }
+    JSValue buffer = JS_NewArrayBufferCopy(ctx, elements + byte_offset, byte_length);
+    (*env)->ReleasePrimitiveArrayCritical(env, column, elements, JNI_ABORT);
+    return buffer;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueColumns(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jobjectArray names,
+    jobjectArray columns,
+    jintArray kinds,
+    jintArray offsets,
+    jintArray lengths
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL_RET(env, names, "Null names");
+    CHECK_NULL_RET(env, columns, "Null columns");
+    CHECK_NULL_RET(env, kinds, "Null kinds");
+    CHECK_NULL_RET(env, offsets, "Null offsets");
+    CHECK_NULL_RET(env, lengths, "Null lengths");
+
+    int count = (*env)->GetArrayLength(env, names);
+    CHECK_FALSE_RET(env, (*env)->GetArrayLength(env, columns) == count
+            && (*env)->GetArrayLength(env, kinds) == count
+            && (*env)->GetArrayLength(env, offsets) == count
+            && (*env)->GetArrayLength(env, lengths) == count, "Column count not matched");
+
+    ColumnConstructors constructors;
+    column_constructors_init(&constructors);
+
+    JSValue result = JS_NewObject(ctx);
+    for (int i = 0; i < count && !JS_IsException(result); i++) {
+        jint kind, offset, length;
+        (*env)->GetIntArrayRegion(env, kinds, i, 1, &kind);
+        (*env)->GetIntArrayRegion(env, offsets, i, 1, &offset);
+        (*env)->GetIntArrayRegion(env, lengths, i, 1, &length);
+        if (kind < 0 || kind >= COLUMN_KIND_COUNT) {
+            JS_FreeValue(ctx, result);
+            result = JS_ThrowInternalError(ctx, "Invalid column kind: %d", kind);
+            break;
+        }
+
+        JSValue constructor = column_constructor(ctx, &constructors, kind);
+        if (JS_IsException(constructor)) {
+            JS_FreeValue(ctx, result);
+            result = JS_EXCEPTION;
+            break;
+        }
+
+        jobject column = (*env)->GetObjectArrayElement(env, columns, i);
+        JSValue buffer = new_column_buffer(env, ctx, column, column_element_sizes[kind], offset, length);
+        (*env)->DeleteLocalRef(env, column);
+        JSValue typed_array = JS_IsException(buffer)
+                ? JS_EXCEPTION : JS_CallConstructor(ctx, constructor, 1, (JSValueConst *) &buffer);
+        JS_FreeValue(ctx, buffer);
+
+        jstring name = (*env)->GetObjectArrayElement(env, names, i);
+        const char *name_utf = name != NULL ? (*env)->GetStringUTFChars(env, name, NULL) : NULL;
+        JSAtom atom = name_utf != NULL ? JS_NewAtom(ctx, name_utf) : JS_ATOM_NULL;
+        if (name_utf != NULL) (*env)->ReleaseStringUTFChars(env, name, name_utf);
+        (*env)->DeleteLocalRef(env, name);
+
+        if (JS_IsException(typed_array) || atom == JS_ATOM_NULL) {
+            JS_FreeValue(ctx, typed_array);
+            if (atom != JS_ATOM_NULL) JS_FreeAtom(ctx, atom);
+            else if (!JS_IsException(typed_array)) JS_ThrowOutOfMemory(ctx);
+            JS_FreeValue(ctx, result);
+            result = JS_EXCEPTION;
+            break;
+        }
+        if (JS_SetProperty(ctx, result, atom, typed_array) < 0) {
+            JS_FreeValue(ctx, result);
+            result = JS_EXCEPTION;
+        }
+        JS_FreeAtom(ctx, atom);
+    }
+
+    column_constructors_free(ctx, &constructors);
+
+    JSValue *copy = NULL;
+    COPY_JS_VALUE(ctx, result, copy);
+    CHECK_NULL_RET(env, copy, MSG_OOM);
+
+    return (jlong) copy;
+}
+
+static jarray new_column_array(JNIEnv *env, int kind, jsize length) {
+    switch (kind) {
+        case COLUMN_INT32: return (*env)->NewIntArray(env, length);
+        case COLUMN_INT64: return (*env)->NewLongArray(env, length);
+        case COLUMN_FLOAT32: return (*env)->NewFloatArray(env, length);
+        default: return (*env)->NewDoubleArray(env, length);
+    }
+}
+
+static void set_column_array(JNIEnv *env, int kind, jarray array, jsize length, const void *elements) {
+    switch (kind) {
+        case COLUMN_INT32: (*env)->SetIntArrayRegion(env, array, 0, length, elements); break;
+        case COLUMN_INT64: (*env)->SetLongArrayRegion(env, array, 0, length, elements); break;
+        case COLUMN_FLOAT32: (*env)->SetFloatArrayRegion(env, array, 0, length, elements); break;
+        default: (*env)->SetDoubleArrayRegion(env, array, 0, length, elements); break;
+    }
+}
+
+// Converts the element to the column type, stores it to the slot
+static int to_column_element(JSContext *ctx, int kind, JSValueConst element, void *slot) {
+    switch (kind) {
+        case COLUMN_INT32:
+            return JS_ToInt32(ctx, slot, element);
+        case COLUMN_INT64:
+            return JS_ToInt64Ext(ctx, slot, element);
+        case COLUMN_FLOAT32: {
+            double d;
+            if (JS_ToFloat64(ctx, &d, element)) return -1;
+            *(float *) slot = (float) d;
+            return 0;
+        }
+        default:
+            return JS_ToFloat64(ctx, slot, element);
+    }
+}
+
+// Returns NULL if it fails, with a pending JS exception
+static jarray to_column_array(JNIEnv *env, JSContext *ctx, JSValueConst column, int kind, JSValueConst constructor) {
+    size_t element_size = column_element_sizes[kind];
+
+    int is_typed_array = JS_IsInstanceOf(ctx, column, constructor);
+    if (is_typed_array < 0) return NULL;
+
+    if (is_typed_array) {
+        // The same type, copy the memory
+        size_t byte_offset, byte_length, bytes_per_element;
+        JSValue buffer = JS_GetTypedArrayBuffer(ctx, column, &byte_offset, &byte_length, &bytes_per_element);
+        if (JS_IsException(buffer)) return NULL;
+        size_t size;
+        uint8_t *data = JS_GetArrayBuffer(ctx, &size, buffer);
+        JS_FreeValue(ctx, buffer);
+        if (data == NULL) return NULL;
+
+        jsize length = (jsize) (byte_length / element_size);
+        jarray array = new_column_array(env, kind, length);
+        if (array == NULL) {
+            (*env)->ExceptionClear(env);
+            JS_ThrowOutOfMemory(ctx);
+            return NULL;
+        }
+        set_column_array(env, kind, array, length, data + byte_offset);
+        return array;
+    }
+
+    // Other array-likes, convert element by element
+    JSValue length_value = JS_GetPropertyStr(ctx, column, "length");
+    if (JS_IsException(length_value)) return NULL;
+    int64_t length;
+    int ret = JS_ToInt64(ctx, &length, length_value);
+    JS_FreeValue(ctx, length_value);
+    if (ret) return NULL;
+    if (length < 0 || length > INT32_MAX) {
+        JS_ThrowRangeError(ctx, "Invalid column length");
+        return NULL;
+    }
+
+    JSRuntime *rt = JS_GetRuntime(ctx);
+    uint8_t *elements = js_malloc_rt(rt, (size_t) length * element_size + 1);
+    if (elements == NULL) {
+        JS_ThrowOutOfMemory(ctx);
+        return NULL;
+    }
+    for (uint32_t i = 0; i < length; i++) {
+        JSValue element = JS_GetPropertyUint32(ctx, column, i);
+        ret = JS_IsException(element) ? -1 : to_column_element(ctx, kind, element, elements + i * element_size);
+        JS_FreeValue(ctx, element);
+        if (ret) {
+            js_free_rt(rt, elements);
+            return NULL;
+        }
+    }
+
+    jarray array = new_column_array(env, kind, (jsize) length);
+    if (array == NULL) {
+        (*env)->ExceptionClear(env);
+        JS_ThrowOutOfMemory(ctx);
+    } else {
+        set_column_array(env, kind, array, (jsize) length, elements);
+    }
+    js_free_rt(rt, elements);
+    return array;
+}
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueColumns(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jobjectArray names,
+    jintArray kinds
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    CHECK_NULL_RET(env, names, "Null names");
+    CHECK_NULL_RET(env, kinds, "Null kinds");
+
+    int count = (*env)->GetArrayLength(env, names);
+    CHECK_FALSE_RET(env, (*env)->GetArrayLength(env, kinds) == count, "Column count not matched");
+
+    jclass object_class = (*env)->FindClass(env, "java/lang/Object");
+    CHECK_NULL_RET(env, object_class, MSG_OOM);
+    jobjectArray result = (*env)->NewObjectArray(env, count, object_class, NULL);
+    (*env)->DeleteLocalRef(env, object_class);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    ColumnConstructors constructors;
+    column_constructors_init(&constructors);
+
+    for (int i = 0; i < count; i++) {
+        jint kind;
+        (*env)->GetIntArrayRegion(env, kinds, i, 1, &kind);
+        if (kind < 0 || kind >= COLUMN_KIND_COUNT) {
+            JS_ThrowInternalError(ctx, "Invalid column kind: %d", kind);
+            result = NULL;
+            break;
+        }
+
+        jstring name = (*env)->GetObjectArrayElement(env, names, i);
+        const char *name_utf = name != NULL ? (*env)->GetStringUTFChars(env, name, NULL) : NULL;
+        JSValue column = name_utf != NULL ? JS_GetPropertyStr(ctx, *val, name_utf) : JS_ThrowOutOfMemory(ctx);
+        if (name_utf != NULL) (*env)->ReleaseStringUTFChars(env, name, name_utf);
+        (*env)->DeleteLocalRef(env, name);
+        if (JS_IsException(column)) {
+            result = NULL;
+            break;
+        }
+
+        JSValue constructor = column_constructor(ctx, &constructors, kind);
+        jarray array = JS_IsException(constructor) ? NULL : to_column_array(env, ctx, column, kind, constructor);
+        JS_FreeValue(ctx, column);
+        if (array == NULL) {
+            result = NULL;
+            break;
+        }
+        (*env)->SetObjectArrayElement(env, result, i, array);
+        (*env)->DeleteLocalRef(env, array);
+    }
+
+    column_constructors_free(ctx, &constructors);
+
+    java_registry_flush(env, JS_GetRuntime(ctx));
+
+    return result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueProperty__JJI(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jint index
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+
+    JSValue *result = NULL;
+
+    JSValue prop = JS_GetPropertyUint32(ctx, *val, (uint32_t) index);
+
+    COPY_JS_VALUE(ctx, prop, result);
+
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueProperty__JJLjava_lang_String_2(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jstring name
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    CHECK_NULL_RET(env, name, "Null name");
+
+    const char *name_utf = (*env)->GetStringUTFChars(env, name, NULL);
+    CHECK_NULL_RET(env, name_utf, MSG_OOM);
+
+    JSValue *result = NULL;
+
+    JSValue prop = JS_GetPropertyStr(ctx, *val, name_utf);
+
+    COPY_JS_VALUE(ctx, prop, result);
+
+    (*env)->ReleaseStringUTFChars(env, name, name_utf);
+
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_hippo_quickjs_android_QuickJS_setValueProperty__JJIJ(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jint index,
+    jlong property
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    JSValue *prop = (JSValue *) property;
+    CHECK_NULL_RET(env, prop, "Null property");
+
+    // JS_SetPropertyUint32 requires a reference count of the property JSValue
+    // Meanwhile, it calls JS_FreeValue on the property JSValue if it fails
+    JS_DupValue(ctx, *prop);
+
+    return (jboolean) (JS_SetPropertyUint32(ctx, *val, (uint32_t) index, *prop) >= 0);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_hippo_quickjs_android_QuickJS_setValueProperty__JJLjava_lang_String_2J(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jstring name,
+    jlong property
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    CHECK_NULL_RET(env, name, "Null name");
+    JSValue *prop = (JSValue *) property;
+    CHECK_NULL_RET(env, prop, "Null property");
+
+    const char *name_utf = (*env)->GetStringUTFChars(env, name, NULL);
+    CHECK_NULL_RET(env, name_utf, MSG_OOM);
+
+    // JS_SetPropertyStr requires a reference count of the property JSValue
+    // Meanwhile, it calls JS_FreeValue on the property JSValue if it fails
+    JS_DupValue(ctx, *prop);
+
+    jboolean result = (jboolean) (JS_SetPropertyStr(ctx, *val, name_utf, *prop) >= 0);
+
+    (*env)->ReleaseStringUTFChars(env, name, name_utf);
+
+    return result;
+}
+
+JNIEXPORT jobjectArray JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueOwnPropertyNames(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+
+    JSPropertyEnum *tab;
+    uint32_t len;
+    // Leave the exception for java
+    if (JS_GetOwnPropertyNames(ctx, &tab, &len, *val, JS_GPN_STRING_MASK | JS_GPN_ENUM_ONLY) < 0) return NULL;
+
+    jclass string_class = (*env)->FindClass(env, "java/lang/String");
+    jobjectArray result = string_class != NULL ? (*env)->NewObjectArray(env, len, string_class, NULL) : NULL;
+
+    int failed = result == NULL;
+    for (uint32_t i = 0; i < len; i++) {
+        if (!failed) {
+            const char *name_utf = JS_AtomToCString(ctx, tab[i].atom);
+            if (name_utf != NULL) {
+                jstring name = (*env)->NewStringUTF(env, name_utf);
+                JS_FreeCString(ctx, name_utf);
+                if (name != NULL) {
+                    (*env)->SetObjectArrayElement(env, result, i, name);
+                    (*env)->DeleteLocalRef(env, name);
+                } else {
+                    failed = 1;
+                }
+            } else {
+                failed = 1;
+            }
+        }
+        JS_FreeAtom(ctx, tab[i].atom);
+    }
+    js_free(ctx, tab);
+
+    if (string_class != NULL) (*env)->DeleteLocalRef(env, string_class);
+    if (failed) {
+        if (result != NULL) (*env)->DeleteLocalRef(env, result);
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
+
+    return result;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueOwnPropertyCount(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+
+    JSPropertyEnum *tab;
+    uint32_t len;
+    // Leave the exception for java
+    if (JS_GetOwnPropertyNames(ctx, &tab, &len, *val, JS_GPN_STRING_MASK | JS_GPN_ENUM_ONLY) < 0) return -1;
+
+    // Names are not converted
+    for (uint32_t i = 0; i < len; i++) {
+        JS_FreeAtom(ctx, tab[i].atom);
+    }
+    js_free(ctx, tab);
+
+    return (jint) len;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_hippo_quickjs_android_QuickJS_hasValueOwnEnumerableProperty(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jstring name
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    CHECK_NULL_RET(env, name, "Null name");
+
+    const char *name_utf = (*env)->GetStringUTFChars(env, name, NULL);
+    CHECK_NULL_RET(env, name_utf, MSG_OOM);
+
+    JSAtom atom = JS_NewAtom(ctx, name_utf);
+    (*env)->ReleaseStringUTFChars(env, name, name_utf);
+    if (atom == JS_ATOM_NULL) return -1;
+
+    // Negative if there is an exception
+    JSPropertyDescriptor desc;
+    int result = JS_GetOwnProperty(ctx, &desc, *val, atom);
+    JS_FreeAtom(ctx, atom);
+    if (result <= 0) return result;
+
+    JS_FreeValue(ctx, desc.value);
+    JS_FreeValue(ctx, desc.getter);
+    JS_FreeValue(ctx, desc.setter);
+    return (desc.flags & JS_PROP_ENUMERABLE) != 0;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_hippo_quickjs_android_QuickJS_deleteValueProperty(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jstring name
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    CHECK_NULL_RET(env, name, "Null name");
+
+    const char *name_utf = (*env)->GetStringUTFChars(env, name, NULL);
+    CHECK_NULL_RET(env, name_utf, MSG_OOM);
+
+    JSAtom atom = JS_NewAtom(ctx, name_utf);
+    (*env)->ReleaseStringUTFChars(env, name, name_utf);
+    if (atom == JS_ATOM_NULL) return JNI_FALSE;
+
+    // Throws if the property can't be deleted
+    int result = JS_DeleteProperty(ctx, *val, atom, JS_PROP_THROW);
+    JS_FreeAtom(ctx, atom);
+
+    return (jboolean) (result >= 0);
+}
+
+// Moves the values to a java long array of JSValue pointers.
+// The values are always consumed, returns NULL with a java exception if it fails.
+static jlongArray to_value_pointers(JNIEnv *env, JSContext *ctx, JSValue *values, uint32_t count) {
+    JSRuntime *rt = JS_GetRuntime(ctx);
+
+    jlongArray result = (*env)->NewLongArray(env, count);
+    jlong *elements = result != NULL ? (*env)->GetLongArrayElements(env, result, NULL) : NULL;
+
+    uint32_t copied = 0;
+    if (elements != NULL) {
+        for (; copied < count; copied++) {
+            JSValue *copy = NULL;
+            COPY_JS_VALUE(ctx, values[copied], copy);
+            if (copy == NULL) break;
+            elements[copied] = (jlong) copy;
+        }
+    }
+
+    if (elements == NULL || copied != count) {
+        // COPY_JS_VALUE frees the value it fails to copy
+        for (uint32_t i = elements != NULL ? copied + 1 : 0; i < count; i++) {
+            JS_FreeValue(ctx, values[i]);
+        }
+        for (uint32_t i = 0; elements != NULL && i < copied; i++) {
+            JS_FreeValue(ctx, *((JSValue *) elements[i]));
+            js_free_rt(rt, (void *) elements[i]);
+        }
+        if (elements != NULL) (*env)->ReleaseLongArrayElements(env, result, elements, JNI_ABORT);
+        if (result != NULL) (*env)->DeleteLocalRef(env, result);
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
+
+    (*env)->ReleaseLongArrayElements(env, result, elements, 0);
+    return result;
+}
+
+static JSValue get_global_property(JSContext *ctx, const char *name) {
+    JSValue global = JS_GetGlobalObject(ctx);
+    JSValue result = JS_GetPropertyStr(ctx, global, name);
+    JS_FreeValue(ctx, global);
+    return result;
+}
+
+// Returns an array of the elements of the iterable, with Array.from() if it's not an array
+static JSValue to_array(JSContext *ctx, JSValueConst iterable) {
+    int is_array = JS_IsArray(ctx, iterable);
+    if (is_array < 0) return JS_EXCEPTION;
+    if (is_array) return JS_DupValue(ctx, iterable);
+
+    JSValue array_ctor = get_global_property(ctx, "Array");
+    if (JS_IsException(array_ctor)) return array_ctor;
+    JSValue from = JS_GetPropertyStr(ctx, array_ctor, "from");
+    JSValue result = JS_IsException(from) ? JS_EXCEPTION : JS_Call(ctx, from, array_ctor, 1, (JSValueConst *) &iterable);
+    JS_FreeValue(ctx, from);
+    JS_FreeValue(ctx, array_ctor);
+    return result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueArrayWithElements(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlongArray values
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL_RET(env, values, "Null values");
+
+    jsize count = (*env)->GetArrayLength(env, values);
+    jlong *elements = (*env)->GetLongArrayElements(env, values, NULL);
+    CHECK_NULL_RET(env, elements, MSG_OOM);
+
+    JSValue *result = NULL;
+
+    JSValue array = JS_NewArray(ctx);
+    for (jsize i = 0; i < count && !JS_IsException(array); i++) {
+        // JS_DefinePropertyValueUint32 takes the reference count of the value
+        JSValue element = JS_DupValue(ctx, *((JSValue *) elements[i]));
+        if (JS_DefinePropertyValueUint32(ctx, array, (uint32_t) i, element, JS_PROP_C_W_E) < 0) {
+            JS_FreeValue(ctx, array);
+            array = JS_EXCEPTION;
+        }
+    }
+
+    (*env)->ReleaseLongArrayElements(env, values, elements, JNI_ABORT);
+
+    COPY_JS_VALUE(ctx, array, result);
+
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueElements(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jboolean entries
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+
+    // Leave the exception for java
+    JSValue array = to_array(ctx, *val);
+    if (JS_IsException(array)) return NULL;
+
+    int64_t length;
+    JSValue length_val = JS_GetPropertyStr(ctx, array, "length");
+    int failed = JS_ToInt64(ctx, &length, length_val) != 0;
+    JS_FreeValue(ctx, length_val);
+    if (!failed && (length < 0 || length > (entries ? INT32_MAX / 2 : INT32_MAX))) {
+        JS_ThrowRangeError(ctx, "Invalid array length");
+        failed = 1;
+    }
+    if (failed) {
+        JS_FreeValue(ctx, array);
+        return NULL;
+    }
+
+    // Entries are flattened as key, value, key, value...
+    uint32_t count = (uint32_t) (entries ? length * 2 : length);
+    JSValue *values = js_malloc(ctx, sizeof(JSValue) * (count > 0 ? count : 1));
+    if (values == NULL) {
+        JS_FreeValue(ctx, array);
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
+
+    uint32_t read = 0;
+    for (uint32_t i = 0; i < (uint32_t) length; i++) {
+        JSValue element = JS_GetPropertyUint32(ctx, array, i);
+        if (JS_IsException(element)) break;
+        if (entries) {
+            JSValue key = JS_GetPropertyUint32(ctx, element, 0);
+            JSValue entry_value = JS_IsException(key) ? JS_EXCEPTION : JS_GetPropertyUint32(ctx, element, 1);
+            JS_FreeValue(ctx, element);
+            if (JS_IsException(entry_value)) {
+                JS_FreeValue(ctx, key);
+                break;
+            }
+            values[read++] = key;
+            values[read++] = entry_value;
+        } else {
+            values[read++] = element;
+        }
+    }
+    JS_FreeValue(ctx, array);
+
+    if (read != count) {
+        for (uint32_t i = 0; i < read; i++) {
+            JS_FreeValue(ctx, values[i]);
+        }
+        js_free(ctx, values);
+        return NULL;
+    }
+
+    jlongArray result = to_value_pointers(env, ctx, values, count);
+    js_free(ctx, values);
+    return result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueCollection(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jboolean is_map,
+    jlongArray values
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL_RET(env, values, "Null values");
+
+    jsize count = (*env)->GetArrayLength(env, values);
+    // Entries are flattened as key, value, key, value...
+    int argc = is_map ? 2 : 1;
+    if (count % argc != 0) THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Invalid entries");
+
+    jlong *elements = (*env)->GetLongArrayElements(env, values, NULL);
+    CHECK_NULL_RET(env, elements, MSG_OOM);
+
+    JSValue *result = NULL;
+
+    JSValue ctor = get_global_property(ctx, is_map ? "Map" : "Set");
+    JSValue collection = JS_IsException(ctor) ? JS_EXCEPTION : JS_CallConstructor(ctx, ctor, 0, NULL);
+    JS_FreeValue(ctx, ctor);
+    JSValue adder = JS_IsException(collection) ? JS_EXCEPTION : JS_GetPropertyStr(ctx, collection, is_map ? "set" : "add");
+
+    if (JS_IsException(adder)) {
+        JS_FreeValue(ctx, collection);
+        collection = JS_EXCEPTION;
+    } else {
+        for (jsize i = 0; i < count; i += argc) {
+            JSValueConst args[2];
+            args[0] = *((JSValue *) elements[i]);
+            if (is_map) args[1] = *((JSValue *) elements[i + 1]);
+            JSValue ret = JS_Call(ctx, adder, collection, argc, args);
+            if (JS_IsException(ret)) {
+                JS_FreeValue(ctx, collection);
+                collection = JS_EXCEPTION;
+                break;
+            }
+            JS_FreeValue(ctx, ret);
+        }
+        JS_FreeValue(ctx, adder);
+    }
+
+    (*env)->ReleaseLongArrayElements(env, values, elements, JNI_ABORT);
+
+    COPY_JS_VALUE(ctx, collection, result);
+
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_hippo_quickjs_android_QuickJS_isValueInstanceOf(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jstring constructor
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    CHECK_NULL_RET(env, constructor, "Null constructor");
+
+    const char *constructor_utf = (*env)->GetStringUTFChars(env, constructor, NULL);
+    CHECK_NULL_RET(env, constructor_utf, MSG_OOM);
+
+    JSValue ctor = get_global_property(ctx, constructor_utf);
+    (*env)->ReleaseStringUTFChars(env, constructor, constructor_utf);
+
+    // Negative if there is an exception
+    int result = JS_IsException(ctor) ? -1 : JS_IsInstanceOf(ctx, *val, ctor);
+    JS_FreeValue(ctx, ctor);
+
+    return result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueObjectWithNames(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jobjectArray names,
+    jlongArray values
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL_RET(env, names, "Null names");
+    CHECK_NULL_RET(env, values, "Null values");
+    jsize count = (*env)->GetArrayLength(env, names);
+    if ((*env)->GetArrayLength(env, values) != count) {
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Values don't match names");
+    }
+
+    jlong *elements = (*env)->GetLongArrayElements(env, values, NULL);
+    CHECK_NULL_RET(env, elements, MSG_OOM);
+
+    JSValue *result = NULL;
+    int oom = 0;
+
+    JSValue obj = JS_NewObject(ctx);
+    for (jsize i = 0; i < count && !JS_IsException(obj); i++) {
+        jstring name = (*env)->GetObjectArrayElement(env, names, i);
+        const char *name_utf = name != NULL ? (*env)->GetStringUTFChars(env, name, NULL) : NULL;
+        if (name_utf == NULL) {
+            if (name != NULL) (*env)->DeleteLocalRef(env, name);
+            JS_FreeValue(ctx, obj);
+            obj = JS_EXCEPTION;
+            oom = 1;
+            break;
+        }
+        // JS_DefinePropertyValueStr takes the reference count of the value
+        JSValue prop = JS_DupValue(ctx, *((JSValue *) elements[i]));
+        if (JS_DefinePropertyValueStr(ctx, obj, name_utf, prop, JS_PROP_C_W_E) < 0) {
+            JS_FreeValue(ctx, obj);
+            obj = JS_EXCEPTION;
+        }
+        (*env)->ReleaseStringUTFChars(env, name, name_utf);
+        (*env)->DeleteLocalRef(env, name);
+    }
+
+    (*env)->ReleaseLongArrayElements(env, values, elements, JNI_ABORT);
+
+    if (oom) THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Null or invalid name");
+
+    COPY_JS_VALUE(ctx, obj, result);
+
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValuePropertiesByNames(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jobjectArray names
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    CHECK_NULL_RET(env, names, "Null names");
+
+    jsize count = (*env)->GetArrayLength(env, names);
+    JSValue *values = js_malloc(ctx, sizeof(JSValue) * (count > 0 ? count : 1));
+    if (values == NULL) THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+
+    jsize read = 0;
+    int oom = 0;
+    for (; read < count; read++) {
+        jstring name = (*env)->GetObjectArrayElement(env, names, read);
+        const char *name_utf = name != NULL ? (*env)->GetStringUTFChars(env, name, NULL) : NULL;
+        if (name_utf == NULL) {
+            if (name != NULL) (*env)->DeleteLocalRef(env, name);
+            oom = 1;
+            break;
+        }
+        JSValue prop = JS_GetPropertyStr(ctx, *val, name_utf);
+        (*env)->ReleaseStringUTFChars(env, name, name_utf);
+        (*env)->DeleteLocalRef(env, name);
+        if (JS_IsException(prop)) break;
+        values[read] = prop;
+    }
+
+    if (read != count) {
+        // Drop the properties read before the failure
+        for (jsize i = 0; i < read; i++) {
+            JS_FreeValue(ctx, values[i]);
+        }
+        js_free(ctx, values);
+        if (oom) THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Null or invalid name");
+        // The exception is pending in the context
+        return NULL;
+    }
+
+    jlongArray result = to_value_pointers(env, ctx, values, (uint32_t) count);
+    js_free(ctx, values);
+    return result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueBigInt(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+
+    JSValue *result = NULL;
+    JSValue val = JS_NewBigInt64(ctx, value);
+    COPY_JS_VALUE(ctx, val, result);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueBigIntFromString(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jstring value
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL_RET(env, value, "Null value");
+
+    const char *value_utf = (*env)->GetStringUTFChars(env, value, NULL);
+    CHECK_NULL_RET(env, value_utf, MSG_OOM);
+    JSValue str = JS_NewString(ctx, value_utf);
+    (*env)->ReleaseStringUTFChars(env, value, value_utf);
+
+    JSValue *result = NULL;
+
+    JSValue val;
+    if (JS_IsException(str)) {
+        val = JS_EXCEPTION;
+    } else {
+        // There is no public API to parse BigInt, call BigInt() instead
+        JSValue ctor = get_global_property(ctx, "BigInt");
+        val = JS_IsException(ctor) ? JS_EXCEPTION : JS_Call(ctx, ctor, JS_UNDEFINED, 1, (JSValueConst *) &str);
+        JS_FreeValue(ctx, ctor);
+        JS_FreeValue(ctx, str);
+    }
+
+    COPY_JS_VALUE(ctx, val, result);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueBigInt64(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value
 ) {
     JSContext *ctx = (JSContext *) context;
     CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
     JSValue *val = (JSValue *) value;
     CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
-    CHECK_NULL_RET(env, name, "Null name");
-    JSValue *prop = (JSValue *) property;
-    CHECK_NULL_RET(env, prop, "Null property");
+    CHECK_FALSE_RET(env, JS_IsBigInt(ctx, *val), "JSValue is not BigInt");
+
+    // JS_ToBigInt64 keeps the low 64 bits, the nearest double tells whether it's truncated
+    int64_t result;
+    double approximate;
+    if (JS_ToBigInt64(ctx, &result, *val) || JS_ToFloat64(ctx, &approximate, *val)) {
+        JS_FreeValue(ctx, JS_GetException(ctx));
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Can't read BigInt");
+    }
+    if ((double) result != approximate) {
+        const char *str = JS_ToCString(ctx, *val);
+        if (str == NULL) {
+            JS_FreeValue(ctx, JS_GetException(ctx));
+            THROW_JS_DATA_EXCEPTION_RET(env, "Can't treat BigInt as long");
+        }
+        throw_exception(env, CLASS_NAME_JS_DATA_EXCEPTION, "Can't treat %sn as long", str);
+        JS_FreeCString(ctx, str);
+        return 0;
+    }
 
-    const char *name_utf = (*env)->GetStringUTFChars(env, name, NULL);
-    CHECK_NULL_RET(env, name_utf, MSG_OOM);
+    return result;
+}
 
-    // JS_SetPropertyStr requires a reference count of the property JSValue
-    // Meanwhile, it calls JS_FreeValue on the property JSValue if it fails
-    JS_DupValue(ctx, *prop);
+JNIEXPORT jstring JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueBigIntString(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    CHECK_FALSE_RET(env, JS_IsBigInt(ctx, *val), "JSValue is not BigInt");
 
-    jboolean result = (jboolean) (JS_SetPropertyStr(ctx, *val, name_utf, *prop) >= 0);
+    const char *str = JS_ToCString(ctx, *val);
+    if (str == NULL) {
+        JS_FreeValue(ctx, JS_GetException(ctx));
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
 
-    (*env)->ReleaseStringUTFChars(env, name, name_utf);
+    jstring result = (*env)->NewStringUTF(env, str);
+    JS_FreeCString(ctx, str);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return result;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueDate(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jdouble time
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+
+    JSValue *result = NULL;
+
+    JSValue ctor = get_global_property(ctx, "Date");
+    JSValue arg = JS_NewFloat64(ctx, time);
+    JSValue val = JS_IsException(ctor) ? JS_EXCEPTION : JS_CallConstructor(ctx, ctor, 1, (JSValueConst *) &arg);
+    JS_FreeValue(ctx, ctor);
+
+    COPY_JS_VALUE(ctx, val, result);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+JNIEXPORT jdouble JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueDateTime(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+
+    JSValue ctor = get_global_property(ctx, "Date");
+    int is_date = JS_IsException(ctor) ? -1 : JS_IsInstanceOf(ctx, *val, ctor);
+    JS_FreeValue(ctx, ctor);
+    if (is_date < 0) {
+        JS_FreeValue(ctx, JS_GetException(ctx));
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Can't check Date");
+    }
+    if (!is_date) THROW_JS_DATA_EXCEPTION_RET(env, "expected: Date");
+
+    // The time value of Date is its primitive value
+    double result;
+    if (JS_ToFloat64(ctx, &result, *val)) {
+        JS_FreeValue(ctx, JS_GetException(ctx));
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Can't read Date");
+    }
+
+    return result;
+}
+
+typedef struct {
+    int count;
+    JSAtom atoms[];
+} PropertyKeys;
+
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createPropertyKeys(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jobjectArray names
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    CHECK_NULL_RET(env, names, "Null names");
+
+    int count = (*env)->GetArrayLength(env, names);
+    PropertyKeys *keys = js_malloc_rt(JS_GetRuntime(ctx), sizeof(PropertyKeys) + count * sizeof(JSAtom));
+    CHECK_NULL_RET(env, keys, MSG_OOM);
+    keys->count = 0;
+
+    for (int i = 0; i < count; i++) {
+        jstring name = (*env)->GetObjectArrayElement(env, names, i);
+        const char *name_utf = name != NULL ? (*env)->GetStringUTFChars(env, name, NULL) : NULL;
+        JSAtom atom = name_utf != NULL ? JS_NewAtom(ctx, name_utf) : JS_ATOM_NULL;
+        if (name_utf != NULL) (*env)->ReleaseStringUTFChars(env, name, name_utf);
+        (*env)->DeleteLocalRef(env, name);
+
+        if (atom == JS_ATOM_NULL) {
+            for (int j = 0; j < keys->count; j++) {
+                JS_FreeAtom(ctx, keys->atoms[j]);
+            }
+            js_free_rt(JS_GetRuntime(ctx), keys);
+            THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+        }
+        keys->atoms[keys->count++] = atom;
+    }
+
+    return (jlong) keys;
+}
+
+JNIEXPORT void JNICALL
+Java_com_hippo_quickjs_android_QuickJS_releasePropertyKeys(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong runtime,
+    jlong propertyKeys
+) {
+    QJRuntime *qj_rt = (QJRuntime *) runtime;
+    CHECK_NULL(env, qj_rt, MSG_NULL_JS_RUNTIME);
+    PropertyKeys *keys = (PropertyKeys *) propertyKeys;
+    CHECK_NULL(env, keys, "Null property keys");
+
+    for (int i = 0; i < keys->count; i++) {
+        JS_FreeAtomRT(qj_rt->rt, keys->atoms[i]);
+    }
+    js_free_rt(qj_rt->rt, keys);
+}
+
+JNIEXPORT jlongArray JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getValueProperties(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value,
+    jlong propertyKeys
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+    PropertyKeys *keys = (PropertyKeys *) propertyKeys;
+    CHECK_NULL_RET(env, keys, "Null property keys");
+
+    jlongArray result = (*env)->NewLongArray(env, keys->count);
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    jlong *elements = (*env)->GetLongArrayElements(env, result, NULL);
+    CHECK_NULL_RET(env, elements, MSG_OOM);
+
+    int count = 0;
+    int oom = 0;
+    for (; count < keys->count; count++) {
+        JSValue *prop_result = NULL;
+        JSValue prop = JS_GetProperty(ctx, *val, keys->atoms[count]);
+        if (JS_IsException(prop)) break;
+        COPY_JS_VALUE(ctx, prop, prop_result);
+        if (prop_result == NULL) {
+            oom = 1;
+            break;
+        }
+        elements[count] = (jlong) prop_result;
+    }
+
+    if (count != keys->count) {
+        // Drop the properties read before the failure
+        for (int i = 0; i < count; i++) {
+            JS_FreeValue(ctx, *((JSValue *) elements[i]));
+            js_free_rt(JS_GetRuntime(ctx), (void *) elements[i]);
+        }
+        (*env)->ReleaseLongArrayElements(env, result, elements, JNI_ABORT);
+        if (oom) THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+        // The exception is pending in the context
+        return NULL;
+    }
 
+    (*env)->ReleaseLongArrayElements(env, result, elements, 0);
     return result;
 }
 
+JNIEXPORT jlong JNICALL
+Java_com_hippo_quickjs_android_QuickJS_createValueObjectWithProperties(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong propertyKeys,
+    jlongArray values
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    PropertyKeys *keys = (PropertyKeys *) propertyKeys;
+    CHECK_NULL_RET(env, keys, "Null property keys");
+    CHECK_NULL_RET(env, values, "Null values");
+    if ((*env)->GetArrayLength(env, values) != keys->count) {
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, "Values don't match property keys");
+    }
+
+    jlong *elements = (*env)->GetLongArrayElements(env, values, NULL);
+    CHECK_NULL_RET(env, elements, MSG_OOM);
+
+    JSValue *result = NULL;
+
+    JSValue obj = JS_NewObject(ctx);
+    if (!JS_IsException(obj)) {
+        for (int i = 0; i < keys->count; i++) {
+            // JS_DefinePropertyValue takes the reference count of the value
+            JSValue prop = JS_DupValue(ctx, *((JSValue *) elements[i]));
+            if (JS_DefinePropertyValue(ctx, obj, keys->atoms[i], prop, JS_PROP_C_W_E) < 0) {
+                JS_FreeValue(ctx, obj);
+                obj = JS_EXCEPTION;
+                break;
+            }
+        }
+    }
+
+    (*env)->ReleaseLongArrayElements(env, values, elements, JNI_ABORT);
+
+    COPY_JS_VALUE(ctx, obj, result);
+
+    CHECK_NULL_RET(env, result, MSG_OOM);
+
+    return (jlong) result;
+}
+
+// Kinds of JSBinder members
+#define BINDER_MEMBER_METHOD 0
+#define BINDER_MEMBER_STATIC_METHOD 1
+#define BINDER_MEMBER_GETTER 2
+#define BINDER_MEMBER_STATIC_GETTER 3
+#define BINDER_MEMBER_CONSTANT 4
+
+#define IS_BINDER_INSTANCE_MEMBER(KIND) ((KIND) == BINDER_MEMBER_METHOD || (KIND) == BINDER_MEMBER_GETTER)
+
+JNIEXPORT jboolean JNICALL
+Java_com_hippo_quickjs_android_QuickJS_installJSBinder(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong target,
+    jlong descriptor,
+    jint calleeSlot,
+    jlong propertyKeys,
+    jintArray kinds,
+    jlongArray constants
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *target_obj = (JSValue *) target;
+    CHECK_NULL_RET(env, target_obj, "Null target");
+    JavaMethodDescriptor *method_descriptor = (JavaMethodDescriptor *) descriptor;
+    CHECK_NULL_RET(env, method_descriptor, "Null descriptor");
+    PropertyKeys *keys = (PropertyKeys *) propertyKeys;
+    CHECK_NULL_RET(env, keys, "Null property keys");
+    CHECK_NULL_RET(env, kinds, "Null kinds");
+    CHECK_NULL_RET(env, constants, "Null constants");
+
+    JSRuntime *rt = JS_GetRuntime(ctx);
+
+    jint *kind_elements = (*env)->GetIntArrayElements(env, kinds, NULL);
+    CHECK_NULL_RET(env, kind_elements, MSG_OOM);
+    jlong *constant_elements = (*env)->GetLongArrayElements(env, constants, NULL);
+    if (constant_elements == NULL) {
+        (*env)->ReleaseIntArrayElements(env, kinds, kind_elements, JNI_ABORT);
+        THROW_ILLEGAL_STATE_EXCEPTION_RET(env, MSG_OOM);
+    }
+
+    int i = 0;
+    int failed = 0;
+    for (; i < keys->count; i++) {
+        jint kind = kind_elements[i];
+        // Every instance member owns a reference count of the callee slot
+        jint callee = IS_BINDER_INSTANCE_MEMBER(kind) ? calleeSlot : -1;
+
+        if (kind == BINDER_MEMBER_CONSTANT) {
+            JSValue value = JS_DupValue(ctx, *((JSValue *) constant_elements[i]));
+            failed = JS_DefinePropertyValue(ctx, *target_obj, keys->atoms[i], value, JS_PROP_ENUMERABLE | JS_PROP_CONFIGURABLE) < 0;
+        } else {
+            // The slot is released by QJ_NewJavaMethodMember if it fails
+            JSValue function = QJ_NewJavaMethodMember(ctx, method_descriptor, callee, i);
+            if (JS_IsException(function)) {
+                failed = 1;
+            } else if (kind == BINDER_MEMBER_GETTER || kind == BINDER_MEMBER_STATIC_GETTER) {
+                failed = JS_DefinePropertyGetSet(ctx, *target_obj, keys->atoms[i], function, JS_UNDEFINED, JS_PROP_ENUMERABLE | JS_PROP_CONFIGURABLE) < 0;
+            } else {
+                failed = JS_DefinePropertyValue(ctx, *target_obj, keys->atoms[i], function, JS_PROP_WRITABLE | JS_PROP_CONFIGURABLE) < 0;
+            }
+        }
+
+        if (failed) break;
+    }
+
+    if (failed) {
+        // Release the slots of members not created
+        for (i++; i < keys->count; i++) {
+            if (IS_BINDER_INSTANCE_MEMBER(kind_elements[i])) {
+                java_registry_release(rt, calleeSlot);
+            }
+        }
+    }
+
+    (*env)->ReleaseLongArrayElements(env, constants, constant_elements, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, kinds, kind_elements, JNI_ABORT);
+
+    return (jboolean) !failed;
+}
+
+#undef IS_BINDER_INSTANCE_MEMBER
+
 #define TO_ARRAY(METHOD_NAME, JNI_ARRAY_TYPE, JNI_TYPE, TYPE_BYTES, NEW_METHOD, GET_METHOD, RELEASE_METHOD) \
 JNIEXPORT JNI_ARRAY_TYPE JNICALL                                                                            \
 METHOD_NAME(                                                                                                \
@@ -1017,7 +3688,7 @@ Java_com_hippo_quickjs_android_QuickJS_getValueJavaObject(
     CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
     JSValue *val = (JSValue *) value;
     CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
-    return QJ_GetJavaObject(ctx, *val);
+    return QJ_GetJavaObject(ctx, env, *val);
 }
 
 JNIEXPORT void JNICALL
@@ -1031,8 +3702,12 @@ Java_com_hippo_quickjs_android_QuickJS_destroyValue(
     CHECK_NULL(env, ctx, MSG_NULL_JS_CONTEXT);
     JSValue *val = (JSValue *) value;
     CHECK_NULL(env, val, MSG_NULL_JS_VALUE);
+    JSRuntime *rt = JS_GetRuntime(ctx);
     JS_FreeValue(ctx, *val);
-    js_free_rt(JS_GetRuntime(ctx), val);
+    js_free_rt(rt, val);
+    if (java_registry_released_count(rt) >= RELEASED_FLUSH_THRESHOLD) {
+        java_registry_flush(env, rt);
+    }
 }
 
 JNIEXPORT jobject JNICALL
@@ -1044,43 +3719,66 @@ Java_com_hippo_quickjs_android_QuickJS_getException(
     JSContext *ctx = (JSContext *) context;
     CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
 
-    jclass js_exception_class = (*env)->FindClass(env, "com/hippo/quickjs/android/JSException");
-    CHECK_NULL_RET(env, js_exception_class, "Can't find JSException");
-
-    jmethodID constructor_id = (*env)->GetMethodID(env, js_exception_class, "<init>", "(ZLjava/lang/String;Ljava/lang/String;)V");
-    CHECK_NULL_RET(env, constructor_id, "Can't find JSException constructor");
-
-    const char *exception_str = NULL;
-    const char *stack_str = NULL;
-
     JSValue exception = JS_GetException(ctx);
-    exception_str = JS_ToCString(ctx, exception);
     jboolean is_error = (jboolean) JS_IsError(ctx, exception);
-    if (is_error) {
-        JSValue stack = JS_GetPropertyStr(ctx, exception, "stack");
-        if (!JS_IsUndefined(stack)) {
-            stack_str = JS_ToCString(ctx, stack);
-        }
-        JS_FreeValue(ctx, stack);
-    }
-    JS_FreeValue(ctx, exception);
 
+    const char *exception_str = JS_ToCString(ctx, exception);
     jstring exception_j_str = (exception_str != NULL) ? (*env)->NewStringUTF(env, exception_str) : NULL;
-    jstring stack_j_str = (stack_str != NULL) ? (*env)->NewStringUTF(env, stack_str) : NULL;
-
     if (exception_str != NULL) {
         JS_FreeCString(ctx, exception_str);
     }
-    if (stack_str != NULL) {
-        JS_FreeCString(ctx, stack_str);
+
+    // Keep the error to read its stack later, the stack is rarely used
+    JSValue *error = NULL;
+    if (is_error) {
+        COPY_JS_VALUE(ctx, exception, error);
+    } else {
+        JS_FreeValue(ctx, exception);
     }
 
-    jobject result = (*env)->NewObject(env, js_exception_class, constructor_id, is_error, exception_j_str, stack_j_str);
+    jobject result = (*env)->NewObject(env, js_exception_class, js_exception_constructor, is_error, exception_j_str, (jlong) error);
+    if (result == NULL && error != NULL) {
+        JS_FreeValue(ctx, *error);
+        js_free_rt(JS_GetRuntime(ctx), error);
+    }
     CHECK_NULL_RET(env, result, "Can't create instance of JSException");
 
     return result;
 }
 
+JNIEXPORT jstring JNICALL
+Java_com_hippo_quickjs_android_QuickJS_getExceptionStack(
+    JNIEnv *env,
+    jclass __unused clazz,
+    jlong context,
+    jlong value
+) {
+    JSContext *ctx = (JSContext *) context;
+    CHECK_NULL_RET(env, ctx, MSG_NULL_JS_CONTEXT);
+    JSValue *val = (JSValue *) value;
+    CHECK_NULL_RET(env, val, MSG_NULL_JS_VALUE);
+
+    const char *stack_str = NULL;
+
+    JSValue stack = JS_GetPropertyStr(ctx, *val, "stack");
+    if (JS_IsException(stack)) {
+        // Ignore the exception thrown by the getter
+        JS_FreeValue(ctx, JS_GetException(ctx));
+        return NULL;
+    }
+    if (!JS_IsUndefined(stack)) {
+        stack_str = JS_ToCString(ctx, stack);
+    }
+    JS_FreeValue(ctx, stack);
+
+    if (stack_str == NULL) return NULL;
+
+    jstring stack_j_str = (*env)->NewStringUTF(env, stack_str);
+    JS_FreeCString(ctx, stack_str);
+
+    return stack_j_str;
+}
+
 JNIEXPORT jlong JNICALL
 Java_com_hippo_quickjs_android_QuickJS_getGlobalObject(
     JNIEnv *env,
@@ -1136,6 +3834,8 @@ Java_com_hippo_quickjs_android_QuickJS_evaluate(
         (*env)->ReleaseStringUTFChars(env, file_name, file_name_utf);
     }
 
+    java_registry_flush(env, JS_GetRuntime(ctx));
+
     CHECK_NULL_RET(env, result, MSG_OOM);
 
     return (jlong) result;
@@ -1149,7 +3849,10 @@ Java_com_hippo_quickjs_android_QuickJS_executePendingJob(JNIEnv *env, jclass cla
     // if the context has pending jobs，jobCtx will be ctx
     // don't destroy it
     JSContext *jobCtx;
-    return JS_ExecutePendingJob(JS_GetRuntime(ctx), &jobCtx);
+    JSRuntime *rt = JS_GetRuntime(ctx);
+    int result = JS_ExecutePendingJob(rt, &jobCtx);
+    java_registry_flush(env, rt);
+    return result;
 }
 
 JNIEXPORT jint JNICALL
@@ -1169,9 +3872,40 @@ JNI_OnLoad(JavaVM *vm, void __unused * reserved) {
         return JNI_ERR;
     }
 
+    js_exception_class = (*env)->FindClass(env, "com/hippo/quickjs/android/JSException");
+    if (js_exception_class == NULL) {
+        return JNI_ERR;
+    }
+    js_exception_class = (*env)->NewGlobalRef(env, js_exception_class);
+    if (js_exception_class == NULL) {
+        return JNI_ERR;
+    }
+    js_exception_constructor = (*env)->GetMethodID(env, js_exception_class, "<init>", "(ZLjava/lang/String;J)V");
+    if (js_exception_constructor == NULL) {
+        return JNI_ERR;
+    }
+
     if (java_method_init(env)) {
         return JNI_ERR;
     }
 
+    if (java_object_init(env)) {
+        return JNI_ERR;
+    }
+
+    if (java_registry_init(env)) {
+        return JNI_ERR;
+    }
+
+    if (java_host_object_init(env)) {
+        return JNI_ERR;
+    }
+
+    if (java_collection_init(env)) {
+        return JNI_ERR;
+    }
+
+    memoized_function_init();
+
     return JNI_VERSION_1_6;
 }
@@ -39,20 +39,19 @@ class ArrayTypeAdapter extends TypeAdapter<Object> {
 
   @Override
   public JSValue toJSValue(JSContext context, Object value) {
-    JSArray result = context.createJSArray();
-    for (int i = 0, length = Array.getLength(value); i < length; i++) {
-      result.setProperty(i, elementAdapter.toJSValue(context, Array.get(value, i)));
+    JSValue[] elements = new JSValue[Array.getLength(value)];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = elementAdapter.toJSValue(context, Array.get(value, i));
     }
-    return result;
+    return context.createJSArray(elements);
   }
 
   @Override
   public Object fromJSValue(JSContext context, JSValue value) {
-    JSArray array = value.cast(JSArray.class);
-    int length = array.getLength();
-    Object result = Array.newInstance(elementClass, length);
-    for (int i = 0; i < length; i++) {
-      Array.set(result, i, elementAdapter.fromJSValue(context, array.getProperty(i)));
+    JSValue[] elements = value.cast(JSArray.class).getElements(false);
+    Object result = Array.newInstance(elementClass, elements.length);
+    for (int i = 0; i < elements.length; i++) {
+      Array.set(result, i, elementAdapter.fromJSValue(context, elements[i]));
     }
     return result;
   }
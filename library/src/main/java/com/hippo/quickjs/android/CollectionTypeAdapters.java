@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TypeAdapters of java collections. Each conversion crosses JNI only once,
+ * elements are converted by their adapters in java.
+ * <ul>
+ *   <li>{@code List<T>} and {@code Collection<T>} are JavaScript arrays</li>
+ *   <li>{@code Set<T>} is JavaScript Set</li>
+ *   <li>{@code Map<String, T>} is JavaScript object, JavaScript Map is accepted too</li>
+ *   <li>{@code Map<K, V>} is JavaScript Map</li>
+ * </ul>
+ * Live views created by {@link JSContext#createJSListView(List, Type)} and
+ * {@link JSContext#createJSMapView(Map, Type)} are converted back to the original collections.
+ */
+final class CollectionTypeAdapters {
+
+  private CollectionTypeAdapters() { }
+
+  static final TypeAdapter.Factory FACTORY = (depot, type) -> {
+    Class<?> rawType = JavaTypes.getRawType(type);
+
+    if (rawType == List.class || rawType == Collection.class || rawType == ArrayList.class) {
+      Type elementType = JavaTypes.collectionElementType(type, rawType);
+      return new ListTypeAdapter(rawType, depot.getAdapter(elementType).nullable()).nullable();
+    }
+
+    if (rawType == Set.class || rawType == HashSet.class || rawType == LinkedHashSet.class) {
+      Type elementType = JavaTypes.collectionElementType(type, rawType);
+      return new SetTypeAdapter(rawType, depot.getAdapter(elementType).nullable()).nullable();
+    }
+
+    if (rawType == Map.class || rawType == HashMap.class || rawType == LinkedHashMap.class) {
+      Type[] keyAndValueTypes = JavaTypes.mapKeyAndValueTypes(type, rawType);
+      TypeAdapter<Object> keyAdapter = depot.getAdapter(keyAndValueTypes[0]);
+      TypeAdapter<Object> valueAdapter = depot.<Object>getAdapter(keyAndValueTypes[1]).nullable();
+      if (keyAndValueTypes[0] == String.class) {
+        return new ObjectMapTypeAdapter(rawType, keyAdapter, valueAdapter).nullable();
+      } else {
+        return new MapTypeAdapter(rawType, keyAdapter, valueAdapter).nullable();
+      }
+    }
+
+    return null;
+  };
+
+  private static JSValue[] toJSValues(JSContext context, TypeAdapter<Object> adapter, Object[] elements) {
+    JSValue[] result = new JSValue[elements.length];
+    for (int i = 0; i < elements.length; i++) {
+      result[i] = adapter.toJSValue(context, elements[i]);
+    }
+    return result;
+  }
+
+  private static class ListTypeAdapter extends TypeAdapter<Object> {
+
+    private final Class<?> rawType;
+    private final TypeAdapter<Object> elementAdapter;
+
+    ListTypeAdapter(Class<?> rawType, TypeAdapter<Object> elementAdapter) {
+      this.rawType = rawType;
+      this.elementAdapter = elementAdapter;
+    }
+
+    @Override
+    public JSValue toJSValue(JSContext context, Object value) {
+      Object[] elements = ((Collection<?>) value).toArray();
+      return context.createJSArray(toJSValues(context, elementAdapter, elements));
+    }
+
+    @Override
+    public Object fromJSValue(JSContext context, JSValue value) {
+      JSObject object = value.cast(JSObject.class);
+      Object javaObject = object.getJavaObject();
+      if (rawType.isInstance(javaObject)) return javaObject;
+
+      JSValue[] elements = object.getElements(false);
+      List<Object> result = new ArrayList<>(elements.length);
+      for (JSValue element : elements) {
+        result.add(elementAdapter.fromJSValue(context, element));
+      }
+      return result;
+    }
+  }
+
+  private static class SetTypeAdapter extends TypeAdapter<Object> {
+
+    private final Class<?> rawType;
+    private final TypeAdapter<Object> elementAdapter;
+
+    SetTypeAdapter(Class<?> rawType, TypeAdapter<Object> elementAdapter) {
+      this.rawType = rawType;
+      this.elementAdapter = elementAdapter;
+    }
+
+    @Override
+    public JSValue toJSValue(JSContext context, Object value) {
+      Object[] elements = ((Collection<?>) value).toArray();
+      return context.createJSSet(toJSValues(context, elementAdapter, elements));
+    }
+
+    @Override
+    public Object fromJSValue(JSContext context, JSValue value) {
+      JSObject object = value.cast(JSObject.class);
+      Object javaObject = object.getJavaObject();
+      if (rawType.isInstance(javaObject)) return javaObject;
+
+      // Arrays and other iterable objects are accepted too
+      JSValue[] elements = object.getElements(false);
+      Set<Object> result = new LinkedHashSet<>(elements.length * 4 / 3 + 1);
+      for (JSValue element : elements) {
+        result.add(elementAdapter.fromJSValue(context, element));
+      }
+      return result;
+    }
+  }
+
+  private static abstract class BaseMapTypeAdapter extends TypeAdapter<Object> {
+
+    private final Class<?> rawType;
+    final TypeAdapter<Object> keyAdapter;
+    final TypeAdapter<Object> valueAdapter;
+
+    BaseMapTypeAdapter(Class<?> rawType, TypeAdapter<Object> keyAdapter, TypeAdapter<Object> valueAdapter) {
+      this.rawType = rawType;
+      this.keyAdapter = keyAdapter;
+      this.valueAdapter = valueAdapter;
+    }
+
+    Map<Object, Object> fromEntries(JSContext context, JSObject object) {
+      JSValue[] entries = object.getElements(true);
+      Map<Object, Object> result = new LinkedHashMap<>(entries.length * 2 / 3 + 1);
+      for (int i = 0; i < entries.length; i += 2) {
+        result.put(keyAdapter.fromJSValue(context, entries[i]), valueAdapter.fromJSValue(context, entries[i + 1]));
+      }
+      return result;
+    }
+
+    abstract Object fromObject(JSContext context, JSObject object);
+
+    @Override
+    public Object fromJSValue(JSContext context, JSValue value) {
+      JSObject object = value.cast(JSObject.class);
+      Object javaObject = object.getJavaObject();
+      if (rawType.isInstance(javaObject)) return javaObject;
+      return fromObject(context, object);
+    }
+  }
+
+  private static class ObjectMapTypeAdapter extends BaseMapTypeAdapter {
+
+    ObjectMapTypeAdapter(Class<?> rawType, TypeAdapter<Object> keyAdapter, TypeAdapter<Object> valueAdapter) {
+      super(rawType, keyAdapter, valueAdapter);
+    }
+
+    @Override
+    public JSValue toJSValue(JSContext context, Object value) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      String[] names = new String[map.size()];
+      JSValue[] values = new JSValue[names.length];
+      int i = 0;
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        if (entry.getKey() == null) throw new NullPointerException("key == null");
+        names[i] = (String) entry.getKey();
+        values[i] = valueAdapter.toJSValue(context, entry.getValue());
+        i++;
+      }
+      if (i != names.length) {
+        // The map is modified while iterating
+        names = Arrays.copyOf(names, i);
+        values = Arrays.copyOf(values, i);
+      }
+      return context.createJSObject(names, values);
+    }
+
+    @Override
+    Object fromObject(JSContext context, JSObject object) {
+      if (object.isInstanceOf("Map")) return fromEntries(context, object);
+
+      String[] names = object.getOwnPropertyNames();
+      JSValue[] values = object.getProperties(names);
+      Map<Object, Object> result = new LinkedHashMap<>(names.length * 4 / 3 + 1);
+      for (int i = 0; i < names.length; i++) {
+        result.put(names[i], valueAdapter.fromJSValue(context, values[i]));
+      }
+      return result;
+    }
+  }
+
+  private static class MapTypeAdapter extends BaseMapTypeAdapter {
+
+    MapTypeAdapter(Class<?> rawType, TypeAdapter<Object> keyAdapter, TypeAdapter<Object> valueAdapter) {
+      super(rawType, keyAdapter, valueAdapter);
+    }
+
+    @Override
+    public JSValue toJSValue(JSContext context, Object value) {
+      Object[] entries = ((Map<?, ?>) value).entrySet().toArray();
+      JSValue[] flattened = new JSValue[entries.length * 2];
+      for (int i = 0; i < entries.length; i++) {
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) entries[i];
+        flattened[i * 2] = keyAdapter.toJSValue(context, entry.getKey());
+        flattened[i * 2 + 1] = valueAdapter.toJSValue(context, entry.getValue());
+      }
+      return context.createJSMap(flattened);
+    }
+
+    @Override
+    Object fromObject(JSContext context, JSObject object) {
+      // Arrays of entries are accepted too
+      return fromEntries(context, object);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * TypeAdapter of enums, with lookup tables built once.
+ * Enums are converted to their names or ordinals, both are accepted when converting back.
+ * The built-in adapter of enums converts them to names,
+ * register {@link #byOrdinal(Class)} to use ordinals instead.
+ */
+public final class EnumTypeAdapter<E extends Enum<E>> extends TypeAdapter<E> {
+
+  public static <E extends Enum<E>> TypeAdapter<E> byName(Class<E> enumType) {
+    return new EnumTypeAdapter<>(enumType, false);
+  }
+
+  public static <E extends Enum<E>> TypeAdapter<E> byOrdinal(Class<E> enumType) {
+    return new EnumTypeAdapter<>(enumType, true);
+  }
+
+  private final Class<E> enumType;
+  private final boolean ordinal;
+  private final E[] constants;
+  private final Map<String, E> nameToConstant;
+
+  private EnumTypeAdapter(Class<E> enumType, boolean ordinal) {
+    this.enumType = enumType;
+    this.ordinal = ordinal;
+    this.constants = enumType.getEnumConstants();
+    this.nameToConstant = new HashMap<>(constants.length * 4 / 3 + 1);
+    for (E constant : constants) {
+      nameToConstant.put(constant.name(), constant);
+    }
+  }
+
+  @Override
+  public JSValue toJSValue(JSContext context, E value) {
+    if (ordinal) return context.createJSNumber(value.ordinal());
+    return context.createJSString(value.name());
+  }
+
+  @Override
+  public E fromJSValue(JSContext context, JSValue value) {
+    if (value instanceof JSNumber) {
+      int index = ((JSNumber) value).getInt();
+      if (index < 0 || index >= constants.length) {
+        throw new JSDataException("Can't treat " + index + " as " + enumType.getName());
+      }
+      return constants[index];
+    }
+    String name = value.cast(JSString.class).getString();
+    E result = nameToConstant.get(name);
+    if (result == null) {
+      throw new JSDataException("Can't treat \"" + name + "\" as " + enumType.getName());
+    }
+    return result;
+  }
+}
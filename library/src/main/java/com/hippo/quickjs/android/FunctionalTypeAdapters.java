@@ -0,0 +1,722 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleConsumer;
+import java.util.function.DoubleFunction;
+import java.util.function.DoublePredicate;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * TypeAdapters of the functional interfaces in {@code java.util.function}.
+ * A JavaScript function is converted to a small implementation of the interface,
+ * which calls the function through the primitive-specialized invoke methods of JSFunction.
+ * No Proxy is created, primitive arguments and results are not boxed.
+ * Java implementations are converted to JavaScript by {@link InterfaceTypeAdapter}.
+ */
+final class FunctionalTypeAdapters {
+
+  private FunctionalTypeAdapters() { }
+
+  private interface Creator {
+    JSFunctional create(JSContext context, JSFunction function, Signature signature);
+  }
+
+  private static final String PACKAGE_PREFIX = "java.util.function.";
+
+  private static final Map<String, Creator> CREATORS = new HashMap<>();
+
+  static {
+    CREATORS.put("Function", FunctionImpl::new);
+    CREATORS.put("UnaryOperator", UnaryOperatorImpl::new);
+    CREATORS.put("BiFunction", BiFunctionImpl::new);
+    CREATORS.put("BinaryOperator", BinaryOperatorImpl::new);
+    CREATORS.put("Predicate", PredicateImpl::new);
+    CREATORS.put("BiPredicate", BiPredicateImpl::new);
+    CREATORS.put("Supplier", SupplierImpl::new);
+    CREATORS.put("Consumer", ConsumerImpl::new);
+    CREATORS.put("BiConsumer", BiConsumerImpl::new);
+    CREATORS.put("ToIntFunction", ToIntFunctionImpl::new);
+    CREATORS.put("ToLongFunction", ToLongFunctionImpl::new);
+    CREATORS.put("ToDoubleFunction", ToDoubleFunctionImpl::new);
+    CREATORS.put("BooleanSupplier", BooleanSupplierImpl::new);
+    CREATORS.put("IntFunction", IntFunctionImpl::new);
+    CREATORS.put("IntPredicate", IntPredicateImpl::new);
+    CREATORS.put("IntSupplier", IntSupplierImpl::new);
+    CREATORS.put("IntConsumer", IntConsumerImpl::new);
+    CREATORS.put("IntUnaryOperator", IntUnaryOperatorImpl::new);
+    CREATORS.put("IntBinaryOperator", IntBinaryOperatorImpl::new);
+    CREATORS.put("LongFunction", LongFunctionImpl::new);
+    CREATORS.put("LongPredicate", LongPredicateImpl::new);
+    CREATORS.put("LongSupplier", LongSupplierImpl::new);
+    CREATORS.put("LongConsumer", LongConsumerImpl::new);
+    CREATORS.put("LongUnaryOperator", LongUnaryOperatorImpl::new);
+    CREATORS.put("LongBinaryOperator", LongBinaryOperatorImpl::new);
+    CREATORS.put("DoubleFunction", DoubleFunctionImpl::new);
+    CREATORS.put("DoublePredicate", DoublePredicateImpl::new);
+    CREATORS.put("DoubleSupplier", DoubleSupplierImpl::new);
+    CREATORS.put("DoubleConsumer", DoubleConsumerImpl::new);
+    CREATORS.put("DoubleUnaryOperator", DoubleUnaryOperatorImpl::new);
+    CREATORS.put("DoubleBinaryOperator", DoubleBinaryOperatorImpl::new);
+  }
+
+  static final TypeAdapter.Factory FACTORY = (depot, type) -> {
+    Class<?> rawType = JavaTypes.getRawType(type);
+    // Match by name, java.util.function isn't available on all API levels
+    if (!rawType.isInterface() || !rawType.getName().startsWith(PACKAGE_PREFIX)) return null;
+
+    Creator creator = CREATORS.get(rawType.getName().substring(PACKAGE_PREFIX.length()));
+    if (creator == null) return null;
+
+    Method rawMethod = getFunctionalMethod(rawType);
+    JavaMethod method = rawMethod != null ? JavaMethod.create(type, rawMethod) : null;
+    // It's not resolved
+    if (method == null) return null;
+
+    return new FunctionalTypeAdapter(depot, type, new Signature(depot, method), creator).nullable();
+  };
+
+  @Nullable
+  private static Method getFunctionalMethod(Class<?> rawType) {
+    Method result = null;
+    for (Method method : rawType.getMethods()) {
+      if (!Modifier.isAbstract(method.getModifiers())) continue;
+      if (result != null) return null;
+      result = method;
+    }
+    return result;
+  }
+
+  private static final class FunctionalTypeAdapter extends TypeAdapter<Object> {
+
+    private final QuickJS quickJS;
+    private final Type type;
+    private final Class<?> rawType;
+    private final Signature signature;
+    private final Creator creator;
+    // Created on first use
+    @Nullable
+    private TypeAdapter<Object> interfaceAdapter;
+
+    FunctionalTypeAdapter(QuickJS quickJS, Type type, Signature signature, Creator creator) {
+      this.quickJS = quickJS;
+      this.type = type;
+      this.rawType = JavaTypes.getRawType(type);
+      this.signature = signature;
+      this.creator = creator;
+    }
+
+    @Override
+    public JSValue toJSValue(JSContext context, Object value) {
+      if (value instanceof JSFunctional) {
+        JSFunctional functional = (JSFunctional) value;
+        if (functional.context == context) return functional.function;
+      }
+      return getInterfaceAdapter().toJSValue(context, value);
+    }
+
+    @Override
+    public Object fromJSValue(JSContext context, JSValue value) {
+      JSObject jo = value.cast(JSObject.class);
+
+      Object object = jo.getJavaObject();
+      if (rawType.isInstance(object)) return object;
+
+      return creator.create(context, jo.cast(JSFunction.class), signature);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized TypeAdapter<Object> getInterfaceAdapter() {
+      if (interfaceAdapter == null) {
+        interfaceAdapter = (TypeAdapter<Object>) InterfaceTypeAdapter.FACTORY.create(quickJS, type);
+        if (interfaceAdapter == null) throw new IllegalStateException("Can't find TypeAdapter for " + type);
+      }
+      return interfaceAdapter;
+    }
+  }
+
+  /**
+   * The method of a functional interface type.
+   * Adapters of object parameters and the object result are resolved on first call.
+   */
+  private static final class Signature {
+
+    private final QuickJS quickJS;
+    private final JavaMethod method;
+    private TypeAdapter<Object>[] parameterAdapters;
+    private TypeAdapter<Object> resultAdapter;
+
+    Signature(QuickJS quickJS, JavaMethod method) {
+      this.quickJS = quickJS;
+      this.method = method;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized void resolve() {
+      if (parameterAdapters != null) return;
+      TypeAdapter<Object>[] adapters = (TypeAdapter<Object>[]) new TypeAdapter<?>[method.parameterTypes.length];
+      for (int i = 0; i < adapters.length; i++) {
+        Type parameterType = method.parameterTypes[i];
+        if (!(parameterType instanceof Class) || !((Class<?>) parameterType).isPrimitive()) {
+          adapters[i] = quickJS.getAdapter(parameterType);
+        }
+      }
+      Type returnType = method.returnType;
+      if (!(returnType instanceof Class) || !((Class<?>) returnType).isPrimitive()) {
+        resultAdapter = quickJS.getAdapter(returnType);
+      }
+      parameterAdapters = adapters;
+    }
+  }
+
+  /**
+   * The base of implementations. Calls are made under the lock of the JSRuntime,
+   * the arguments are reused.
+   */
+  private abstract static class JSFunctional {
+
+    final JSContext context;
+    final JSFunction function;
+    private final Signature signature;
+    private final JSArguments arguments = new JSArguments(2);
+
+    JSFunctional(JSContext context, JSFunction function, Signature signature) {
+      this.context = context;
+      this.function = function;
+      this.signature = signature;
+      signature.resolve();
+    }
+
+    final JSArguments arguments() {
+      return arguments.clear();
+    }
+
+    final JSArguments arguments(@Nullable Object arg) {
+      return bind(arguments.clear(), 0, arg);
+    }
+
+    final JSArguments arguments(@Nullable Object arg1, @Nullable Object arg2) {
+      return bind(bind(arguments.clear(), 0, arg1), 1, arg2);
+    }
+
+    private JSArguments bind(JSArguments arguments, int index, @Nullable Object arg) {
+      if (!arguments.addPrimitive(arg)) {
+        arguments.add(signature.parameterAdapters[index].toJSValue(context, arg));
+      }
+      return arguments;
+    }
+
+    @SuppressWarnings("unchecked")
+    final <R> R invokeObject(JSArguments args) {
+      try {
+        return (R) signature.resultAdapter.fromJSValue(context, function.invoke(null, args));
+      } finally {
+        // Don't hold JSValues of arguments
+        args.clear();
+      }
+    }
+
+    final boolean invokeBoolean(JSArguments args) {
+      try {
+        return function.invokeBoolean(null, args);
+      } finally {
+        args.clear();
+      }
+    }
+
+    final boolean invokeTruthy(JSArguments args) {
+      try {
+        return function.invokeForTruthy(null, args);
+      } finally {
+        args.clear();
+      }
+    }
+
+    final int invokeInt(JSArguments args) {
+      try {
+        return function.invokeInt(null, args);
+      } finally {
+        args.clear();
+      }
+    }
+
+    final long invokeLong(JSArguments args) {
+      try {
+        return function.invokeForLong(null, args);
+      } finally {
+        args.clear();
+      }
+    }
+
+    final double invokeDouble(JSArguments args) {
+      try {
+        return function.invokeDouble(null, args);
+      } finally {
+        args.clear();
+      }
+    }
+
+    final void invokeVoid(JSArguments args) {
+      try {
+        function.invokeForVoid(null, args);
+      } finally {
+        args.clear();
+      }
+    }
+
+    final Object lock() {
+      return context.jsRuntime;
+    }
+  }
+
+  private static final class FunctionImpl extends JSFunctional implements Function<Object, Object> {
+    FunctionImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public Object apply(Object t) {
+      synchronized (lock()) {
+        return invokeObject(arguments(t));
+      }
+    }
+  }
+
+  private static final class UnaryOperatorImpl extends JSFunctional implements UnaryOperator<Object> {
+    UnaryOperatorImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public Object apply(Object t) {
+      synchronized (lock()) {
+        return invokeObject(arguments(t));
+      }
+    }
+  }
+
+  private static final class BiFunctionImpl extends JSFunctional implements BiFunction<Object, Object, Object> {
+    BiFunctionImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public Object apply(Object t, Object u) {
+      synchronized (lock()) {
+        return invokeObject(arguments(t, u));
+      }
+    }
+  }
+
+  private static final class BinaryOperatorImpl extends JSFunctional implements BinaryOperator<Object> {
+    BinaryOperatorImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public Object apply(Object t, Object u) {
+      synchronized (lock()) {
+        return invokeObject(arguments(t, u));
+      }
+    }
+  }
+
+  private static final class PredicateImpl extends JSFunctional implements Predicate<Object> {
+    PredicateImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public boolean test(Object t) {
+      synchronized (lock()) {
+        return invokeTruthy(arguments(t));
+      }
+    }
+  }
+
+  private static final class BiPredicateImpl extends JSFunctional implements BiPredicate<Object, Object> {
+    BiPredicateImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public boolean test(Object t, Object u) {
+      synchronized (lock()) {
+        return invokeTruthy(arguments(t, u));
+      }
+    }
+  }
+
+  private static final class SupplierImpl extends JSFunctional implements Supplier<Object> {
+    SupplierImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public Object get() {
+      synchronized (lock()) {
+        return invokeObject(arguments());
+      }
+    }
+  }
+
+  private static final class ConsumerImpl extends JSFunctional implements Consumer<Object> {
+    ConsumerImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public void accept(Object t) {
+      synchronized (lock()) {
+        invokeVoid(arguments(t));
+      }
+    }
+  }
+
+  private static final class BiConsumerImpl extends JSFunctional implements BiConsumer<Object, Object> {
+    BiConsumerImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public void accept(Object t, Object u) {
+      synchronized (lock()) {
+        invokeVoid(arguments(t, u));
+      }
+    }
+  }
+
+  private static final class ToIntFunctionImpl extends JSFunctional implements ToIntFunction<Object> {
+    ToIntFunctionImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public int applyAsInt(Object t) {
+      synchronized (lock()) {
+        return invokeInt(arguments(t));
+      }
+    }
+  }
+
+  private static final class ToLongFunctionImpl extends JSFunctional implements ToLongFunction<Object> {
+    ToLongFunctionImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public long applyAsLong(Object t) {
+      synchronized (lock()) {
+        return invokeLong(arguments(t));
+      }
+    }
+  }
+
+  private static final class ToDoubleFunctionImpl extends JSFunctional implements ToDoubleFunction<Object> {
+    ToDoubleFunctionImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public double applyAsDouble(Object t) {
+      synchronized (lock()) {
+        return invokeDouble(arguments(t));
+      }
+    }
+  }
+
+  private static final class BooleanSupplierImpl extends JSFunctional implements BooleanSupplier {
+    BooleanSupplierImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+      synchronized (lock()) {
+        return invokeBoolean(arguments());
+      }
+    }
+  }
+
+  private static final class IntFunctionImpl extends JSFunctional implements IntFunction<Object> {
+    IntFunctionImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public Object apply(int value) {
+      synchronized (lock()) {
+        return invokeObject(arguments().add(value));
+      }
+    }
+  }
+
+  private static final class IntPredicateImpl extends JSFunctional implements IntPredicate {
+    IntPredicateImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public boolean test(int value) {
+      synchronized (lock()) {
+        return invokeTruthy(arguments().add(value));
+      }
+    }
+  }
+
+  private static final class IntSupplierImpl extends JSFunctional implements IntSupplier {
+    IntSupplierImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public int getAsInt() {
+      synchronized (lock()) {
+        return invokeInt(arguments());
+      }
+    }
+  }
+
+  private static final class IntConsumerImpl extends JSFunctional implements IntConsumer {
+    IntConsumerImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public void accept(int value) {
+      synchronized (lock()) {
+        invokeVoid(arguments().add(value));
+      }
+    }
+  }
+
+  private static final class IntUnaryOperatorImpl extends JSFunctional implements IntUnaryOperator {
+    IntUnaryOperatorImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public int applyAsInt(int operand) {
+      synchronized (lock()) {
+        return invokeInt(arguments().add(operand));
+      }
+    }
+  }
+
+  private static final class IntBinaryOperatorImpl extends JSFunctional implements IntBinaryOperator {
+    IntBinaryOperatorImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public int applyAsInt(int left, int right) {
+      synchronized (lock()) {
+        return invokeInt(arguments().add(left).add(right));
+      }
+    }
+  }
+
+  private static final class LongFunctionImpl extends JSFunctional implements LongFunction<Object> {
+    LongFunctionImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public Object apply(long value) {
+      synchronized (lock()) {
+        return invokeObject(arguments().add(value));
+      }
+    }
+  }
+
+  private static final class LongPredicateImpl extends JSFunctional implements LongPredicate {
+    LongPredicateImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public boolean test(long value) {
+      synchronized (lock()) {
+        return invokeTruthy(arguments().add(value));
+      }
+    }
+  }
+
+  private static final class LongSupplierImpl extends JSFunctional implements LongSupplier {
+    LongSupplierImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public long getAsLong() {
+      synchronized (lock()) {
+        return invokeLong(arguments());
+      }
+    }
+  }
+
+  private static final class LongConsumerImpl extends JSFunctional implements LongConsumer {
+    LongConsumerImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public void accept(long value) {
+      synchronized (lock()) {
+        invokeVoid(arguments().add(value));
+      }
+    }
+  }
+
+  private static final class LongUnaryOperatorImpl extends JSFunctional implements LongUnaryOperator {
+    LongUnaryOperatorImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public long applyAsLong(long operand) {
+      synchronized (lock()) {
+        return invokeLong(arguments().add(operand));
+      }
+    }
+  }
+
+  private static final class LongBinaryOperatorImpl extends JSFunctional implements LongBinaryOperator {
+    LongBinaryOperatorImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public long applyAsLong(long left, long right) {
+      synchronized (lock()) {
+        return invokeLong(arguments().add(left).add(right));
+      }
+    }
+  }
+
+  private static final class DoubleFunctionImpl extends JSFunctional implements DoubleFunction<Object> {
+    DoubleFunctionImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public Object apply(double value) {
+      synchronized (lock()) {
+        return invokeObject(arguments().add(value));
+      }
+    }
+  }
+
+  private static final class DoublePredicateImpl extends JSFunctional implements DoublePredicate {
+    DoublePredicateImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public boolean test(double value) {
+      synchronized (lock()) {
+        return invokeTruthy(arguments().add(value));
+      }
+    }
+  }
+
+  private static final class DoubleSupplierImpl extends JSFunctional implements DoubleSupplier {
+    DoubleSupplierImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public double getAsDouble() {
+      synchronized (lock()) {
+        return invokeDouble(arguments());
+      }
+    }
+  }
+
+  private static final class DoubleConsumerImpl extends JSFunctional implements DoubleConsumer {
+    DoubleConsumerImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public void accept(double value) {
+      synchronized (lock()) {
+        invokeVoid(arguments().add(value));
+      }
+    }
+  }
+
+  private static final class DoubleUnaryOperatorImpl extends JSFunctional implements DoubleUnaryOperator {
+    DoubleUnaryOperatorImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public double applyAsDouble(double operand) {
+      synchronized (lock()) {
+        return invokeDouble(arguments().add(operand));
+      }
+    }
+  }
+
+  private static final class DoubleBinaryOperatorImpl extends JSFunctional implements DoubleBinaryOperator {
+    DoubleBinaryOperatorImpl(JSContext context, JSFunction function, Signature signature) {
+      super(context, function, signature);
+    }
+
+    @Override
+    public double applyAsDouble(double left, double right) {
+      synchronized (lock()) {
+        return invokeDouble(arguments().add(left).add(right));
+      }
+    }
+  }
+}
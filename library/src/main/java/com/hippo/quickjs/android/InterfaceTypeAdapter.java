@@ -18,12 +18,16 @@ package com.hippo.quickjs.android;
 
 import androidx.annotation.Nullable;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
-import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 class InterfaceTypeAdapter extends TypeAdapter<Object> {
@@ -35,56 +39,81 @@ class InterfaceTypeAdapter extends TypeAdapter<Object> {
    */
   @Nullable
   static Map<String, JavaMethod> getInterfaceMethods(Type type) {
+    Map<String, List<JavaMethod>> overloads = getInterfaceMethodOverloads(type);
+    if (overloads == null) return null;
+
+    Map<String, JavaMethod> methods = new HashMap<>();
+    for (Map.Entry<String, List<JavaMethod>> entry : overloads.entrySet()) {
+      // overload is not supported
+      if (entry.getValue().size() != 1) return null;
+      methods.put(entry.getKey(), entry.getValue().get(0));
+    }
+    return methods;
+  }
+
+  /**
+   * Returns all methods in the interface type, grouped by name.
+   * Returns {@code null} if the type is not interface,
+   * or any type can't be resolved.
+   */
+  @Nullable
+  static Map<String, List<JavaMethod>> getInterfaceMethodOverloads(Type type) {
     Class<?> rawType = JavaTypes.getRawType(type);
     if (!rawType.isInterface()) return null;
 
-    Map<String, JavaMethod> methods = new HashMap<>();
+    Map<String, List<JavaMethod>> methods = new HashMap<>();
 
-    for (Method method : rawType.getMethods()) {
-      Type returnType = JavaTypes.resolve(type, rawType, method.getGenericReturnType());
+    for (Method rawMethod : rawType.getMethods()) {
+      JavaMethod method = JavaMethod.create(type, rawMethod);
       // It's not resolved
-      if (returnType instanceof TypeVariable) return null;
-
-      String name = method.getName();
+      if (method == null) return null;
 
-      Type[] originParameterTypes = method.getGenericParameterTypes();
-      Type[] parameterTypes = new Type[originParameterTypes.length];
-      for (int i = 0; i < parameterTypes.length; i++) {
-        parameterTypes[i] = JavaTypes.resolve(type, rawType, originParameterTypes[i]);
-        // It's not resolved
-        if (parameterTypes[i] instanceof TypeVariable) return null;
+      List<JavaMethod> overloads = methods.get(method.name);
+      if (overloads == null) {
+        overloads = new ArrayList<>(1);
+        methods.put(method.name, overloads);
       }
 
-      JavaMethod oldMethod = methods.get(name);
-      if (oldMethod != null) {
-        if (!Arrays.equals(oldMethod.parameterTypes, parameterTypes)) {
-          // overload is not supported
-          return null;
-        }
-        if (returnType.equals(oldMethod.returnType)
-            || JavaTypes.getRawType(returnType).isAssignableFrom(JavaTypes.getRawType(oldMethod.returnType))) {
-          // The new method is overridden
-          continue;
-        }
+      int index = indexOfParameterTypes(overloads, method.parameterTypes);
+      if (index == -1) {
+        overloads.add(method);
+        continue;
       }
 
-      methods.put(name, new JavaMethod(returnType, name, parameterTypes));
+      JavaMethod oldMethod = overloads.get(index);
+      if (method.returnType.equals(oldMethod.returnType)
+          || JavaTypes.getRawType(method.returnType).isAssignableFrom(JavaTypes.getRawType(oldMethod.returnType))) {
+        // The new method is overridden
+        continue;
+      }
+      overloads.set(index, method);
     }
 
     return methods;
   }
 
+  private static int indexOfParameterTypes(List<JavaMethod> methods, Type[] parameterTypes) {
+    for (int i = 0; i < methods.size(); i++) {
+      if (Arrays.equals(methods.get(i).parameterTypes, parameterTypes)) return i;
+    }
+    return -1;
+  }
+
   static final Factory FACTORY = (depot, type) -> {
-    Map<String, JavaMethod> methods = getInterfaceMethods(type);
+    Map<String, List<JavaMethod>> methods = getInterfaceMethodOverloads(type);
     if (methods == null) return null;
-    return new InterfaceTypeAdapter(JavaTypes.getRawType(type), methods).nullable();
+    return new InterfaceTypeAdapter(type, methods).nullable();
   };
 
+  private final Type type;
   private final Class<?> rawType;
-  private final Map<String, JavaMethod> methods;
+  private final Map<String, List<JavaMethod>> methods;
+  @Nullable
+  private DispatchTable dispatchTable;
 
-  private InterfaceTypeAdapter(Class<?> rawType, Map<String, JavaMethod> methods) {
-    this.rawType = rawType;
+  private InterfaceTypeAdapter(Type type, Map<String, List<JavaMethod>> methods) {
+    this.type = type;
+    this.rawType = JavaTypes.getRawType(type);
     this.methods = methods;
   }
 
@@ -94,11 +123,8 @@ class InterfaceTypeAdapter extends TypeAdapter<Object> {
       return ((JSValueHolder) value).getJSValue(JS_VALUE_HOLDER_TAG);
     }
 
-    JSObject jo = context.createJSObject(value);
-    for (JavaMethod method : methods.values()) {
-      jo.setProperty(method.name, context.createJSFunction(value, method));
-    }
-    return jo;
+    // Methods are in the shared prototype
+    return context.createJSObject(value, context.getInterfacePrototype(type, methods));
   }
 
   @Override
@@ -109,39 +135,150 @@ class InterfaceTypeAdapter extends TypeAdapter<Object> {
     // TODO Check generic
     if (rawType.isInstance(object)) return object;
 
-    return Proxy.newProxyInstance(rawType.getClassLoader(), new Class<?>[]{ rawType, JSValueHolder.class }, (proxy, method, args) -> {
+    DispatchTable table = getDispatchTable(context.quickJS);
+    try {
+      return table.proxyConstructor.newInstance(new JSObjectInvocationHandler(context, jo, table));
+    } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Resolves TypeAdapters and the proxy class once for all proxies of this type.
+   */
+  private synchronized DispatchTable getDispatchTable(QuickJS quickJS) {
+    if (dispatchTable == null) {
+      dispatchTable = new DispatchTable(quickJS);
+    }
+    return dispatchTable;
+  }
+
+  private final class DispatchTable {
+
+    private final QuickJS quickJS;
+    private final Map<Method, MethodInfo> methodInfos = new HashMap<>();
+    private final int functionCount;
+    private final Constructor<?> proxyConstructor;
+
+    DispatchTable(QuickJS quickJS) {
+      this.quickJS = quickJS;
+
+      // Overloads share the JavaScript function of the name
+      Map<String, Integer> nameIndexes = new HashMap<>();
+      Map<String, List<MethodInfo>> infosByName = new HashMap<>();
+      for (List<JavaMethod> overloads : methods.values()) {
+        List<MethodInfo> infos = new ArrayList<>(overloads.size());
+        for (JavaMethod method : overloads) {
+          Integer index = nameIndexes.get(method.name);
+          if (index == null) {
+            index = nameIndexes.size();
+            nameIndexes.put(method.name, index);
+          }
+          infos.add(new MethodInfo(index, method));
+        }
+        infosByName.put(overloads.get(0).name, infos);
+      }
+      functionCount = nameIndexes.size();
+
+      for (Method rawMethod : rawType.getMethods()) {
+        List<MethodInfo> infos = infosByName.get(rawMethod.getName());
+        if (infos == null) continue;
+        JavaMethod method = JavaMethod.create(type, rawMethod);
+        if (method == null) continue;
+        for (MethodInfo info : infos) {
+          if (Arrays.equals(info.method.parameterTypes, method.parameterTypes)) {
+            methodInfos.put(rawMethod, info);
+            break;
+          }
+        }
+      }
+
+      // The proxy class of the first instance is reused, Proxy.getProxyClass() is deprecated
+      Class<?> proxyClass = Proxy.newProxyInstance(rawType.getClassLoader(),
+          new Class<?>[] { rawType, JSValueHolder.class }, (proxy, method, args) -> null).getClass();
+      try {
+        proxyConstructor = proxyClass.getConstructor(InvocationHandler.class);
+      } catch (NoSuchMethodException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private static final class MethodInfo {
+
+    // The index of the JavaScript function
+    private final int index;
+    private final JavaMethod method;
+    // Resolved on first call
+    private TypeAdapter<Object>[] parameterAdapters;
+    private TypeAdapter<?> resultAdapter;
+
+    MethodInfo(int index, JavaMethod method) {
+      this.index = index;
+      this.method = method;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized void resolve(QuickJS quickJS) {
+      if (resultAdapter != null) return;
+      TypeAdapter<Object>[] adapters = (TypeAdapter<Object>[]) new TypeAdapter<?>[method.parameterTypes.length];
+      for (int i = 0; i < adapters.length; i++) {
+        adapters[i] = quickJS.getAdapter(method.parameterTypes[i]);
+      }
+      resultAdapter = quickJS.getAdapter(method.returnType);
+      parameterAdapters = adapters;
+    }
+  }
+
+  private final class JSObjectInvocationHandler implements InvocationHandler {
+
+    private final JSContext context;
+    private final JSObject jo;
+    private final DispatchTable table;
+    // Functions of the JavaScript object, fetched on first call
+    private final JSFunction[] functions;
+
+    JSObjectInvocationHandler(JSContext context, JSObject jo, DispatchTable table) {
+      this.context = context;
+      this.jo = jo;
+      this.table = table;
+      this.functions = new JSFunction[table.functionCount];
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
       // If the method is a method from Object then defer to normal invocation.
       if (method.getDeclaringClass() == Object.class) {
-        return method.invoke(this, args);
+        return method.invoke(InterfaceTypeAdapter.this, args);
       }
 
       // Check JSValueHolder.getJSValue(JSValueHolderTag)
       if (args != null && args.length == 1 && args[0] == JS_VALUE_HOLDER_TAG) {
-        return value;
+        return jo;
       }
 
-      String name = method.getName();
-      JavaMethod simpleMethod = methods.get(name);
-      if (simpleMethod == null) throw new NoSuchMethodException("Can't find method: " + name);
+      MethodInfo info = table.methodInfos.get(method);
+      if (info == null) throw new NoSuchMethodException("Can't find method: " + method.getName());
+
+      info.resolve(table.quickJS);
 
       int parameterNumber = args != null ? args.length : 0;
-      if (parameterNumber != simpleMethod.parameterTypes.length) throw new IllegalStateException("Parameter number doesn't match: " + name);
+      if (parameterNumber != info.parameterAdapters.length) throw new IllegalStateException("Parameter number doesn't match: " + info.method.name);
       JSValue[] parameters = new JSValue[parameterNumber];
       for (int i = 0; i < parameterNumber; i++) {
-        Type type = simpleMethod.parameterTypes[i];
-        TypeAdapter<Object> adapter = context.quickJS.getAdapter(type);
-        parameters[i] = adapter.toJSValue(context, args[i]);
+        parameters[i] = info.parameterAdapters[i].toJSValue(context, args[i]);
       }
 
-      Type resultType = simpleMethod.returnType;
-      TypeAdapter<?> resultAdapter = context.quickJS.getAdapter(resultType);
-
-      JSFunction function = jo.getProperty(name).cast(JSFunction.class);
+      JSFunction function = functions[info.index];
+      if (function == null) {
+        function = jo.getProperty(info.method.name).cast(JSFunction.class);
+        functions[info.index] = function;
+      }
 
       JSValue result = function.invoke(jo, parameters);
 
-      return resultAdapter.fromJSValue(context, result);
-    });
+      return info.resultAdapter.fromJSValue(context, result);
+    }
   }
 
   private interface JSValueHolder {
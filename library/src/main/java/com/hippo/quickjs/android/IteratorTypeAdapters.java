@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * TypeAdapters of java iterators. Both directions are lazy,
+ * elements are converted and passed in chunks with one native call per chunk.
+ * <ul>
+ *   <li>{@code Iterator<T>} and {@code Stream<T>} are JavaScript iterable iterators, they can be iterated once.
+ *   Closing the iterator or the stream early calls {@code return()} of the JavaScript iterator,
+ *   and {@code return()} in JavaScript closes the stream or the {@code Closeable} iterator</li>
+ *   <li>{@code Iterable<T>} is a JavaScript iterable, each iteration creates a new java iterator</li>
+ * </ul>
+ * Any JavaScript iterable, like arrays, Sets and generators, could be converted to them.
+ */
+final class IteratorTypeAdapters {
+
+  private IteratorTypeAdapters() { }
+
+  // Match by name, java.util.stream isn't available on all API levels
+  private static final String STREAM_CLASS_NAME = "java.util.stream.Stream";
+
+  static final TypeAdapter.Factory FACTORY = (depot, type) -> {
+    Class<?> rawType = JavaTypes.getRawType(type);
+
+    if (rawType == Iterator.class) {
+      Type elementType = JavaTypes.elementType(type, rawType, Iterator.class);
+      return new IteratorTypeAdapter(depot.getAdapter(elementType).nullable()).nullable();
+    }
+
+    if (rawType == Iterable.class) {
+      Type elementType = JavaTypes.elementType(type, rawType, Iterable.class);
+      return new IterableTypeAdapter(depot.getAdapter(elementType).nullable()).nullable();
+    }
+
+    if (rawType.getName().equals(STREAM_CLASS_NAME)) {
+      Type elementType = JavaTypes.elementType(type, rawType, rawType);
+      return new StreamTypeAdapter(depot.getAdapter(elementType).nullable()).nullable();
+    }
+
+    return null;
+  };
+
+  private static final class IteratorTypeAdapter extends TypeAdapter<Iterator<?>> {
+
+    private final TypeAdapter<Object> elementAdapter;
+
+    IteratorTypeAdapter(TypeAdapter<Object> elementAdapter) {
+      this.elementAdapter = elementAdapter;
+    }
+
+    @Override
+    public JSValue toJSValue(JSContext context, Iterator<?> value) {
+      return context.createJSIterable(value, elementAdapter);
+    }
+
+    @Override
+    public Iterator<?> fromJSValue(JSContext context, JSValue value) {
+      return value.asIterator(elementAdapter, JSValue.DEFAULT_ITERATOR_BATCH_SIZE);
+    }
+  }
+
+  private static final class IterableTypeAdapter extends TypeAdapter<Iterable<?>> {
+
+    private final TypeAdapter<Object> elementAdapter;
+
+    IterableTypeAdapter(TypeAdapter<Object> elementAdapter) {
+      this.elementAdapter = elementAdapter;
+    }
+
+    @Override
+    public JSValue toJSValue(JSContext context, Iterable<?> value) {
+      return context.createJSIterable(value, elementAdapter);
+    }
+
+    @Override
+    public Iterable<?> fromJSValue(JSContext context, JSValue value) {
+      return () -> value.asIterator(elementAdapter, JSValue.DEFAULT_ITERATOR_BATCH_SIZE);
+    }
+  }
+
+  private static final class StreamTypeAdapter extends TypeAdapter<Stream<?>> {
+
+    private final TypeAdapter<Object> elementAdapter;
+
+    StreamTypeAdapter(TypeAdapter<Object> elementAdapter) {
+      this.elementAdapter = elementAdapter;
+    }
+
+    @Override
+    public JSValue toJSValue(JSContext context, Stream<?> value) {
+      return context.createJSIterable(value.iterator(), elementAdapter, value::close);
+    }
+
+    @Override
+    public Stream<?> fromJSValue(JSContext context, JSValue value) {
+      JSIterator<Object> iterator = value.asIterator(elementAdapter, JSValue.DEFAULT_ITERATOR_BATCH_SIZE);
+      // Closing the stream closes the JavaScript iterator
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+          .onClose(iterator::close);
+    }
+  }
+}
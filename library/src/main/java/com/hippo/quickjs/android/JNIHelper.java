@@ -62,6 +62,38 @@ class JNIHelper {
     }
   }
 
+  private static long dispatch(JSContext jsContext, JavaMethodInvoker invoker, Object callee, int member, long[] args) {
+    synchronized (jsContext.jsRuntime) {
+      JSValue[] jsArgs = new JSValue[args.length];
+      int wrapped = 0;
+      try {
+        jsContext.checkClosed();
+        for (; wrapped < args.length; wrapped++) {
+          jsArgs[wrapped] = jsContext.wrapAsJSValue(args[wrapped]);
+        }
+      } finally {
+        for (int i = wrapped; i < args.length; i++) {
+          QuickJS.destroyValue(jsContext.pointer, args[i]);
+        }
+      }
+      return invoker.invoke(jsContext, callee, member, jsArgs).pointer;
+    }
+  }
+
+  private static void resolveHostMember(JSContext jsContext, long hostClass, Class<?> clazz, String name) {
+    synchronized (jsContext.jsRuntime) {
+      jsContext.checkClosed();
+      JavaHostClass.resolve(jsContext, hostClass, clazz, name);
+    }
+  }
+
+  private static String[] getHostMemberNames(JSContext jsContext, Class<?> clazz) {
+    synchronized (jsContext.jsRuntime) {
+      jsContext.checkClosed();
+      return JavaHostClass.getMemberNames(clazz);
+    }
+  }
+
   private static boolean isPrimitiveType(Type type) {
     return type instanceof Class && ((Class<?>) type).isPrimitive();
   }
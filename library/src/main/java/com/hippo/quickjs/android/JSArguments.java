@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Reusable arguments of mixed types for {@link JSFunction}.
+ * JavaScript values are created in native code on each call,
+ * so primitive arguments don't create any JSValue.
+ */
+public final class JSArguments {
+
+  // Keep them in sync with quickjs-jni.c
+  static final byte TYPE_UNDEFINED = 0;
+  static final byte TYPE_NULL = 1;
+  static final byte TYPE_BOOLEAN = 2;
+  static final byte TYPE_INT = 3;
+  static final byte TYPE_LONG = 4;
+  static final byte TYPE_DOUBLE = 5;
+  static final byte TYPE_STRING = 6;
+  static final byte TYPE_VALUE = 7;
+
+  byte[] types;
+  long[] values;
+  // Strings and JSValues, JSValues are kept reachable here
+  Object[] objects;
+  int size;
+
+  public JSArguments() {
+    this(8);
+  }
+
+  public JSArguments(int capacity) {
+    if (capacity < 0) throw new IllegalArgumentException("capacity < 0");
+    types = new byte[capacity];
+    values = new long[capacity];
+    objects = new Object[capacity];
+  }
+
+  private void append(byte type, long value, @Nullable Object object) {
+    if (size == types.length) {
+      int newCapacity = Math.max(8, size * 2);
+      types = Arrays.copyOf(types, newCapacity);
+      values = Arrays.copyOf(values, newCapacity);
+      objects = Arrays.copyOf(objects, newCapacity);
+    }
+    types[size] = type;
+    values[size] = value;
+    objects[size] = object;
+    size++;
+  }
+
+  public JSArguments add(boolean value) {
+    append(TYPE_BOOLEAN, value ? 1 : 0, null);
+    return this;
+  }
+
+  public JSArguments add(int value) {
+    append(TYPE_INT, value, null);
+    return this;
+  }
+
+  /**
+   * Adds a long as a JavaScript number.
+   */
+  public JSArguments add(long value) {
+    append(TYPE_LONG, value, null);
+    return this;
+  }
+
+  public JSArguments add(double value) {
+    append(TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+    return this;
+  }
+
+  /**
+   * Adds a string, {@code null} is added as JavaScript null.
+   */
+  public JSArguments add(@Nullable String value) {
+    if (value == null) return addNull();
+    append(TYPE_STRING, 0, value);
+    return this;
+  }
+
+  /**
+   * Adds a JSValue, {@code null} is added as JavaScript null.
+   */
+  public JSArguments add(@Nullable JSValue value) {
+    if (value == null) return addNull();
+    append(TYPE_VALUE, value.pointer, value);
+    return this;
+  }
+
+  public JSArguments addNull() {
+    append(TYPE_NULL, 0, null);
+    return this;
+  }
+
+  public JSArguments addUndefined() {
+    append(TYPE_UNDEFINED, 0, null);
+    return this;
+  }
+
+  /**
+   * Adds numbers, booleans, strings, JSValues and {@code null}.
+   * Returns {@code false} if the value is none of them.
+   */
+  boolean addPrimitive(@Nullable Object value) {
+    if (value == null) {
+      addNull();
+    } else if (value instanceof JSValue) {
+      add((JSValue) value);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      add(((Number) value).intValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      add(((Number) value).doubleValue());
+    } else if (value instanceof String) {
+      add((String) value);
+    } else if (value instanceof Boolean) {
+      add((boolean) (Boolean) value);
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Removes all arguments and keeps the capacity.
+   */
+  public JSArguments clear() {
+    Arrays.fill(objects, 0, size, null);
+    size = 0;
+    return this;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  void checkSameJSContext(JSContext jsContext) {
+    for (int i = 0; i < size; i++) {
+      if (types[i] == TYPE_VALUE && ((JSValue) objects[i]).jsContext != jsContext) {
+        throw new IllegalStateException("Two JSValues are not from the same JSContext");
+      }
+    }
+  }
+}
@@ -16,6 +16,9 @@
 
 package com.hippo.quickjs.android;
 
+import java.lang.reflect.Type;
+import java.util.List;
+
 /**
  * JavaScript array.
  */
@@ -31,4 +34,14 @@ public final class JSArray extends JSObject {
   public int getLength() {
     return getProperty("length").cast(JSNumber.class).getInt();
   }
+
+  /**
+   * Returns a live list view of this array.
+   * Elements are converted by the adapter of the element type when they are accessed.
+   * Only the last element could be added or removed.
+   */
+  public <T> List<T> asList(Type elementType) {
+    TypeAdapter<T> adapter = jsContext.quickJS.<T>getAdapter(elementType).nullable();
+    return new JSListView<>(this, adapter);
+  }
 }
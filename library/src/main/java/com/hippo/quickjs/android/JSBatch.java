@@ -0,0 +1,288 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records operations on JavaScript values and executes them in one call.
+ * Each operation creating a value returns a handle, which refers to
+ * the value in later operations of the batch. Only the values of handles
+ * passed to {@link #execute(int...)} are returned as JSValues.
+ *
+ * <pre>{@code
+ * JSBatch batch = context.createBatch();
+ * int root = batch.createObject();
+ * int items = batch.createArray();
+ * batch.setProperty(root, "items", items);
+ * batch.append(items, batch.createNumber(1));
+ * JSObject result = batch.execute(root)[0].cast(JSObject.class);
+ * }</pre>
+ *
+ * @see JSContext#createBatch()
+ */
+public final class JSBatch {
+
+  /**
+   * The handle of undefined for {@code this} of {@link #call(int, int, int...)}.
+   */
+  public static final int NO_HANDLE = -1;
+
+  // Keep them in sync with quickjs-jni.c
+  private static final int OP_UNDEFINED = 0;
+  private static final int OP_NULL = 1;
+  private static final int OP_BOOLEAN = 2;
+  private static final int OP_INT = 3;
+  private static final int OP_DOUBLE = 4;
+  private static final int OP_STRING = 5;
+  private static final int OP_OBJECT = 6;
+  private static final int OP_ARRAY = 7;
+  private static final int OP_EXTERNAL = 8;
+  private static final int OP_GLOBAL = 9;
+  private static final int OP_GET_PROPERTY = 10;
+  private static final int OP_CALL = 11;
+  private static final int OP_SET_PROPERTY = 12;
+  private static final int OP_SET_ELEMENT = 13;
+  private static final int OP_APPEND = 14;
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final JSContext jsContext;
+  private ByteBuffer commands;
+  private final List<String> strings = new ArrayList<>();
+  private final Map<String, Integer> stringIndexes = new HashMap<>();
+  // Keep external values alive until the batch is cleared
+  private final List<JSValue> externals = new ArrayList<>();
+  private int handleCount;
+
+  JSBatch(JSContext jsContext) {
+    this.jsContext = jsContext;
+    this.commands = ByteBuffer.allocateDirect(INITIAL_CAPACITY).order(ByteOrder.nativeOrder());
+  }
+
+  public int createUndefined() {
+    return produce(OP_UNDEFINED, 0);
+  }
+
+  public int createNull() {
+    return produce(OP_NULL, 0);
+  }
+
+  public int createBoolean(boolean value) {
+    int handle = produce(OP_BOOLEAN, 4);
+    commands.putInt(value ? 1 : 0);
+    return handle;
+  }
+
+  public int createNumber(int value) {
+    int handle = produce(OP_INT, 4);
+    commands.putInt(value);
+    return handle;
+  }
+
+  public int createNumber(double value) {
+    int handle = produce(OP_DOUBLE, 8);
+    commands.putDouble(value);
+    return handle;
+  }
+
+  public int createString(String value) {
+    int index = stringIndex(value);
+    int handle = produce(OP_STRING, 4);
+    commands.putInt(index);
+    return handle;
+  }
+
+  public int createObject() {
+    return produce(OP_OBJECT, 0);
+  }
+
+  public int createArray() {
+    return produce(OP_ARRAY, 0);
+  }
+
+  public int getGlobalObject() {
+    return produce(OP_GLOBAL, 0);
+  }
+
+  /**
+   * Returns the handle of an existing JSValue.
+   */
+  public int addValue(JSValue value) {
+    if (value == null) throw new NullPointerException("value == null");
+    if (value.jsContext != jsContext) {
+      throw new IllegalStateException("The JSValue is not from this JSContext");
+    }
+    externals.add(value);
+    int handle = produce(OP_EXTERNAL, 8);
+    commands.putLong(value.pointer);
+    return handle;
+  }
+
+  /**
+   * Records {@code object[name]}.
+   */
+  public int getProperty(int object, String name) {
+    checkHandle(object);
+    int index = stringIndex(name);
+    int handle = produce(OP_GET_PROPERTY, 8);
+    commands.putInt(object);
+    commands.putInt(index);
+    return handle;
+  }
+
+  /**
+   * Records a call of the function. The result is the value of the returned handle.
+   *
+   * @param thisObj the handle of {@code this}, or {@link #NO_HANDLE} for undefined
+   */
+  public int call(int function, int thisObj, int... args) {
+    checkHandle(function);
+    if (thisObj != NO_HANDLE) checkHandle(thisObj);
+    for (int arg : args) checkHandle(arg);
+    int handle = produce(OP_CALL, 12 + 4 * args.length);
+    commands.putInt(function);
+    commands.putInt(thisObj);
+    commands.putInt(args.length);
+    for (int arg : args) commands.putInt(arg);
+    return handle;
+  }
+
+  /**
+   * Records {@code object[name] = value}.
+   */
+  public JSBatch setProperty(int object, String name, int value) {
+    checkHandle(object);
+    checkHandle(value);
+    int index = stringIndex(name);
+    record(OP_SET_PROPERTY, 12);
+    commands.putInt(object);
+    commands.putInt(index);
+    commands.putInt(value);
+    return this;
+  }
+
+  /**
+   * Records {@code object[index] = value}.
+   */
+  public JSBatch setElement(int object, int index, int value) {
+    checkHandle(object);
+    checkHandle(value);
+    if (index < 0) throw new IllegalArgumentException("Invalid index: " + index);
+    record(OP_SET_ELEMENT, 12);
+    commands.putInt(object);
+    commands.putInt(index);
+    commands.putInt(value);
+    return this;
+  }
+
+  /**
+   * Records {@code array[array.length] = value}.
+   */
+  public JSBatch append(int array, int value) {
+    checkHandle(array);
+    checkHandle(value);
+    record(OP_APPEND, 8);
+    commands.putInt(array);
+    commands.putInt(value);
+    return this;
+  }
+
+  /**
+   * Returns the number of handles recorded.
+   */
+  public int getHandleCount() {
+    return handleCount;
+  }
+
+  /**
+   * Drops all recorded operations.
+   */
+  public void clear() {
+    commands.clear();
+    strings.clear();
+    stringIndexes.clear();
+    externals.clear();
+    handleCount = 0;
+  }
+
+  /**
+   * Executes all recorded operations, returns the values of the handles.
+   * The operations are kept, the batch could be executed again.
+   * If an operation fails, no value is returned.
+   *
+   * @throws JSEvaluationException if an operation throws
+   */
+  public JSValue[] execute(int... handles) {
+    for (int handle : handles) checkHandle(handle);
+    long[] results = new long[handles.length];
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      if (!QuickJS.executeBatch(context, commands, commands.position(), handleCount,
+          strings.toArray(new String[strings.size()]), handles, results)) {
+        throw jsContext.createEvaluationException();
+      }
+      JSValue[] values = new JSValue[results.length];
+      for (int i = 0; i < results.length; i++) {
+        values[i] = jsContext.wrapAsJSValue(results[i]);
+      }
+      return values;
+    }
+  }
+
+  private int produce(int op, int size) {
+    record(op, size);
+    return handleCount++;
+  }
+
+  private void record(int op, int size) {
+    int required = commands.position() + 4 + size;
+    if (required > commands.capacity()) {
+      int capacity = commands.capacity() * 2;
+      while (capacity < required) capacity *= 2;
+      ByteBuffer buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+      commands.flip();
+      buffer.put(commands);
+      commands = buffer;
+    }
+    commands.putInt(op);
+  }
+
+  private int stringIndex(@Nullable String str) {
+    if (str == null) throw new NullPointerException("str == null");
+    Integer index = stringIndexes.get(str);
+    if (index == null) {
+      index = strings.size();
+      strings.add(str);
+      stringIndexes.put(str, index);
+    }
+    return index;
+  }
+
+  private void checkHandle(int handle) {
+    if (handle < 0 || handle >= handleCount) {
+      throw new IllegalArgumentException("Invalid handle: " + handle);
+    }
+  }
+}
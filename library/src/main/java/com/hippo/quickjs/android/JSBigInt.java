@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import java.math.BigInteger;
+
+/**
+ * JavaScript BigInt.
+ */
+public final class JSBigInt extends JSValue {
+
+  JSBigInt(long pointer, JSContext jsContext) {
+    super(pointer, jsContext);
+  }
+
+  /**
+   * Returns the value as a long.
+   *
+   * @throws JSDataException if it's out of the range of long
+   */
+  public long getLong() {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      return QuickJS.getValueBigInt64(context, pointer);
+    }
+  }
+
+  public BigInteger getBigInteger() {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      return new BigInteger(QuickJS.getValueBigIntString(context, pointer));
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Type;
+
+/**
+ * Installs the exported members of a java class to JavaScript objects.
+ * All members are dispatched by {@link #invoke(JSContext, Object, int, JSValue[])},
+ * so calling them needs neither jmethodIDs nor reflection.
+ *
+ * <p>Subclasses are generated for classes with {@link JSExport} members.
+ *
+ * @see JSContext#bind(JSObject, JSBinder, Object)
+ */
+public abstract class JSBinder<T> {
+
+  protected static final int MEMBER_METHOD = 0;
+  protected static final int MEMBER_STATIC_METHOD = 1;
+  protected static final int MEMBER_GETTER = 2;
+  protected static final int MEMBER_STATIC_GETTER = 3;
+  protected static final int MEMBER_CONSTANT = 4;
+
+  private static final JSValue[] NO_ARGS = new JSValue[0];
+
+  final JSPropertyKeys keys;
+  final int[] kinds;
+  final int instanceMemberCount;
+  final JavaMethodInvoker invoker;
+  private final Type[] adapterTypes;
+  @Nullable
+  private volatile Adapters adapters;
+
+  /**
+   * @param names the JavaScript names of the members
+   * @param kinds the kinds of the members, {@code MEMBER_*}
+   * @param adapterTypes types of the TypeAdapters used by the members
+   */
+  protected JSBinder(String[] names, int[] kinds, Type[] adapterTypes) {
+    if (names.length != kinds.length) {
+      throw new IllegalArgumentException("names.length = " + names.length + ", but kinds.length = " + kinds.length);
+    }
+    int instanceMemberCount = 0;
+    for (int kind : kinds) {
+      if (kind < MEMBER_METHOD || kind > MEMBER_CONSTANT) {
+        throw new IllegalArgumentException("Invalid kind: " + kind);
+      }
+      if (kind == MEMBER_METHOD || kind == MEMBER_GETTER) instanceMemberCount++;
+    }
+    this.keys = JSPropertyKeys.of(names);
+    this.kinds = kinds.clone();
+    this.instanceMemberCount = instanceMemberCount;
+    this.adapterTypes = adapterTypes.clone();
+    this.invoker = new JavaMethodInvoker() {
+      @SuppressWarnings("unchecked")
+      @Override
+      JSValue invoke(JSContext context, @Nullable Object callee, int member, JSValue[] args) {
+        JSValue result = JSBinder.this.invoke(context, (T) callee, member, args);
+        if (result == null) throw new NullPointerException("value == null");
+        return result;
+      }
+    };
+  }
+
+  /**
+   * Invokes the member. Constants and getters have no arguments.
+   *
+   * @param target the java object, {@code null} for static members
+   */
+  protected abstract JSValue invoke(JSContext context, @Nullable T target, int member, JSValue[] args);
+
+  /**
+   * Returns the TypeAdapter of {@code adapterTypes[index]}.
+   * TypeAdapters are resolved once for the QuickJS of the context.
+   */
+  @SuppressWarnings("unchecked")
+  protected final <A> TypeAdapter<A> adapter(JSContext context, int index) {
+    QuickJS quickJS = context.quickJS;
+    Adapters adapters = this.adapters;
+    if (adapters == null || adapters.quickJS != quickJS) {
+      TypeAdapter<?>[] array = new TypeAdapter<?>[adapterTypes.length];
+      for (int i = 0; i < array.length; i++) {
+        array[i] = quickJS.getAdapter(adapterTypes[i]);
+      }
+      adapters = new Adapters(quickJS, array);
+      this.adapters = adapters;
+    }
+    return (TypeAdapter<A>) adapters.adapters[index];
+  }
+
+  protected static void checkArgumentCount(JSValue[] args, int count) {
+    if (args.length != count) {
+      throw new IllegalStateException("Inconsistent argument count, excepted: " + count + ", actual: " + args.length);
+    }
+  }
+
+  /**
+   * Returns the values of constants, {@code 0} for other members.
+   */
+  long[] getConstants(JSContext context, JSValue[] holder) {
+    long[] constants = new long[kinds.length];
+    for (int i = 0; i < kinds.length; i++) {
+      if (kinds[i] == MEMBER_CONSTANT) {
+        JSValue value = invoke(context, null, i, NO_ARGS);
+        holder[i] = value;
+        constants[i] = value.pointer;
+      }
+    }
+    return constants;
+  }
+
+  private static final class Adapters {
+    private final QuickJS quickJS;
+    private final TypeAdapter<?>[] adapters;
+
+    Adapters(QuickJS quickJS, TypeAdapter<?>[] adapters) {
+      this.quickJS = quickJS;
+      this.adapters = adapters;
+    }
+  }
+}
@@ -19,7 +19,21 @@ package com.hippo.quickjs.android;
 import androidx.annotation.Nullable;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Array;
 import java.lang.reflect.Type;
+import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 /**
  * JSContext is a JavaScript context with its own global objects.
@@ -29,6 +43,7 @@ import java.lang.reflect.Type;
  */
 public class JSContext implements Closeable {
 
+  static final int TYPE_BIG_INT = -10;
   static final int TYPE_SYMBOL = -8;
   static final int TYPE_STRING = -7;
   static final int TYPE_OBJECT = -1;
@@ -64,10 +79,190 @@ public class JSContext implements Closeable {
 
   private static final int EVAL_FLAG_MASK = 0b11000;
 
+  // The callee of the function is the java object of this
+  private static final int CALLEE_RECEIVER = -2;
+
+  // The buckets of a memoized function start small and grow with the entries,
+  // the cap keeps the largest index in a sane size
+  private static final int MAX_MEMO_ENTRIES = 1 << 24;
+
+  // Keep them in sync with quickjs-jni.c
+  static final int COLUMN_INT32 = 0;
+  static final int COLUMN_INT64 = 1;
+  static final int COLUMN_FLOAT32 = 2;
+  static final int COLUMN_FLOAT64 = 3;
+
+  // An iterator pulls chunks of elements until a chunk isn't full.
+  // return() calls pull(true) once to close the java source.
+  // An iterable creates a new iterator with a new pull function for each iteration.
+  private static final String ITERABLE_FACTORY_SCRIPT = "" +
+      "(function(source, batchSize, reusable) {\n" +
+      "  function iterate(pull) {\n" +
+      "    var chunk = [], index = 0, exhausted = false, returned = false;\n" +
+      "    var iterator = {\n" +
+      "      next: function() {\n" +
+      "        if (index === chunk.length) {\n" +
+      "          if (exhausted) return { value: undefined, done: true };\n" +
+      "          chunk = pull();\n" +
+      "          index = 0;\n" +
+      "          exhausted = chunk.length < batchSize;\n" +
+      "          if (chunk.length === 0) return { value: undefined, done: true };\n" +
+      "        }\n" +
+      "        var value = chunk[index];\n" +
+      "        chunk[index++] = undefined;\n" +
+      "        return { value: value, done: false };\n" +
+      "      },\n" +
+      "      return: function(value) {\n" +
+      "        chunk = [];\n" +
+      "        index = 0;\n" +
+      "        exhausted = true;\n" +
+      "        if (!returned) {\n" +
+      "          returned = true;\n" +
+      "          pull(true);\n" +
+      "        }\n" +
+      "        return { value: value, done: true };\n" +
+      "      }\n" +
+      "    };\n" +
+      "    iterator[Symbol.iterator] = function() { return this; };\n" +
+      "    return iterator;\n" +
+      "  }\n" +
+      "  if (!reusable) return iterate(source);\n" +
+      "  var iterable = {};\n" +
+      "  iterable[Symbol.iterator] = function() { return iterate(source()); };\n" +
+      "  return iterable;\n" +
+      "})";
+
+  // Creates a proxy of the state recording the changes by JSON Pointer.
+  // Writes to objects no longer in the state are not recorded.
+  // The changes are encoded as a header of "+<length>:<path>" or "-<length>:<path>"
+  // followed by the values, the same for both directions.
+  private static final String STATE_TRACKER_FACTORY_SCRIPT = "" +
+      "(function(root) {\n" +
+      "  var targets = new WeakMap(), changes = new Map(), DELETED = {};\n" +
+      "  function escape(key) { return key.replace(/~/g, '~0').replace(/\\//g, '~1'); }\n" +
+      "  function unescape(key) { return key.replace(/~1/g, '/').replace(/~0/g, '~'); }\n" +
+      "  function unwrap(value) {\n" +
+      "    var target = targets.get(value);\n" +
+      "    return target === undefined ? value : target;\n" +
+      "  }\n" +
+      "  function record(path, value) {\n" +
+      "    changes.delete(path);\n" +
+      "    changes.set(path, value);\n" +
+      "  }\n" +
+      "  function discard(path) {\n" +
+      "    var prefix = path + '/';\n" +
+      "    changes.forEach(function(value, key) {\n" +
+      "      if (key === path || key.lastIndexOf(prefix, 0) === 0) changes.delete(key);\n" +
+      "    });\n" +
+      "  }\n" +
+      "  function attached(node) {\n" +
+      "    for (; node.parent !== null; node = node.parent) {\n" +
+      "      if (node.parent.target[node.key] !== node.target) return false;\n" +
+      "    }\n" +
+      "    return true;\n" +
+      "  }\n" +
+      "  function wrap(target, parent, key) {\n" +
+      "    var node = { target: target, parent: parent, key: key, path: parent === null ? '' : parent.path + '/' + escape(key) };\n" +
+      "    var children = new Map();\n" +
+      "    function write(key, value) {\n" +
+      "      if (attached(node)) record(node.path + '/' + escape(key), value);\n" +
+      "    }\n" +
+      "    var proxy = new Proxy(target, {\n" +
+      "      get: function(target, key, receiver) {\n" +
+      "        var value = Reflect.get(target, key, receiver);\n" +
+      "        if (typeof key === 'symbol' || typeof value !== 'object' || value === null) return value;\n" +
+      "        var descriptor = Reflect.getOwnPropertyDescriptor(target, key);\n" +
+      "        if (descriptor !== undefined && !descriptor.configurable && !descriptor.writable) return value;\n" +
+      "        var child = children.get(key);\n" +
+      "        if (child === undefined || child.target !== value) {\n" +
+      "          child = { target: value, proxy: wrap(value, node, key) };\n" +
+      "          children.set(key, child);\n" +
+      "        }\n" +
+      "        return child.proxy;\n" +
+      "      },\n" +
+      "      set: function(target, key, value) {\n" +
+      "        value = unwrap(value);\n" +
+      "        if (typeof key === 'symbol') return Reflect.set(target, key, value);\n" +
+      "        var exists = Object.prototype.hasOwnProperty.call(target, key);\n" +
+      "        var old = target[key];\n" +
+      "        if (!Reflect.set(target, key, value)) return false;\n" +
+      "        if (!exists || !Object.is(old, value)) write(key, value);\n" +
+      "        return true;\n" +
+      "      },\n" +
+      "      defineProperty: function(target, key, descriptor) {\n" +
+      "        if ('value' in descriptor) descriptor.value = unwrap(descriptor.value);\n" +
+      "        if (!Reflect.defineProperty(target, key, descriptor)) return false;\n" +
+      "        if (typeof key !== 'symbol' && 'value' in descriptor) write(key, descriptor.value);\n" +
+      "        return true;\n" +
+      "      },\n" +
+      "      deleteProperty: function(target, key) {\n" +
+      "        var exists = Object.prototype.hasOwnProperty.call(target, key);\n" +
+      "        if (!Reflect.deleteProperty(target, key)) return false;\n" +
+      "        if (typeof key !== 'symbol') {\n" +
+      "          children.delete(key);\n" +
+      "          if (exists) write(key, DELETED);\n" +
+      "        }\n" +
+      "        return true;\n" +
+      "      }\n" +
+      "    });\n" +
+      "    targets.set(proxy, target);\n" +
+      "    return proxy;\n" +
+      "  }\n" +
+      "  function take() {\n" +
+      "    var header = '', result = [header];\n" +
+      "    changes.forEach(function(value, path) {\n" +
+      "      var deleted = value === DELETED;\n" +
+      "      header += (deleted ? '-' : '+') + path.length + ':' + path;\n" +
+      "      result.push(deleted ? undefined : value);\n" +
+      "    });\n" +
+      "    changes.clear();\n" +
+      "    result[0] = header;\n" +
+      "    return result;\n" +
+      "  }\n" +
+      "  function apply(delta) {\n" +
+      "    var header = delta[0], offset = 0;\n" +
+      "    for (var i = 1; offset < header.length; i++) {\n" +
+      "      var deleted = header[offset] === '-';\n" +
+      "      var colon = header.indexOf(':', offset);\n" +
+      "      var length = +header.substring(offset + 1, colon);\n" +
+      "      var path = header.substr(colon + 1, length);\n" +
+      "      offset = colon + 1 + length;\n" +
+      "      var keys = path.split('/'), target = root;\n" +
+      "      for (var j = 1; j < keys.length; j++) {\n" +
+      "        if (typeof target !== 'object' || target === null) throw new TypeError('Cannot apply the change to ' + path);\n" +
+      "        var key = unescape(keys[j]);\n" +
+      "        if (j === keys.length - 1) {\n" +
+      "          var done = deleted ? Reflect.deleteProperty(target, key) : Reflect.set(target, key, unwrap(delta[i]));\n" +
+      "          if (!done) throw new TypeError('Cannot apply the change to ' + path);\n" +
+      "        } else {\n" +
+      "          target = unwrap(target[key]);\n" +
+      "        }\n" +
+      "      }\n" +
+      "      if (changes.size !== 0) discard(path);\n" +
+      "    }\n" +
+      "  }\n" +
+      "  return { state: wrap(root, null, null), take: take, apply: apply };\n" +
+      "})";
+
+  private static final JavaMethod CALLBACK_METHOD =
+      new JavaMethod(JSValue.class, "invoke", new Type[] { JSContext.class, JSValue[].class });
+
   long pointer;
   final QuickJS quickJS;
   final JSRuntime jsRuntime;
   private final NativeCleaner<JSValue> cleaner;
+  private final Map<Type, JSObject> interfacePrototypes = new HashMap<>();
+  @Nullable
+  private JSObject arrayPrototype;
+  @Nullable
+  private JSObject objectPrototype;
+  @Nullable
+  private JSFunction iterableFactory;
+  @Nullable
+  private JSFunction stateTrackerFactory;
+  // Results of primitive function calls, guarded by the lock of the JSRuntime
+  final long[] primitiveResult = new long[1];
+  final Object[] objectResult = new Object[1];
 
   JSContext(long pointer, QuickJS quickJS, JSRuntime jsRuntime) {
     this.pointer = pointer;
@@ -174,7 +369,7 @@ public class JSContext implements Closeable {
         // Only check exception
         try {
           if (QuickJS.getValueTag(value) == TYPE_EXCEPTION) {
-            throw new JSEvaluationException(QuickJS.getException(pointer));
+            throw createEvaluationException();
           }
         } finally {
           QuickJS.destroyValue(pointer, value);
@@ -193,7 +388,7 @@ public class JSContext implements Closeable {
 
       int code = QuickJS.executePendingJob(pointer);
       if (code < 0) {
-        throw new JSEvaluationException(QuickJS.getException(pointer));
+        throw createEvaluationException();
       } else {
         return code != 0;
       }
@@ -277,6 +472,40 @@ public class JSContext implements Closeable {
     }
   }
 
+  /**
+   * Creates a JavaScript BigInt.
+   */
+  public JSBigInt createJSBigInt(long value) {
+    synchronized (jsRuntime) {
+      checkClosed();
+      long val = QuickJS.createValueBigInt(pointer, value);
+      return wrapAsJSValue(val).cast(JSBigInt.class);
+    }
+  }
+
+  /**
+   * Creates a JavaScript BigInt.
+   */
+  public JSBigInt createJSBigInt(BigInteger value) {
+    if (value.bitLength() < 64) return createJSBigInt(value.longValue());
+    synchronized (jsRuntime) {
+      checkClosed();
+      long val = QuickJS.createValueBigIntFromString(pointer, value.toString());
+      return wrapAsJSValue(val).cast(JSBigInt.class);
+    }
+  }
+
+  /**
+   * Creates a JavaScript Date of the time value, milliseconds since the epoch.
+   */
+  public JSObject createJSDate(double time) {
+    synchronized (jsRuntime) {
+      checkClosed();
+      long val = QuickJS.createValueDate(pointer, time);
+      return wrapAsJSValue(val).cast(JSObject.class);
+    }
+  }
+
   /**
    * Creates a JavaScript object.
    */
@@ -288,17 +517,171 @@ public class JSContext implements Closeable {
     }
   }
 
+  /**
+   * Creates a JavaScript object with the properties, in the order of the keys.
+   * All properties are defined in one native call.
+   */
+  public JSObject createJSObject(JSPropertyKeys keys, JSValue[] values) {
+    if (keys.size() != values.length) {
+      throw new IllegalArgumentException("keys.size() = " + keys.size() + ", but values.length = " + values.length);
+    }
+    long[] valuePointers = new long[values.length];
+    for (int i = 0; i < values.length; i++) {
+      JSValue value = values[i];
+      if (value.jsContext != this) {
+        throw new IllegalStateException("The JSValue is not from this JSContext");
+      }
+      valuePointers[i] = value.pointer;
+    }
+    synchronized (jsRuntime) {
+      checkClosed();
+      long atoms = jsRuntime.getPropertyKeys(pointer, keys);
+      long val = QuickJS.createValueObjectWithProperties(pointer, atoms, valuePointers);
+      return wrapAsJSValue(val).cast(JSObject.class);
+    }
+  }
+
   /**
    * Creates a JavaScript object holding a java object.
    */
   public JSObject createJSObject(Object object) {
     synchronized (jsRuntime) {
       checkClosed();
-      long val = QuickJS.createValueJavaObject(pointer, object);
+      int slot = jsRuntime.registry.register(object);
+      // The JavaScript object owns the slot now
+      long val = QuickJS.createValueJavaObject(pointer, slot);
+      return wrapAsJSValue(val).cast(JSObject.class);
+    }
+  }
+
+  /**
+   * Creates a JavaScript object exposing public instance fields
+   * and public instance methods of the java object.
+   * Overloaded methods are dispatched by the arguments.
+   * Members are resolved on first access, and cached per class in the JSRuntime.
+   */
+  public JSObject createJSHostObject(Object object) {
+    if (object == null) throw new NullPointerException("object == null");
+    synchronized (jsRuntime) {
+      checkClosed();
+      long hostClass = jsRuntime.getJavaHostClass(object.getClass());
+      int slot = jsRuntime.registry.register(object);
+      long val = QuickJS.createValueJavaHostObject(pointer, hostClass, slot);
+      return wrapAsJSValue(val).cast(JSObject.class);
+    }
+  }
+
+  /**
+   * Creates a JavaScript object holding a java object with the prototype.
+   */
+  JSObject createJSObject(Object object, JSObject prototype) {
+    synchronized (jsRuntime) {
+      checkClosed();
+      int slot = jsRuntime.registry.register(object);
+      long val = QuickJS.createValueJavaObjectWithProto(pointer, slot, prototype.pointer);
       return wrapAsJSValue(val).cast(JSObject.class);
     }
   }
 
+  /**
+   * Returns the prototype for java objects of the interface type.
+   * Its functions call the java object of {@code this},
+   * so it's created only once and shared by all the java objects.
+   */
+  JSObject getInterfacePrototype(Type type, Map<String, List<JavaMethod>> methods) {
+    synchronized (jsRuntime) {
+      checkClosed();
+
+      JSObject prototype = interfacePrototypes.get(type);
+      if (prototype != null) return prototype;
+
+      Class<?> rawType = JavaTypes.getRawType(type);
+      prototype = createJSObject();
+      for (Map.Entry<String, List<JavaMethod>> entry : methods.entrySet()) {
+        long descriptor = jsRuntime.getJavaMethodOverloadsDescriptor(rawType, entry.getValue(), false);
+        long val = QuickJS.createValueFunction(pointer, descriptor, CALLEE_RECEIVER);
+        prototype.setProperty(entry.getKey(), wrapAsJSValue(val).cast(JSFunction.class));
+      }
+      interfacePrototypes.put(type, prototype);
+      return prototype;
+    }
+  }
+
+  /**
+   * Installs all exported members of the JSBinder to the target with one native call.
+   *
+   * @param instance the java object of non-static members,
+   *                 could be {@code null} if there are only static members
+   */
+  public <T> void bind(JSObject target, JSBinder<T> binder, @Nullable T instance) {
+    if (target == null) throw new NullPointerException("target == null");
+    if (binder == null) throw new NullPointerException("binder == null");
+    if (target.jsContext != this) {
+      throw new IllegalStateException("The JSValue is not from this JSContext");
+    }
+    if (instance == null && binder.instanceMemberCount != 0) {
+      throw new NullPointerException("instance == null");
+    }
+    synchronized (jsRuntime) {
+      checkClosed();
+      long descriptor = jsRuntime.getJSBinderDescriptor(binder);
+      long atoms = jsRuntime.getPropertyKeys(pointer, binder.keys);
+      // Keep converted constants reachable until they are installed
+      JSValue[] holder = new JSValue[binder.kinds.length];
+      long[] constants = binder.getConstants(this, holder);
+      // Every instance member owns the slot once
+      int slot = binder.instanceMemberCount != 0
+          ? jsRuntime.registry.register(instance, binder.instanceMemberCount) : -1;
+      if (!QuickJS.installJSBinder(pointer, target.pointer, descriptor, slot, atoms, binder.kinds, constants)) {
+        throw createEvaluationException();
+      }
+    }
+  }
+
+  /**
+   * Creates a JavaScript array-like object which is a live view of the list.
+   * Elements are converted by the adapter of the element type when they are accessed,
+   * and setting the element at the length appends it. Array.prototype methods work on it.
+   * The JavaScript object unwraps to the list itself.
+   */
+  public JSObject createJSListView(List<?> list, Type elementType) {
+    if (list == null) throw new NullPointerException("list == null");
+    TypeAdapter<?> adapter = quickJS.getAdapter(elementType).nullable();
+    synchronized (jsRuntime) {
+      checkClosed();
+      if (arrayPrototype == null) {
+        arrayPrototype = getGlobalObject().getProperty("Array").cast(JSObject.class)
+            .getProperty("prototype").cast(JSObject.class);
+      }
+      return createJSCollectionView(new JavaCollectionView.ListView(list, adapter), true, arrayPrototype);
+    }
+  }
+
+  /**
+   * Creates a JavaScript object which is a live view of the map.
+   * Keys are property names, values are converted by the adapter of the value type
+   * when they are accessed. The JavaScript object unwraps to the map itself.
+   */
+  public JSObject createJSMapView(Map<String, ?> map, Type valueType) {
+    if (map == null) throw new NullPointerException("map == null");
+    TypeAdapter<?> adapter = quickJS.getAdapter(valueType).nullable();
+    synchronized (jsRuntime) {
+      checkClosed();
+      if (objectPrototype == null) {
+        objectPrototype = getGlobalObject().getProperty("Object").cast(JSObject.class)
+            .getProperty("prototype").cast(JSObject.class);
+      }
+      return createJSCollectionView(new JavaCollectionView.MapView(map, adapter), false, objectPrototype);
+    }
+  }
+
+  private JSObject createJSCollectionView(JavaCollectionView view, boolean isList, JSObject prototype) {
+    int slot = jsRuntime.registry.register(view);
+    // The JavaScript object owns the slot now
+    long val = QuickJS.createValueJavaCollection(pointer, slot, isList, prototype.pointer);
+    return wrapAsJSValue(val).cast(JSObject.class);
+  }
+
   /**
    * Creates a JavaScript array.
    */
@@ -310,6 +693,145 @@ public class JSContext implements Closeable {
     }
   }
 
+  /**
+   * Creates a JavaScript array of the elements with one native call.
+   */
+  JSArray createJSArray(JSValue[] elements) {
+    synchronized (jsRuntime) {
+      checkClosed();
+      long val = QuickJS.createValueArrayWithElements(pointer, toPointers(elements));
+      return wrapAsJSValue(val).cast(JSArray.class);
+    }
+  }
+
+  /**
+   * Creates a JavaScript iterable iterator of the java iterator.
+   * Elements are converted and passed to JavaScript in chunks.
+   * It can be iterated only once, like the java iterator.
+   * The java iterator is closed by {@code return()} if it's {@link Closeable}.
+   */
+  JSObject createJSIterable(Iterator<?> iterator, TypeAdapter<Object> adapter) {
+    return createJSIterable(iterator, adapter, closerOf(iterator));
+  }
+
+  /**
+   * Creates a JavaScript iterable iterator of the java iterator.
+   * {@code return()} of it, like breaking a {@code for...of} loop, runs onReturn.
+   */
+  JSObject createJSIterable(Iterator<?> iterator, TypeAdapter<Object> adapter, @Nullable Runnable onReturn) {
+    synchronized (jsRuntime) {
+      checkClosed();
+      return createJSIterable(createPullFunction(iterator, adapter, onReturn), false);
+    }
+  }
+
+  /**
+   * Creates a JavaScript iterable of the java iterable.
+   * Each iteration in JavaScript iterates a new java iterator.
+   */
+  JSObject createJSIterable(Iterable<?> iterable, TypeAdapter<Object> adapter) {
+    synchronized (jsRuntime) {
+      checkClosed();
+      JSFunction source = createJSFunction((context, args) -> {
+        Iterator<?> iterator = iterable.iterator();
+        return context.createPullFunction(iterator, adapter, closerOf(iterator));
+      });
+      return createJSIterable(source, true);
+    }
+  }
+
+  private JSObject createJSIterable(JSFunction source, boolean reusable) {
+    if (iterableFactory == null) {
+      iterableFactory = evaluate(ITERABLE_FACTORY_SCRIPT, "iterable.js", JSFunction.class);
+    }
+    JSValue[] args = { source, createJSNumber(JSValue.DEFAULT_ITERATOR_BATCH_SIZE), createJSBoolean(reusable) };
+    return iterableFactory.invoke(null, args).cast(JSObject.class);
+  }
+
+  // Returns a function returning an array of the next chunk of elements,
+  // or running onReturn if the argument is true
+  private JSFunction createPullFunction(Iterator<?> iterator, TypeAdapter<Object> adapter, @Nullable Runnable onReturn) {
+    int batchSize = JSValue.DEFAULT_ITERATOR_BATCH_SIZE;
+    return createJSFunction((context, args) -> {
+      if (args.length > 0 && args[0] instanceof JSBoolean && ((JSBoolean) args[0]).getBoolean()) {
+        if (onReturn != null) onReturn.run();
+        return context.createJSUndefined();
+      }
+      JSValue[] chunk = new JSValue[batchSize];
+      int size = 0;
+      while (size < batchSize && iterator.hasNext()) {
+        chunk[size++] = adapter.toJSValue(context, iterator.next());
+      }
+      return context.createJSArray(size == batchSize ? chunk : Arrays.copyOf(chunk, size));
+    });
+  }
+
+  @Nullable
+  private static Runnable closerOf(Iterator<?> iterator) {
+    if (!(iterator instanceof Closeable)) return null;
+    return () -> {
+      try {
+        ((Closeable) iterator).close();
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    };
+  }
+
+  /**
+   * Creates a JavaScript object of the properties with one native call.
+   */
+  JSObject createJSObject(String[] names, JSValue[] values) {
+    synchronized (jsRuntime) {
+      checkClosed();
+      long val = QuickJS.createValueObjectWithNames(pointer, names, toPointers(values));
+      return wrapAsJSValue(val).cast(JSObject.class);
+    }
+  }
+
+  /**
+   * Creates a JavaScript Map with one native call.
+   * Entries are flattened as key, value, key, value...
+   */
+  JSObject createJSMap(JSValue[] entries) {
+    synchronized (jsRuntime) {
+      checkClosed();
+      long val = QuickJS.createValueCollection(pointer, true, toPointers(entries));
+      return wrapAsJSValue(val).cast(JSObject.class);
+    }
+  }
+
+  /**
+   * Creates a JavaScript Set with one native call.
+   */
+  JSObject createJSSet(JSValue[] elements) {
+    synchronized (jsRuntime) {
+      checkClosed();
+      long val = QuickJS.createValueCollection(pointer, false, toPointers(elements));
+      return wrapAsJSValue(val).cast(JSObject.class);
+    }
+  }
+
+  private long[] toPointers(JSValue[] values) {
+    long[] pointers = new long[values.length];
+    for (int i = 0; i < values.length; i++) {
+      JSValue value = values[i];
+      if (value.jsContext != this) {
+        throw new IllegalStateException("The JSValue is not from this JSContext");
+      }
+      pointers[i] = value.pointer;
+    }
+    return pointers;
+  }
+
+  JSValue[] wrapAsJSValues(long[] values) {
+    JSValue[] result = new JSValue[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = wrapAsJSValue(values[i]);
+    }
+    return result;
+  }
+
   private void checkArrayBounds(int arrayLength, int start, int length) {
     if (start < 0 || length <= 0 || start + length > arrayLength) {
       throw new IndexOutOfBoundsException(
@@ -486,6 +1008,236 @@ public class JSContext implements Closeable {
     }
   }
 
+  /**
+   * Creates a JavaScript object of typed array columns with one native call.
+   * {@code int[]}, {@code long[]}, {@code float[]} and {@code double[]} columns are copied
+   * to Int32Array, BigInt64Array, Float32Array and Float64Array.
+   * Direct IntBuffer, LongBuffer, FloatBuffer and DoubleBuffer columns in native byte order
+   * are shared without copying, from the position to the limit.
+   * The buffers must not be modified from Java while JavaScript is reading them.
+   *
+   * @param names the property names of the columns
+   * @param columns the columns, in the order of the names
+   * @see JSObject#getColumns(String[], Class[])
+   */
+  public JSObject createJSColumns(String[] names, Object[] columns) {
+    if (names == null) throw new NullPointerException("names == null");
+    if (columns == null) throw new NullPointerException("columns == null");
+    if (names.length != columns.length) {
+      throw new IllegalArgumentException("names.length != columns.length");
+    }
+
+    int count = names.length;
+    Object[] sources = new Object[count];
+    int[] kinds = new int[count];
+    int[] offsets = new int[count];
+    int[] lengths = new int[count];
+    for (int i = 0; i < count; i++) {
+      if (names[i] == null) throw new NullPointerException("name == null");
+      Object column = columns[i];
+      if (column == null) throw new NullPointerException("column == null: " + names[i]);
+      kinds[i] = columnKind(column.getClass());
+      if (column instanceof Buffer) {
+        Buffer buffer = (Buffer) column;
+        if (buffer.isDirect()) {
+          if (columnOrder(buffer) != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("The buffer is not in native byte order: " + names[i]);
+          }
+          sources[i] = buffer;
+          offsets[i] = buffer.position();
+        } else if (buffer.hasArray()) {
+          sources[i] = columnArray(buffer);
+          offsets[i] = buffer.arrayOffset() + buffer.position();
+        } else {
+          throw new IllegalArgumentException("The buffer is neither direct nor backed by an array: " + names[i]);
+        }
+        lengths[i] = buffer.remaining();
+      } else {
+        sources[i] = column;
+        lengths[i] = Array.getLength(column);
+      }
+    }
+
+    synchronized (jsRuntime) {
+      checkClosed();
+      long val = QuickJS.createValueColumns(pointer, names, sources, kinds, offsets, lengths);
+      return wrapAsJSValue(val).cast(JSObject.class);
+    }
+  }
+
+  /**
+   * Returns the column kind of the array or buffer type, the element types match typed arrays.
+   */
+  static int columnKind(Class<?> type) {
+    if (type == int[].class || IntBuffer.class.isAssignableFrom(type)) return COLUMN_INT32;
+    if (type == long[].class || LongBuffer.class.isAssignableFrom(type)) return COLUMN_INT64;
+    if (type == float[].class || FloatBuffer.class.isAssignableFrom(type)) return COLUMN_FLOAT32;
+    if (type == double[].class || DoubleBuffer.class.isAssignableFrom(type)) return COLUMN_FLOAT64;
+    throw new IllegalArgumentException("Unsupported column type: " + type.getName());
+  }
+
+  private static ByteOrder columnOrder(Buffer buffer) {
+    if (buffer instanceof IntBuffer) return ((IntBuffer) buffer).order();
+    if (buffer instanceof LongBuffer) return ((LongBuffer) buffer).order();
+    if (buffer instanceof FloatBuffer) return ((FloatBuffer) buffer).order();
+    return ((DoubleBuffer) buffer).order();
+  }
+
+  private static Object columnArray(Buffer buffer) {
+    if (buffer instanceof IntBuffer) return ((IntBuffer) buffer).array();
+    if (buffer instanceof LongBuffer) return ((LongBuffer) buffer).array();
+    if (buffer instanceof FloatBuffer) return ((FloatBuffer) buffer).array();
+    return ((DoubleBuffer) buffer).array();
+  }
+
+  /**
+   * Compiles the expression once as a function of the parameters.
+   * Evaluating the result is a function call instead of a parse.
+   *
+   * @param source the JavaScript expression, like {@code "a * rate + fee"}
+   * @param paramNames the names of the parameters in the expression
+   */
+  public JSExpression compileExpression(String source, String... paramNames) {
+    if (source == null) throw new NullPointerException("source == null");
+    if (paramNames == null) throw new NullPointerException("paramNames == null");
+
+    StringBuilder sb = new StringBuilder(source.length() + 32);
+    sb.append("(function(");
+    for (int i = 0; i < paramNames.length; i++) {
+      String name = paramNames[i];
+      if (!isIdentifier(name)) throw new IllegalArgumentException("Invalid parameter name: " + name);
+      if (i != 0) sb.append(", ");
+      sb.append(name);
+    }
+    // The line break ends any line comment in the source
+    sb.append(") {\nreturn (").append(source).append("\n);\n})");
+
+    JSFunction function = evaluate(sb.toString(), "expression.js", JSFunction.class);
+    return new JSExpression(this, function, paramNames.clone());
+  }
+
+  /**
+   * Compiles the rules into one JavaScript function.
+   * A rule is an expression of the input, it matches if the result is truthy.
+   * Each rule is compiled as a function of the input only,
+   * it can't reach the matches of the other rules.
+   * If a rule throws, the evaluation of the input throws and no match is returned.
+   *
+   * @param paramName the name of the input in the rules
+   * @param rules the rules by name, in iteration order
+   * @param inputType the type of the inputs, it's converted by the TypeAdapter of the type
+   */
+  public JSRuleSet compileRuleSet(String paramName, Map<String, String> rules, Type inputType) {
+    if (paramName == null) throw new NullPointerException("paramName == null");
+    if (rules == null) throw new NullPointerException("rules == null");
+    if (inputType == null) throw new NullPointerException("inputType == null");
+    if (!isIdentifier(paramName)) throw new IllegalArgumentException("Invalid parameter name: " + paramName);
+
+    String[] names = new String[rules.size()];
+    StringBuilder sb = new StringBuilder();
+    // Matches are bits of int32 words, returned as an ArrayBuffer.
+    // The rules are arguments of the outer function, they can't see its variables.
+    sb.append("(function(rules) {\n");
+    sb.append("return function(input) {\n");
+    sb.append("var m = new Int32Array(").append((rules.size() + 31) / 32).append(");\n");
+    sb.append("for (var i = 0; i < rules.length; i++) if (rules[i](input)) m[i >>> 5] |= 1 << (i & 31);\n");
+    sb.append("return m.buffer;\n};\n})([\n");
+    int index = 0;
+    for (Map.Entry<String, String> rule : rules.entrySet()) {
+      if (rule.getValue() == null) throw new NullPointerException("rule == null: " + rule.getKey());
+      names[index] = rule.getKey();
+      // The line break ends any line comment in the rule
+      sb.append("function(").append(paramName).append(") {\nreturn (").append(rule.getValue()).append("\n);\n},\n");
+      index++;
+    }
+    sb.append("])");
+
+    TypeAdapter<Object> inputAdapter = quickJS.getAdapter(inputType);
+    JSFunction function = evaluate(sb.toString(), "rules.js", JSFunction.class);
+    return new JSRuleSet(this, function, names, inputAdapter);
+  }
+
+  /**
+   * Compiles the rules into one JavaScript function, the inputs are JSValues.
+   *
+   * @see #compileRuleSet(String, Map, Type)
+   */
+  public JSRuleSet compileRuleSet(String paramName, Map<String, String> rules) {
+    return compileRuleSet(paramName, rules, JSValue.class);
+  }
+
+  /**
+   * Creates a batch to record operations on JavaScript values.
+   * All operations are executed in one call.
+   */
+  public JSBatch createBatch() {
+    return new JSBatch(this);
+  }
+
+  /**
+   * Wraps the pure function with a bounded LRU cache of results.
+   * Calls whose arguments are all primitives or strings are cached,
+   * cache hits are answered in native code without running the function.
+   * Other calls are passed to the function. {@code this} is not a part of the key.
+   * Exceptions are not cached.
+   *
+   * @param maxEntries the max number of cached results
+   * @see JSFunction#getMemoStats()
+   */
+  public JSFunction memoize(JSFunction function, int maxEntries) {
+    if (function == null) throw new NullPointerException("function == null");
+    if (maxEntries <= 0 || maxEntries > MAX_MEMO_ENTRIES) {
+      throw new IllegalArgumentException("Invalid maxEntries: " + maxEntries);
+    }
+    if (function.jsContext != this) {
+      throw new IllegalStateException("The JSValue is not from this JSContext");
+    }
+    synchronized (jsRuntime) {
+      long context = checkClosed();
+      long val = QuickJS.createValueMemoizedFunction(context, function.pointer, maxEntries);
+      return wrapAsJSValue(val).cast(JSFunction.class);
+    }
+  }
+
+  /**
+   * Tracks the changes to the state object.
+   * Changes made through {@link JSStateTracker#getState()} are recorded by path,
+   * the ones to the same path are merged, so synchronizing costs O(changes).
+   *
+   * @see JSStateTracker#takeChanges()
+   * @see JSStateTracker#applyChanges(List)
+   */
+  public JSStateTracker trackState(JSObject state) {
+    if (state == null) throw new NullPointerException("state == null");
+    if (state.jsContext != this) {
+      throw new IllegalStateException("The JSValue is not from this JSContext");
+    }
+    synchronized (jsRuntime) {
+      checkClosed();
+      if (stateTrackerFactory == null) {
+        stateTrackerFactory = evaluate(STATE_TRACKER_FACTORY_SCRIPT, "state.js", JSFunction.class);
+      }
+      JSObject tracker = stateTrackerFactory.invoke(null, new JSValue[] { state }).cast(JSObject.class);
+      JSValue[] properties = tracker.getProperties(new String[] { "state", "take", "apply" });
+      return new JSStateTracker(
+          this,
+          properties[0].cast(JSObject.class),
+          properties[1].cast(JSFunction.class),
+          properties[2].cast(JSFunction.class)
+      );
+    }
+  }
+
+  private static boolean isIdentifier(@Nullable String name) {
+    if (name == null || name.isEmpty()) return false;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = c == '_' || c == '$' || Character.isLetter(c) || (i != 0 && Character.isDigit(c));
+      if (!valid) return false;
+    }
+    return true;
+  }
+
   /**
    * Create a JavaScript function from a java non-static method.
    */
@@ -494,7 +1246,10 @@ public class JSContext implements Closeable {
     if (method == null) throw new NullPointerException("method == null");
     synchronized (jsRuntime) {
       checkClosed();
-      long val = QuickJS.createValueFunction(pointer, this, instance, method.name, method.getSignature(), method.returnType, method.parameterTypes, false);
+      long descriptor = jsRuntime.getJavaMethodDescriptor(instance.getClass(), method, false, false);
+      int slot = jsRuntime.registry.register(instance);
+      // The JavaScript function owns the slot now, it's released even if it fails
+      long val = QuickJS.createValueFunction(pointer, descriptor, slot);
       return wrapAsJSValue(val).cast(JSFunction.class);
     }
   }
@@ -506,9 +1261,10 @@ public class JSContext implements Closeable {
     if (callback == null) throw new NullPointerException("callback == null");
     synchronized (jsRuntime) {
       checkClosed();
-      String methodName = "invoke";
-      String methodSign = "(Lcom/hippo/quickjs/android/JSContext;[Lcom/hippo/quickjs/android/JSValue;)Lcom/hippo/quickjs/android/JSValue;";
-      long val = QuickJS.createValueFunction(pointer, this, callback, methodName, methodSign, JSValue.class, new Class[] { JSContext.class, JSValue[].class }, true);
+      long descriptor = jsRuntime.getJavaMethodDescriptor(JSFunctionCallback.class, CALLBACK_METHOD, false, true);
+      int slot = jsRuntime.registry.register(callback);
+      // The JavaScript function owns the slot now, it's released even if it fails
+      long val = QuickJS.createValueFunction(pointer, descriptor, slot);
       return wrapAsJSValue(val).cast(JSFunction.class);
     }
   }
@@ -520,17 +1276,48 @@ public class JSContext implements Closeable {
     if (clazz == null) throw new NullPointerException("clazz == null");
     if (method == null) throw new NullPointerException("method == null");
 
-    String name = clazz.getName();
-    StringBuilder sb = new StringBuilder(name.length());
-    for (int i = 0; i < name.length(); i++) {
-      char c = name.charAt(i);
-      sb.append(c == '.' ? '/' : c);
+    synchronized (jsRuntime) {
+      checkClosed();
+      long descriptor = jsRuntime.getJavaMethodDescriptor(clazz, method, true, false);
+      long val = QuickJS.createValueFunction(pointer, descriptor, -1);
+      return wrapAsJSValue(val).cast(JSFunction.class);
+    }
+  }
+
+  /**
+   * Create a JavaScript function from all public non-static methods with the name.
+   * The overload is chosen by the count and the JavaScript types of the arguments.
+   */
+  public JSFunction createJSOverloadedFunction(Object instance, String methodName) {
+    if (instance == null) throw new NullPointerException("instance == null");
+    if (methodName == null) throw new NullPointerException("methodName == null");
+    List<JavaMethod> methods = JavaMethod.getOverloads(instance.getClass(), methodName, false);
+    if (methods.isEmpty()) throw new IllegalArgumentException("Can't find method: " + methodName);
+
+    synchronized (jsRuntime) {
+      checkClosed();
+      long descriptor = jsRuntime.getJavaMethodOverloadsDescriptor(instance.getClass(), methods, false);
+      int slot = jsRuntime.registry.register(instance);
+      // The JavaScript function owns the slot now, it's released even if it fails
+      long val = QuickJS.createValueFunction(pointer, descriptor, slot);
+      return wrapAsJSValue(val).cast(JSFunction.class);
     }
-    String className = sb.toString();
+  }
+
+  /**
+   * Create a JavaScript function from all public static methods with the name.
+   * The overload is chosen by the count and the JavaScript types of the arguments.
+   */
+  public JSFunction createJSOverloadedFunctionS(Class<?> clazz, String methodName) {
+    if (clazz == null) throw new NullPointerException("clazz == null");
+    if (methodName == null) throw new NullPointerException("methodName == null");
+    List<JavaMethod> methods = JavaMethod.getOverloads(clazz, methodName, true);
+    if (methods.isEmpty()) throw new IllegalArgumentException("Can't find method: " + methodName);
 
     synchronized (jsRuntime) {
       checkClosed();
-      long val = QuickJS.createValueFunctionS(pointer, this, className, method.name, method.getSignature(), method.returnType, method.parameterTypes);
+      long descriptor = jsRuntime.getJavaMethodOverloadsDescriptor(clazz, methods, true);
+      long val = QuickJS.createValueFunction(pointer, descriptor, -1);
       return wrapAsJSValue(val).cast(JSFunction.class);
     }
   }
@@ -550,7 +1337,7 @@ public class JSContext implements Closeable {
           for (long v : values) {
             QuickJS.destroyValue(pointer, v);
           }
-          throw new JSEvaluationException(QuickJS.getException(pointer));
+          throw createEvaluationException();
         }
       }
 
@@ -564,6 +1351,20 @@ public class JSContext implements Closeable {
     return promise.cast(JSObject.class);
   }
 
+  /**
+   * Takes the pending exception of this JSContext as a JSEvaluationException.
+   */
+  JSEvaluationException createEvaluationException() {
+    JSException jsException = QuickJS.getException(pointer);
+    if (jsException.error != 0) {
+      // Only the stack is read from the error, no need to check its type
+      JSValue errorValue = new JSObject(jsException.error, this, null);
+      cleaner.register(errorValue, jsException.error);
+      jsException.attach(errorValue);
+    }
+    return new JSEvaluationException(jsException, quickJS.javaStackTraceEnabled);
+  }
+
   // TODO No need to save c pointers of JSNull, JSUndefined, JSBoolean, JSNumber and JSString.
   //  Just save their types and values.
   /**
@@ -580,6 +1381,9 @@ public class JSContext implements Closeable {
 
     int type = QuickJS.getValueTag(value);
     switch (type) {
+      case TYPE_BIG_INT:
+        jsValue = new JSBigInt(value, this);
+        break;
       case TYPE_SYMBOL:
         jsValue = new JSSymbol(value, this);
         break;
@@ -594,7 +1398,11 @@ public class JSContext implements Closeable {
         } else if (QuickJS.isValueArrayBuffer(pointer, value)) {
           jsValue = new JSArrayBuffer(value, this);
         } else {
-          jsValue = new JSObject(value, this, QuickJS.getValueJavaObject(pointer, value));
+          Object javaObject = QuickJS.getValueJavaObject(pointer, value);
+          if (javaObject instanceof JavaCollectionView) {
+            javaObject = ((JavaCollectionView) javaObject).collection;
+          }
+          jsValue = new JSObject(value, this, javaObject);
         }
         break;
       case TYPE_INT:
@@ -611,7 +1419,7 @@ public class JSContext implements Closeable {
         break;
       case TYPE_EXCEPTION:
         QuickJS.destroyValue(pointer, value);
-        throw new JSEvaluationException(QuickJS.getException(pointer));
+        throw createEvaluationException();
       case TYPE_FLOAT64:
         jsValue = new JSFloat64(value, this, QuickJS.getValueFloat64(value));
         break;
@@ -637,7 +1445,13 @@ public class JSContext implements Closeable {
     synchronized (jsRuntime) {
       if (pointer != 0) {
         // Destroy all JSValue
+        interfacePrototypes.clear();
+        arrayPrototype = null;
+        objectPrototype = null;
+        iterableFactory = null;
+        stateTrackerFactory = null;
         cleaner.forceClean();
+        jsRuntime.closeJavaHostClasses(pointer);
         // Destroy self
         long contextToClose = pointer;
         pointer = 0;
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class as a JavaScript data object.
+ * The annotation processor generates a {@link TypeAdapter} for it,
+ * which converts all non-static non-transient fields from and to
+ * a JavaScript object with one native call, without reflection.
+ *
+ * <p>A field is read directly if it's not private, otherwise by its getter
+ * ({@code getX()}, {@code isX()} or {@code x()}).
+ * The object is created by the constructor taking all fields in declaration order,
+ * or by the no-arg constructor and then fields or setters ({@code setX(x)}).
+ *
+ * <p>The processor generates a {@code JSDataAdapters} class in each package
+ * with annotated classes. Register its factory to use the adapters:
+ * <pre>
+ * new QuickJS.Builder().registerTypeAdapterFactory(JSDataAdapters.FACTORY).build();
+ * </pre>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface JSData { }
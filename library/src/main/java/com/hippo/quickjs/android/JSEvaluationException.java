@@ -16,18 +16,51 @@
 
 package com.hippo.quickjs.android;
 
+import androidx.annotation.Nullable;
+
 /**
  * This exception is raised if QuickJS raises a JavaScript exception.
  */
 public class JSEvaluationException extends RuntimeException {
 
-  private JSException jsException;
+  private final JSException jsException;
+  private final boolean javaStackTrace;
+  @Nullable
+  private String message;
 
   JSEvaluationException(JSException jsException) {
-    super(jsException.toString());
+    this(jsException, true);
+  }
+
+  /**
+   * @param javaStackTrace {@code false} to skip capturing the java stack trace
+   */
+  JSEvaluationException(JSException jsException, boolean javaStackTrace) {
+    this.jsException = jsException;
+    this.javaStackTrace = javaStackTrace;
+    if (javaStackTrace) {
+      fillInStackTrace();
+    }
   }
 
   public JSException getJSException() {
     return jsException;
   }
+
+  @Override
+  public String getMessage() {
+    // Build the message lazily, it reads the stack of the JSException
+    String message = this.message;
+    if (message == null) {
+      message = jsException.toString();
+      this.message = message;
+    }
+    return message;
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    // It's also called in the constructor of Throwable, before javaStackTrace is assigned
+    return javaStackTrace ? super.fillInStackTrace() : this;
+  }
 }
@@ -26,12 +26,29 @@ public class JSException {
 
   private final boolean isError;
   private final String exception;
-  private final String stack;
 
-  private JSException(boolean isError, String exception, String stack) {
+  /**
+   * The native pointer of the error. It's {@code 0} if it's not an error.
+   * The stack of the error is read in {@link #getStack()}.
+   */
+  final long error;
+  @Nullable
+  private JSValue errorValue;
+  private boolean stackRead;
+  @Nullable
+  private String stack;
+
+  private JSException(boolean isError, String exception, long error) {
     this.isError = isError;
     this.exception = exception;
-    this.stack = stack;
+    this.error = error;
+  }
+
+  /**
+   * Binds the error to the JSContext to release it with other JSValues.
+   */
+  void attach(JSValue errorValue) {
+    this.errorValue = errorValue;
   }
 
   public boolean isError() {
@@ -47,10 +64,24 @@ public class JSException {
   }
 
   /**
-   * The stack trace.
+   * The stack trace. It's read on the first call,
+   * returns {@code null} if the JSContext is closed before that.
    */
   @Nullable
-  public String getStack() {
+  public synchronized String getStack() {
+    if (!stackRead) {
+      JSValue errorValue = this.errorValue;
+      if (errorValue != null) {
+        JSContext jsContext = errorValue.jsContext;
+        synchronized (jsContext.jsRuntime) {
+          if (jsContext.pointer != 0) {
+            stack = QuickJS.getExceptionStack(jsContext.pointer, errorValue.pointer);
+          }
+        }
+      }
+      this.errorValue = null;
+      stackRead = true;
+    }
     return stack;
   }
 
@@ -62,6 +93,7 @@ public class JSException {
       sb.append("Throw: ");
     }
     sb.append(exception).append("\n");
+    String stack = getStack();
     if (stack != null) {
       sb.append(stack);
     }
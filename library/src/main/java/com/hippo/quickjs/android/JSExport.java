@@ -0,0 +1,50 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Exports a method or a constant to JavaScript.
+ * The annotation processor generates a {@link JSBinder} named {@code <Class>_JSBinder}
+ * for each class with exported members, its {@code INSTANCE} installs them all at once.
+ *
+ * <p>Methods could be static or not, they must not be private or overloaded.
+ * Constants are static final fields, they are converted when installed.
+ *
+ * @see JSContext#bind(JSObject, JSBinder, Object)
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target({ ElementType.METHOD, ElementType.FIELD })
+public @interface JSExport {
+  /**
+   * The JavaScript name. The name of the method or field is used if it's empty.
+   * For getters, {@code get} or {@code is} prefix is removed.
+   */
+  String value() default "";
+
+  /**
+   * Exports the method without parameters as a read-only property.
+   */
+  boolean getter() default false;
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Type;
+
+/**
+ * A JavaScript expression compiled once as a function of its parameters.
+ * Each evaluation is a function call, parameters are bound positionally.
+ *
+ * @see JSContext#compileExpression(String, String...)
+ */
+public final class JSExpression {
+
+  private final JSContext jsContext;
+  private final JSFunction function;
+  private final String[] paramNames;
+  // Arguments and adapters are reused, guarded by the lock of the JSRuntime.
+  // Nested evaluations, like ones from TypeAdapters, get new arguments.
+  private final JSArguments arguments;
+  private boolean argumentsInUse;
+  private final Class<?>[] argClasses;
+  private final TypeAdapter<Object>[] argAdapters;
+
+  @SuppressWarnings("unchecked")
+  JSExpression(JSContext jsContext, JSFunction function, String[] paramNames) {
+    this.jsContext = jsContext;
+    this.function = function;
+    this.paramNames = paramNames;
+    this.arguments = new JSArguments(paramNames.length);
+    this.argClasses = new Class<?>[paramNames.length];
+    this.argAdapters = (TypeAdapter<Object>[]) new TypeAdapter<?>[paramNames.length];
+  }
+
+  /**
+   * Returns the compiled function of the expression.
+   */
+  public JSFunction getFunction() {
+    return function;
+  }
+
+  /**
+   * Evaluates the expression with the arguments.
+   * Numbers, booleans, strings and JSValues are passed directly,
+   * other arguments are converted by the TypeAdapters of their classes.
+   * Pass generic values like lists as JSValues, their element types are unknown here.
+   */
+  public JSValue evaluate(Object... args) {
+    synchronized (jsContext.jsRuntime) {
+      JSArguments arguments = obtainArguments();
+      try {
+        return function.invoke(null, bind(arguments, args));
+      } finally {
+        releaseArguments(arguments);
+      }
+    }
+  }
+
+  /**
+   * Evaluates the expression and converts the result to the type.
+   *
+   * @see #evaluate(Object...)
+   */
+  public <T> T evaluateAs(Type type, Object... args) {
+    TypeAdapter<T> adapter = jsContext.quickJS.getAdapter(type);
+    synchronized (jsContext.jsRuntime) {
+      return adapter.fromJSValue(jsContext, evaluate(args));
+    }
+  }
+
+  public double evaluateDouble(double... args) {
+    checkArgCount(args.length);
+    return function.invokeDouble(null, args);
+  }
+
+  public double evaluateDouble(JSArguments args) {
+    checkArgCount(args.size());
+    return function.invokeDouble(null, args);
+  }
+
+  public int evaluateInt(double... args) {
+    checkArgCount(args.length);
+    return function.invokeInt(null, args);
+  }
+
+  public int evaluateInt(JSArguments args) {
+    checkArgCount(args.size());
+    return function.invokeInt(null, args);
+  }
+
+  public boolean evaluateBoolean(double... args) {
+    checkArgCount(args.length);
+    return function.invokeBoolean(null, args);
+  }
+
+  public boolean evaluateBoolean(JSArguments args) {
+    checkArgCount(args.size());
+    return function.invokeBoolean(null, args);
+  }
+
+  @Nullable
+  public String evaluateString(double... args) {
+    checkArgCount(args.length);
+    return function.invokeString(null, args);
+  }
+
+  @Nullable
+  public String evaluateString(JSArguments args) {
+    checkArgCount(args.size());
+    return function.invokeString(null, args);
+  }
+
+  private void checkArgCount(int count) {
+    if (count != paramNames.length) {
+      throw new IllegalArgumentException("Expected " + paramNames.length + " arguments, but got " + count);
+    }
+  }
+
+  private JSArguments obtainArguments() {
+    if (argumentsInUse) return new JSArguments(paramNames.length);
+    argumentsInUse = true;
+    return arguments;
+  }
+
+  private void releaseArguments(JSArguments arguments) {
+    // Don't hold JSValues of arguments
+    arguments.clear();
+    if (arguments == this.arguments) argumentsInUse = false;
+  }
+
+  private JSArguments bind(JSArguments arguments, Object[] args) {
+    checkArgCount(args.length);
+    for (int i = 0; i < args.length; i++) {
+      Object arg = args[i];
+      if (!arguments.addPrimitive(arg)) {
+        arguments.add(getAdapter(i, arg.getClass()).toJSValue(jsContext, arg));
+      }
+    }
+    return arguments;
+  }
+
+  // Arguments at a position mostly have the same class, cache the last adapter
+  private TypeAdapter<Object> getAdapter(int index, Class<?> clazz) {
+    if (argClasses[index] != clazz) {
+      argAdapters[index] = findAdapter(clazz);
+      argClasses[index] = clazz;
+    }
+    return argAdapters[index];
+  }
+
+  /**
+   * Returns the adapter of the class, or of the interface it implements,
+   * since the class may be an implementation like a lambda.
+   */
+  private TypeAdapter<Object> findAdapter(Class<?> clazz) {
+    QuickJS quickJS = jsContext.quickJS;
+    try {
+      return quickJS.getAdapter(clazz);
+    } catch (IllegalArgumentException e) {
+      // Try its interfaces
+    }
+
+    for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+      for (Class<?> i : c.getInterfaces()) {
+        // Skip marker interfaces like Serializable
+        if (i.getMethods().length != 0) return quickJS.getAdapter(i);
+      }
+    }
+    throw new IllegalArgumentException("Can't find TypeAdapter for " + clazz);
+  }
+}
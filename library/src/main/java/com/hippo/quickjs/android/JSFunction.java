@@ -18,11 +18,26 @@ package com.hippo.quickjs.android;
 
 import androidx.annotation.Nullable;
 
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * JavaScript function.
  */
 public final class JSFunction extends JSObject {
 
+  // Keep them in sync with quickjs-jni.c
+  private static final int RESULT_TYPE_DOUBLE = 0;
+  private static final int RESULT_TYPE_INT = 1;
+  private static final int RESULT_TYPE_BOOLEAN = 2;
+  private static final int RESULT_TYPE_STRING = 3;
+  private static final int RESULT_TYPE_VALUE = 4;
+  private static final int RESULT_TYPE_INT_ARRAY = 5;
+  private static final int RESULT_TYPE_VOID = 6;
+  private static final int RESULT_TYPE_TRUTHY = 7;
+  private static final int RESULT_TYPE_LONG = 8;
+
   JSFunction(long pointer, JSContext jsContext) {
     super(pointer, jsContext, null);
   }
@@ -46,4 +61,400 @@ public final class JSFunction extends JSObject {
       return jsContext.wrapAsJSValue(ret);
     }
   }
+
+  /**
+   * Calls the JavaScript function with the arguments.
+   * Only the result is wrapped as JSValue.
+   */
+  public JSValue invoke(@Nullable JSValue thisObj, JSArguments args) {
+    checkArguments(thisObj, args);
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      long[] result = jsContext.primitiveResult;
+      if (!invokeWithPrimitives(context, thisObj, args, RESULT_TYPE_VALUE, result)) {
+        throw jsContext.createEvaluationException();
+      }
+      return jsContext.wrapAsJSValue(result[0]);
+    }
+  }
+
+  /**
+   * Returns the cache statistics if the function is created by
+   * {@link JSContext#memoize(JSFunction, int)}, otherwise returns null.
+   */
+  @Nullable
+  public JSMemoStats getMemoStats() {
+    long[] stats = new long[JSMemoStats.FIELD_COUNT];
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      if (!QuickJS.getMemoizedFunctionStats(context, pointer, stats)) return null;
+    }
+    return new JSMemoStats(stats);
+  }
+
+  /**
+   * Drops all cached results of a memoized function.
+   * Returns false if the function is not memoized.
+   */
+  public boolean clearMemo() {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      return QuickJS.clearMemoizedFunction(context, pointer);
+    }
+  }
+
+  /**
+   * Calls the JavaScript function with numbers, returns the number result.
+   * Arguments and the result are converted in native code, no JSValue is created.
+   *
+   * @throws JSDataException if the result is not a number
+   */
+  public double invokeDouble(@Nullable JSValue thisObj, double... args) {
+    return Double.longBitsToDouble(invokeForBits(thisObj, args, RESULT_TYPE_DOUBLE));
+  }
+
+  /**
+   * Calls the JavaScript function with integers as numbers, returns the number result.
+   *
+   * @see #invokeDouble(JSValue, double...)
+   */
+  public double invokeDouble(@Nullable JSValue thisObj, long... args) {
+    return Double.longBitsToDouble(invokeForBits(thisObj, args, RESULT_TYPE_DOUBLE));
+  }
+
+  /**
+   * Calls the JavaScript function with the arguments, returns the number result.
+   *
+   * @see #invokeDouble(JSValue, double...)
+   */
+  public double invokeDouble(@Nullable JSValue thisObj, JSArguments args) {
+    return Double.longBitsToDouble(invokeForBits(thisObj, args, RESULT_TYPE_DOUBLE));
+  }
+
+  /**
+   * Calls the JavaScript function with numbers, returns the integer result.
+   *
+   * @throws JSDataException if the result is not an integer
+   */
+  public int invokeInt(@Nullable JSValue thisObj, double... args) {
+    return (int) invokeForBits(thisObj, args, RESULT_TYPE_INT);
+  }
+
+  /**
+   * @see #invokeInt(JSValue, double...)
+   */
+  public int invokeInt(@Nullable JSValue thisObj, long... args) {
+    return (int) invokeForBits(thisObj, args, RESULT_TYPE_INT);
+  }
+
+  /**
+   * @see #invokeInt(JSValue, double...)
+   */
+  public int invokeInt(@Nullable JSValue thisObj, JSArguments args) {
+    return (int) invokeForBits(thisObj, args, RESULT_TYPE_INT);
+  }
+
+  /**
+   * Calls the JavaScript function with numbers, returns the boolean result.
+   *
+   * @throws JSDataException if the result is not a boolean
+   */
+  public boolean invokeBoolean(@Nullable JSValue thisObj, double... args) {
+    return invokeForBits(thisObj, args, RESULT_TYPE_BOOLEAN) != 0;
+  }
+
+  /**
+   * @see #invokeBoolean(JSValue, double...)
+   */
+  public boolean invokeBoolean(@Nullable JSValue thisObj, long... args) {
+    return invokeForBits(thisObj, args, RESULT_TYPE_BOOLEAN) != 0;
+  }
+
+  /**
+   * @see #invokeBoolean(JSValue, double...)
+   */
+  public boolean invokeBoolean(@Nullable JSValue thisObj, JSArguments args) {
+    return invokeForBits(thisObj, args, RESULT_TYPE_BOOLEAN) != 0;
+  }
+
+  /**
+   * Calls the JavaScript function with numbers, returns the string result.
+   * Returns {@code null} if the result is null or undefined.
+   *
+   * @throws JSDataException if the result is not a string
+   */
+  @Nullable
+  public String invokeString(@Nullable JSValue thisObj, double... args) {
+    return invokeForString(thisObj, args);
+  }
+
+  /**
+   * @see #invokeString(JSValue, double...)
+   */
+  @Nullable
+  public String invokeString(@Nullable JSValue thisObj, long... args) {
+    return invokeForString(thisObj, args);
+  }
+
+  /**
+   * @see #invokeString(JSValue, double...)
+   */
+  @Nullable
+  public String invokeString(@Nullable JSValue thisObj, JSArguments args) {
+    return invokeForString(thisObj, args);
+  }
+
+  /**
+   * Calls the JavaScript function once for each row of the columns in one native loop,
+   * writes the number results to {@code results}. {@code columns[i][row]} is the i-th argument of the row,
+   * the row count is the length of {@code results}.
+   * If a call throws, results of previous rows are kept.
+   *
+   * @throws JSDataException if a result is not a number
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, double[][] columns, double[] results) {
+    invokeBatchColumns(thisObj, columns, false, results, results.length, RESULT_TYPE_DOUBLE);
+  }
+
+  /**
+   * @see #invokeBatch(JSValue, double[][], double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, double[][] columns, int[] results) {
+    invokeBatchColumns(thisObj, columns, false, results, results.length, RESULT_TYPE_INT);
+  }
+
+  /**
+   * @see #invokeBatch(JSValue, double[][], double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, double[][] columns, boolean[] results) {
+    invokeBatchColumns(thisObj, columns, false, results, results.length, RESULT_TYPE_BOOLEAN);
+  }
+
+  /**
+   * @see #invokeBatch(JSValue, double[][], double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, int[][] columns, double[] results) {
+    invokeBatchColumns(thisObj, columns, true, results, results.length, RESULT_TYPE_DOUBLE);
+  }
+
+  /**
+   * @see #invokeBatch(JSValue, double[][], double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, int[][] columns, int[] results) {
+    invokeBatchColumns(thisObj, columns, true, results, results.length, RESULT_TYPE_INT);
+  }
+
+  /**
+   * @see #invokeBatch(JSValue, double[][], double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, int[][] columns, boolean[] results) {
+    invokeBatchColumns(thisObj, columns, true, results, results.length, RESULT_TYPE_BOOLEAN);
+  }
+
+  /**
+   * Calls the JavaScript function once for each row of the direct buffer in one native loop.
+   * Each row is {@code argCount} doubles in native byte order, starting from the position of the buffer.
+   *
+   * @see #invokeBatch(JSValue, double[][], double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, ByteBuffer rows, int argCount, double[] results) {
+    invokeBatchRows(thisObj, rows, argCount, results, results.length, RESULT_TYPE_DOUBLE);
+  }
+
+  /**
+   * @see #invokeBatch(JSValue, ByteBuffer, int, double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, ByteBuffer rows, int argCount, int[] results) {
+    invokeBatchRows(thisObj, rows, argCount, results, results.length, RESULT_TYPE_INT);
+  }
+
+  /**
+   * @see #invokeBatch(JSValue, ByteBuffer, int, double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, ByteBuffer rows, int argCount, boolean[] results) {
+    invokeBatchRows(thisObj, rows, argCount, results, results.length, RESULT_TYPE_BOOLEAN);
+  }
+
+  /**
+   * Calls the JavaScript function once for each row of the columns under one lock.
+   * Numbers, booleans, strings and JSValues are passed directly,
+   * other arguments are converted by the TypeAdapters of their classes.
+   *
+   * @see #invokeBatch(JSValue, double[][], double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, Object[][] columns, double[] results) {
+    invokeBatchObjects(thisObj, columns, results, results.length, RESULT_TYPE_DOUBLE);
+  }
+
+  /**
+   * @see #invokeBatch(JSValue, Object[][], double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, Object[][] columns, int[] results) {
+    invokeBatchObjects(thisObj, columns, results, results.length, RESULT_TYPE_INT);
+  }
+
+  /**
+   * @see #invokeBatch(JSValue, Object[][], double[])
+   */
+  public void invokeBatch(@Nullable JSValue thisObj, Object[][] columns, boolean[] results) {
+    invokeBatchObjects(thisObj, columns, results, results.length, RESULT_TYPE_BOOLEAN);
+  }
+
+  private void checkColumns(@Nullable JSValue thisObj, Object[] columns, int count) {
+    if (columns == null) throw new NullPointerException("columns == null");
+    if (thisObj != null) checkSameJSContext(thisObj);
+    for (Object column : columns) {
+      if (column == null) throw new NullPointerException("column == null");
+      if (Array.getLength(column) < count) {
+        throw new IllegalArgumentException("Column length " + Array.getLength(column) + " < " + count);
+      }
+    }
+  }
+
+  private void invokeBatchColumns(@Nullable JSValue thisObj, Object[] columns, boolean intColumns, Object results, int count, int resultType) {
+    checkColumns(thisObj, columns, count);
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      int result = QuickJS.invokeValueFunctionBatch(context, pointer, thisObj != null ? thisObj.pointer : 0,
+          columns, intColumns, count, resultType, results);
+      if (result < 0) throw jsContext.createEvaluationException();
+    }
+  }
+
+  private void invokeBatchRows(@Nullable JSValue thisObj, ByteBuffer rows, int argCount, Object results, int count, int resultType) {
+    if (rows == null) throw new NullPointerException("rows == null");
+    if (!rows.isDirect()) throw new IllegalArgumentException("rows must be a direct buffer");
+    if (rows.order() != ByteOrder.nativeOrder()) throw new IllegalArgumentException("rows must be in native byte order");
+    if (argCount < 0) throw new IllegalArgumentException("argCount < 0");
+    if (rows.position() % 8 != 0) throw new IllegalArgumentException("rows position must be aligned to 8 bytes");
+    if ((long) argCount * count * 8 > rows.remaining()) {
+      throw new IllegalArgumentException("rows has " + rows.remaining() + " bytes remaining, but " + count + " rows are required");
+    }
+    if (thisObj != null) checkSameJSContext(thisObj);
+
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      int result = QuickJS.invokeValueFunctionBatchRows(context, pointer, thisObj != null ? thisObj.pointer : 0,
+          rows, rows.position(), argCount, count, resultType, results);
+      if (result < 0) throw jsContext.createEvaluationException();
+    }
+  }
+
+  private void invokeBatchObjects(@Nullable JSValue thisObj, Object[][] columns, Object results, int count, int resultType) {
+    checkColumns(thisObj, columns, count);
+    JSArguments arguments = new JSArguments(columns.length);
+
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      long[] result = jsContext.primitiveResult;
+      for (int row = 0; row < count; row++) {
+        arguments.clear();
+        for (Object[] column : columns) {
+          Object arg = column[row];
+          if (!arguments.addPrimitive(arg)) {
+            arguments.add(jsContext.quickJS.getAdapter(arg.getClass()).toJSValue(jsContext, arg));
+          }
+        }
+        arguments.checkSameJSContext(jsContext);
+
+        if (!invokeWithPrimitives(context, thisObj, arguments, resultType, result)) {
+          throw jsContext.createEvaluationException();
+        }
+        switch (resultType) {
+          case RESULT_TYPE_DOUBLE:
+            ((double[]) results)[row] = Double.longBitsToDouble(result[0]);
+            break;
+          case RESULT_TYPE_INT:
+            ((int[]) results)[row] = (int) result[0];
+            break;
+          default:
+            ((boolean[]) results)[row] = result[0] != 0;
+            break;
+        }
+      }
+    }
+  }
+
+  private long invokeForBits(@Nullable JSValue thisObj, Object args, int resultType) {
+    checkArguments(thisObj, args);
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      long[] result = jsContext.primitiveResult;
+      if (!invokeWithPrimitives(context, thisObj, args, resultType, result)) {
+        throw jsContext.createEvaluationException();
+      }
+      return result[0];
+    }
+  }
+
+  /**
+   * Calls the JavaScript function and drops the result.
+   */
+  void invokeForVoid(@Nullable JSValue thisObj, JSArguments args) {
+    invokeForBits(thisObj, args, RESULT_TYPE_VOID);
+  }
+
+  /**
+   * Calls the JavaScript function, returns the result converted by ToBoolean.
+   */
+  boolean invokeForTruthy(@Nullable JSValue thisObj, JSArguments args) {
+    return invokeForBits(thisObj, args, RESULT_TYPE_TRUTHY) != 0;
+  }
+
+  /**
+   * Calls the JavaScript function, returns the integral number or BigInt result.
+   *
+   * @throws JSDataException if the result can't be treated as long exactly
+   */
+  long invokeForLong(@Nullable JSValue thisObj, JSArguments args) {
+    return invokeForBits(thisObj, args, RESULT_TYPE_LONG);
+  }
+
+  @Nullable
+  private String invokeForString(@Nullable JSValue thisObj, Object args) {
+    return (String) invokeForObject(thisObj, args, RESULT_TYPE_STRING);
+  }
+
+  /**
+   * Calls the JavaScript function which returns an ArrayBuffer of int32 words,
+   * returns the words.
+   */
+  int[] invokeForIntArray(@Nullable JSValue thisObj, JSArguments args) {
+    return (int[]) invokeForObject(thisObj, args, RESULT_TYPE_INT_ARRAY);
+  }
+
+  @Nullable
+  private Object invokeForObject(@Nullable JSValue thisObj, Object args, int resultType) {
+    checkArguments(thisObj, args);
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      Object[] result = jsContext.objectResult;
+      if (!invokeWithPrimitives(context, thisObj, args, resultType, result)) {
+        throw jsContext.createEvaluationException();
+      }
+      Object object = result[0];
+      result[0] = null;
+      return object;
+    }
+  }
+
+  private void checkArguments(@Nullable JSValue thisObj, Object args) {
+    if (args == null) throw new NullPointerException("args == null");
+    // Check whether JSValues are from the same JSRuntime
+    if (thisObj != null) checkSameJSContext(thisObj);
+    if (args instanceof JSArguments) ((JSArguments) args).checkSameJSContext(jsContext);
+  }
+
+  private boolean invokeWithPrimitives(long context, @Nullable JSValue thisObj, Object args, int resultType, Object result) {
+    long thisPointer = thisObj != null ? thisObj.pointer : 0;
+    if (args instanceof double[]) {
+      return QuickJS.invokeValueFunctionWithDoubles(context, pointer, thisPointer, (double[]) args, resultType, result);
+    }
+    if (args instanceof long[]) {
+      return QuickJS.invokeValueFunctionWithLongs(context, pointer, thisPointer, (long[]) args, resultType, result);
+    }
+    JSArguments arguments = (JSArguments) args;
+    return QuickJS.invokeValueFunctionWithArguments(context, pointer, thisPointer,
+        arguments.types, arguments.values, arguments.objects, arguments.size, resultType, result);
+  }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * A java Iterator over a JavaScript iterator.
+ * Closing it before the end calls {@code return()} of the JavaScript iterator,
+ * like breaking a {@code for...of} loop.
+ *
+ * @see JSValue#asIterator(java.lang.reflect.Type, int)
+ */
+public interface JSIterator<T> extends Iterator<T>, Closeable {
+
+  /**
+   * Calls {@code return()} of the JavaScript iterator if it's not done,
+   * drops the elements not returned yet.
+   *
+   * @throws JSEvaluationException if {@code return()} throws
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A live java view of a JavaScript array.
+ * Elements are converted by the adapter when they are accessed.
+ * Only the last element could be added or removed.
+ */
+final class JSListView<T> extends AbstractList<T> implements RandomAccess {
+
+  private final JSArray array;
+  private final TypeAdapter<T> adapter;
+
+  JSListView(JSArray array, TypeAdapter<T> adapter) {
+    this.array = array;
+    this.adapter = adapter;
+  }
+
+  @Override
+  public T get(int index) {
+    checkIndex(index, size());
+    return adapter.fromJSValue(array.jsContext, array.getProperty(index));
+  }
+
+  @Override
+  public T set(int index, T element) {
+    T old = get(index);
+    array.setProperty(index, adapter.toJSValue(array.jsContext, element));
+    return old;
+  }
+
+  @Override
+  public void add(int index, T element) {
+    int size = size();
+    if (index != size) {
+      checkIndex(index, size);
+      throw new UnsupportedOperationException("Only the last element could be added");
+    }
+    array.setProperty(index, adapter.toJSValue(array.jsContext, element));
+    modCount++;
+  }
+
+  @Override
+  public T remove(int index) {
+    int size = size();
+    if (index != size - 1) {
+      checkIndex(index, size);
+      throw new UnsupportedOperationException("Only the last element could be removed");
+    }
+    T old = get(index);
+    array.setProperty("length", array.jsContext.createJSNumber(index));
+    modCount++;
+    return old;
+  }
+
+  @Override
+  public int size() {
+    return array.getLength();
+  }
+
+  private static void checkIndex(int index, int size) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A live java view of a JavaScript object.
+ * Keys are own enumerable string properties, values are converted by the adapter
+ * when they are accessed.
+ */
+final class JSMapView<T> extends AbstractMap<String, T> {
+
+  private final JSObject object;
+  private final TypeAdapter<T> adapter;
+  @Nullable
+  private Set<Map.Entry<String, T>> entrySet;
+
+  JSMapView(JSObject object, TypeAdapter<T> adapter) {
+    this.object = object;
+    this.adapter = adapter;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof String && object.hasOwnEnumerableProperty((String) key);
+  }
+
+  @Override
+  public T get(Object key) {
+    if (!containsKey(key)) return null;
+    return adapter.fromJSValue(object.jsContext, object.getProperty((String) key));
+  }
+
+  @Override
+  public T put(String key, T value) {
+    if (key == null) throw new NullPointerException("key == null");
+    T old = get(key);
+    object.setProperty(key, adapter.toJSValue(object.jsContext, value));
+    return old;
+  }
+
+  @Override
+  public T remove(Object key) {
+    if (!containsKey(key)) return null;
+    T old = get(key);
+    object.deleteProperty((String) key);
+    return old;
+  }
+
+  @Override
+  public int size() {
+    // Counts the names without converting them
+    return object.getOwnPropertyCount();
+  }
+
+  @Override
+  public Set<Map.Entry<String, T>> entrySet() {
+    Set<Map.Entry<String, T>> result = entrySet;
+    if (result == null) {
+      result = entrySet = new EntrySet();
+    }
+    return result;
+  }
+
+  private final class EntrySet extends AbstractSet<Map.Entry<String, T>> {
+
+    @Override
+    public Iterator<Map.Entry<String, T>> iterator() {
+      return new EntryIterator(object.getOwnPropertyNames());
+    }
+
+    @Override
+    public int size() {
+      return JSMapView.this.size();
+    }
+  }
+
+  private final class EntryIterator implements Iterator<Map.Entry<String, T>> {
+
+    // A snapshot of keys, values are read when they are accessed
+    private final String[] keys;
+    private int index;
+    @Nullable
+    private String lastKey;
+
+    EntryIterator(String[] keys) {
+      this.keys = keys;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return index < keys.length;
+    }
+
+    @Override
+    public Map.Entry<String, T> next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      String key = keys[index++];
+      lastKey = key;
+      return new Entry(key);
+    }
+
+    @Override
+    public void remove() {
+      if (lastKey == null) throw new IllegalStateException();
+      object.deleteProperty(lastKey);
+      lastKey = null;
+    }
+  }
+
+  private final class Entry implements Map.Entry<String, T> {
+
+    private final String key;
+
+    Entry(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public T getValue() {
+      return get(key);
+    }
+
+    @Override
+    public T setValue(T value) {
+      return put(key, value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) return false;
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      T value = getValue();
+      return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      T value = getValue();
+      return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+    }
+  }
+}
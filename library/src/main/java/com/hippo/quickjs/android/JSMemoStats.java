@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+/**
+ * A snapshot of the cache statistics of a memoized function.
+ *
+ * @see JSContext#memoize(JSFunction, int)
+ */
+public final class JSMemoStats {
+
+  // Keep them in sync with memoized-function.h
+  static final int FIELD_COUNT = 5;
+  private static final int HITS = 0;
+  private static final int MISSES = 1;
+  private static final int BYPASSES = 2;
+  private static final int EVICTIONS = 3;
+  private static final int SIZE = 4;
+
+  private final long[] stats;
+
+  JSMemoStats(long[] stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Returns the number of calls answered by the cache.
+   */
+  public long getHitCount() {
+    return stats[HITS];
+  }
+
+  /**
+   * Returns the number of cacheable calls which ran the function.
+   */
+  public long getMissCount() {
+    return stats[MISSES];
+  }
+
+  /**
+   * Returns the number of calls with arguments other than primitives or strings.
+   * They always run the function.
+   */
+  public long getBypassCount() {
+    return stats[BYPASSES];
+  }
+
+  /**
+   * Returns the number of results dropped to keep the cache bounded.
+   */
+  public long getEvictionCount() {
+    return stats[EVICTIONS];
+  }
+
+  /**
+   * Returns the number of cached results.
+   */
+  public int getSize() {
+    return (int) stats[SIZE];
+  }
+
+  @Override
+  public String toString() {
+    return "JSMemoStats{hits=" + stats[HITS] + ", misses=" + stats[MISSES] + ", bypasses=" + stats[BYPASSES]
+        + ", evictions=" + stats[EVICTIONS] + ", size=" + stats[SIZE] + "}";
+  }
+}
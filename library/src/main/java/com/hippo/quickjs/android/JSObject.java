@@ -16,6 +16,9 @@
 
 package com.hippo.quickjs.android;
 
+import java.lang.reflect.Type;
+import java.util.Map;
+
 /**
  * JavaScript object.
  */
@@ -64,6 +67,166 @@ public class JSObject extends JSValue {
     }
   }
 
+  /**
+   * Returns the properties as JSValues, in the order of the keys.
+   * All properties are read in one native call.
+   *
+   * @throws JSEvaluationException if the cannot read any property of this JSValue.
+   */
+  public JSValue[] getProperties(JSPropertyKeys keys) {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      long atoms = jsContext.jsRuntime.getPropertyKeys(context, keys);
+      long[] properties = QuickJS.getValueProperties(context, pointer, atoms);
+      if (properties == null) {
+        throw jsContext.createEvaluationException();
+      }
+      return jsContext.wrapAsJSValues(properties);
+    }
+  }
+
+  /**
+   * Reads the columns of the names to new Java arrays with one native call.
+   * The types are {@code int[].class}, {@code long[].class}, {@code float[].class}
+   * and {@code double[].class}. A typed array of the matching element type is copied
+   * as a whole, other array-likes are converted element by element.
+   *
+   * @return the arrays, in the order of the names
+   * @throws JSEvaluationException if any column cannot be read
+   * @see JSContext#createJSColumns(String[], Object[])
+   */
+  public Object[] getColumns(String[] names, Class<?>[] types) {
+    if (names == null) throw new NullPointerException("names == null");
+    if (types == null) throw new NullPointerException("types == null");
+    if (names.length != types.length) {
+      throw new IllegalArgumentException("names.length != types.length");
+    }
+
+    int[] kinds = new int[types.length];
+    for (int i = 0; i < types.length; i++) {
+      if (names[i] == null) throw new NullPointerException("name == null");
+      if (!types[i].isArray()) {
+        throw new IllegalArgumentException("Unsupported column type: " + types[i].getName());
+      }
+      kinds[i] = JSContext.columnKind(types[i]);
+    }
+
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      Object[] columns = QuickJS.getValueColumns(context, pointer, names, kinds);
+      if (columns == null) {
+        throw jsContext.createEvaluationException();
+      }
+      return columns;
+    }
+  }
+
+  /**
+   * Returns the properties of the names with one native call.
+   */
+  JSValue[] getProperties(String[] names) {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      long[] properties = QuickJS.getValuePropertiesByNames(context, pointer, names);
+      if (properties == null) {
+        throw jsContext.createEvaluationException();
+      }
+      return jsContext.wrapAsJSValues(properties);
+    }
+  }
+
+  /**
+   * Returns the elements of this iterable object with one native call.
+   * Entries, like the ones of a Map, are flattened as key, value, key, value...
+   */
+  JSValue[] getElements(boolean entries) {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      long[] elements = QuickJS.getValueElements(context, pointer, entries);
+      if (elements == null) {
+        throw jsContext.createEvaluationException();
+      }
+      return jsContext.wrapAsJSValues(elements);
+    }
+  }
+
+  /**
+   * Returns {@code true} if this object is an instance of the global constructor.
+   */
+  boolean isInstanceOf(String constructor) {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      int result = QuickJS.isValueInstanceOf(context, pointer, constructor);
+      if (result < 0) {
+        throw jsContext.createEvaluationException();
+      }
+      return result != 0;
+    }
+  }
+
+  /**
+   * Returns the names of own enumerable string properties.
+   */
+  String[] getOwnPropertyNames() {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      String[] names = QuickJS.getValueOwnPropertyNames(context, pointer);
+      if (names == null) {
+        throw jsContext.createEvaluationException();
+      }
+      return names;
+    }
+  }
+
+  /**
+   * Returns the count of own enumerable string properties.
+   */
+  int getOwnPropertyCount() {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      int count = QuickJS.getValueOwnPropertyCount(context, pointer);
+      if (count < 0) {
+        throw jsContext.createEvaluationException();
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Returns {@code true} if it has the own enumerable property.
+   */
+  boolean hasOwnEnumerableProperty(String name) {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      int result = QuickJS.hasValueOwnEnumerableProperty(context, pointer, name);
+      if (result < 0) {
+        throw jsContext.createEvaluationException();
+      }
+      return result != 0;
+    }
+  }
+
+  void deleteProperty(String name) {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      if (!QuickJS.deleteValueProperty(context, pointer, name)) {
+        throw jsContext.createEvaluationException();
+      }
+    }
+  }
+
+  /**
+   * Returns the time value of this Date, milliseconds since the epoch.
+   *
+   * @throws JSDataException if it's not a Date
+   */
+  public double getDateTime() {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      return QuickJS.getValueDateTime(context, pointer);
+    }
+  }
+
   /**
    * Sets JSValue as a property.
    */
@@ -72,7 +235,7 @@ public class JSObject extends JSValue {
     synchronized (jsContext.jsRuntime) {
       jsContext.checkClosed();
       if (!QuickJS.setValueProperty(jsContext.pointer, pointer, index, jsValue.pointer)) {
-        throw new JSEvaluationException(QuickJS.getException(jsContext.pointer));
+        throw jsContext.createEvaluationException();
       }
     }
   }
@@ -85,11 +248,20 @@ public class JSObject extends JSValue {
     synchronized (jsContext.jsRuntime) {
       jsContext.checkClosed();
       if (!QuickJS.setValueProperty(jsContext.pointer, pointer, name, jsValue.pointer)) {
-        throw new JSEvaluationException(QuickJS.getException(jsContext.pointer));
+        throw jsContext.createEvaluationException();
       }
     }
   }
 
+  /**
+   * Returns a live map view of own enumerable string properties of this object.
+   * Values are converted by the adapter of the value type when they are accessed.
+   */
+  public <T> Map<String, T> asMap(Type valueType) {
+    TypeAdapter<T> adapter = jsContext.quickJS.<T>getAdapter(valueType).nullable();
+    return new JSMapView<>(this, adapter);
+  }
+
   /**
    * Defines a new property directly on an object, or modifies an existing property on this object.
    */
@@ -100,7 +272,7 @@ public class JSObject extends JSValue {
     synchronized (jsContext.jsRuntime) {
       jsContext.checkClosed();
       if (!QuickJS.defineValueProperty(jsContext.pointer, pointer, index, jsValue.pointer, flags)) {
-        throw new JSEvaluationException(QuickJS.getException(jsContext.pointer));
+        throw jsContext.createEvaluationException();
       }
     }
   }
@@ -115,7 +287,7 @@ public class JSObject extends JSValue {
     synchronized (jsContext.jsRuntime) {
       jsContext.checkClosed();
       if (!QuickJS.defineValueProperty(jsContext.pointer, pointer, name, jsValue.pointer, flags)) {
-        throw new JSEvaluationException(QuickJS.getException(jsContext.pointer));
+        throw jsContext.createEvaluationException();
       }
     }
   }
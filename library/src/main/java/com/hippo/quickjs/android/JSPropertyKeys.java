@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import java.util.Arrays;
+
+/**
+ * A fixed list of property names.
+ * The names are interned as atoms once per {@link JSRuntime},
+ * so reading or writing all the properties of an object
+ * crosses JNI only once, without converting names again.
+ * Keep the instance in a static field to share the atoms.
+ * The atoms are released after the instance is recycled by GC.
+ *
+ * @see JSObject#getProperties(JSPropertyKeys)
+ * @see JSContext#createJSObject(JSPropertyKeys, JSValue[])
+ */
+public final class JSPropertyKeys {
+
+  final String[] names;
+
+  private JSPropertyKeys(String[] names) {
+    this.names = names;
+  }
+
+  public static JSPropertyKeys of(String... names) {
+    String[] copy = names.clone();
+    for (String name : copy) {
+      if (name == null) throw new NullPointerException("name == null");
+    }
+    return new JSPropertyKeys(copy);
+  }
+
+  public int size() {
+    return names.length;
+  }
+
+  public String get(int index) {
+    return names[index];
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(names);
+  }
+}
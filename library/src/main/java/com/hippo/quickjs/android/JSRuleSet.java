@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Named JavaScript predicates compiled into one function.
+ * All rules are evaluated against an input with one call,
+ * the input is converted only once.
+ *
+ * @see JSContext#compileRuleSet(String, java.util.Map, java.lang.reflect.Type)
+ */
+public final class JSRuleSet {
+
+  private final JSContext jsContext;
+  private final JSFunction function;
+  private final List<String> names;
+  private final TypeAdapter<Object> inputAdapter;
+
+  JSRuleSet(JSContext jsContext, JSFunction function, String[] names, TypeAdapter<Object> inputAdapter) {
+    this.jsContext = jsContext;
+    this.function = function;
+    this.names = Collections.unmodifiableList(Arrays.asList(names));
+    this.inputAdapter = inputAdapter;
+  }
+
+  /**
+   * Returns the names of the rules, the index of a rule is its index in the list.
+   */
+  public List<String> getNames() {
+    return names;
+  }
+
+  public int size() {
+    return names.size();
+  }
+
+  /**
+   * Evaluates all rules against the input, returns the indexes of the matched rules.
+   *
+   * @throws JSEvaluationException if any rule throws
+   */
+  public BitSet evaluate(@Nullable Object input) {
+    int[] words = evaluateWords(input);
+    BitSet result = new BitSet(names.size());
+    for (int i = 0; i < words.length; i++) {
+      for (int word = words[i]; word != 0; word &= word - 1) {
+        result.set(i * 32 + Integer.numberOfTrailingZeros(word));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Evaluates all rules against the input, returns the indexes of the matched rules in ascending order.
+   *
+   * @throws JSEvaluationException if any rule throws
+   */
+  public int[] evaluateMatches(@Nullable Object input) {
+    int[] words = evaluateWords(input);
+    int count = 0;
+    for (int word : words) {
+      count += Integer.bitCount(word);
+    }
+    int[] result = new int[count];
+    int index = 0;
+    for (int i = 0; i < words.length; i++) {
+      for (int word = words[i]; word != 0; word &= word - 1) {
+        result[index++] = i * 32 + Integer.numberOfTrailingZeros(word);
+      }
+    }
+    return result;
+  }
+
+  private int[] evaluateWords(@Nullable Object input) {
+    synchronized (jsContext.jsRuntime) {
+      JSValue value = inputAdapter.toJSValue(jsContext, input);
+      return function.invokeForIntArray(null, new JSArguments(1).add(value));
+    }
+  }
+}
@@ -19,6 +19,13 @@ package com.hippo.quickjs.android;
 import androidx.annotation.Nullable;
 
 import java.io.Closeable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 // TODO Check all JSContext closed when closing JSRuntime
 
@@ -32,10 +39,19 @@ public class JSRuntime implements Closeable {
 
   private long pointer;
   private final QuickJS quickJS;
+  final JavaObjectRegistry registry;
+  private final Map<JavaMethodKey, Long> javaMethodDescriptors = new HashMap<>();
+  private final Map<OverloadsKey, Long> overloadsDescriptors = new HashMap<>();
+  // JSPropertyKeys doesn't override equals, so it's looked up by identity
+  private final Map<JSPropertyKeys, Long> propertyKeys = new WeakHashMap<>();
+  private final NativeCleaner<JSPropertyKeys> propertyKeysCleaner = new PropertyKeysCleaner();
+  private final Map<JSBinder<?>, Long> binderDescriptors = new IdentityHashMap<>();
+  private final Map<Class<?>, Long> javaHostClasses = new HashMap<>();
 
-  JSRuntime(long pointer, QuickJS quickJS) {
+  JSRuntime(long pointer, QuickJS quickJS, JavaObjectRegistry registry) {
     this.pointer = pointer;
     this.quickJS = quickJS;
+    this.registry = registry;
   }
 
   private void checkClosed() {
@@ -77,18 +93,230 @@ public class JSRuntime implements Closeable {
     if (context == 0) {
       throw new IllegalStateException("Cannot create JSContext instance");
     }
-    return new JSContext(context, quickJS, this);
+    JSContext jsContext = new JSContext(context, quickJS, this);
+    QuickJS.setContextOpaque(context, jsContext);
+    return jsContext;
+  }
+
+  /**
+   * Returns the native descriptor of the java method.
+   * The jmethodID and type references are resolved only once,
+   * all JavaScript functions of the method share the descriptor.
+   */
+  synchronized long getJavaMethodDescriptor(Class<?> clazz, JavaMethod method, boolean isStatic, boolean isCallbackMethod) {
+    checkClosed();
+
+    JavaMethodKey key = new JavaMethodKey(clazz, method, isStatic, isCallbackMethod);
+    Long descriptor = javaMethodDescriptors.get(key);
+    if (descriptor != null) return descriptor;
+
+    long newDescriptor;
+    if (isCallbackMethod) {
+      newDescriptor = QuickJS.createJavaMethodDescriptorWithInvoker(pointer, null, JavaMethodInvoker.CALLBACK);
+    } else if (quickJS.upcallDispatcherEnabled) {
+      JavaMethodInvoker invoker = JavaMethodInvoker.create(quickJS, clazz, method);
+      newDescriptor = QuickJS.createJavaMethodDescriptorWithInvoker(pointer, isStatic ? null : clazz, invoker);
+    } else {
+      newDescriptor = QuickJS.createJavaMethodDescriptor(pointer, clazz, isStatic,
+          method.name, method.getSignature(), method.returnType, method.parameterTypes);
+    }
+    if (newDescriptor == 0) {
+      throw new IllegalStateException("Cannot create JavaMethodDescriptor");
+    }
+    javaMethodDescriptors.put(key, newDescriptor);
+    return newDescriptor;
+  }
+
+  /**
+   * Returns the native descriptor choosing one of the overloads on each call.
+   * All methods must have the same name.
+   */
+  synchronized long getJavaMethodOverloadsDescriptor(Class<?> clazz, List<JavaMethod> methods, boolean isStatic) {
+    if (methods.size() == 1) return getJavaMethodDescriptor(clazz, methods.get(0), isStatic, false);
+
+    checkClosed();
+
+    OverloadsKey key = new OverloadsKey(clazz, methods, isStatic);
+    Long descriptor = overloadsDescriptors.get(key);
+    if (descriptor != null) return descriptor;
+
+    OverloadInvoker invoker = OverloadInvoker.create(quickJS, clazz, methods);
+    long newDescriptor = QuickJS.createJavaMethodDescriptorWithInvoker(pointer, isStatic ? null : clazz, invoker);
+    if (newDescriptor == 0) {
+      throw new IllegalStateException("Cannot create JavaMethodDescriptor");
+    }
+    overloadsDescriptors.put(key, newDescriptor);
+    return newDescriptor;
+  }
+
+  /**
+   * Returns the native descriptor dispatching all members of the JSBinder.
+   */
+  synchronized long getJSBinderDescriptor(JSBinder<?> binder) {
+    checkClosed();
+
+    Long descriptor = binderDescriptors.get(binder);
+    if (descriptor != null) return descriptor;
+
+    long newDescriptor = QuickJS.createJavaMethodDescriptorWithInvoker(pointer, null, binder.invoker);
+    if (newDescriptor == 0) {
+      throw new IllegalStateException("Cannot create JavaMethodDescriptor");
+    }
+    binderDescriptors.put(binder, newDescriptor);
+    return newDescriptor;
+  }
+
+  /**
+   * Returns the native metadata of the class for host objects.
+   * Members are resolved only once, all contexts share the metadata.
+   */
+  synchronized long getJavaHostClass(Class<?> clazz) {
+    checkClosed();
+
+    Long hostClass = javaHostClasses.get(clazz);
+    if (hostClass != null) return hostClass;
+
+    long newHostClass = QuickJS.createJavaHostClass(pointer, clazz);
+    if (newHostClass == 0) {
+      throw new IllegalStateException("Cannot create JavaHostClass");
+    }
+    javaHostClasses.put(clazz, newHostClass);
+    return newHostClass;
+  }
+
+  /**
+   * Frees the functions of host object methods cached for the context.
+   */
+  synchronized void closeJavaHostClasses(long context) {
+    for (long hostClass : javaHostClasses.values()) {
+      QuickJS.closeJavaHostClassContext(context, hostClass);
+    }
+  }
+
+  /**
+   * Returns the native atoms of the property keys.
+   * Atoms are shared by all contexts, they are interned only once,
+   * and released after the JSPropertyKeys is recycled by GC.
+   */
+  synchronized long getPropertyKeys(long context, JSPropertyKeys keys) {
+    checkClosed();
+    propertyKeysCleaner.clean();
+
+    Long atoms = propertyKeys.get(keys);
+    if (atoms != null) return atoms;
+
+    long newAtoms = QuickJS.createPropertyKeys(context, keys.names);
+    if (newAtoms == 0) {
+      throw new IllegalStateException("Cannot create property keys");
+    }
+    propertyKeys.put(keys, newAtoms);
+    propertyKeysCleaner.register(keys, newAtoms);
+    return newAtoms;
+  }
+
+  synchronized int getPropertyKeysCount() {
+    return propertyKeysCleaner.size();
   }
 
   @Override
   public synchronized void close() {
     if (pointer != 0) {
+      propertyKeysCleaner.forceClean();
+      propertyKeys.clear();
       long runtimeToClose = pointer;
       pointer = 0;
+      // JavaScript functions still in the runtime keep their own references
+      for (long descriptor : javaMethodDescriptors.values()) {
+        QuickJS.releaseJavaMethodDescriptor(runtimeToClose, descriptor);
+      }
+      javaMethodDescriptors.clear();
+      for (long descriptor : overloadsDescriptors.values()) {
+        QuickJS.releaseJavaMethodDescriptor(runtimeToClose, descriptor);
+      }
+      overloadsDescriptors.clear();
+      for (long descriptor : binderDescriptors.values()) {
+        QuickJS.releaseJavaMethodDescriptor(runtimeToClose, descriptor);
+      }
+      binderDescriptors.clear();
+      // Host objects still in the runtime keep their own references
+      for (long hostClass : javaHostClasses.values()) {
+        QuickJS.releaseJavaHostClass(runtimeToClose, hostClass);
+      }
+      javaHostClasses.clear();
       QuickJS.destroyRuntime(runtimeToClose);
     }
   }
 
+  private static final class JavaMethodKey {
+    private final Class<?> clazz;
+    private final JavaMethod method;
+    private final boolean isStatic;
+    private final boolean isCallbackMethod;
+
+    JavaMethodKey(Class<?> clazz, JavaMethod method, boolean isStatic, boolean isCallbackMethod) {
+      this.clazz = clazz;
+      this.method = method;
+      this.isStatic = isStatic;
+      this.isCallbackMethod = isCallbackMethod;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = clazz.hashCode();
+      result = 31 * result + method.hashCode();
+      result = 31 * result + (isStatic ? 1 : 0);
+      result = 31 * result + (isCallbackMethod ? 1 : 0);
+      return result;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (!(obj instanceof JavaMethodKey)) return false;
+      JavaMethodKey other = (JavaMethodKey) obj;
+      return clazz == other.clazz
+          && method.equals(other.method)
+          && isStatic == other.isStatic
+          && isCallbackMethod == other.isCallbackMethod;
+    }
+  }
+
+  private static final class OverloadsKey {
+    private final Class<?> clazz;
+    private final Set<JavaMethod> methods;
+    private final boolean isStatic;
+
+    OverloadsKey(Class<?> clazz, List<JavaMethod> methods, boolean isStatic) {
+      this.clazz = clazz;
+      this.methods = new HashSet<>(methods);
+      this.isStatic = isStatic;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = clazz.hashCode();
+      result = 31 * result + methods.hashCode();
+      result = 31 * result + (isStatic ? 1 : 0);
+      return result;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (!(obj instanceof OverloadsKey)) return false;
+      OverloadsKey other = (OverloadsKey) obj;
+      return clazz == other.clazz
+          && methods.equals(other.methods)
+          && isStatic == other.isStatic;
+    }
+  }
+
+  private class PropertyKeysCleaner extends NativeCleaner<JSPropertyKeys> {
+
+    @Override
+    public void onRemove(long pointer) {
+      QuickJS.releasePropertyKeys(JSRuntime.this.pointer, pointer);
+    }
+  }
+
   public interface InterruptHandler {
     /**
      * Returns {@code true} to interrupt.
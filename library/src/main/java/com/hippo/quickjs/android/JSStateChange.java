@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A change to a tracked state, the path is a JSON Pointer like {@code "/user/name"}.
+ *
+ * @see JSStateTracker
+ */
+public final class JSStateChange {
+
+  private final String path;
+  @Nullable
+  private final JSValue value;
+
+  private JSStateChange(String path, @Nullable JSValue value) {
+    if (path == null) throw new NullPointerException("path == null");
+    if (!path.startsWith("/")) throw new IllegalArgumentException("Invalid path: " + path);
+    this.path = path;
+    this.value = value;
+  }
+
+  /**
+   * Creates a change setting the property of the path to the value.
+   */
+  public static JSStateChange set(String path, JSValue value) {
+    if (value == null) throw new NullPointerException("value == null");
+    return new JSStateChange(path, value);
+  }
+
+  /**
+   * Creates a change deleting the property of the path.
+   */
+  public static JSStateChange delete(String path) {
+    return new JSStateChange(path, null);
+  }
+
+  /**
+   * Returns the path of the keys, {@code '~'} and {@code '/'} in keys are escaped.
+   */
+  public static String path(String... keys) {
+    if (keys.length == 0) throw new IllegalArgumentException("No keys");
+    StringBuilder sb = new StringBuilder();
+    for (String key : keys) {
+      if (key == null) throw new NullPointerException("key == null");
+      sb.append('/').append(key.replace("~", "~0").replace("/", "~1"));
+    }
+    return sb.toString();
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Returns the unescaped keys of the path.
+   */
+  public String[] getKeys() {
+    String[] keys = path.substring(1).split("/", -1);
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = keys[i].replace("~1", "/").replace("~0", "~");
+    }
+    return keys;
+  }
+
+  /**
+   * Returns {@code true} if the property of the path is deleted.
+   */
+  public boolean isDeleted() {
+    return value == null;
+  }
+
+  /**
+   * Returns the new value, or {@code null} if the property is deleted.
+   */
+  @Nullable
+  public JSValue getValue() {
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return value == null ? "-" + path : path + "=" + value;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tracks the changes to a JavaScript state object.
+ * Scripts must modify the state through {@link #getState()}.
+ * Changes are exchanged by path in one call for each direction.
+ *
+ * @see JSContext#trackState(JSObject)
+ */
+public final class JSStateTracker {
+
+  private final JSContext jsContext;
+  private final JSObject state;
+  private final JSFunction take;
+  private final JSFunction apply;
+
+  JSStateTracker(JSContext jsContext, JSObject state, JSFunction take, JSFunction apply) {
+    this.jsContext = jsContext;
+    this.state = state;
+    this.take = take;
+    this.apply = apply;
+  }
+
+  /**
+   * Returns the proxy of the state recording changes.
+   * Nested objects read from it are proxies too.
+   */
+  public JSObject getState() {
+    return state;
+  }
+
+  /**
+   * Returns the changes since the last call, in the order of their last writes.
+   * Writes to the same path are merged, writes of the same value are ignored.
+   */
+  public List<JSStateChange> takeChanges() {
+    JSValue[] elements = take.invoke(null, new JSValue[0]).cast(JSArray.class).getElements(false);
+    String header = elements[0].cast(JSString.class).getString();
+    if (header.isEmpty()) return Collections.emptyList();
+
+    List<JSStateChange> changes = new ArrayList<>(elements.length - 1);
+    int offset = 0;
+    for (int i = 1; offset < header.length(); i++) {
+      boolean deleted = header.charAt(offset) == '-';
+      int colon = header.indexOf(':', offset);
+      int length = Integer.parseInt(header.substring(offset + 1, colon));
+      String path = header.substring(colon + 1, colon + 1 + length);
+      offset = colon + 1 + length;
+      changes.add(deleted ? JSStateChange.delete(path) : JSStateChange.set(path, elements[i]));
+    }
+    return changes;
+  }
+
+  /**
+   * Applies the changes to the state in one call, they are not reported by {@link #takeChanges()}.
+   * Pending changes of the same paths or below are dropped.
+   *
+   * @throws JSEvaluationException if the parent of any path is not an object
+   */
+  public void applyChanges(List<JSStateChange> changes) {
+    if (changes.isEmpty()) return;
+
+    StringBuilder header = new StringBuilder();
+    JSValue[] delta = new JSValue[changes.size() + 1];
+    JSValue undefined = jsContext.createJSUndefined();
+    for (int i = 0; i < changes.size(); i++) {
+      JSStateChange change = changes.get(i);
+      JSValue value = change.getValue();
+      if (value != null && value.jsContext != jsContext) {
+        throw new IllegalStateException("The JSValue is not from this JSContext");
+      }
+      String path = change.getPath();
+      header.append(value == null ? '-' : '+').append(path.length()).append(':').append(path);
+      delta[i + 1] = value == null ? undefined : value;
+    }
+    delta[0] = jsContext.createJSString(header.toString());
+
+    apply.invoke(null, new JSValue[] { jsContext.createJSArray(delta) });
+  }
+}
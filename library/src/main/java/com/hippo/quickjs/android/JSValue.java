@@ -16,6 +16,8 @@
 
 package com.hippo.quickjs.android;
 
+import java.lang.reflect.Type;
+
 // TODO Make JSValue closeable?
 
 /**
@@ -24,6 +26,8 @@ package com.hippo.quickjs.android;
  */
 public abstract class JSValue {
 
+  static final int DEFAULT_ITERATOR_BATCH_SIZE = 64;
+
   final long pointer;
   final JSContext jsContext;
 
@@ -46,6 +50,37 @@ public abstract class JSValue {
     }
   }
 
+  /**
+   * Iterates this iterable value, like a JavaScript array, Set or generator.
+   *
+   * @see #asIterator(Type, int)
+   */
+  public final <T> JSIterator<T> asIterator(Type type) {
+    return asIterator(type, DEFAULT_ITERATOR_BATCH_SIZE);
+  }
+
+  /**
+   * Iterates this iterable value, like a JavaScript array, Set or generator.
+   * Elements are pulled from the JavaScript iterator in chunks of the batch size,
+   * and converted to the type when they are returned.
+   * The JavaScript iterator is created by {@code this[Symbol.iterator]()} now.
+   * Closing the returned iterator before the end calls {@code return()} of the JavaScript iterator.
+   *
+   * @throws JSEvaluationException if this value is not iterable
+   */
+  public final <T> JSIterator<T> asIterator(Type type, int batchSize) {
+    return asIterator(jsContext.quickJS.<T>getAdapter(type), batchSize);
+  }
+
+  final <T> JSIterator<T> asIterator(TypeAdapter<T> adapter, int batchSize) {
+    if (batchSize <= 0) throw new IllegalArgumentException("Invalid batchSize: " + batchSize);
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      long iterator = QuickJS.getValueIterator(context, pointer);
+      return new JSValueIterator<>(jsContext, jsContext.wrapAsJSValue(iterator), adapter, batchSize);
+    }
+  }
+
   /**
    * @throws IllegalStateException if two JSValues are not from the same JSContext
    */
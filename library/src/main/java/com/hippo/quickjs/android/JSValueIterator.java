@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The JSIterator of {@link JSValue#asIterator(java.lang.reflect.Type, int)}.
+ * Elements are pulled in chunks with one native call,
+ * and converted one by one when they are returned.
+ */
+final class JSValueIterator<T> implements JSIterator<T> {
+
+  private final JSContext jsContext;
+  private final JSValue iterator;
+  private final TypeAdapter<T> adapter;
+  private final long[] pointers;
+  private final JSValue[] elements;
+  private int index;
+  private int size;
+  private boolean done;
+
+  JSValueIterator(JSContext jsContext, JSValue iterator, TypeAdapter<T> adapter, int batchSize) {
+    this.jsContext = jsContext;
+    this.iterator = iterator;
+    this.adapter = adapter;
+    this.pointers = new long[batchSize];
+    this.elements = new JSValue[batchSize];
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (index < size) return true;
+    if (done) return false;
+    pull();
+    return index < size;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) throw new NoSuchElementException();
+    JSValue element = elements[index];
+    // Don't hold returned elements
+    elements[index++] = null;
+    return adapter.fromJSValue(jsContext, element);
+  }
+
+  @Override
+  public void close() {
+    for (int i = index; i < size; i++) {
+      elements[i] = null;
+    }
+    index = 0;
+    size = 0;
+    if (done) return;
+    done = true;
+
+    synchronized (jsContext.jsRuntime) {
+      // Nothing to return if the JSContext is closed
+      if (jsContext.pointer == 0) return;
+      JSValue returnMethod = iterator.cast(JSObject.class).getProperty("return");
+      if (returnMethod instanceof JSFunction) {
+        ((JSFunction) returnMethod).invoke(iterator, new JSValue[0]);
+      }
+    }
+  }
+
+  private void pull() {
+    synchronized (jsContext.jsRuntime) {
+      long context = jsContext.checkClosed();
+      int count = QuickJS.getIteratorElements(context, iterator.pointer, pointers);
+      if (count < 0) {
+        done = true;
+        throw jsContext.createEvaluationException();
+      }
+      for (int i = 0; i < count; i++) {
+        elements[i] = jsContext.wrapAsJSValue(pointers[i]);
+      }
+      index = 0;
+      size = count;
+      // The iterator is done if the chunk isn't full
+      done = count < pointers.length;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The java side of a live JavaScript view of a java collection.
+ * Elements are converted when they are accessed, the collection itself is never copied.
+ * Called by native code with the lock of the JSRuntime held.
+ * Adapters must be nullable.
+ */
+abstract class JavaCollectionView {
+
+  final Object collection;
+
+  JavaCollectionView(Object collection) {
+    this.collection = collection;
+  }
+
+  /**
+   * Returns the pointer of the element, or {@code 0} if there is no such element.
+   * The JSValue is kept by the cleaner until native code duplicates it.
+   */
+  abstract long get(JSContext context, int index, @Nullable String name);
+
+  /**
+   * Sets the element, returns {@code false} if it's not supported.
+   * The JSValue pointer is owned by java now.
+   */
+  abstract boolean set(JSContext context, int index, @Nullable String name, long value);
+
+  abstract boolean has(int index, @Nullable String name);
+
+  abstract boolean delete(int index, @Nullable String name);
+
+  abstract int size();
+
+  /**
+   * Indexes are elements, names are read from the prototype.
+   * Setting the element at the size appends it, setting the length truncates it.
+   * Own property names are the indexes and length, native code lists them by the size.
+   */
+  static final class ListView extends JavaCollectionView {
+
+    private final List<Object> list;
+    private final TypeAdapter<Object> adapter;
+
+    @SuppressWarnings("unchecked")
+    ListView(List<?> list, TypeAdapter<?> adapter) {
+      super(list);
+      this.list = (List<Object>) list;
+      this.adapter = (TypeAdapter<Object>) adapter;
+    }
+
+    @Override
+    long get(JSContext context, int index, @Nullable String name) {
+      if (name != null || index < 0 || index >= list.size()) return 0;
+      return adapter.toJSValue(context, list.get(index)).pointer;
+    }
+
+    @Override
+    boolean set(JSContext context, int index, @Nullable String name, long value) {
+      JSValue jsValue = context.wrapAsJSValue(value);
+      int size = list.size();
+      if (name != null || index < 0 || index > size) return false;
+      Object element = adapter.fromJSValue(context, jsValue);
+      try {
+        if (index == size) {
+          list.add(element);
+        } else {
+          list.set(index, element);
+        }
+        return true;
+      } catch (UnsupportedOperationException e) {
+        return false;
+      }
+    }
+
+    @Override
+    boolean has(int index, @Nullable String name) {
+      return name == null && index >= 0 && index < list.size();
+    }
+
+    @Override
+    boolean delete(int index, @Nullable String name) {
+      // Names are in the prototype
+      if (name != null || !has(index, null)) return true;
+      // Elements can't be holes, only the last one could be deleted,
+      // which is enough for pop(), shift() and splice()
+      if (index != list.size() - 1) return false;
+      try {
+        list.remove(index);
+        return true;
+      } catch (UnsupportedOperationException e) {
+        return false;
+      }
+    }
+
+    @Override
+    int size() {
+      return list.size();
+    }
+
+    /**
+     * Truncates the list, returns {@code false} if it's not supported.
+     */
+    boolean setSize(int size) {
+      int oldSize = list.size();
+      if (size < 0 || size > oldSize) return false;
+      if (size == oldSize) return true;
+      try {
+        list.subList(size, oldSize).clear();
+        return true;
+      } catch (UnsupportedOperationException e) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * String keys are properties, others are read from the prototype.
+   */
+  static final class MapView extends JavaCollectionView {
+
+    private final Map<String, Object> map;
+    private final TypeAdapter<Object> adapter;
+
+    @SuppressWarnings("unchecked")
+    MapView(Map<String, ?> map, TypeAdapter<?> adapter) {
+      super(map);
+      this.map = (Map<String, Object>) map;
+      this.adapter = (TypeAdapter<Object>) adapter;
+    }
+
+    private static String toKey(int index, @Nullable String name) {
+      return name != null ? name : Integer.toString(index);
+    }
+
+    @Override
+    long get(JSContext context, int index, @Nullable String name) {
+      String key = toKey(index, name);
+      Object element = map.get(key);
+      if (element == null && !map.containsKey(key)) return 0;
+      return adapter.toJSValue(context, element).pointer;
+    }
+
+    @Override
+    boolean set(JSContext context, int index, @Nullable String name, long value) {
+      JSValue jsValue = context.wrapAsJSValue(value);
+      Object element = adapter.fromJSValue(context, jsValue);
+      try {
+        map.put(toKey(index, name), element);
+        return true;
+      } catch (UnsupportedOperationException e) {
+        return false;
+      }
+    }
+
+    @Override
+    boolean has(int index, @Nullable String name) {
+      return map.containsKey(toKey(index, name));
+    }
+
+    @Override
+    boolean delete(int index, @Nullable String name) {
+      try {
+        map.remove(toKey(index, name));
+        return true;
+      } catch (UnsupportedOperationException e) {
+        return false;
+      }
+    }
+
+    @Override
+    int size() {
+      return map.size();
+    }
+
+    /**
+     * Returns the keys, they are the own property names.
+     */
+    String[] names() {
+      return map.keySet().toArray(new String[0]);
+    }
+  }
+}
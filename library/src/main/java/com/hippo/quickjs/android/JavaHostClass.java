@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves members of JavaScript host objects on first access.
+ * Public instance fields and public instance methods are exposed,
+ * overloaded methods are dispatched by the arguments.
+ * Methods of Object are left to the prototype of host objects.
+ */
+final class JavaHostClass {
+
+  private JavaHostClass() { }
+
+  /**
+   * Defines the member in the native JavaHostClass, or does nothing if there is no such member.
+   * Called by native code with the lock of the JSRuntime held.
+   */
+  static void resolve(JSContext context, long hostClass, Class<?> clazz, String name) {
+    Field field = getField(clazz, name);
+    if (field != null) {
+      Type type = JavaTypes.resolve(clazz, clazz, field.getGenericType());
+      // It's not resolved
+      if (type instanceof TypeVariable) return;
+      boolean writable = !Modifier.isFinal(field.getModifiers());
+      QuickJS.setJavaHostField(context.pointer, hostClass, name, field, JavaTypes.canonicalize(type), getSignature(field.getType()), writable);
+      return;
+    }
+
+    // Methods of Object are left to the prototype
+    if (!hasMemberMethod(clazz, name)) return;
+    List<JavaMethod> methods = JavaMethod.getOverloads(clazz, name, false);
+    if (!methods.isEmpty()) {
+      long descriptor = context.jsRuntime.getJavaMethodOverloadsDescriptor(clazz, methods, false);
+      QuickJS.setJavaHostMethod(context.pointer, hostClass, name, descriptor);
+    }
+  }
+
+  /**
+   * Returns the names of public instance fields and public instance methods,
+   * methods of Object are left out.
+   */
+  static String[] getMemberNames(Class<?> clazz) {
+    Set<String> names = new LinkedHashSet<>();
+    for (Field field : clazz.getFields()) {
+      if (!Modifier.isStatic(field.getModifiers())) names.add(field.getName());
+    }
+    for (Method method : clazz.getMethods()) {
+      if (isMemberMethod(method)) names.add(method.getName());
+    }
+    return names.toArray(new String[names.size()]);
+  }
+
+  private static boolean hasMemberMethod(Class<?> clazz, String name) {
+    for (Method method : clazz.getMethods()) {
+      if (name.equals(method.getName()) && isMemberMethod(method)) return true;
+    }
+    return false;
+  }
+
+  private static boolean isMemberMethod(Method method) {
+    return !Modifier.isStatic(method.getModifiers()) && !method.isBridge() && !method.isSynthetic()
+        && method.getDeclaringClass() != Object.class;
+  }
+
+  @Nullable
+  private static Field getField(Class<?> clazz, String name) {
+    try {
+      Field field = clazz.getField(name);
+      return Modifier.isStatic(field.getModifiers()) ? null : field;
+    } catch (NoSuchFieldException e) {
+      return null;
+    }
+  }
+
+  private static char getSignature(Class<?> type) {
+    if (type == boolean.class) return 'Z';
+    if (type == byte.class) return 'B';
+    if (type == char.class) return 'C';
+    if (type == short.class) return 'S';
+    if (type == int.class) return 'I';
+    if (type == long.class) return 'J';
+    if (type == float.class) return 'F';
+    if (type == double.class) return 'D';
+    return 'L';
+  }
+}
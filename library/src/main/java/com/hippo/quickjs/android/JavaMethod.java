@@ -20,9 +20,12 @@ import androidx.annotation.Nullable;
 
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Represents a java method or a java static method.
@@ -49,6 +52,38 @@ public final class JavaMethod {
     return new JavaMethod(returnType, name, parameterTypes);
   }
 
+  /**
+   * Returns all public methods with the name in the type, one for each parameter list.
+   * Methods with unresolved types are skipped.
+   */
+  static List<JavaMethod> getOverloads(Type type, String name, boolean isStatic) {
+    Class<?> rawType = JavaTypes.getRawType(type);
+    List<JavaMethod> result = new ArrayList<>();
+    for (Method rawMethod : rawType.getMethods()) {
+      if (!name.equals(rawMethod.getName())) continue;
+      if (Modifier.isStatic(rawMethod.getModifiers()) != isStatic || rawMethod.isBridge()) continue;
+
+      JavaMethod method = create(type, rawMethod);
+      if (method == null) continue;
+
+      int index = indexOfParameterTypes(result, method.parameterTypes);
+      if (index == -1) {
+        result.add(method);
+      } else if (JavaTypes.getRawType(result.get(index).returnType).isAssignableFrom(JavaTypes.getRawType(method.returnType))) {
+        // The method with the covariant return type overrides it
+        result.set(index, method);
+      }
+    }
+    return result;
+  }
+
+  private static int indexOfParameterTypes(List<JavaMethod> methods, Type[] parameterTypes) {
+    for (int i = 0; i < methods.size(); i++) {
+      if (Arrays.equals(methods.get(i).parameterTypes, parameterTypes)) return i;
+    }
+    return -1;
+  }
+
   final Type returnType;
   final String name;
   final Type[] parameterTypes;
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Converts JavaScript arguments, invokes the java method and converts the result
+ * in one call from native code.
+ */
+abstract class JavaMethodInvoker {
+
+  /**
+   * Returns the JavaScript result, never {@code null}.
+   *
+   * @param callee the java object, {@code null} for static methods
+   * @param member the member of the JavaScript function, {@code 0} if it's not set
+   */
+  abstract JSValue invoke(JSContext context, @Nullable Object callee, int member, JSValue[] args);
+
+  static final JavaMethodInvoker CALLBACK = new JavaMethodInvoker() {
+    @Override
+    JSValue invoke(JSContext context, @Nullable Object callee, int member, JSValue[] args) {
+      JSValue result = ((JSFunctionCallback) callee).invoke(context, args);
+      if (result == null) throw new NullPointerException("value == null");
+      return result;
+    }
+  };
+
+  /**
+   * Creates a JavaMethodInvoker with TypeAdapters resolved in advance.
+   */
+  static JavaMethodInvoker create(QuickJS quickJS, Class<?> clazz, JavaMethod method) {
+    Class<?>[] rawParameterTypes = new Class<?>[method.parameterTypes.length];
+    TypeAdapter<?>[] parameterAdapters = new TypeAdapter<?>[method.parameterTypes.length];
+    for (int i = 0; i < method.parameterTypes.length; i++) {
+      rawParameterTypes[i] = JavaTypes.getRawType(method.parameterTypes[i]);
+      parameterAdapters[i] = quickJS.getAdapter(method.parameterTypes[i]);
+    }
+
+    Method rawMethod = findMethod(clazz, method.name, rawParameterTypes);
+    if (rawMethod == null) {
+      throw new IllegalStateException("Can't find method: " + method);
+    }
+    try {
+      rawMethod.setAccessible(true);
+    } catch (SecurityException e) {
+      // Try to invoke it anyway
+    }
+
+    TypeAdapter<Object> returnAdapter = method.returnType != void.class ? quickJS.getAdapter(method.returnType) : null;
+
+    return new ReflectionInvoker(rawMethod, parameterAdapters, returnAdapter);
+  }
+
+  @Nullable
+  private static Method findMethod(Class<?> clazz, String name, Class<?>[] parameterTypes) {
+    for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+      try {
+        return c.getDeclaredMethod(name, parameterTypes);
+      } catch (NoSuchMethodException e) {
+        // Try its super class
+      }
+    }
+    try {
+      // Interface methods
+      return clazz.getMethod(name, parameterTypes);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static final class ReflectionInvoker extends JavaMethodInvoker {
+
+    private final Method method;
+    private final TypeAdapter<?>[] parameterAdapters;
+    @Nullable
+    private final TypeAdapter<Object> returnAdapter;
+
+    ReflectionInvoker(Method method, TypeAdapter<?>[] parameterAdapters, @Nullable TypeAdapter<Object> returnAdapter) {
+      this.method = method;
+      this.parameterAdapters = parameterAdapters;
+      this.returnAdapter = returnAdapter;
+    }
+
+    @Override
+    JSValue invoke(JSContext context, @Nullable Object callee, int member, JSValue[] args) {
+      if (args.length != parameterAdapters.length) {
+        throw new IllegalStateException("Inconsistent argument count, excepted: " + parameterAdapters.length + ", actual: " + args.length);
+      }
+
+      Object[] parameters = new Object[args.length];
+      for (int i = 0; i < args.length; i++) {
+        parameters[i] = parameterAdapters[i].fromJSValue(context, args[i]);
+      }
+
+      Object result;
+      try {
+        result = method.invoke(callee, parameters);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new IllegalStateException(cause);
+      }
+
+      if (returnAdapter == null) return context.createJSUndefined();
+      return returnAdapter.toJSValue(context, result);
+    }
+  }
+}
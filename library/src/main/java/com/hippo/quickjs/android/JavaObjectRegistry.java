@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Holds java objects referenced by JavaScript values of a JSRuntime.
+ * JavaScript values store slots instead of JNI global references,
+ * which are limited and slow to create on some devices.
+ * The same java object always takes the same slot, the slot is reference counted.
+ * Not thread-safe, it's guarded by the lock of the JSRuntime.
+ */
+final class JavaObjectRegistry {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int NO_SLOT = -1;
+
+  // Read by native code
+  Object[] objects = new Object[INITIAL_CAPACITY];
+  private int[] counts = new int[INITIAL_CAPACITY];
+  private int[] nextFree = new int[INITIAL_CAPACITY];
+  private int freeHead = NO_SLOT;
+  private int size = 0;
+
+  private final Map<Object, Integer> slots = new IdentityHashMap<>();
+
+  /**
+   * Returns the slot of the object, increasing its reference count.
+   */
+  int register(Object object) {
+    return register(object, 1);
+  }
+
+  /**
+   * Returns the slot of the object, increasing its reference count by the count.
+   * Each owner releases the slot once.
+   */
+  int register(Object object, int count) {
+    if (object == null) throw new NullPointerException("object == null");
+    if (count <= 0) throw new IllegalArgumentException("count <= 0");
+
+    Integer existing = slots.get(object);
+    if (existing != null) {
+      counts[existing] += count;
+      return existing;
+    }
+
+    int slot;
+    if (freeHead != NO_SLOT) {
+      slot = freeHead;
+      freeHead = nextFree[slot];
+    } else {
+      if (size == objects.length) {
+        int newCapacity = size * 2;
+        objects = Arrays.copyOf(objects, newCapacity);
+        counts = Arrays.copyOf(counts, newCapacity);
+        nextFree = Arrays.copyOf(nextFree, newCapacity);
+      }
+      slot = size++;
+    }
+
+    objects[slot] = object;
+    counts[slot] = count;
+    slots.put(object, slot);
+    return slot;
+  }
+
+  Object get(int slot) {
+    return objects[slot];
+  }
+
+  /**
+   * Decreases the reference count of the slot, frees it if it reaches zero.
+   * Called by native code.
+   */
+  void release(int slot) {
+    if (slot < 0 || slot >= size || counts[slot] <= 0) {
+      throw new IllegalStateException("Invalid slot: " + slot);
+    }
+
+    if (--counts[slot] == 0) {
+      slots.remove(objects[slot]);
+      objects[slot] = null;
+      nextFree[slot] = freeHead;
+      freeHead = slot;
+    }
+  }
+
+  /**
+   * Releases slots queued by JavaScript finalizers.
+   * Called by native code once per batch instead of once per slot.
+   */
+  void releaseAll(int[] slots) {
+    for (int slot : slots) {
+      release(slot);
+    }
+  }
+
+  /**
+   * Returns the count of registered java objects.
+   */
+  int size() {
+    return slots.size();
+  }
+}
@@ -169,6 +169,50 @@ class JavaTypes {
     }
   }
 
+  /**
+   * Returns the element type of this collection type.
+   *
+   * @throws IllegalArgumentException if this type is not a collection.
+   */
+  static Type collectionElementType(Type context, Class<?> contextRawType) {
+    return elementType(context, contextRawType, Collection.class);
+  }
+
+  /**
+   * Returns the element type of this type as the subtype of the generic supertype,
+   * like {@code Iterator<T>}.
+   *
+   * @throws IllegalArgumentException if this type is not a subtype of the supertype.
+   */
+  static Type elementType(Type context, Class<?> contextRawType, Class<?> supertype) {
+    Type elementOwnerType = getSupertype(context, contextRawType, supertype);
+
+    if (elementOwnerType instanceof WildcardType) {
+      elementOwnerType = ((WildcardType) elementOwnerType).getUpperBounds()[0];
+    }
+    if (elementOwnerType instanceof ParameterizedType) {
+      return ((ParameterizedType) elementOwnerType).getActualTypeArguments()[0];
+    }
+    return Object.class;
+  }
+
+  /**
+   * Returns a two element array containing this map's key and value types in positions 0 and 1
+   * respectively.
+   */
+  static Type[] mapKeyAndValueTypes(Type context, Class<?> contextRawType) {
+    // Work around a problem with the declaration of java.util.Properties. That class should extend
+    // Hashtable<String, String>, but it's declared to extend Hashtable<Object, Object>.
+    if (context == Properties.class) return new Type[] { String.class, String.class };
+
+    Type mapType = getSupertype(context, contextRawType, Map.class);
+    if (mapType instanceof ParameterizedType) {
+      ParameterizedType mapParameterizedType = (ParameterizedType) mapType;
+      return mapParameterizedType.getActualTypeArguments();
+    }
+    return new Type[] { Object.class, Object.class };
+  }
+
   /**
    * Returns a type that is functionally equal but not necessarily equal according to {@link
    * Object#equals(Object) Object.equals()}.
@@ -338,6 +382,19 @@ class JavaTypes {
     return toResolve;
   }
 
+  /**
+   * Returns the generic form of {@code supertype}. For example, if this is {@code
+   * ArrayList<String>}, this returns {@code Iterable<String>} given the input {@code
+   * Iterable.class}.
+   *
+   * @param supertype a superclass of, or interface implemented by, this.
+   */
+  private static Type getSupertype(Type context, Class<?> contextRawType, Class<?> supertype) {
+    if (!supertype.isAssignableFrom(contextRawType)) throw new IllegalArgumentException();
+    return resolve(context, contextRawType,
+        getGenericSupertype(context, contextRawType, supertype));
+  }
+
   private static int hashCodeOrZero(@Nullable Object o) {
     return o != null ? o.hashCode() : 0;
   }
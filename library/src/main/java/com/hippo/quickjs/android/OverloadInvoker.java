@@ -0,0 +1,395 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.quickjs.android;
+
+import androidx.annotation.Nullable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Invokes one of the overloads of a java method.
+ * Candidates are picked by the argument count, then by the JavaScript types of the arguments.
+ * The accepted JavaScript types of each parameter are computed in advance,
+ * and the chosen overload is cached for each type signature of arguments.
+ * Wrapped java objects passed to object parameters are ranked by their classes,
+ * these calls are not cached.
+ */
+final class OverloadInvoker extends JavaMethodInvoker {
+
+  private static final int KIND_UNDEFINED = 0;
+  private static final int KIND_NULL = 1;
+  private static final int KIND_BOOLEAN = 2;
+  private static final int KIND_INT = 3;
+  private static final int KIND_FLOAT = 4;
+  private static final int KIND_BIG_INT = 5;
+  private static final int KIND_STRING = 6;
+  private static final int KIND_SYMBOL = 7;
+  private static final int KIND_ARRAY = 8;
+  private static final int KIND_FUNCTION = 9;
+  private static final int KIND_OBJECT = 10;
+  private static final int KIND_COUNT = 11;
+
+  private static final Class<?>[] KIND_CLASSES = {
+      JSUndefined.class, JSNull.class, JSBoolean.class, JSInt.class, JSFloat64.class, JSBigInt.class,
+      JSString.class, JSSymbol.class, JSArray.class, JSFunction.class, JSObject.class
+  };
+
+  private static final int REJECTED = -1;
+
+  // The cost of Object parameters for any kind
+  private static final int OBJECT_COST = 4;
+  // Added to the cost if the java object isn't an instance of the parameter type
+  private static final int NOT_INSTANCE_COST = 16;
+
+  // Four bits for each argument in the signature
+  private static final int MAX_SIGNATURE_ARGS = 16;
+
+  private final String name;
+  // Candidates indexed by argument count
+  private final Candidate[][] candidates;
+  // Whether the candidates have object parameters, indexed by argument count
+  private final boolean[] objectParameters;
+
+  // Called with the lock of the JSRuntime held
+  private long lastSignature = -1;
+  @Nullable
+  private Candidate lastCandidate;
+  private final Map<Long, Candidate> cache = new HashMap<>();
+
+  private OverloadInvoker(String name, Candidate[][] candidates) {
+    this.name = name;
+    this.candidates = candidates;
+    this.objectParameters = new boolean[candidates.length];
+    for (int i = 0; i < candidates.length; i++) {
+      for (Candidate candidate : candidates[i]) {
+        objectParameters[i] |= candidate.hasObjectParameters();
+      }
+    }
+  }
+
+  /**
+   * Creates an OverloadInvoker with TypeAdapters of all the methods resolved in advance.
+   * All methods must have the same name.
+   */
+  static OverloadInvoker create(QuickJS quickJS, Class<?> clazz, List<JavaMethod> methods) {
+    if (methods.isEmpty()) throw new IllegalArgumentException("No method");
+
+    String name = methods.get(0).name;
+    int maxArgCount = 0;
+    for (JavaMethod method : methods) {
+      if (!name.equals(method.name)) {
+        throw new IllegalArgumentException("Methods have different names: " + name + ", " + method.name);
+      }
+      maxArgCount = Math.max(maxArgCount, method.parameterTypes.length);
+    }
+
+    List<List<Candidate>> byArgCount = new ArrayList<>(maxArgCount + 1);
+    for (int i = 0; i <= maxArgCount; i++) {
+      byArgCount.add(new ArrayList<>());
+    }
+    for (JavaMethod method : methods) {
+      byArgCount.get(method.parameterTypes.length).add(new Candidate(quickJS, clazz, method));
+    }
+
+    Candidate[][] candidates = new Candidate[maxArgCount + 1][];
+    for (int i = 0; i <= maxArgCount; i++) {
+      List<Candidate> list = byArgCount.get(i);
+      // The signature order makes the result stable if several overloads have the same cost
+      Collections.sort(list, (o1, o2) -> o1.signature.compareTo(o2.signature));
+      candidates[i] = list.toArray(new Candidate[list.size()]);
+    }
+
+    return new OverloadInvoker(name, candidates);
+  }
+
+  @Override
+  JSValue invoke(JSContext context, @Nullable Object callee, int member, JSValue[] args) {
+    return choose(args).invoker.invoke(context, callee, member, args);
+  }
+
+  private Candidate choose(JSValue[] args) {
+    if (args.length >= candidates.length || candidates[args.length].length == 0) {
+      throw new IllegalStateException("No overload of " + name + " takes " + args.length + " arguments");
+    }
+
+    Candidate[] group = candidates[args.length];
+    if (group.length == 1) return group[0];
+
+    // The kinds of arguments can't tell the classes of java objects
+    if (args.length > MAX_SIGNATURE_ARGS || (objectParameters[args.length] && hasObjectArgument(args))) {
+      Candidate candidate = match(group, args);
+      if (candidate == null) throw noMatch(args);
+      return candidate;
+    }
+
+    long signature = getSignature(args);
+    if (signature == lastSignature && lastCandidate != null) return lastCandidate;
+
+    Candidate candidate = cache.get(signature);
+    if (candidate == null) {
+      candidate = match(group, args);
+      if (candidate == null) throw noMatch(args);
+      cache.put(signature, candidate);
+    }
+
+    lastSignature = signature;
+    lastCandidate = candidate;
+    return candidate;
+  }
+
+  /**
+   * Returns the candidate with the lowest total cost, or {@code null} if none accepts the arguments.
+   */
+  @Nullable
+  private static Candidate match(Candidate[] group, JSValue[] args) {
+    Candidate result = null;
+    int resultCost = Integer.MAX_VALUE;
+    for (Candidate candidate : group) {
+      int cost = candidate.getCost(args);
+      if (cost != REJECTED && cost < resultCost) {
+        result = candidate;
+        resultCost = cost;
+      }
+    }
+    return result;
+  }
+
+  private static boolean hasObjectArgument(JSValue[] args) {
+    for (JSValue arg : args) {
+      if (getKind(arg) == KIND_OBJECT) return true;
+    }
+    return false;
+  }
+
+  private IllegalStateException noMatch(JSValue[] args) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("No overload of ").append(name).append(" accepts (");
+    for (int i = 0; i < args.length; i++) {
+      if (i != 0) sb.append(", ");
+      sb.append(args[i].getClass().getSimpleName());
+    }
+    sb.append(")");
+    return new IllegalStateException(sb.toString());
+  }
+
+  private static long getSignature(JSValue[] args) {
+    long signature = 0;
+    for (JSValue arg : args) {
+      // Plus one to tell arguments from paddings
+      signature = (signature << 4) | (getKind(arg) + 1);
+    }
+    return signature;
+  }
+
+  private static int getKind(JSValue value) {
+    if (value instanceof JSObject) {
+      if (value instanceof JSArray) return KIND_ARRAY;
+      if (value instanceof JSFunction) return KIND_FUNCTION;
+      return KIND_OBJECT;
+    }
+    if (value instanceof JSInt) return KIND_INT;
+    if (value instanceof JSFloat64) return KIND_FLOAT;
+    if (value instanceof JSString) return KIND_STRING;
+    if (value instanceof JSBoolean) return KIND_BOOLEAN;
+    if (value instanceof JSNull) return KIND_NULL;
+    if (value instanceof JSUndefined) return KIND_UNDEFINED;
+    if (value instanceof JSBigInt) return KIND_BIG_INT;
+    if (value instanceof JSSymbol) return KIND_SYMBOL;
+    return KIND_OBJECT;
+  }
+
+  /**
+   * Returns the costs of converting each kind of JavaScript value to the type,
+   * {@link #REJECTED} if the TypeAdapter of the type doesn't accept the kind.
+   */
+  private static byte[] getCosts(Class<?> type) {
+    byte[] costs = new byte[KIND_COUNT];
+    for (int i = 0; i < KIND_COUNT; i++) {
+      costs[i] = REJECTED;
+    }
+
+    if (JSValue.class.isAssignableFrom(type)) {
+      for (int i = 0; i < KIND_COUNT; i++) {
+        int cost = 0;
+        for (Class<?> c = KIND_CLASSES[i]; c != null; c = c.getSuperclass(), cost++) {
+          if (c == type) {
+            costs[i] = (byte) cost;
+            break;
+          }
+        }
+      }
+      return costs;
+    }
+
+    if (type == Object.class) {
+      for (int i = 0; i < KIND_COUNT; i++) {
+        costs[i] = OBJECT_COST;
+      }
+      return costs;
+    }
+
+    if (!type.isPrimitive()) {
+      costs[KIND_NULL] = 1;
+      costs[KIND_UNDEFINED] = 1;
+    }
+
+    if (type == boolean.class || type == Boolean.class) {
+      costs[KIND_BOOLEAN] = 0;
+    } else if (type == int.class || type == Integer.class
+        || type == short.class || type == Short.class
+        || type == byte.class || type == Byte.class) {
+      costs[KIND_INT] = 0;
+      costs[KIND_FLOAT] = 2;
+    } else if (type == long.class || type == Long.class) {
+      costs[KIND_BIG_INT] = 0;
+      costs[KIND_INT] = 1;
+      costs[KIND_FLOAT] = 3;
+    } else if (type == double.class || type == Double.class
+        || type == float.class || type == Float.class) {
+      costs[KIND_FLOAT] = 0;
+      costs[KIND_INT] = 2;
+    } else if (type == char.class || type == Character.class) {
+      costs[KIND_STRING] = 1;
+    } else if (type == String.class) {
+      costs[KIND_STRING] = 0;
+    } else if (type == BigInteger.class) {
+      costs[KIND_BIG_INT] = 1;
+      costs[KIND_INT] = 2;
+      costs[KIND_FLOAT] = 3;
+    } else if (type == BigDecimal.class) {
+      costs[KIND_STRING] = 1;
+      costs[KIND_INT] = 1;
+      costs[KIND_FLOAT] = 1;
+      costs[KIND_BIG_INT] = 1;
+    } else if (type == Date.class) {
+      costs[KIND_OBJECT] = 0;
+      costs[KIND_INT] = 2;
+      costs[KIND_FLOAT] = 2;
+    } else if (type.isEnum()) {
+      costs[KIND_STRING] = 0;
+      costs[KIND_INT] = 2;
+    } else if (type.isArray() || type == List.class || type == Collection.class || type == ArrayList.class) {
+      costs[KIND_ARRAY] = 0;
+    } else if (Set.class.isAssignableFrom(type)) {
+      costs[KIND_OBJECT] = 1;
+      costs[KIND_ARRAY] = 2;
+    } else if (Map.class.isAssignableFrom(type)) {
+      costs[KIND_OBJECT] = 0;
+    } else {
+      // Java objects and interfaces, see isObjectParameter()
+      costs[KIND_OBJECT] = 1;
+      costs[KIND_FUNCTION] = 2;
+      costs[KIND_ARRAY] = 3;
+    }
+    return costs;
+  }
+
+  /**
+   * Returns {@code true} if the type takes java objects by their classes,
+   * the last branch of {@link #getCosts(Class)} and Object.
+   */
+  private static boolean isObjectParameter(Class<?> type) {
+    if (type == Object.class) return true;
+    return !type.isPrimitive()
+        && !JSValue.class.isAssignableFrom(type)
+        && !type.isArray()
+        && !type.isEnum()
+        && type != Boolean.class && type != Integer.class && type != Short.class && type != Byte.class
+        && type != Long.class && type != Double.class && type != Float.class && type != Character.class
+        && type != String.class && type != BigInteger.class && type != BigDecimal.class && type != Date.class
+        && type != List.class && type != Collection.class && type != ArrayList.class
+        && !Set.class.isAssignableFrom(type) && !Map.class.isAssignableFrom(type);
+  }
+
+  /**
+   * Returns the number of steps from the class to the super type, -1 if it's not a super type.
+   */
+  private static int getDistance(@Nullable Class<?> clazz, Class<?> type) {
+    if (clazz == null || !type.isAssignableFrom(clazz)) return -1;
+    if (clazz == type) return 0;
+
+    int result = Integer.MAX_VALUE;
+    int distance = getDistance(clazz.getSuperclass(), type);
+    if (distance >= 0) result = distance + 1;
+    for (Class<?> i : clazz.getInterfaces()) {
+      distance = getDistance(i, type);
+      if (distance >= 0) result = Math.min(result, distance + 1);
+    }
+    // Interfaces are Objects without super class
+    return result != Integer.MAX_VALUE ? result : 1;
+  }
+
+  private static final class Candidate {
+
+    private final String signature;
+    private final JavaMethodInvoker invoker;
+    // Costs indexed by parameter index and argument kind
+    private final byte[][] costs;
+    // Parameter types ranking java objects by classes, null for other parameters
+    private final Class<?>[] objectTypes;
+
+    Candidate(QuickJS quickJS, Class<?> clazz, JavaMethod method) {
+      this.signature = method.getSignature();
+      this.invoker = JavaMethodInvoker.create(quickJS, clazz, method);
+      this.costs = new byte[method.parameterTypes.length][];
+      this.objectTypes = new Class<?>[costs.length];
+      for (int i = 0; i < costs.length; i++) {
+        Class<?> type = JavaTypes.getRawType(method.parameterTypes[i]);
+        costs[i] = getCosts(type);
+        if (isObjectParameter(type)) objectTypes[i] = type;
+      }
+    }
+
+    boolean hasObjectParameters() {
+      for (Class<?> type : objectTypes) {
+        if (type != null) return true;
+      }
+      return false;
+    }
+
+    int getCost(JSValue[] args) {
+      int result = 0;
+      for (int i = 0; i < args.length; i++) {
+        int kind = getKind(args[i]);
+        int cost = costs[i][kind];
+        if (cost == REJECTED) return REJECTED;
+        if (objectTypes[i] != null && args[i] instanceof JSObject) {
+          cost = getObjectCost(objectTypes[i], ((JSObject) args[i]).getJavaObject(), cost);
+        }
+        result += cost;
+      }
+      return result;
+    }
+
+    // The closer super type wins, Object loses to all others
+    private static int getObjectCost(Class<?> type, @Nullable Object javaObject, int cost) {
+      if (javaObject == null) return cost;
+      int distance = getDistance(javaObject.getClass(), type);
+      if (distance < 0) return cost + NOT_INSTANCE_COST;
+      return type == Object.class ? OBJECT_COST + distance : distance;
+    }
+  }
+}
@@ -16,7 +16,9 @@
 
 package com.hippo.quickjs.android;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -28,17 +30,22 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class QuickJS {
 
-  private static final List<TypeAdapter.Factory> BUILT_IN_FACTORIES = new ArrayList<>(4);
+  private static final List<TypeAdapter.Factory> BUILT_IN_FACTORIES = new ArrayList<>(7);
 
   static {
     BUILT_IN_FACTORIES.add(StandardTypeAdapters.FACTORY);
     BUILT_IN_FACTORIES.add(JSValueAdapter.FACTORY);
     BUILT_IN_FACTORIES.add(ArrayTypeAdapter.FACTORY);
+    BUILT_IN_FACTORIES.add(CollectionTypeAdapters.FACTORY);
+    BUILT_IN_FACTORIES.add(FunctionalTypeAdapters.FACTORY);
+    BUILT_IN_FACTORIES.add(IteratorTypeAdapters.FACTORY);
     BUILT_IN_FACTORIES.add(InterfaceTypeAdapter.FACTORY);
   }
 
   private final List<TypeAdapter.Factory> factories;
   private final Map<Type, TypeAdapter<?>> adapterCache;
+  final boolean javaStackTraceEnabled;
+  final boolean upcallDispatcherEnabled;
 
   private QuickJS(QuickJS.Builder builder) {
     List<TypeAdapter.Factory> factories = new ArrayList<>(builder.factories.size() + BUILT_IN_FACTORIES.size());
@@ -46,6 +53,8 @@ public class QuickJS {
     factories.addAll(BUILT_IN_FACTORIES);
     this.factories = Collections.unmodifiableList(factories);
     this.adapterCache = new ConcurrentHashMap<>();
+    this.javaStackTraceEnabled = builder.javaStackTraceEnabled;
+    this.upcallDispatcherEnabled = builder.upcallDispatcherEnabled;
   }
 
   @SuppressWarnings("unchecked")
@@ -73,16 +82,19 @@ public class QuickJS {
    * Creates a JSRuntime with resources in this QuickJS.
    */
   public JSRuntime createJSRuntime() {
-    long runtime = QuickJS.createRuntime();
+    JavaObjectRegistry registry = new JavaObjectRegistry();
+    long runtime = QuickJS.createRuntime(registry);
     if (runtime == 0) {
       throw new IllegalStateException("Cannot create JSRuntime instance");
     }
-    return new JSRuntime(runtime, this);
+    return new JSRuntime(runtime, this, registry);
   }
 
   public static class Builder {
 
     private final List<TypeAdapter.Factory> factories = new ArrayList<>();
+    private boolean javaStackTraceEnabled = true;
+    private boolean upcallDispatcherEnabled = false;
 
     public <T> Builder registerTypeAdapter(final Type type, final TypeAdapter<T> adapter) {
       return registerTypeAdapterFactory((depot, targetType) -> {
@@ -98,6 +110,29 @@ public class QuickJS {
       return this;
     }
 
+    /**
+     * Sets whether {@link JSEvaluationException} captures the java stack trace.
+     * Capturing is expensive for scripts throwing exceptions frequently.
+     * Default {@code true}.
+     */
+    public Builder setJavaStackTraceEnabled(boolean enabled) {
+      javaStackTraceEnabled = enabled;
+      return this;
+    }
+
+    /**
+     * Sets whether JavaScript functions created from {@link JavaMethod}s
+     * call java through a single dispatcher. The dispatcher converts arguments,
+     * invokes the method by reflection and converts the result in java,
+     * so every call crosses from native to java only once.
+     * {@link JSFunctionCallback}s always use the dispatcher.
+     * Default {@code false}.
+     */
+    public Builder setUpcallDispatcherEnabled(boolean enabled) {
+      upcallDispatcherEnabled = enabled;
+      return this;
+    }
+
     public QuickJS build() {
       return new QuickJS(this);
     }
@@ -107,13 +142,18 @@ public class QuickJS {
     System.loadLibrary("quickjs-android");
   }
 
-  static native long createRuntime();
+  static native long createRuntime(JavaObjectRegistry registry);
   static native void setRuntimeMallocLimit(long runtime, int mallocLimit);
   static native void setRuntimeInterruptHandler(long runtime, JSRuntime.InterruptHandler interruptHandler);
   static native void destroyRuntime(long runtime);
 
   static native long createContext(long runtime);
   static native void destroyContext(long context);
+  static native void setContextOpaque(long context, JSContext jsContext);
+
+  static native long createJavaMethodDescriptor(long runtime, Class<?> clazz, boolean isStatic, String methodName, String methodSign, Type returnType, Type[] argTypes);
+  static native long createJavaMethodDescriptorWithInvoker(long runtime, Class<?> calleeClass, JavaMethodInvoker invoker);
+  static native void releaseJavaMethodDescriptor(long runtime, long descriptor);
 
   static native long createValueUndefined(long context);
   static native long createValueNull(long context);
@@ -121,8 +161,14 @@ public class QuickJS {
   static native long createValueInt(long context, int value);
   static native long createValueFloat64(long context, double value);
   static native long createValueString(long context, String value);
+  static native long createValueBigInt(long context, long value);
+  static native long createValueBigIntFromString(long context, String value);
+  static native long createValueDate(long context, double time);
   static native long createValueObject(long context);
   static native long createValueArray(long context);
+  static native long createValueArrayWithElements(long context, long[] values);
+  static native long createValueCollection(long context, boolean isMap, long[] values);
+  static native long createValueObjectWithNames(long context, String[] names, long[] values);
   static native long createValueArrayBufferZ(long context, boolean[] array, int start, int length);
   static native long createValueArrayBufferB(long context, byte[] array, int start, int length);
   static native long createValueArrayBufferC(long context, char[] array, int start, int length);
@@ -131,10 +177,21 @@ public class QuickJS {
   static native long createValueArrayBufferJ(long context, long[] array, int start, int length);
   static native long createValueArrayBufferF(long context, float[] array, int start, int length);
   static native long createValueArrayBufferD(long context, double[] array, int start, int length);
-  static native long createValueFunction(long context, JSContext jsContext, Object instance, String methodName, String methodSign, Type returnType, Type[] argTypes, boolean isCallbackMethod);
-  static native long createValueFunctionS(long context, JSContext jsContext, String className, String methodName, String methodSign, Type returnType, Type[] argTypes);
-  static native long createValueJavaObject(long context, Object object);
+  static native long createValueFunction(long context, long descriptor, int calleeSlot);
+  static native long createValueJavaObject(long context, int slot);
+  static native long createValueJavaObjectWithProto(long context, int slot, long proto);
+  static native long createJavaHostClass(long runtime, Class<?> clazz);
+  static native void releaseJavaHostClass(long runtime, long hostClass);
+  static native void closeJavaHostClassContext(long context, long hostClass);
+  static native void setJavaHostMethod(long context, long hostClass, String name, long descriptor);
+  static native void setJavaHostField(long context, long hostClass, String name, Field field, Type type, char signature, boolean writable);
+  static native long createValueJavaHostObject(long context, long hostClass, int slot);
+  static native long createValueJavaCollection(long context, int slot, boolean isList, long proto);
   static native long[] createValuePromise(long context);
+  static native long createPropertyKeys(long context, String[] names);
+  static native void releasePropertyKeys(long runtime, long propertyKeys);
+  static native long createValueObjectWithProperties(long context, long propertyKeys, long[] values);
+  static native boolean installJSBinder(long context, long target, long descriptor, int calleeSlot, long propertyKeys, int[] kinds, long[] constants);
 
   static native int getValueTag(long value);
   static native boolean isValueArray(long context, long value);
@@ -144,6 +201,14 @@ public class QuickJS {
   static native long getValueProperty(long context, long value, String name);
   static native boolean setValueProperty(long context, long value, int index, long property);
   static native boolean setValueProperty(long context, long value, String name, long property);
+  static native long[] getValueProperties(long context, long value, long propertyKeys);
+  static native String[] getValueOwnPropertyNames(long context, long value);
+  static native int getValueOwnPropertyCount(long context, long value);
+  static native int hasValueOwnEnumerableProperty(long context, long value, String name);
+  static native boolean deleteValueProperty(long context, long value, String name);
+  static native long[] getValuePropertiesByNames(long context, long value, String[] names);
+  static native long[] getValueElements(long context, long value, boolean entries);
+  static native int isValueInstanceOf(long context, long value, String constructor);
   static native boolean[] toBooleanArray(long context, long value);
   static native byte[] toByteArray(long context, long value);
   static native char[] toCharArray(long context, long value);
@@ -156,13 +221,30 @@ public class QuickJS {
   static native int getValueInt(long value);
   static native double getValueFloat64(long value);
   static native String getValueString(long context, long value);
+  static native long getValueBigInt64(long context, long value);
+  static native String getValueBigIntString(long context, long value);
+  static native double getValueDateTime(long context, long value);
   static native Object getValueJavaObject(long context, long value);
   static native boolean defineValueProperty(long context, long value, int index, long property, int flags);
   static native boolean defineValueProperty(long context, long value, String name, long property, int flags);
   static native long invokeValueFunction(long context, long function, long thisObj, long[] args);
+  static native boolean invokeValueFunctionWithDoubles(long context, long function, long thisObj, double[] args, int resultType, Object result);
+  static native boolean invokeValueFunctionWithLongs(long context, long function, long thisObj, long[] args, int resultType, Object result);
+  static native boolean invokeValueFunctionWithArguments(long context, long function, long thisObj, byte[] types, long[] values, Object[] objects, int count, int resultType, Object result);
+  static native int invokeValueFunctionBatch(long context, long function, long thisObj, Object[] columns, boolean intColumns, int count, int resultType, Object results);
+  static native int invokeValueFunctionBatchRows(long context, long function, long thisObj, ByteBuffer rows, int offset, int argCount, int count, int resultType, Object results);
+  static native long createValueMemoizedFunction(long context, long function, int maxEntries);
+  static native boolean getMemoizedFunctionStats(long context, long value, long[] stats);
+  static native boolean clearMemoizedFunction(long context, long value);
+  static native boolean executeBatch(long context, ByteBuffer commands, int length, int handleCount, String[] strings, int[] outputs, long[] results);
+  static native long getValueIterator(long context, long value);
+  static native int getIteratorElements(long context, long iterator, long[] elements);
+  static native long createValueColumns(long context, String[] names, Object[] columns, int[] kinds, int[] offsets, int[] lengths);
+  static native Object[] getValueColumns(long context, long value, String[] names, int[] kinds);
   static native void destroyValue(long context, long value);
 
   static native JSException getException(long context);
+  static native String getExceptionStack(long context, long value);
   static native long getGlobalObject(long context);
 
   static native long evaluate(long context, String sourceCode, String fileName, int flags);
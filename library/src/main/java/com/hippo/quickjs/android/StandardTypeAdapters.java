@@ -19,6 +19,9 @@ package com.hippo.quickjs.android;
 import androidx.annotation.Nullable;
 
 import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
 
 class StandardTypeAdapters {
 
@@ -46,6 +49,10 @@ class StandardTypeAdapters {
       if (type == Float.class) return FLOAT_TYPE_ADAPTER.nullable();
       if (type == Double.class) return DOUBLE_TYPE_ADAPTER.nullable();
       if (type == String.class) return STRING_TYPE_ADAPTER.nullable();
+      if (type == BigInteger.class) return BIG_INTEGER_TYPE_ADAPTER.nullable();
+      if (type == BigDecimal.class) return BIG_DECIMAL_TYPE_ADAPTER.nullable();
+      if (type == Date.class) return DATE_TYPE_ADAPTER.nullable();
+      if (type instanceof Class && ((Class<?>) type).isEnum()) return createEnumTypeAdapter((Class<?>) type).nullable();
       return null;
     }
   };
@@ -127,14 +134,31 @@ class StandardTypeAdapters {
     }
   };
 
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static TypeAdapter<?> createEnumTypeAdapter(Class<?> type) {
+    return EnumTypeAdapter.byName((Class) type);
+  }
+
+  // Number.MAX_SAFE_INTEGER
+  private static final long MAX_SAFE_INTEGER = 9007199254740991L;
+
+  /**
+   * Longs out of the safe integer range are converted to BigInt to keep them exact.
+   * Both numbers and BigInts are accepted.
+   */
   private static final TypeAdapter<Long> LONG_TYPE_ADAPTER = new TypeAdapter<Long>() {
     @Override
     public JSValue toJSValue(JSContext context, Long value) {
-      return context.createJSNumber(value);
+      long longValue = value;
+      if (longValue >= -MAX_SAFE_INTEGER && longValue <= MAX_SAFE_INTEGER) {
+        return context.createJSNumber((double) longValue);
+      }
+      return context.createJSBigInt(longValue);
     }
 
     @Override
     public Long fromJSValue(JSContext context, JSValue value) {
+      if (value instanceof JSBigInt) return ((JSBigInt) value).getLong();
       return value.cast(JSNumber.class).getLong();
     }
   };
@@ -163,6 +187,77 @@ class StandardTypeAdapters {
     }
   };
 
+  private static final TypeAdapter<BigInteger> BIG_INTEGER_TYPE_ADAPTER = new TypeAdapter<BigInteger>() {
+    @Override
+    public JSValue toJSValue(JSContext context, BigInteger value) {
+      return context.createJSBigInt(value);
+    }
+
+    @Override
+    public BigInteger fromJSValue(JSContext context, JSValue value) {
+      if (value instanceof JSBigInt) return ((JSBigInt) value).getBigInteger();
+      if (value instanceof JSInt) return BigInteger.valueOf(((JSInt) value).getInt());
+      double number = value.cast(JSNumber.class).getDouble();
+      try {
+        return new BigDecimal(number).toBigIntegerExact();
+      } catch (NumberFormatException | ArithmeticException e) {
+        throw new JSDataException("Can't treat " + number + " as BigInteger");
+      }
+    }
+  };
+
+  /**
+   * BigDecimals are converted to strings, there is no exact JavaScript type for them.
+   * Strings, numbers and BigInts are accepted.
+   */
+  private static final TypeAdapter<BigDecimal> BIG_DECIMAL_TYPE_ADAPTER = new TypeAdapter<BigDecimal>() {
+    @Override
+    public JSValue toJSValue(JSContext context, BigDecimal value) {
+      return context.createJSString(value.toString());
+    }
+
+    @Override
+    public BigDecimal fromJSValue(JSContext context, JSValue value) {
+      if (value instanceof JSBigInt) return new BigDecimal(((JSBigInt) value).getBigInteger());
+      if (value instanceof JSInt) return BigDecimal.valueOf(((JSInt) value).getInt());
+      if (value instanceof JSNumber) {
+        double number = ((JSNumber) value).getDouble();
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+          throw new JSDataException("Can't treat " + number + " as BigDecimal");
+        }
+        return BigDecimal.valueOf(number);
+      }
+      String str = value.cast(JSString.class).getString();
+      try {
+        return new BigDecimal(str);
+      } catch (NumberFormatException e) {
+        throw new JSDataException("Can't treat \"" + str + "\" as BigDecimal");
+      }
+    }
+  };
+
+  /**
+   * Dates are converted to JavaScript Dates with the time value directly.
+   * Numbers are accepted as time values too.
+   */
+  private static final TypeAdapter<Date> DATE_TYPE_ADAPTER = new TypeAdapter<Date>() {
+    @Override
+    public JSValue toJSValue(JSContext context, Date value) {
+      return context.createJSDate(value.getTime());
+    }
+
+    @Override
+    public Date fromJSValue(JSContext context, JSValue value) {
+      double time = value instanceof JSNumber
+          ? ((JSNumber) value).getDouble()
+          : value.cast(JSObject.class).getDateTime();
+      if (Double.isNaN(time)) {
+        throw new JSDataException("Can't treat Invalid Date as Date");
+      }
+      return new Date((long) time);
+    }
+  };
+
   private static final TypeAdapter<String> STRING_TYPE_ADAPTER = new TypeAdapter<String>() {
     @Override
     public JSValue toJSValue(JSContext context, String value) {
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * The properties of a JSData class and how to read and write them.
+ */
+final class DataClass {
+
+  final TypeElement element;
+  final List<Property> properties;
+  // Create the object by the constructor with all properties,
+  // otherwise by the no-arg constructor and fields or setters
+  final boolean constructorWithAllProperties;
+
+  private DataClass(TypeElement element, List<Property> properties, boolean constructorWithAllProperties) {
+    this.element = element;
+    this.properties = properties;
+    this.constructorWithAllProperties = constructorWithAllProperties;
+  }
+
+  static final class Property {
+    final String name;
+    final TypeMirror type;
+    // The expression to read the property from the object
+    final String reader;
+    final String field;
+    // Null if the field is assigned directly
+    String setter;
+
+    Property(String name, TypeMirror type, String reader, String field) {
+      this.name = name;
+      this.type = type;
+      this.reader = reader;
+      this.field = field;
+    }
+  }
+
+  /**
+   * Returns {@code null} if the class can't be handled, errors are reported.
+   */
+  static DataClass parse(ProcessingEnvironment env, TypeElement element) {
+    Parser parser = new Parser(env, element);
+    return parser.parse();
+  }
+
+  private static final class Parser {
+
+    private final ProcessingEnvironment env;
+    private final Types types;
+    private final TypeElement element;
+    private boolean failed;
+
+    Parser(ProcessingEnvironment env, TypeElement element) {
+      this.env = env;
+      this.types = env.getTypeUtils();
+      this.element = element;
+    }
+
+    private void error(Element e, String message) {
+      env.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+      failed = true;
+    }
+
+    DataClass parse() {
+      if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+        error(element, "@JSData is only for non-abstract classes");
+        return null;
+      }
+      if (!element.getTypeParameters().isEmpty()) {
+        error(element, "@JSData class can't be generic");
+        return null;
+      }
+      for (Element e = element; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+        if (e.getModifiers().contains(Modifier.PRIVATE)) {
+          error(element, "@JSData class can't be private");
+          return null;
+        }
+        if (e.getEnclosingElement().getKind() != ElementKind.PACKAGE
+            && !e.getModifiers().contains(Modifier.STATIC)) {
+          error(element, "@JSData class must be static if it's nested");
+          return null;
+        }
+      }
+
+      List<VariableElement> fields = getFields();
+      List<Property> properties = new ArrayList<>(fields.size());
+      for (VariableElement field : fields) {
+        Property property = createProperty(field);
+        if (property != null) properties.add(property);
+      }
+      if (failed) return null;
+
+      boolean constructorWithAllProperties = hasConstructor(fields);
+      if (!constructorWithAllProperties) {
+        if (!hasConstructor(new ArrayList<VariableElement>())) {
+          error(element, "@JSData class needs a constructor with all fields or a no-arg constructor");
+          return null;
+        }
+        for (int i = 0; i < fields.size(); i++) {
+          resolveWriter(fields.get(i), properties.get(i));
+        }
+        if (failed) return null;
+      }
+
+      return new DataClass(element, properties, constructorWithAllProperties);
+    }
+
+    /**
+     * Returns all non-static non-transient fields, fields in super classes go first.
+     */
+    private List<VariableElement> getFields() {
+      List<TypeElement> classes = new ArrayList<>();
+      for (TypeElement e = element; e != null; ) {
+        if (e.getQualifiedName().contentEquals("java.lang.Object")) break;
+        classes.add(0, e);
+        TypeMirror superclass = e.getSuperclass();
+        e = superclass.getKind() == TypeKind.DECLARED
+            ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+      }
+
+      List<VariableElement> fields = new ArrayList<>();
+      for (TypeElement e : classes) {
+        for (VariableElement field : ElementFilter.fieldsIn(e.getEnclosedElements())) {
+          if (field.getModifiers().contains(Modifier.STATIC)) continue;
+          if (field.getModifiers().contains(Modifier.TRANSIENT)) continue;
+          fields.add(field);
+        }
+      }
+      return fields;
+    }
+
+    private Property createProperty(VariableElement field) {
+      String name = field.getSimpleName().toString();
+      TypeMirror type = types.asMemberOf((DeclaredType) element.asType(), field);
+      if (TypeNames.name(type) == null) {
+        error(field, "Unsupported type of @JSData field: " + type);
+        return null;
+      }
+
+      if (isAccessible(field)) {
+        return new Property(name, type, name, name);
+      }
+
+      String capitalized = TypeNames.capitalize(name);
+      String[] getterNames = type.getKind() == TypeKind.BOOLEAN
+          ? new String[] { "get" + capitalized, "is" + capitalized, name }
+          : new String[] { "get" + capitalized, name };
+      for (String getterName : getterNames) {
+        ExecutableElement getter = findMethod(getterName, type, null);
+        if (getter != null) {
+          return new Property(name, type, getterName + "()", name);
+        }
+      }
+
+      error(field, "@JSData field " + name + " is private and has no getter");
+      return null;
+    }
+
+    private void resolveWriter(VariableElement field, Property property) {
+      if (isAccessible(field) && !field.getModifiers().contains(Modifier.FINAL)) return;
+
+      String setterName = "set" + TypeNames.capitalize(property.name);
+      if (findMethod(setterName, null, property.type) != null) {
+        property.setter = setterName;
+        return;
+      }
+
+      error(field, "@JSData field " + property.name + " can't be assigned and has no setter");
+    }
+
+    /**
+     * Finds the accessible instance method with the name,
+     * the return type if it's not null, and the single parameter type if it's not null.
+     */
+    private ExecutableElement findMethod(String name, TypeMirror returnType, TypeMirror parameterType) {
+      for (TypeElement e = element; e != null; ) {
+        for (ExecutableElement method : ElementFilter.methodsIn(e.getEnclosedElements())) {
+          if (!method.getSimpleName().contentEquals(name)) continue;
+          if (method.getModifiers().contains(Modifier.STATIC) || !isAccessible(method)) continue;
+          ExecutableType methodType =
+              (ExecutableType) types.asMemberOf((DeclaredType) element.asType(), method);
+          List<? extends TypeMirror> parameters = methodType.getParameterTypes();
+          if (parameterType == null) {
+            if (!parameters.isEmpty()) continue;
+          } else {
+            if (parameters.size() != 1 || !types.isSameType(parameters.get(0), parameterType)) continue;
+          }
+          if (returnType != null && !types.isSameType(methodType.getReturnType(), returnType)) continue;
+          return method;
+        }
+        TypeMirror superclass = e.getSuperclass();
+        e = superclass.getKind() == TypeKind.DECLARED
+            ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+      }
+      return null;
+    }
+
+    private boolean hasConstructor(List<VariableElement> fields) {
+      for (ExecutableElement constructor : ElementFilter.constructorsIn(element.getEnclosedElements())) {
+        if (!isAccessible(constructor)) continue;
+        List<? extends VariableElement> parameters = constructor.getParameters();
+        if (parameters.size() != fields.size()) continue;
+        boolean matched = true;
+        for (int i = 0; i < parameters.size(); i++) {
+          TypeMirror fieldType = types.asMemberOf((DeclaredType) element.asType(), fields.get(i));
+          if (!types.isSameType(parameters.get(i).asType(), fieldType)) {
+            matched = false;
+            break;
+          }
+        }
+        if (matched) return true;
+      }
+      return false;
+    }
+
+    /**
+     * Returns {@code true} if the generated adapter in the package of the class can access it.
+     */
+    private boolean isAccessible(Element member) {
+      if (member.getModifiers().contains(Modifier.PUBLIC)) return true;
+      if (member.getModifiers().contains(Modifier.PRIVATE)) return false;
+      return TypeNames.packageOf(member).equals(TypeNames.packageOf(element));
+    }
+  }
+}
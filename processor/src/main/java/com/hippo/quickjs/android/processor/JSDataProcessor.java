@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates TypeAdapters for classes annotated with {@code JSData}.
+ * Each adapter reads and writes all the fields with one native call
+ * through {@code JSPropertyKeys}, and the adapters of a package
+ * are collected in the {@code JSDataAdapters.FACTORY} of the package.
+ */
+public final class JSDataProcessor extends AbstractProcessor {
+
+  private static final String JS_DATA = TypeNames.QUICKJS + "JSData";
+  private static final String ADAPTER_SUFFIX = "_JSDataAdapter";
+  private static final String FACTORIES_NAME = "JSDataAdapters";
+
+  // Package name to the data classes, written in the next round
+  private final Map<String, List<TypeElement>> pendingPackages = new LinkedHashMap<>();
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(JS_DATA);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement annotation = processingEnv.getElementUtils().getTypeElement(JS_DATA);
+    Set<? extends Element> elements = annotation != null
+        ? roundEnv.getElementsAnnotatedWith(annotation) : Collections.<Element>emptySet();
+
+    if (elements.isEmpty()) {
+      // Factories are written after all adapters to avoid
+      // creating a file twice if data classes are generated
+      for (Map.Entry<String, List<TypeElement>> entry : pendingPackages.entrySet()) {
+        writeFactories(entry.getKey(), entry.getValue());
+      }
+      pendingPackages.clear();
+      return false;
+    }
+
+    for (TypeElement element : ElementFilter.typesIn(elements)) {
+      DataClass data = DataClass.parse(processingEnv, element);
+      if (data == null) continue;
+      writeAdapter(data);
+      String packageName = TypeNames.packageOf(element).getQualifiedName().toString();
+      List<TypeElement> list = pendingPackages.get(packageName);
+      if (list == null) {
+        list = new ArrayList<>();
+        pendingPackages.put(packageName, list);
+      }
+      list.add(element);
+    }
+
+    return false;
+  }
+
+  private void writeAdapter(DataClass data) {
+    TypeElement element = data.element;
+    String packageName = TypeNames.packageOf(element).getQualifiedName().toString();
+    String adapterName = TypeNames.flatName(element) + ADAPTER_SUFFIX;
+    String className = element.getQualifiedName().toString();
+    Types types = processingEnv.getTypeUtils();
+    List<DataClass.Property> properties = data.properties;
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("// Generated by JSDataProcessor, do not edit.\n");
+    if (!packageName.isEmpty()) {
+      sb.append("package ").append(packageName).append(";\n\n");
+    }
+    sb.append("final class ").append(adapterName)
+        .append(" extends ").append(TypeNames.QUICKJS).append("TypeAdapter<").append(className).append("> {\n\n");
+
+    sb.append("  private static final ").append(TypeNames.QUICKJS).append("JSPropertyKeys KEYS = ")
+        .append(TypeNames.QUICKJS).append("JSPropertyKeys.of(");
+    for (int i = 0; i < properties.size(); i++) {
+      if (i != 0) sb.append(", ");
+      sb.append(TypeNames.quote(properties.get(i).name));
+    }
+    sb.append(");\n\n");
+
+    sb.append("  private final ").append(TypeNames.QUICKJS).append("QuickJS quickJS;\n");
+    sb.append("  private volatile boolean resolved;\n");
+    for (int i = 0; i < properties.size(); i++) {
+      sb.append("  private ").append(TypeNames.QUICKJS).append("TypeAdapter<")
+          .append(TypeNames.boxedName(types, properties.get(i).type)).append("> adapter").append(i).append(";\n");
+    }
+    sb.append('\n');
+
+    sb.append("  ").append(adapterName).append("(").append(TypeNames.QUICKJS).append("QuickJS quickJS) {\n");
+    sb.append("    this.quickJS = quickJS;\n");
+    sb.append("  }\n\n");
+
+    // Resolve adapters lazily, the data class may refer to itself
+    sb.append("  private void resolve() {\n");
+    sb.append("    if (resolved) return;\n");
+    sb.append("    synchronized (this) {\n");
+    sb.append("      if (resolved) return;\n");
+    for (int i = 0; i < properties.size(); i++) {
+      sb.append("      adapter").append(i).append(" = quickJS.getAdapter(")
+          .append(TypeNames.typeExpression(types, properties.get(i).type)).append(");\n");
+    }
+    sb.append("      resolved = true;\n");
+    sb.append("    }\n");
+    sb.append("  }\n\n");
+
+    sb.append("  @Override\n");
+    sb.append("  public ").append(TypeNames.QUICKJS).append("JSValue toJSValue(")
+        .append(TypeNames.QUICKJS).append("JSContext context, ").append(className).append(" value) {\n");
+    sb.append("    resolve();\n");
+    sb.append("    ").append(TypeNames.QUICKJS).append("JSValue[] values = new ")
+        .append(TypeNames.QUICKJS).append("JSValue[").append(properties.size()).append("];\n");
+    for (int i = 0; i < properties.size(); i++) {
+      sb.append("    values[").append(i).append("] = adapter").append(i)
+          .append(".toJSValue(context, value.").append(properties.get(i).reader).append(");\n");
+    }
+    sb.append("    return context.createJSObject(KEYS, values);\n");
+    sb.append("  }\n\n");
+
+    sb.append("  @Override\n");
+    sb.append("  public ").append(className).append(" fromJSValue(")
+        .append(TypeNames.QUICKJS).append("JSContext context, ")
+        .append(TypeNames.QUICKJS).append("JSValue value) {\n");
+    sb.append("    resolve();\n");
+    sb.append("    ").append(TypeNames.QUICKJS).append("JSValue[] values = value.cast(")
+        .append(TypeNames.QUICKJS).append("JSObject.class).getProperties(KEYS);\n");
+    if (data.constructorWithAllProperties) {
+      sb.append("    return new ").append(className).append("(");
+      for (int i = 0; i < properties.size(); i++) {
+        sb.append(i != 0 ? ",\n        " : "\n        ");
+        sb.append("adapter").append(i).append(".fromJSValue(context, values[").append(i).append("])");
+      }
+      sb.append(");\n");
+    } else {
+      sb.append("    ").append(className).append(" result = new ").append(className).append("();\n");
+      for (int i = 0; i < properties.size(); i++) {
+        DataClass.Property property = properties.get(i);
+        String read = "adapter" + i + ".fromJSValue(context, values[" + i + "])";
+        if (property.setter != null) {
+          sb.append("    result.").append(property.setter).append("(").append(read).append(");\n");
+        } else {
+          sb.append("    result.").append(property.field).append(" = ").append(read).append(";\n");
+        }
+      }
+      sb.append("    return result;\n");
+    }
+    sb.append("  }\n");
+    sb.append("}\n");
+
+    write(packageName.isEmpty() ? adapterName : packageName + "." + adapterName, sb, element);
+  }
+
+  private void writeFactories(String packageName, List<TypeElement> elements) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("// Generated by JSDataProcessor, do not edit.\n");
+    if (!packageName.isEmpty()) {
+      sb.append("package ").append(packageName).append(";\n\n");
+    }
+    sb.append("/**\n");
+    sb.append(" * TypeAdapters of all JSData classes in this package.\n");
+    sb.append(" */\n");
+    sb.append("public final class ").append(FACTORIES_NAME).append(" {\n\n");
+    sb.append("  public static final ").append(TypeNames.QUICKJS).append("TypeAdapter.Factory FACTORY = new ")
+        .append(TypeNames.QUICKJS).append("TypeAdapter.Factory() {\n");
+    sb.append("    @Override\n");
+    sb.append("    public ").append(TypeNames.QUICKJS).append("TypeAdapter<?> create(")
+        .append(TypeNames.QUICKJS).append("QuickJS quickJS, java.lang.reflect.Type type) {\n");
+    for (TypeElement element : elements) {
+      sb.append("      if (type == ").append(element.getQualifiedName()).append(".class) return new ")
+          .append(TypeNames.flatName(element)).append(ADAPTER_SUFFIX).append("(quickJS).nullable();\n");
+    }
+    sb.append("      return null;\n");
+    sb.append("    }\n");
+    sb.append("  };\n\n");
+    sb.append("  private ").append(FACTORIES_NAME).append("() { }\n");
+    sb.append("}\n");
+
+    write(packageName.isEmpty() ? FACTORIES_NAME : packageName + "." + FACTORIES_NAME, sb,
+        elements.toArray(new Element[0]));
+  }
+
+  private void write(String name, CharSequence source, Element... originatingElements) {
+    try (Writer writer = processingEnv.getFiler().createSourceFile(name, originatingElements).openWriter()) {
+      writer.append(source);
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Can't write " + name + ": " + e.getMessage(), originatingElements[0]);
+    }
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a JSBinder for each class with {@code JSExport} members.
+ * The binder dispatches all members with a switch,
+ * primitive values are converted inline, others by TypeAdapters.
+ */
+public final class JSExportProcessor extends AbstractProcessor {
+
+  private static final String JS_EXPORT = TypeNames.QUICKJS + "JSExport";
+  private static final String BINDER_SUFFIX = "_JSBinder";
+
+  private static final int MEMBER_METHOD = 0;
+  private static final int MEMBER_STATIC_METHOD = 1;
+  private static final int MEMBER_GETTER = 2;
+  private static final int MEMBER_STATIC_GETTER = 3;
+  private static final int MEMBER_CONSTANT = 4;
+
+  private static final String[] KIND_NAMES = {
+      "MEMBER_METHOD", "MEMBER_STATIC_METHOD", "MEMBER_GETTER", "MEMBER_STATIC_GETTER", "MEMBER_CONSTANT"
+  };
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Collections.singleton(JS_EXPORT);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    TypeElement annotation = processingEnv.getElementUtils().getTypeElement(JS_EXPORT);
+    if (annotation == null) return false;
+
+    Map<TypeElement, List<Element>> classes = new LinkedHashMap<>();
+    for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+      TypeElement clazz = (TypeElement) element.getEnclosingElement();
+      List<Element> members = classes.get(clazz);
+      if (members == null) {
+        members = new ArrayList<>();
+        classes.put(clazz, members);
+      }
+      members.add(element);
+    }
+
+    for (Map.Entry<TypeElement, List<Element>> entry : classes.entrySet()) {
+      List<Member> members = parseMembers(entry.getKey(), entry.getValue());
+      if (members != null) writeBinder(entry.getKey(), members);
+    }
+
+    return false;
+  }
+
+  private static final class Member {
+    final Element element;
+    final String name;
+    final int kind;
+
+    Member(Element element, String name, int kind) {
+      this.element = element;
+      this.name = name;
+      this.kind = kind;
+    }
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  private List<Member> parseMembers(TypeElement clazz, List<Element> elements) {
+    boolean failed = false;
+
+    if (!clazz.getTypeParameters().isEmpty()) {
+      error(clazz, "Class with @JSExport members can't be generic");
+      return null;
+    }
+    for (Element e = clazz; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+      if (e.getModifiers().contains(Modifier.PRIVATE)) {
+        error(clazz, "Class with @JSExport members can't be private");
+        return null;
+      }
+    }
+
+    List<Member> members = new ArrayList<>(elements.size());
+    Map<String, Element> names = new HashMap<>();
+    for (Element element : elements) {
+      Set<Modifier> modifiers = element.getModifiers();
+      boolean isStatic = modifiers.contains(Modifier.STATIC);
+      boolean getter = isGetter(element);
+      String name = getExportName(element);
+
+      if (modifiers.contains(Modifier.PRIVATE)) {
+        error(element, "@JSExport member can't be private");
+        failed = true;
+        continue;
+      }
+
+      int kind;
+      if (element.getKind() == ElementKind.FIELD) {
+        if (!isStatic || !modifiers.contains(Modifier.FINAL)) {
+          error(element, "@JSExport field must be static final");
+          failed = true;
+          continue;
+        }
+        kind = MEMBER_CONSTANT;
+      } else {
+        ExecutableElement method = (ExecutableElement) element;
+        if (!method.getTypeParameters().isEmpty() || method.isVarArgs()) {
+          error(element, "@JSExport method can't be generic or varargs");
+          failed = true;
+          continue;
+        }
+        if (getter && (!method.getParameters().isEmpty() || method.getReturnType().getKind() == TypeKind.VOID)) {
+          error(element, "@JSExport getter must have no parameters and return a value");
+          failed = true;
+          continue;
+        }
+        if (!isSupported(method)) {
+          error(element, "Unsupported type of @JSExport method");
+          failed = true;
+          continue;
+        }
+        if (getter) {
+          kind = isStatic ? MEMBER_STATIC_GETTER : MEMBER_GETTER;
+        } else {
+          kind = isStatic ? MEMBER_STATIC_METHOD : MEMBER_METHOD;
+        }
+      }
+
+      Element existing = names.put(name, element);
+      if (existing != null) {
+        error(element, "Duplicate @JSExport name: " + name);
+        failed = true;
+        continue;
+      }
+
+      members.add(new Member(element, name, kind));
+    }
+
+    return failed ? null : members;
+  }
+
+  private boolean isSupported(ExecutableElement method) {
+    if (method.getReturnType().getKind() != TypeKind.VOID && TypeNames.name(method.getReturnType()) == null) return false;
+    for (VariableElement parameter : method.getParameters()) {
+      if (TypeNames.name(parameter.asType()) == null) return false;
+    }
+    return true;
+  }
+
+  private AnnotationMirror getJSExport(Element element) {
+    for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+      TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+      if (type.getQualifiedName().contentEquals(JS_EXPORT)) return mirror;
+    }
+    throw new IllegalStateException("No @JSExport on " + element);
+  }
+
+  private Object getJSExportValue(Element element, String key) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+        : getJSExport(element).getElementValues().entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals(key)) return entry.getValue().getValue();
+    }
+    return null;
+  }
+
+  private boolean isGetter(Element element) {
+    return Boolean.TRUE.equals(getJSExportValue(element, "getter"));
+  }
+
+  private String getExportName(Element element) {
+    Object value = getJSExportValue(element, "value");
+    if (value != null && !((String) value).isEmpty()) return (String) value;
+
+    String name = element.getSimpleName().toString();
+    if (element.getKind() == ElementKind.METHOD && isGetter(element)) {
+      for (String prefix : new String[] { "get", "is" }) {
+        if (name.length() > prefix.length() && name.startsWith(prefix)
+            && Character.isUpperCase(name.charAt(prefix.length()))) {
+          return name.substring(prefix.length(), prefix.length() + 1).toLowerCase(Locale.ROOT)
+              + name.substring(prefix.length() + 1);
+        }
+      }
+    }
+    return name;
+  }
+
+  private void writeBinder(TypeElement clazz, List<Member> members) {
+    Types types = processingEnv.getTypeUtils();
+    String packageName = TypeNames.packageOf(clazz).getQualifiedName().toString();
+    String binderName = TypeNames.flatName(clazz) + BINDER_SUFFIX;
+    String className = clazz.getQualifiedName().toString();
+    String q = TypeNames.QUICKJS;
+
+    // Type expression to the adapter index
+    Map<String, Integer> adapterIndexes = new LinkedHashMap<>();
+
+    StringBuilder cases = new StringBuilder();
+    for (int i = 0; i < members.size(); i++) {
+      Member member = members.get(i);
+      cases.append("      case ").append(i).append(": {\n");
+      if (member.kind == MEMBER_CONSTANT) {
+        VariableElement field = (VariableElement) member.element;
+        String value = className + "." + field.getSimpleName();
+        cases.append("        return ").append(toJS(types, adapterIndexes, field.asType(), value)).append(";\n");
+      } else {
+        ExecutableElement method = (ExecutableElement) member.element;
+        boolean isStatic = method.getModifiers().contains(Modifier.STATIC);
+        List<? extends VariableElement> parameters = method.getParameters();
+        cases.append("        checkArgumentCount(args, ").append(parameters.size()).append(");\n");
+
+        StringBuilder call = new StringBuilder();
+        call.append(isStatic ? className : "target").append('.').append(method.getSimpleName()).append('(');
+        for (int j = 0; j < parameters.size(); j++) {
+          call.append(j != 0 ? ",\n            " : "\n            ");
+          call.append(fromJS(types, adapterIndexes, parameters.get(j).asType(), "args[" + j + "]"));
+        }
+        call.append(')');
+
+        TypeMirror returnType = method.getReturnType();
+        if (returnType.getKind() == TypeKind.VOID) {
+          cases.append("        ").append(call).append(";\n");
+          cases.append("        return context.createJSUndefined();\n");
+        } else {
+          cases.append("        ").append(TypeNames.name(returnType)).append(" result = ").append(call).append(";\n");
+          cases.append("        return ").append(toJS(types, adapterIndexes, returnType, "result")).append(";\n");
+        }
+      }
+      cases.append("      }\n");
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("// Generated by JSExportProcessor, do not edit.\n");
+    if (!packageName.isEmpty()) {
+      sb.append("package ").append(packageName).append(";\n\n");
+    }
+    sb.append("/**\n");
+    sb.append(" * Installs the exported members of {@link ").append(className).append("}.\n");
+    sb.append(" */\n");
+    sb.append("public final class ").append(binderName)
+        .append(" extends ").append(q).append("JSBinder<").append(className).append("> {\n\n");
+    sb.append("  public static final ").append(binderName).append(" INSTANCE = new ").append(binderName).append("();\n\n");
+
+    sb.append("  private ").append(binderName).append("() {\n");
+    sb.append("    super(\n");
+    sb.append("        new String[] {");
+    for (int i = 0; i < members.size(); i++) {
+      sb.append(i != 0 ? ", " : " ").append(TypeNames.quote(members.get(i).name));
+    }
+    sb.append(" },\n");
+    sb.append("        new int[] {");
+    for (int i = 0; i < members.size(); i++) {
+      sb.append(i != 0 ? ", " : " ").append(KIND_NAMES[members.get(i).kind]);
+    }
+    sb.append(" },\n");
+    sb.append("        new java.lang.reflect.Type[] {");
+    boolean first = true;
+    for (String type : adapterIndexes.keySet()) {
+      sb.append(first ? " " : ", ").append(type);
+      first = false;
+    }
+    sb.append(" });\n");
+    sb.append("  }\n\n");
+
+    sb.append("  @Override\n");
+    sb.append("  protected ").append(q).append("JSValue invoke(").append(q).append("JSContext context, ")
+        .append(className).append(" target, int member, ").append(q).append("JSValue[] args) {\n");
+    sb.append("    switch (member) {\n");
+    sb.append(cases);
+    sb.append("      default:\n");
+    sb.append("        throw new IllegalStateException(\"Unknown member: \" + member);\n");
+    sb.append("    }\n");
+    sb.append("  }\n");
+    sb.append("}\n");
+
+    String name = packageName.isEmpty() ? binderName : packageName + "." + binderName;
+    try (Writer writer = processingEnv.getFiler().createSourceFile(name, clazz).openWriter()) {
+      writer.append(sb);
+    } catch (IOException e) {
+      error(clazz, "Can't write " + name + ": " + e.getMessage());
+    }
+  }
+
+  private static int adapterIndex(Types types, Map<String, Integer> adapterIndexes, TypeMirror type) {
+    String expression = TypeNames.typeExpression(types, type);
+    Integer index = adapterIndexes.get(expression);
+    if (index == null) {
+      index = adapterIndexes.size();
+      adapterIndexes.put(expression, index);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the expression converting the JSValue to the java type.
+   */
+  private static String fromJS(Types types, Map<String, Integer> adapterIndexes, TypeMirror type, String value) {
+    String q = TypeNames.QUICKJS;
+    switch (type.getKind()) {
+      case BOOLEAN:
+        return value + ".cast(" + q + "JSBoolean.class).getBoolean()";
+      case BYTE:
+        return value + ".cast(" + q + "JSNumber.class).getByte()";
+      case SHORT:
+        return value + ".cast(" + q + "JSNumber.class).getShort()";
+      case INT:
+        return value + ".cast(" + q + "JSNumber.class).getInt()";
+      case FLOAT:
+        return value + ".cast(" + q + "JSNumber.class).getFloat()";
+      case DOUBLE:
+        return value + ".cast(" + q + "JSNumber.class).getDouble()";
+      default:
+        // long goes through its TypeAdapter, it's a BigInt if a number can't hold it
+        return "this.<" + TypeNames.boxedName(types, type) + ">adapter(context, "
+            + adapterIndex(types, adapterIndexes, type) + ").fromJSValue(context, " + value + ")";
+    }
+  }
+
+  /**
+   * Returns the expression converting the java value to JSValue.
+   */
+  private static String toJS(Types types, Map<String, Integer> adapterIndexes, TypeMirror type, String value) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+        return "context.createJSBoolean(" + value + ")";
+      case BYTE:
+      case SHORT:
+      case INT:
+      case FLOAT:
+      case DOUBLE:
+        // float is widened to double
+        return "context.createJSNumber(" + value + ")";
+      default:
+        // long goes through its TypeAdapter, it's a BigInt if a number can't hold it
+        return "this.<" + TypeNames.boxedName(types, type) + ">adapter(context, "
+            + adapterIndex(types, adapterIndexes, type) + ").toJSValue(context, " + value + ")";
+    }
+  }
+}
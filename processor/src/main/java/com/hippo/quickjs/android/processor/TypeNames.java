@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.hippo.quickjs.android.processor;
+
+import java.util.List;
+import java.util.Locale;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Types;
+
+/**
+ * Writes types as java source.
+ */
+final class TypeNames {
+
+  static final String QUICKJS = "com.hippo.quickjs.android.";
+
+  private TypeNames() { }
+
+  /**
+   * Returns the source name of the type, or {@code null}
+   * if it can't be written in source, like type variables.
+   */
+  static String name(TypeMirror type) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+      case BYTE:
+      case CHAR:
+      case SHORT:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+      case VOID:
+        return type.getKind().name().toLowerCase(Locale.ROOT);
+      case ARRAY: {
+        String component = name(((ArrayType) type).getComponentType());
+        return component != null ? component + "[]" : null;
+      }
+      case DECLARED: {
+        DeclaredType declared = (DeclaredType) type;
+        StringBuilder sb = new StringBuilder(
+            ((TypeElement) declared.asElement()).getQualifiedName().toString());
+        List<? extends TypeMirror> arguments = declared.getTypeArguments();
+        if (!arguments.isEmpty()) {
+          sb.append('<');
+          for (int i = 0; i < arguments.size(); i++) {
+            if (i != 0) sb.append(", ");
+            String argument = name(arguments.get(i));
+            if (argument == null) return null;
+            sb.append(argument);
+          }
+          sb.append('>');
+        }
+        return sb.toString();
+      }
+      case WILDCARD: {
+        WildcardType wildcard = (WildcardType) type;
+        if (wildcard.getExtendsBound() != null) {
+          String bound = name(wildcard.getExtendsBound());
+          return bound != null ? "? extends " + bound : null;
+        }
+        if (wildcard.getSuperBound() != null) {
+          String bound = name(wildcard.getSuperBound());
+          return bound != null ? "? super " + bound : null;
+        }
+        return "?";
+      }
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the source name of the type, primitive types are boxed.
+   */
+  static String boxedName(Types types, TypeMirror type) {
+    if (type.getKind().isPrimitive()) {
+      return types.boxedClass(types.getPrimitiveType(type.getKind())).getQualifiedName().toString();
+    }
+    return name(type);
+  }
+
+  /**
+   * Returns an expression of {@code java.lang.reflect.Type} for the type.
+   * Class literals are used if possible, generic types are captured by JavaType.
+   */
+  static String typeExpression(Types types, TypeMirror type) {
+    if (!hasTypeArguments(type)) {
+      return name(types.erasure(type)) + ".class";
+    }
+    return "new " + QUICKJS + "JavaType<" + name(type) + ">() {}.type";
+  }
+
+  private static boolean hasTypeArguments(TypeMirror type) {
+    if (type.getKind() == TypeKind.ARRAY) {
+      return hasTypeArguments(((ArrayType) type).getComponentType());
+    }
+    return type.getKind() == TypeKind.DECLARED
+        && !((DeclaredType) type).getTypeArguments().isEmpty();
+  }
+
+  static PackageElement packageOf(Element element) {
+    while (element.getKind() != ElementKind.PACKAGE) {
+      element = element.getEnclosingElement();
+    }
+    return (PackageElement) element;
+  }
+
+  /**
+   * Returns the simple names of the class and its enclosing classes joined by {@code _}.
+   */
+  static String flatName(TypeElement element) {
+    StringBuilder sb = new StringBuilder(element.getSimpleName());
+    Element enclosing = element.getEnclosingElement();
+    while (enclosing.getKind() != ElementKind.PACKAGE) {
+      sb.insert(0, '_').insert(0, enclosing.getSimpleName());
+      enclosing = enclosing.getEnclosingElement();
+    }
+    return sb.toString();
+  }
+
+  static String capitalize(String name) {
+    return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+
+  static String quote(String value) {
+    StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"': sb.append("\\\""); break;
+        case '\\': sb.append("\\\\"); break;
+        case '\n': sb.append("\\n"); break;
+        default: sb.append(c); break;
+      }
+    }
+    return sb.append('"').toString();
+  }
+}